@@ -0,0 +1,147 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.dicomwebfuse.dao.http.ContentEncoding;
+import com.google.dicomwebfuse.entities.Instance;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures decoding of a QIDO instance listing of the given size with {@link
+ * QidoResponseDecoder}. 15000 is the page size used for instances and 50000 the largest page the
+ * Healthcare API returns. A gzip response is decompressed while it is decoded, like a compressed
+ * response of the server. Data binding into DICOM JSON attribute objects, as FuseDaoImpl did
+ * before, is measured for comparison.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QidoResponseDecoderBenchmark {
+
+  @Param({"1000", "15000", "50000"})
+  private int instanceCount;
+
+  @Param({"identity", "gzip"})
+  private String contentEncoding;
+
+  private byte[] response;
+  private ObjectMapper objectMapper;
+  private QidoResponseDecoder decoder;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    response = generateInstancesResponse(instanceCount);
+    if ("gzip".equals(contentEncoding)) {
+      response = gzip(response);
+    }
+    objectMapper = new ObjectMapper();
+    objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    decoder = new QidoResponseDecoder(objectMapper.getFactory());
+  }
+
+  @Benchmark
+  public List<Instance> decodeInstances() throws IOException {
+    try (InputStream inputStream =
+        ContentEncoding.decode(new ByteArrayInputStream(response), contentEncoding)) {
+      return decoder.decodeInstances(inputStream);
+    }
+  }
+
+  @Benchmark
+  public List<LegacyInstance> bindInstances() throws IOException {
+    try (InputStream inputStream =
+        ContentEncoding.decode(new ByteArrayInputStream(response), contentEncoding)) {
+      return objectMapper.readValue(inputStream, new TypeReference<List<LegacyInstance>>() {});
+    }
+  }
+
+  private static byte[] generateInstancesResponse(int instanceCount) {
+    StringBuilder stringBuilder = new StringBuilder("[");
+    String studyInstanceUID = "1.2.826.0.1.3680043.8.498.10000000000000000000000000000000001";
+    String seriesInstanceUID = studyInstanceUID + ".1";
+    for (int i = 0; i < instanceCount; i++) {
+      if (i > 0) {
+        stringBuilder.append(',');
+      }
+      stringBuilder
+          .append("{\"00080016\":{\"vr\":\"UI\",\"Value\":[\"1.2.840.10008.5.1.4.1.1.2\"]},")
+          .append("\"00080018\":{\"vr\":\"UI\",\"Value\":[\"").append(seriesInstanceUID)
+          .append('.').append(i).append("\"]},")
+          .append("\"00080056\":{\"vr\":\"CS\",\"Value\":[\"ONLINE\"]},")
+          .append("\"0020000D\":{\"vr\":\"UI\",\"Value\":[\"").append(studyInstanceUID)
+          .append("\"]},")
+          .append("\"0020000E\":{\"vr\":\"UI\",\"Value\":[\"").append(seriesInstanceUID)
+          .append("\"]},")
+          .append("\"00200013\":{\"vr\":\"IS\",\"Value\":[").append(i).append("]}}");
+    }
+    return stringBuilder.append(']').toString().getBytes(UTF_8);
+  }
+
+  private static byte[] gzip(byte[] content) {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (OutputStream outputStream = new GZIPOutputStream(compressed)) {
+      outputStream.write(content);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return compressed.toByteArray();
+  }
+
+  // Mirrors the data binding model used before QidoResponseDecoder
+  public static class LegacyInstance {
+
+    @JsonProperty("0020000D")
+    public LegacyAttribute studyInstanceUID;
+    @JsonProperty("0020000E")
+    public LegacyAttribute seriesInstanceUID;
+    @JsonProperty("00080018")
+    public LegacyAttribute sopInstanceUID;
+  }
+
+  public static class LegacyAttribute {
+
+    public String vr;
+    @JsonProperty("Value")
+    public String[] value;
+  }
+}
@@ -0,0 +1,99 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse;
+
+import static com.google.dicomwebfuse.fuse.InMemoryFuseDao.DICOM_STORE_ID;
+
+import com.google.dicomwebfuse.entities.DicomPath;
+import com.google.dicomwebfuse.entities.Instance;
+import com.google.dicomwebfuse.entities.cache.Cache;
+import com.google.dicomwebfuse.entities.cache.InstanceContent;
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import com.google.dicomwebfuse.fuse.cacher.DicomPathCacher;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the Cache getters called by getattr and readdir on a Series with the given number of
+ * cached Instances.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheBenchmark {
+
+  @Param({"1000", "15000", "100000"})
+  private int entryCount;
+
+  private Cache cache;
+  private DicomPath seriesPath;
+  private DicomPath instancePath;
+
+  @Setup(Level.Trial)
+  public void setup() throws DicomFuseException {
+    cache = new Cache();
+    DicomFuseHelper dicomFuseHelper = ListingBenchmark.prepareDicomFuseHelper(entryCount, cache);
+    DicomPathParser dicomPathParser = new DicomPathParser(new DicomPathCacher());
+    String studyPath = "/" + DICOM_STORE_ID + "/" + InMemoryFuseDao.studyUid(0);
+    seriesPath = dicomPathParser.parsePath(studyPath + "/" + InMemoryFuseDao.seriesUid(0));
+    instancePath = dicomPathParser.parsePath(studyPath + "/" + InMemoryFuseDao.seriesUid(0)
+        + "/" + InMemoryFuseDao.sopUid(entryCount / 2) + FuseConstants.DCM_EXTENSION);
+    dicomFuseHelper.updateDir(dicomPathParser.parsePath("/"));
+    dicomFuseHelper.updateDir(dicomPathParser.parsePath("/" + DICOM_STORE_ID));
+    dicomFuseHelper.updateDir(dicomPathParser.parsePath(studyPath));
+    dicomFuseHelper.updateDir(seriesPath);
+  }
+
+  @Benchmark
+  public InstanceContent getInstanceContent() throws DicomFuseException {
+    return cache.getInstanceContent(instancePath);
+  }
+
+  @Benchmark
+  public long getInstanceSize() throws DicomFuseException {
+    return cache.getInstanceSize(instancePath);
+  }
+
+  @Benchmark
+  public boolean isSeriesOutdated() throws DicomFuseException {
+    return cache.isSeriesOutdated(seriesPath);
+  }
+
+  @Benchmark
+  public boolean isInstanceNotExist() throws DicomFuseException {
+    return cache.isInstanceNotExist(instancePath);
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public List<Instance> getCachedInstanceList() throws DicomFuseException {
+    return cache.getCachedInstanceList(seriesPath);
+  }
+}
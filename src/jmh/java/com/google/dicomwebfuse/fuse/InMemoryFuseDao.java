@@ -0,0 +1,157 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse;
+
+import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_MAX_LIMIT_FOR_INSTANCES;
+import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_MAX_LIMIT_FOR_SERIES;
+import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_MAX_LIMIT_FOR_STUDY;
+
+import com.google.dicomwebfuse.dao.FuseDao;
+import com.google.dicomwebfuse.dao.spec.QueryBuilder;
+import com.google.dicomwebfuse.entities.DicomStore;
+import com.google.dicomwebfuse.entities.Instance;
+import com.google.dicomwebfuse.entities.Series;
+import com.google.dicomwebfuse.entities.Study;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Serves a listing of the given number of Studies, Series and Instances from memory, so that the
+ * benchmarks measure the code which handles the pages rather than the network. The Dicom Store
+ * contains the Studies, the first Study contains the Series and the first Series contains the
+ * Instances.
+ */
+class InMemoryFuseDao implements FuseDao {
+
+  static final String DICOM_STORE_ID = "benchmark";
+  private static final String UID_ROOT = "1.2.826.0.1.3680043.8.498.";
+  private final List<Study> studies = new ArrayList<>();
+  private final List<Series> series = new ArrayList<>();
+  private final List<Instance> instances = new ArrayList<>();
+
+  InMemoryFuseDao(int entryCount) {
+    for (int i = 0; i < entryCount; i++) {
+      studies.add(new Study(studyUid(i)));
+      series.add(new Series(studyUid(0), seriesUid(i)));
+      instances.add(new Instance(studyUid(0), seriesUid(0), sopUid(i)));
+    }
+  }
+
+  static String studyUid(int index) {
+    return UID_ROOT + "1." + index;
+  }
+
+  static String seriesUid(int index) {
+    return UID_ROOT + "2." + index;
+  }
+
+  static String sopUid(int index) {
+    return UID_ROOT + "3." + index;
+  }
+
+  @Override
+  public List<DicomStore> getAllDicomStores(QueryBuilder queryBuilder) {
+    return Collections.singletonList(new DicomStore(DICOM_STORE_ID));
+  }
+
+  @Override
+  public DicomStore getSingleDicomStore(QueryBuilder queryBuilder) {
+    return new DicomStore(DICOM_STORE_ID);
+  }
+
+  @Override
+  public List<Study> getStudies(QueryBuilder queryBuilder) {
+    return page(studies, queryBuilder.getOffset(), VALUE_PARAM_MAX_LIMIT_FOR_STUDY);
+  }
+
+  @Override
+  public Study getSingleStudy(QueryBuilder queryBuilder) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public List<Series> getSeries(QueryBuilder queryBuilder) {
+    return page(series, queryBuilder.getOffset(), VALUE_PARAM_MAX_LIMIT_FOR_SERIES);
+  }
+
+  @Override
+  public Series getSingleSeries(QueryBuilder queryBuilder) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public List<Instance> getInstances(QueryBuilder queryBuilder) {
+    return page(instances, queryBuilder.getOffset(), VALUE_PARAM_MAX_LIMIT_FOR_INSTANCES);
+  }
+
+  @Override
+  public Instance getSingleInstance(QueryBuilder queryBuilder) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void downloadInstance(QueryBuilder queryBuilder) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void downloadSeries(QueryBuilder queryBuilder) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void downloadFrame(QueryBuilder queryBuilder) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public byte[] downloadMetadata(QueryBuilder queryBuilder) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void uploadInstance(QueryBuilder queryBuilder) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public Map<String, String> uploadInstances(QueryBuilder queryBuilder) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void deleteInstance(QueryBuilder queryBuilder) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void createDicomStore(QueryBuilder queryBuilder) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void deleteDicomStore(QueryBuilder queryBuilder) {
+    throw new UnsupportedOperationException();
+  }
+
+  // A copy, like the list a real dao decodes from the response
+  private static <T> List<T> page(List<T> entries, Integer offset, int limit) {
+    int fromIndex = Math.min(offset == null ? 0 : offset, entries.size());
+    int toIndex = Math.min(fromIndex + limit, entries.size());
+    return new ArrayList<>(entries.subList(fromIndex, toIndex));
+  }
+}
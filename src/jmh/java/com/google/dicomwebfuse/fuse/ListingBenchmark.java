@@ -0,0 +1,108 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse;
+
+import static com.google.dicomwebfuse.fuse.InMemoryFuseDao.DICOM_STORE_ID;
+
+import com.google.dicomwebfuse.entities.CloudConf;
+import com.google.dicomwebfuse.entities.DicomPath;
+import com.google.dicomwebfuse.entities.cache.Cache;
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import com.google.dicomwebfuse.fuse.cacher.DicomPathCacher;
+import com.google.dicomwebfuse.parser.Arguments;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import jnr.ffi.Platform;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lists a folder again while all its entries are cached, which is what happens every time the
+ * cache time of a folder expires. Measures the diff of the listed pages against the cached
+ * entries in DicomFuseHelper.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListingBenchmark {
+
+  @Param({"1000", "15000", "100000"})
+  private int entryCount;
+
+  private Cache cache;
+  private DicomFuseHelper dicomFuseHelper;
+  private DicomPath dicomStorePath;
+  private DicomPath studyPath;
+  private DicomPath seriesPath;
+
+  @Setup(Level.Trial)
+  public void setup() throws DicomFuseException {
+    cache = new Cache();
+    dicomFuseHelper = prepareDicomFuseHelper(entryCount, cache);
+    DicomPathParser dicomPathParser = new DicomPathParser(new DicomPathCacher());
+    dicomStorePath = dicomPathParser.parsePath("/" + DICOM_STORE_ID);
+    studyPath = dicomPathParser.parsePath(
+        "/" + DICOM_STORE_ID + "/" + InMemoryFuseDao.studyUid(0));
+    seriesPath = dicomPathParser.parsePath("/" + DICOM_STORE_ID + "/"
+        + InMemoryFuseDao.studyUid(0) + "/" + InMemoryFuseDao.seriesUid(0));
+    dicomFuseHelper.updateDir(dicomPathParser.parsePath("/"));
+    dicomFuseHelper.updateDir(dicomStorePath);
+    dicomFuseHelper.updateDir(studyPath);
+    dicomFuseHelper.updateDir(seriesPath);
+  }
+
+  @Benchmark
+  public Cache updateStudies() throws DicomFuseException {
+    cache.setDicomStoreCacheTime(dicomStorePath, Instant.EPOCH);
+    dicomFuseHelper.updateDir(dicomStorePath);
+    return cache;
+  }
+
+  @Benchmark
+  public Cache updateSeries() throws DicomFuseException {
+    cache.setStudyCacheTime(studyPath, Instant.EPOCH);
+    dicomFuseHelper.updateDir(studyPath);
+    return cache;
+  }
+
+  @Benchmark
+  public Cache updateInstances() throws DicomFuseException {
+    cache.setSeriesCacheTime(seriesPath, Instant.EPOCH);
+    dicomFuseHelper.updateDir(seriesPath);
+    return cache;
+  }
+
+  static DicomFuseHelper prepareDicomFuseHelper(int entryCount, Cache cache) {
+    String benchmark = "benchmark";
+    Arguments arguments = new Arguments();
+    arguments.cloudConf = new CloudConf(benchmark, benchmark, benchmark, benchmark);
+    Parameters parameters = new Parameters(new InMemoryFuseDao(entryCount), arguments,
+        Platform.getNativePlatform().getOS());
+    return new DicomFuseHelper(parameters, new DicomPathCacher(), cache);
+  }
+}
@@ -0,0 +1,79 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse;
+
+import com.google.dicomwebfuse.entities.DicomPath;
+import com.google.dicomwebfuse.entities.cache.Cache;
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import com.google.dicomwebfuse.fuse.cacher.DicomPathCacher;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures parsing and checking of the paths, which is done on every FUSE callback.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathBenchmark {
+
+  private static final String STUDY_PATH = "/benchmark/1.2.826.0.1.3680043.8.498.1.1";
+  private static final String SERIES_PATH = STUDY_PATH + "/1.2.826.0.1.3680043.8.498.2.1";
+  private static final String INSTANCE_PATH =
+      SERIES_PATH + "/1.2.826.0.1.3680043.8.498.3.1" + FuseConstants.DCM_EXTENSION;
+
+  private DicomPathParser dicomPathParser;
+  private DicomFuseHelper dicomFuseHelper;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    dicomPathParser = new DicomPathParser(new DicomPathCacher());
+    dicomFuseHelper = ListingBenchmark.prepareDicomFuseHelper(0, new Cache());
+  }
+
+  @Benchmark
+  public DicomPath parseStudyPath() throws DicomFuseException {
+    return dicomPathParser.parsePath(STUDY_PATH);
+  }
+
+  @Benchmark
+  public DicomPath parseSeriesPath() throws DicomFuseException {
+    return dicomPathParser.parsePath(SERIES_PATH);
+  }
+
+  @Benchmark
+  public DicomPath parseInstancePath() throws DicomFuseException {
+    return dicomPathParser.parsePath(INSTANCE_PATH);
+  }
+
+  @Benchmark
+  public String checkInstancePath() throws DicomFuseException {
+    dicomFuseHelper.checkPath(INSTANCE_PATH);
+    return INSTANCE_PATH;
+  }
+}
@@ -16,18 +16,33 @@ package com.google.dicomwebfuse;
 
 import com.google.api.client.http.HttpStatusCodes;
 import com.google.dicomwebfuse.auth.AuthAdc;
+import com.google.dicomwebfuse.dao.AsyncFuseDao;
+import com.google.dicomwebfuse.dao.AsyncFuseDaoImpl;
+import com.google.dicomwebfuse.dao.BlockingFuseDao;
+import com.google.dicomwebfuse.dao.ExecutorAsyncFuseDao;
 import com.google.dicomwebfuse.dao.FuseDao;
 import com.google.dicomwebfuse.dao.FuseDaoImpl;
+import com.google.dicomwebfuse.dao.PaginationExecutor;
+import com.google.dicomwebfuse.dao.http.Http2ClientFactoryImpl;
 import com.google.dicomwebfuse.dao.http.HttpClientFactory;
 import com.google.dicomwebfuse.dao.http.HttpClientFactoryImpl;
+import com.google.dicomwebfuse.dao.http.HttpTransport;
+import com.google.dicomwebfuse.dao.limiter.AdaptiveLimiters;
+import com.google.dicomwebfuse.dao.retry.RetryBudget;
+import com.google.dicomwebfuse.dao.retry.RetryPolicy;
 import com.google.dicomwebfuse.exception.DicomFuseException;
 import com.google.dicomwebfuse.fuse.DicomFuse;
 import com.google.dicomwebfuse.fuse.Parameters;
+import com.google.dicomwebfuse.fuse.RecordingDicomFuseOperations;
 import com.google.dicomwebfuse.fuse.AccessChecker;
+import com.google.dicomwebfuse.metrics.MetricsRegistry;
+import com.google.dicomwebfuse.metrics.MetricsServer;
 import com.google.dicomwebfuse.parser.Arguments;
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import jnr.ffi.Platform;
 import jnr.ffi.Platform.OS;
 
@@ -37,6 +52,8 @@ class AppMountProcess {
   private final OS os;
   private final Parameters parameters;
   private final DicomFuse dicomFuse;
+  // The factory of the blocking or the non-blocking client, whichever the transport uses
+  private final Closeable httpClientFactory;
 
   AppMountProcess(Arguments arguments) throws IOException {
     this.arguments = arguments;
@@ -47,21 +64,91 @@ class AppMountProcess {
     } else {
       authADC.createCredentials(keyPath);
     }
-    HttpClientFactory httpClientFactory = new HttpClientFactoryImpl();
-    FuseDao fuseDAO = new FuseDaoImpl(authADC, httpClientFactory);
+    AdaptiveLimiters adaptiveLimiters = createAdaptiveLimiters(arguments);
+    MetricsRegistry metricsRegistry = new MetricsRegistry();
+    adaptiveLimiters.registerMetrics(metricsRegistry);
+    RetryPolicy retryPolicy = createRetryPolicy(arguments);
+    FuseDao fuseDAO;
+    AsyncFuseDao asyncFuseDao;
+    // Pages, prefetches and uploads of the blocking client are sent by the pagination threads,
+    // of which there are as many as the requests which can be sent at the same time
+    PaginationExecutor paginationExecutor = new PaginationExecutor(arguments.paginationThreads,
+        arguments.maxConnectionsPerRoute);
+    if (arguments.httpTransport == HttpTransport.HTTP_2) {
+      Http2ClientFactoryImpl http2ClientFactory =
+          new Http2ClientFactoryImpl(arguments.connectionIdleTime);
+      this.httpClientFactory = http2ClientFactory;
+      // Requests are sent by the non-blocking client directly, so that waiting for responses of
+      // multiplexed streams does not take a thread per request
+      AsyncFuseDaoImpl asyncFuseDaoImpl = new AsyncFuseDaoImpl(authADC, http2ClientFactory,
+          adaptiveLimiters, retryPolicy);
+      asyncFuseDaoImpl.registerMetrics(metricsRegistry);
+      asyncFuseDao = asyncFuseDaoImpl;
+      fuseDAO = new BlockingFuseDao(asyncFuseDao);
+    } else {
+      HttpClientFactory httpClientFactory = new HttpClientFactoryImpl(arguments.maxConnections,
+          arguments.maxConnectionsPerRoute, arguments.connectionIdleTime);
+      this.httpClientFactory = httpClientFactory;
+      FuseDaoImpl fuseDaoImpl =
+          new FuseDaoImpl(authADC, httpClientFactory, adaptiveLimiters, retryPolicy);
+      fuseDaoImpl.registerMetrics(metricsRegistry);
+      fuseDAO = fuseDaoImpl;
+      asyncFuseDao = new ExecutorAsyncFuseDao(fuseDAO, paginationExecutor);
+    }
     this.os = Platform.getNativePlatform().getOS();
-    this.parameters = new Parameters(fuseDAO, arguments, os);
-    this.dicomFuse = new DicomFuse(parameters);
+    this.parameters = new Parameters(fuseDAO, asyncFuseDao, paginationExecutor, metricsRegistry,
+        arguments, os);
+    this.dicomFuse = arguments.recordingPath == null ? new DicomFuse(parameters)
+        : new DicomFuse(new RecordingDicomFuseOperations(parameters, arguments.recordingPath), os);
   }
 
-  AppMountProcess(Arguments arguments, OS os, Parameters parameters, DicomFuse dicomFuse) {
+  AppMountProcess(Arguments arguments, OS os, Parameters parameters, DicomFuse dicomFuse,
+      Closeable httpClientFactory) {
     this.arguments = arguments;
     this.os = os;
     this.parameters = parameters;
     this.dicomFuse = dicomFuse;
+    this.httpClientFactory = httpClientFactory;
+  }
+
+  static AdaptiveLimiters createAdaptiveLimiters(Arguments arguments) {
+    // Concurrent requests beyond the pool size would only wait for a connection
+    return new AdaptiveLimiters(arguments.maxConnectionsPerRoute);
+  }
+
+  static RetryPolicy createRetryPolicy(Arguments arguments) {
+    return new RetryPolicy(arguments.maxRetries,
+        TimeUnit.SECONDS.toMillis(arguments.maxRetryDelay),
+        new RetryBudget(arguments.retryBudget / 100.0));
   }
 
   void startMountProcess() throws IOException, DicomFuseException {
+    MetricsServer metricsServer = null;
+    try {
+      metricsServer = startMetricsServer();
+      mount();
+    } finally {
+      if (metricsServer != null) {
+        metricsServer.close();
+      }
+      parameters.getPaginationExecutor().close();
+      // Closing pooled connections to the Healthcare API
+      httpClientFactory.close();
+    }
+  }
+
+  // Returns null if the metrics endpoint is disabled
+  private MetricsServer startMetricsServer() throws IOException {
+    if (arguments.metricsPort == 0) {
+      return null;
+    }
+    MetricsServer metricsServer =
+        new MetricsServer(parameters.getMetricsRegistry(), arguments.metricsPort);
+    metricsServer.start();
+    return metricsServer;
+  }
+
+  private void mount() throws IOException, DicomFuseException {
     AccessChecker accessChecker = new AccessChecker(parameters);
     try {
       accessChecker.check();
@@ -75,6 +162,8 @@ class AppMountProcess {
       }
     }
 
+    dicomFuse.startUploadQueue();
+
     MountOptions mountOptions = new MountOptions(os, arguments.extraMountOptions);
     List<String> options = mountOptions.setMountOptions();
     try {
@@ -14,20 +14,44 @@
 
 package com.google.dicomwebfuse.auth;
 
+import com.google.auth.oauth2.AccessToken;
 import com.google.auth.oauth2.GoogleCredentials;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 public class AuthAdc {
 
+  private static final Logger LOGGER = LogManager.getLogger();
   private static final List<String> SCOPES = Collections.singletonList(
       "https://www.googleapis.com/auth/cloud-healthcare"
   );
+  private static final String BEARER = "Bearer ";
+  // The background task refreshes the token this long before it expires
+  private static final long REFRESH_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+  // If the background refresh did not succeed, requests refresh the token themselves this long
+  // before it expires
+  private static final long EXPIRATION_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(1);
+  private static final long RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(10);
+  private final ScheduledExecutorService refreshExecutor =
+      Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "token-refresh");
+        thread.setDaemon(true);
+        return thread;
+      });
   private GoogleCredentials googleCredentials;
+  private volatile AuthorizationHeader authorizationHeader;
+  private ScheduledFuture<?> scheduledRefresh;
 
   public AuthAdc(GoogleCredentials googleCredentials) {
     this.googleCredentials = googleCredentials;
@@ -45,8 +69,79 @@ public class AuthAdc {
     googleCredentials = GoogleCredentials.getApplicationDefault().createScoped(SCOPES);
   }
 
-  public GoogleCredentials getCredentials() throws IOException {
-    googleCredentials.getRequestMetadata(); // Update token if it necessary.
-    return googleCredentials;
+  /**
+   * Returns the value of the Authorization header. The header is cached and the token is refreshed
+   * in the background ahead of its expiry, so normally this is only a volatile read. Only the first
+   * call, or a call after the background refresh kept failing until the token expired, fetches the
+   * token synchronously.
+   *
+   * @return "Bearer " followed by the current access token
+   */
+  public String getAuthorizationHeader() throws IOException {
+    AuthorizationHeader header = authorizationHeader;
+    if (header == null || header.isExpired()) {
+      header = updateAuthorizationHeader(false);
+    }
+    return header.value;
+  }
+
+  private synchronized AuthorizationHeader updateAuthorizationHeader(boolean forceRefresh)
+      throws IOException {
+    AuthorizationHeader header = authorizationHeader;
+    if (!forceRefresh && header != null && !header.isExpired()) {
+      // Updated by another thread while this one was waiting for the lock
+      return header;
+    }
+    if (forceRefresh) {
+      googleCredentials.refresh();
+    } else {
+      googleCredentials.refreshIfExpired();
+    }
+    AccessToken accessToken = googleCredentials.getAccessToken();
+    header = new AuthorizationHeader(BEARER + accessToken.getTokenValue(),
+        accessToken.getExpirationTime());
+    authorizationHeader = header;
+    Date expirationTime = accessToken.getExpirationTime();
+    if (expirationTime != null) {
+      long delay = expirationTime.getTime() - System.currentTimeMillis() - REFRESH_MARGIN_MILLIS;
+      scheduleRefresh(Math.max(delay, RETRY_DELAY_MILLIS));
+    }
+    return header;
+  }
+
+  private synchronized void scheduleRefresh(long delayMillis) {
+    if (scheduledRefresh != null) {
+      scheduledRefresh.cancel(false);
+    }
+    scheduledRefresh = refreshExecutor.schedule(this::refreshInBackground, delayMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  private void refreshInBackground() {
+    try {
+      updateAuthorizationHeader(true);
+      LOGGER.debug("Access token refreshed");
+    } catch (IOException | RuntimeException e) {
+      LOGGER.error("Failed to refresh access token, retrying in "
+          + TimeUnit.MILLISECONDS.toSeconds(RETRY_DELAY_MILLIS) + " seconds", e);
+      scheduleRefresh(RETRY_DELAY_MILLIS);
+    }
+  }
+
+  private static class AuthorizationHeader {
+
+    private final String value;
+    // null if the token does not expire
+    private final Long expiresAtMillis;
+
+    AuthorizationHeader(String value, Date expirationTime) {
+      this.value = value;
+      this.expiresAtMillis = expirationTime == null ? null
+          : expirationTime.getTime() - EXPIRATION_MARGIN_MILLIS;
+    }
+
+    boolean isExpired() {
+      return expiresAtMillis != null && System.currentTimeMillis() >= expiresAtMillis;
+    }
   }
 }
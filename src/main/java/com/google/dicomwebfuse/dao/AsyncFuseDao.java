@@ -0,0 +1,50 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao;
+
+import com.google.dicomwebfuse.dao.spec.QueryBuilder;
+import com.google.dicomwebfuse.entities.DicomStore;
+import com.google.dicomwebfuse.entities.Instance;
+import com.google.dicomwebfuse.entities.Series;
+import com.google.dicomwebfuse.entities.Study;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking variant of {@link FuseDao}. The returned futures fail with a
+ * {@link com.google.dicomwebfuse.exception.DicomFuseException}.
+ */
+public interface AsyncFuseDao {
+
+  CompletableFuture<List<DicomStore>> getAllDicomStores(QueryBuilder queryBuilder);
+  CompletableFuture<DicomStore> getSingleDicomStore(QueryBuilder queryBuilder);
+  CompletableFuture<List<Study>> getStudies(QueryBuilder queryBuilder);
+  CompletableFuture<Study> getSingleStudy(QueryBuilder queryBuilder);
+  CompletableFuture<List<Series>> getSeries(QueryBuilder queryBuilder);
+  CompletableFuture<Series> getSingleSeries(QueryBuilder queryBuilder);
+  CompletableFuture<List<Instance>> getInstances(QueryBuilder queryBuilder);
+  CompletableFuture<Instance> getSingleInstance(QueryBuilder queryBuilder);
+
+  CompletableFuture<Void> downloadInstance(QueryBuilder queryBuilder);
+  CompletableFuture<Void> downloadSeries(QueryBuilder queryBuilder);
+  CompletableFuture<Void> downloadFrame(QueryBuilder queryBuilder);
+  CompletableFuture<byte[]> downloadMetadata(QueryBuilder queryBuilder);
+  CompletableFuture<Void> uploadInstance(QueryBuilder queryBuilder);
+  CompletableFuture<Map<String, String>> uploadInstances(QueryBuilder queryBuilder);
+  CompletableFuture<Void> deleteInstance(QueryBuilder queryBuilder);
+  CompletableFuture<Void> createDicomStore(QueryBuilder queryBuilder);
+  CompletableFuture<Void> deleteDicomStore(QueryBuilder queryBuilder);
+}
@@ -0,0 +1,387 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao;
+
+import static com.google.dicomwebfuse.dao.Constants.HEALTHCARE_HOST;
+import static com.google.dicomwebfuse.dao.Constants.SCHEME;
+import static org.apache.hc.core5.http.HttpHeaders.AUTHORIZATION;
+
+import com.google.dicomwebfuse.auth.AuthAdc;
+import com.google.dicomwebfuse.dao.http.AsyncHttpClientFactory;
+import com.google.dicomwebfuse.dao.limiter.AdaptiveLimiter;
+import com.google.dicomwebfuse.dao.limiter.AdaptiveLimiters;
+import com.google.dicomwebfuse.dao.retry.RetryPolicy;
+import com.google.dicomwebfuse.dao.spec.QueryBuilder;
+import com.google.dicomwebfuse.entities.DicomStore;
+import com.google.dicomwebfuse.entities.DicomStores;
+import com.google.dicomwebfuse.entities.Instance;
+import com.google.dicomwebfuse.entities.Series;
+import com.google.dicomwebfuse.entities.Study;
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import com.google.dicomwebfuse.metrics.FlightRecorderSupport;
+import com.google.dicomwebfuse.metrics.MetricsRegistry;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.impl.EnglishReasonPhraseCatalog;
+import org.apache.hc.core5.http.message.BasicHttpRequest;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.nio.AsyncResponseConsumer;
+import org.apache.hc.core5.http.nio.support.BasicRequestProducer;
+
+/**
+ * {@link AsyncFuseDao} on a non-blocking HTTP client. No thread waits for a response, for a
+ * request slot of the limiter or between retries. Response bodies are read while they arrive by
+ * the response threads of the client factory.
+ */
+public class AsyncFuseDaoImpl implements AsyncFuseDao {
+
+  private static final boolean FLIGHT_RECORDER_AVAILABLE = FlightRecorderSupport.isAvailable();
+  private final AuthAdc authAdc;
+  private final AsyncHttpClientFactory httpClientFactory;
+  private final DicomWebCalls dicomWebCalls;
+  private final RetryPolicy retryPolicy;
+  private volatile HealthcareApiCallMetrics callMetrics;
+
+  public AsyncFuseDaoImpl(AuthAdc authAdc, AsyncHttpClientFactory httpClientFactory,
+      AdaptiveLimiters adaptiveLimiters, RetryPolicy retryPolicy) {
+    this(authAdc, httpClientFactory, URI.create(SCHEME + "://" + HEALTHCARE_HOST),
+        adaptiveLimiters, retryPolicy);
+  }
+
+  /**
+   * Creates a dao that sends requests to the given endpoint instead of the Healthcare API host.
+   *
+   * @param endpoint scheme, host and optional port of the DICOMweb server
+   */
+  public AsyncFuseDaoImpl(AuthAdc authAdc, AsyncHttpClientFactory httpClientFactory,
+      URI endpoint, AdaptiveLimiters adaptiveLimiters, RetryPolicy retryPolicy) {
+    this.authAdc = authAdc;
+    this.httpClientFactory = httpClientFactory;
+    this.dicomWebCalls = new DicomWebCalls(endpoint, adaptiveLimiters);
+    this.retryPolicy = retryPolicy;
+  }
+
+  /**
+   * Records the duration and the status code of each call in the registry.
+   */
+  public void registerMetrics(MetricsRegistry metricsRegistry) {
+    callMetrics = new HealthcareApiCallMetrics(metricsRegistry);
+  }
+
+  @Override
+  public CompletableFuture<List<DicomStore>> getAllDicomStores(QueryBuilder queryBuilder) {
+    return getDicomStoresPage(queryBuilder, null, new ArrayList<>());
+  }
+
+  private CompletableFuture<List<DicomStore>> getDicomStoresPage(QueryBuilder queryBuilder,
+      String pageToken, List<DicomStore> dicomStoresList) {
+    return execute(() -> dicomWebCalls.getDicomStores(queryBuilder, pageToken))
+        .thenCompose(dicomStoresOnPage -> {
+          if (dicomStoresOnPage.getDicomStores() != null) {
+            dicomStoresList.addAll(dicomStoresOnPage.getDicomStores());
+          }
+          String nextPageToken = dicomStoresOnPage.getNextPageToken();
+          if (nextPageToken == null) {
+            return CompletableFuture.completedFuture(dicomStoresList);
+          }
+          return getDicomStoresPage(queryBuilder, nextPageToken, dicomStoresList);
+        });
+  }
+
+  @Override
+  public CompletableFuture<DicomStore> getSingleDicomStore(QueryBuilder queryBuilder) {
+    return execute(() -> dicomWebCalls.getSingleDicomStore(queryBuilder));
+  }
+
+  @Override
+  public CompletableFuture<List<Study>> getStudies(QueryBuilder queryBuilder) {
+    return execute(() -> dicomWebCalls.getStudies(queryBuilder));
+  }
+
+  @Override
+  public CompletableFuture<Study> getSingleStudy(QueryBuilder queryBuilder) {
+    return execute(() -> dicomWebCalls.getSingleStudy(queryBuilder));
+  }
+
+  @Override
+  public CompletableFuture<List<Series>> getSeries(QueryBuilder queryBuilder) {
+    return execute(() -> dicomWebCalls.getSeries(queryBuilder));
+  }
+
+  @Override
+  public CompletableFuture<Series> getSingleSeries(QueryBuilder queryBuilder) {
+    return execute(() -> dicomWebCalls.getSingleSeries(queryBuilder));
+  }
+
+  @Override
+  public CompletableFuture<List<Instance>> getInstances(QueryBuilder queryBuilder) {
+    return execute(() -> dicomWebCalls.getInstances(queryBuilder));
+  }
+
+  @Override
+  public CompletableFuture<Instance> getSingleInstance(QueryBuilder queryBuilder) {
+    return execute(() -> dicomWebCalls.getSingleInstance(queryBuilder));
+  }
+
+  @Override
+  public CompletableFuture<Void> downloadInstance(QueryBuilder queryBuilder) {
+    return execute(() -> dicomWebCalls.downloadInstance(queryBuilder));
+  }
+
+  /**
+   * Retrieves the series and splits it into instances while it arrives. The parts are read
+   * outside of the I/O threads of the client, as the listener blocks on writing them.
+   */
+  @Override
+  public CompletableFuture<Void> downloadSeries(QueryBuilder queryBuilder) {
+    return execute(() -> dicomWebCalls.downloadSeries(queryBuilder));
+  }
+
+  @Override
+  public CompletableFuture<Void> downloadFrame(QueryBuilder queryBuilder) {
+    return execute(() -> dicomWebCalls.downloadFrame(queryBuilder));
+  }
+
+  @Override
+  public CompletableFuture<byte[]> downloadMetadata(QueryBuilder queryBuilder) {
+    return execute(() -> dicomWebCalls.downloadMetadata(queryBuilder));
+  }
+
+  @Override
+  public CompletableFuture<Void> uploadInstance(QueryBuilder queryBuilder) {
+    return execute(() -> dicomWebCalls.uploadInstance(queryBuilder));
+  }
+
+  @Override
+  public CompletableFuture<Map<String, String>> uploadInstances(QueryBuilder queryBuilder) {
+    return execute(() -> dicomWebCalls.uploadInstances(queryBuilder));
+  }
+
+  @Override
+  public CompletableFuture<Void> deleteInstance(QueryBuilder queryBuilder) {
+    return execute(() -> dicomWebCalls.deleteInstance(queryBuilder));
+  }
+
+  @Override
+  public CompletableFuture<Void> createDicomStore(QueryBuilder queryBuilder) {
+    return execute(() -> dicomWebCalls.createDicomStore(queryBuilder));
+  }
+
+  @Override
+  public CompletableFuture<Void> deleteDicomStore(QueryBuilder queryBuilder) {
+    return execute(() -> dicomWebCalls.deleteDicomStore(queryBuilder));
+  }
+
+  private <T> CompletableFuture<T> execute(CallSupplier<T> callSupplier) {
+    DicomWebCall<T> call;
+    try {
+      call = callSupplier.get();
+    } catch (DicomFuseException e) {
+      return failed(e);
+    }
+    long startNanos = System.nanoTime();
+    AtomicInteger lastStatusCode = new AtomicInteger();
+    CompletableFuture<T> future = call.isRepeatable()
+        ? retryPolicy.executeAsync(call.isIdempotent(), () -> send(call, lastStatusCode))
+        : send(call, lastStatusCode);
+    HealthcareApiCallMetrics metrics = callMetrics;
+    if (metrics == null) {
+      return future;
+    }
+    return future.whenComplete((result, throwable) ->
+        metrics.record(call.getName(), lastStatusCode.get(), startNanos));
+  }
+
+  private <T> CompletableFuture<T> send(DicomWebCall<T> call, AtomicInteger lastStatusCode) {
+    lastStatusCode.set(0);
+    if (call.getDownloadPath() != null) {
+      DownloadResponseConsumer responseConsumer = new DownloadResponseConsumer(
+          call.getDownloadPath(), call.getDownloadListener());
+      // Readers may already use the downloaded bytes, so the download is not repeated
+      return failOnceStarted(exchange(call, responseConsumer), responseConsumer::isStarted)
+          .thenCompose(response -> {
+            lastStatusCode.set(response.getCode());
+            return handle(call, new Response(response, null));
+          });
+    }
+    StreamingResponseConsumer<T> responseConsumer = new StreamingResponseConsumer<>(
+        (response, content) -> {
+          lastStatusCode.set(response.getCode());
+          return call.handle(new Response(response, content));
+        }, httpClientFactory.getResponseExecutor());
+    return responseConsumer.getResult(exchange(call, responseConsumer));
+  }
+
+  /**
+   * Sends one request when the limiter of the call grants a permit, which is released when the
+   * response is consumed. Without a limiter the request is sent right away. The Authorization
+   * header is resolved on the calling thread, as refreshing the token blocks, while the permit
+   * may be granted on an I/O thread completing an earlier request.
+   */
+  private <T> CompletableFuture<T> exchange(DicomWebCall<?> call,
+      AsyncResponseConsumer<T> responseConsumer) {
+    String authorizationHeader;
+    AsyncEntityProducer entityProducer;
+    try {
+      authorizationHeader = authAdc.getAuthorizationHeader();
+      entityProducer = createEntityProducer(call);
+    } catch (IOException e) {
+      return failed(e);
+    }
+    AdaptiveLimiter limiter = call.getLimiter();
+    CompletableFuture<AdaptiveLimiter.Permit> permitFuture = limiter == null
+        ? CompletableFuture.completedFuture(null) : limiter.acquireAsync();
+    return permitFuture.thenCompose(permit -> {
+      CompletableFuture<T> future = new CompletableFuture<>();
+      HttpRequest request = new BasicHttpRequest(call.getMethod(), call.getUri());
+      call.getHeaders().forEach(request::addHeader);
+      request.addHeader(AUTHORIZATION, authorizationHeader);
+      AsyncResponseConsumer<T> permitResponseConsumer = permit == null ? responseConsumer
+          : new PermitResponseConsumer<>(responseConsumer, permit);
+      httpClientFactory.getHttpAsyncClient().execute(
+          new BasicRequestProducer(request, entityProducer),
+          FLIGHT_RECORDER_AVAILABLE ? HealthcareApiRequestEvent.record(call.getMethod(),
+              call.getUri(), entityProducer, permitResponseConsumer) : permitResponseConsumer,
+          new FutureCallback<T>() {
+            @Override
+            public void completed(T result) {
+              future.complete(result);
+            }
+
+            @Override
+            public void failed(Exception e) {
+              future.completeExceptionally(e);
+            }
+
+            @Override
+            public void cancelled() {
+              future.cancel(false);
+            }
+          });
+      if (permit == null) {
+        return future;
+      }
+      return future.whenComplete((result, throwable) -> permit.close());
+    });
+  }
+
+  // A new producer for every attempt, as a producer sends its body only once
+  private static AsyncEntityProducer createEntityProducer(DicomWebCall<?> call)
+      throws IOException {
+    if (call.getUploadPipe() != null) {
+      return new PipeEntityProducer(call.getUploadPipe(), call.getBoundary());
+    }
+    if (call.getInstanceDataPaths() != null) {
+      return new StowEntityProducer(call.getInstanceDataPaths(), call.getBoundary());
+    }
+    return null;
+  }
+
+  private static <T> CompletableFuture<T> handle(DicomWebCall<T> call,
+      DicomWebResponse response) {
+    try {
+      return CompletableFuture.completedFuture(call.handle(response));
+    } catch (IOException | DicomFuseException e) {
+      return failed(e);
+    }
+  }
+
+  private static String getStatusLine(HttpResponse response) {
+    // HTTP/2 responses have no reason phrase
+    String reasonPhrase = response.getReasonPhrase() != null ? response.getReasonPhrase()
+        : EnglishReasonPhraseCatalog.INSTANCE.getReason(response.getCode(), Locale.ENGLISH);
+    return response.getCode() + " " + reasonPhrase;
+  }
+
+  /**
+   * Completes with a failure which is not repeated by the retry policy if the response was
+   * started to be passed on before the connection failed.
+   */
+  private static <T> CompletableFuture<T> failOnceStarted(CompletableFuture<T> future,
+      BooleanSupplier started) {
+    return future.handle((result, throwable) -> {
+      if (throwable == null) {
+        return CompletableFuture.completedFuture(result);
+      }
+      Throwable cause = unwrap(throwable);
+      if (started.getAsBoolean() && cause instanceof IOException) {
+        return AsyncFuseDaoImpl.<T>failed(new DicomFuseException((IOException) cause));
+      }
+      return AsyncFuseDaoImpl.<T>failed(cause);
+    }).thenCompose(Function.identity());
+  }
+
+  private static <T> CompletableFuture<T> failed(Throwable throwable) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    future.completeExceptionally(throwable);
+    return future;
+  }
+
+  private static Throwable unwrap(Throwable throwable) {
+    return throwable instanceof CompletionException && throwable.getCause() != null
+        ? throwable.getCause() : throwable;
+  }
+
+  private interface CallSupplier<T> {
+
+    DicomWebCall<T> get() throws DicomFuseException;
+  }
+
+  private static class Response implements DicomWebResponse {
+
+    private final HttpResponse response;
+    private final InputStream content;
+
+    private Response(HttpResponse response, InputStream content) {
+      this.response = response;
+      this.content = content;
+    }
+
+    @Override
+    public int getStatusCode() {
+      return response.getCode();
+    }
+
+    @Override
+    public String getStatusLine() {
+      return AsyncFuseDaoImpl.getStatusLine(response);
+    }
+
+    @Override
+    public String getFirstHeader(String name) {
+      Header header = response.getFirstHeader(name);
+      return header == null ? null : header.getValue();
+    }
+
+    @Override
+    public InputStream getContent() {
+      return content;
+    }
+  }
+}
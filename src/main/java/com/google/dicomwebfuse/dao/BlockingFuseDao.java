@@ -0,0 +1,140 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao;
+
+import com.google.dicomwebfuse.dao.spec.QueryBuilder;
+import com.google.dicomwebfuse.entities.DicomStore;
+import com.google.dicomwebfuse.entities.Instance;
+import com.google.dicomwebfuse.entities.Series;
+import com.google.dicomwebfuse.entities.Study;
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Blocking {@link FuseDao} which waits for the futures of an {@link AsyncFuseDao}.
+ */
+public class BlockingFuseDao implements FuseDao {
+
+  private final AsyncFuseDao asyncFuseDao;
+
+  public BlockingFuseDao(AsyncFuseDao asyncFuseDao) {
+    this.asyncFuseDao = asyncFuseDao;
+  }
+
+  @Override
+  public List<DicomStore> getAllDicomStores(QueryBuilder queryBuilder)
+      throws DicomFuseException {
+    return await(asyncFuseDao.getAllDicomStores(queryBuilder));
+  }
+
+  @Override
+  public DicomStore getSingleDicomStore(QueryBuilder queryBuilder) throws DicomFuseException {
+    return await(asyncFuseDao.getSingleDicomStore(queryBuilder));
+  }
+
+  @Override
+  public List<Study> getStudies(QueryBuilder queryBuilder) throws DicomFuseException {
+    return await(asyncFuseDao.getStudies(queryBuilder));
+  }
+
+  @Override
+  public Study getSingleStudy(QueryBuilder queryBuilder) throws DicomFuseException {
+    return await(asyncFuseDao.getSingleStudy(queryBuilder));
+  }
+
+  @Override
+  public List<Series> getSeries(QueryBuilder queryBuilder) throws DicomFuseException {
+    return await(asyncFuseDao.getSeries(queryBuilder));
+  }
+
+  @Override
+  public Series getSingleSeries(QueryBuilder queryBuilder) throws DicomFuseException {
+    return await(asyncFuseDao.getSingleSeries(queryBuilder));
+  }
+
+  @Override
+  public List<Instance> getInstances(QueryBuilder queryBuilder) throws DicomFuseException {
+    return await(asyncFuseDao.getInstances(queryBuilder));
+  }
+
+  @Override
+  public Instance getSingleInstance(QueryBuilder queryBuilder) throws DicomFuseException {
+    return await(asyncFuseDao.getSingleInstance(queryBuilder));
+  }
+
+  @Override
+  public void downloadInstance(QueryBuilder queryBuilder) throws DicomFuseException {
+    await(asyncFuseDao.downloadInstance(queryBuilder));
+  }
+
+  @Override
+  public void downloadSeries(QueryBuilder queryBuilder) throws DicomFuseException {
+    await(asyncFuseDao.downloadSeries(queryBuilder));
+  }
+
+  @Override
+  public void downloadFrame(QueryBuilder queryBuilder) throws DicomFuseException {
+    await(asyncFuseDao.downloadFrame(queryBuilder));
+  }
+
+  @Override
+  public byte[] downloadMetadata(QueryBuilder queryBuilder) throws DicomFuseException {
+    return await(asyncFuseDao.downloadMetadata(queryBuilder));
+  }
+
+  @Override
+  public void uploadInstance(QueryBuilder queryBuilder) throws DicomFuseException {
+    await(asyncFuseDao.uploadInstance(queryBuilder));
+  }
+
+  @Override
+  public Map<String, String> uploadInstances(QueryBuilder queryBuilder)
+      throws DicomFuseException {
+    return await(asyncFuseDao.uploadInstances(queryBuilder));
+  }
+
+  @Override
+  public void deleteInstance(QueryBuilder queryBuilder) throws DicomFuseException {
+    await(asyncFuseDao.deleteInstance(queryBuilder));
+  }
+
+  @Override
+  public void createDicomStore(QueryBuilder queryBuilder) throws DicomFuseException {
+    await(asyncFuseDao.createDicomStore(queryBuilder));
+  }
+
+  @Override
+  public void deleteDicomStore(QueryBuilder queryBuilder) throws DicomFuseException {
+    await(asyncFuseDao.deleteDicomStore(queryBuilder));
+  }
+
+  static <T> T await(CompletableFuture<T> future) throws DicomFuseException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DicomFuseException(e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof DicomFuseException) {
+        throw (DicomFuseException) cause;
+      }
+      throw new DicomFuseException(cause instanceof Exception ? (Exception) cause : e);
+    }
+  }
+}
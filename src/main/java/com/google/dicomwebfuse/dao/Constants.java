@@ -26,6 +26,8 @@ public class Constants {
   public static final String STUDIES = "/studies/";
   public static final String SERIES = "/series/";
   public static final String INSTANCES = "/instances/";
+  public static final String FRAMES = "/frames/";
+  public static final String METADATA = "/metadata";
 
   static final String PARAM_PAGE_TOKEN = "pageToken";
   static final String PARAM_INCLUDE_FIELD = "includefield";
@@ -37,18 +39,21 @@ public class Constants {
   static final String PARAM_DICOM_STORE_ID = "dicomStoreId";
   static final String VALUE_PARAM_STUDY_INSTANCE_UID = "0020000D";
   static final String VALUE_PARAM_SERIES_INSTANCE_UID = "0020000E";
+  static final String VALUE_PARAM_SOP_INSTANCE_UID = "00080018";
+  static final String VALUE_PARAM_NUMBER_OF_FRAMES = "00280008";
   public static final Integer VALUE_PARAM_MAX_LIMIT_FOR_STUDY = 5000;
   public static final Integer VALUE_PARAM_MAX_LIMIT_FOR_SERIES = 5000;
   public static final Integer VALUE_PARAM_MAX_LIMIT_FOR_INSTANCES = 15000; // max - 50 000 results
-  public static final Integer MAX_STUDIES_IN_DICOM_STORE = VALUE_PARAM_MAX_LIMIT_FOR_STUDY * 3;
-  public static final Integer MAX_SERIES_IN_STUDY = VALUE_PARAM_MAX_LIMIT_FOR_SERIES * 3;
-  public static final Integer MAX_INSTANCES_IN_SERIES = VALUE_PARAM_MAX_LIMIT_FOR_INSTANCES;
-  static final Integer THREAD_COUNT = 3;
 
-  static final String BEARER = "Bearer ";
   static final String APPLICATION_JSON_CHARSET_UTF8 = "application/json; charset=utf-8";
-  static final String APPLICATION_DICOM_TRANSFER_SYNTAX = "application/dicom; transfer-syntax=*";
+  static final String APPLICATION_DICOM_TRANSFER_SYNTAX = "application/dicom; transfer-syntax=";
+  // Asks the server for the instance in the syntax it is stored in
+  public static final String ANY_TRANSFER_SYNTAX = "*";
   static final String APPLICATION_DICOM_JSON_CHARSET_UTF8 = "application/dicom+json; charset=utf-8";
+  static final String MULTIPART_RELATED_TYPE_APPLICATION_DICOM_TRANSFER_SYNTAX =
+      "multipart/related; type=\"application/dicom\"; transfer-syntax=";
+  static final String MULTIPART_RELATED_TYPE_APPLICATION_OCTET_STREAM_TRANSFER_SYNTAX =
+      "multipart/related; type=\"application/octet-stream\"; transfer-syntax=";
   static final String MULTIPART_RELATED_TYPE_APPLICATION_DICOM_BOUNDARY =
       "multipart/related; type=application/dicom; boundary=";
 }
\ No newline at end of file
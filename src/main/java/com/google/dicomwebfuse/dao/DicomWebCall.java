@@ -0,0 +1,182 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao;
+
+import static com.google.dicomwebfuse.dao.Constants.MULTIPART_RELATED_TYPE_APPLICATION_DICOM_BOUNDARY;
+
+import com.google.dicomwebfuse.dao.limiter.AdaptiveLimiter;
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * One request of a dao method and the handling of its response, described independently of the
+ * HTTP client, so that the blocking and the non-blocking dao differ only in how they send it.
+ */
+class DicomWebCall<T> {
+
+  static final String GET = "GET";
+  static final String POST = "POST";
+  static final String DELETE = "DELETE";
+  private final String name;
+  private final String method;
+  private final URI uri;
+  private final ResponseHandler<T> responseHandler;
+  private final Map<String, String> headers = new LinkedHashMap<>();
+  private boolean idempotent = true;
+  private AdaptiveLimiter limiter;
+  private List<Path> instanceDataPaths;
+  private UploadPipe uploadPipe;
+  private String boundary;
+  private Path downloadPath;
+  private DownloadListener downloadListener;
+
+  interface ResponseHandler<T> {
+
+    T handle(DicomWebResponse response) throws IOException, DicomFuseException;
+  }
+
+  /**
+   * @param name name of the dao method sending the request, which labels its metrics
+   */
+  DicomWebCall(String name, String method, URI uri, ResponseHandler<T> responseHandler) {
+    this.name = name;
+    this.method = method;
+    this.uri = uri;
+    this.responseHandler = responseHandler;
+  }
+
+  DicomWebCall<T> addHeader(String name, String value) {
+    headers.put(name, value);
+    return this;
+  }
+
+  /**
+   * Marks a request which must not be repeated after it could have reached the server.
+   */
+  DicomWebCall<T> setNotIdempotent() {
+    idempotent = false;
+    return this;
+  }
+
+  /**
+   * Holds a permit of the limiter while the request is in flight. Requests without a limiter are
+   * sent right away.
+   */
+  DicomWebCall<T> setLimiter(AdaptiveLimiter limiter) {
+    this.limiter = limiter;
+    return this;
+  }
+
+  /**
+   * Sends the files as a multipart/related body with one part per instance.
+   */
+  DicomWebCall<T> setInstanceDataPaths(List<Path> instanceDataPaths) {
+    this.instanceDataPaths = instanceDataPaths;
+    boundary = UUID.randomUUID().toString();
+    return this;
+  }
+
+  /**
+   * Sends the bytes of the pipe as a multipart/related body with a single instance while the file
+   * is written. The body can be sent only once, so the request is never repeated.
+   */
+  DicomWebCall<T> setUploadPipe(UploadPipe uploadPipe) {
+    this.uploadPipe = uploadPipe;
+    boundary = UUID.randomUUID().toString();
+    return this;
+  }
+
+  /**
+   * Writes the body of a successful response to the file while it arrives, before the response is
+   * passed to the handler.
+   *
+   * @param downloadListener listener of the progress, or null. Once it was notified about the
+   *     start of the body, failures are not repeated, as readers may already use the file.
+   */
+  DicomWebCall<T> setDownloadPath(Path downloadPath, DownloadListener downloadListener) {
+    this.downloadPath = downloadPath;
+    this.downloadListener = downloadListener;
+    return this;
+  }
+
+  String getName() {
+    return name;
+  }
+
+  String getMethod() {
+    return method;
+  }
+
+  URI getUri() {
+    return uri;
+  }
+
+  Map<String, String> getHeaders() {
+    return Collections.unmodifiableMap(headers);
+  }
+
+  boolean isIdempotent() {
+    return idempotent;
+  }
+
+  /**
+   * @return whether the request can be sent again after a failed attempt
+   */
+  boolean isRepeatable() {
+    return uploadPipe == null;
+  }
+
+  AdaptiveLimiter getLimiter() {
+    return limiter;
+  }
+
+  List<Path> getInstanceDataPaths() {
+    return instanceDataPaths;
+  }
+
+  UploadPipe getUploadPipe() {
+    return uploadPipe;
+  }
+
+  String getBoundary() {
+    return boundary;
+  }
+
+  /**
+   * @return the content type of the request body, or null if the request has no body
+   */
+  String getContentType() {
+    return boundary == null ? null : MULTIPART_RELATED_TYPE_APPLICATION_DICOM_BOUNDARY + boundary;
+  }
+
+  Path getDownloadPath() {
+    return downloadPath;
+  }
+
+  DownloadListener getDownloadListener() {
+    return downloadListener;
+  }
+
+  T handle(DicomWebResponse response) throws IOException, DicomFuseException {
+    return responseHandler.handle(response);
+  }
+}
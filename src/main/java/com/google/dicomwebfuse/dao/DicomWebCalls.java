@@ -0,0 +1,309 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao;
+
+import static com.google.common.net.HttpHeaders.ACCEPT;
+import static com.google.common.net.HttpHeaders.ACCEPT_ENCODING;
+import static com.google.common.net.HttpHeaders.CONTENT_TYPE;
+import static com.google.dicomwebfuse.dao.Constants.ANY_TRANSFER_SYNTAX;
+import static com.google.dicomwebfuse.dao.Constants.APPLICATION_DICOM_JSON_CHARSET_UTF8;
+import static com.google.dicomwebfuse.dao.Constants.APPLICATION_DICOM_TRANSFER_SYNTAX;
+import static com.google.dicomwebfuse.dao.Constants.APPLICATION_JSON_CHARSET_UTF8;
+import static com.google.dicomwebfuse.dao.Constants.MULTIPART_RELATED_TYPE_APPLICATION_DICOM_TRANSFER_SYNTAX;
+import static com.google.dicomwebfuse.dao.Constants.MULTIPART_RELATED_TYPE_APPLICATION_OCTET_STREAM_TRANSFER_SYNTAX;
+import static com.google.dicomwebfuse.dao.DicomWebCall.DELETE;
+import static com.google.dicomwebfuse.dao.DicomWebCall.GET;
+import static com.google.dicomwebfuse.dao.DicomWebCall.POST;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.common.io.ByteStreams;
+import com.google.dicomwebfuse.dao.http.ContentEncoding;
+import com.google.dicomwebfuse.dao.limiter.AdaptiveLimiter;
+import com.google.dicomwebfuse.dao.limiter.AdaptiveLimiters;
+import com.google.dicomwebfuse.dao.limiter.OperationClass;
+import com.google.dicomwebfuse.dao.spec.QueryBuilder;
+import com.google.dicomwebfuse.entities.DicomStore;
+import com.google.dicomwebfuse.entities.DicomStores;
+import com.google.dicomwebfuse.entities.Instance;
+import com.google.dicomwebfuse.entities.Series;
+import com.google.dicomwebfuse.entities.Study;
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import com.google.dicomwebfuse.exception.StowErrorFormatter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the requests of the dao methods and the handlers of their responses. Both the blocking
+ * and the non-blocking dao send these calls, so they behave the same on either transport.
+ */
+class DicomWebCalls {
+
+  private final DicomWebUris dicomWebUris;
+  private final AdaptiveLimiters adaptiveLimiters;
+  private final ObjectMapper objectMapper;
+  private final QidoResponseDecoder qidoResponseDecoder;
+
+  DicomWebCalls(URI endpoint, AdaptiveLimiters adaptiveLimiters) {
+    this.dicomWebUris = new DicomWebUris(endpoint);
+    this.adaptiveLimiters = adaptiveLimiters;
+    objectMapper = new ObjectMapper();
+    objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    qidoResponseDecoder = new QidoResponseDecoder(objectMapper.getFactory());
+  }
+
+  /**
+   * @param pageToken token of the page to get, or null for the first page
+   */
+  DicomWebCall<DicomStores> getDicomStores(QueryBuilder queryBuilder, String pageToken)
+      throws DicomFuseException {
+    return getObject("getAllDicomStores", dicomWebUris.dicomStores(queryBuilder, pageToken),
+        new TypeReference<DicomStores>() {});
+  }
+
+  DicomWebCall<DicomStore> getSingleDicomStore(QueryBuilder queryBuilder)
+      throws DicomFuseException {
+    return getObject("getSingleDicomStore", dicomWebUris.singleDicomStore(queryBuilder),
+        new TypeReference<DicomStore>() {});
+  }
+
+  DicomWebCall<List<Study>> getStudies(QueryBuilder queryBuilder) throws DicomFuseException {
+    return getList("getStudies", dicomWebUris.studies(queryBuilder),
+        qidoResponseDecoder::decodeStudies, queryBuilder);
+  }
+
+  DicomWebCall<Study> getSingleStudy(QueryBuilder queryBuilder) throws DicomFuseException {
+    return getFirst("getSingleStudy", dicomWebUris.singleStudy(queryBuilder),
+        qidoResponseDecoder::decodeStudies, queryBuilder, "Study not found");
+  }
+
+  DicomWebCall<List<Series>> getSeries(QueryBuilder queryBuilder) throws DicomFuseException {
+    return getList("getSeries", dicomWebUris.series(queryBuilder),
+        qidoResponseDecoder::decodeSeries, queryBuilder);
+  }
+
+  DicomWebCall<Series> getSingleSeries(QueryBuilder queryBuilder) throws DicomFuseException {
+    return getFirst("getSingleSeries", dicomWebUris.singleSeries(queryBuilder),
+        qidoResponseDecoder::decodeSeries, queryBuilder, "Series not found");
+  }
+
+  DicomWebCall<List<Instance>> getInstances(QueryBuilder queryBuilder)
+      throws DicomFuseException {
+    return getList("getInstances", dicomWebUris.instances(queryBuilder),
+        qidoResponseDecoder::decodeInstances, queryBuilder);
+  }
+
+  DicomWebCall<Instance> getSingleInstance(QueryBuilder queryBuilder)
+      throws DicomFuseException {
+    return getFirst("getSingleInstance", dicomWebUris.singleInstance(queryBuilder),
+        qidoResponseDecoder::decodeInstances, queryBuilder, "Instance not found");
+  }
+
+  DicomWebCall<Void> downloadInstance(QueryBuilder queryBuilder) throws DicomFuseException {
+    URI uri = dicomWebUris.instance(queryBuilder);
+    // The permit is held until the body is downloaded, but the latency is measured until the
+    // response headers, so that large instances are not taken as a sign of overload
+    return new DicomWebCall<Void>("downloadInstance", GET, uri, response -> {
+      DicomWebResponses.checkStatusCode(response, uri);
+      return null;
+    })
+        .addHeader(ACCEPT, APPLICATION_DICOM_TRANSFER_SYNTAX + queryBuilder.getTransferSyntax())
+        .addHeader(CONTENT_TYPE, APPLICATION_DICOM_JSON_CHARSET_UTF8)
+        .setLimiter(getLimiter(queryBuilder, OperationClass.WADO))
+        .setDownloadPath(queryBuilder.getInstanceDataPath(), queryBuilder.getDownloadListener());
+  }
+
+  /**
+   * Retrieves the series and splits it into instances while it arrives.
+   */
+  DicomWebCall<Void> downloadSeries(QueryBuilder queryBuilder) throws DicomFuseException {
+    URI uri = dicomWebUris.retrieveSeries(queryBuilder);
+    return new DicomWebCall<Void>("downloadSeries", GET, uri, response -> {
+      DicomWebResponses.checkStatusCode(response, uri);
+      try (InputStream content = DicomWebResponses.getDecodedContent(response)) {
+        SeriesResponseReader.read(content, response.getFirstHeader(CONTENT_TYPE),
+            queryBuilder.getSeriesDownloadListener());
+      } catch (IOException e) {
+        // The instances passed to the listener are in use, so the retrieve is not repeated
+        throw new DicomFuseException(e);
+      }
+      return null;
+    })
+        .addHeader(ACCEPT, MULTIPART_RELATED_TYPE_APPLICATION_DICOM_TRANSFER_SYNTAX
+            + queryBuilder.getTransferSyntax())
+        .setLimiter(getLimiter(queryBuilder, OperationClass.WADO));
+  }
+
+  /**
+   * Retrieves a single frame and writes it to the file while it arrives.
+   */
+  DicomWebCall<Void> downloadFrame(QueryBuilder queryBuilder) throws DicomFuseException {
+    URI uri = dicomWebUris.frame(queryBuilder);
+    return new DicomWebCall<Void>("downloadFrame", GET, uri, response -> {
+      DicomWebResponses.checkStatusCode(response, uri);
+      try (InputStream content = DicomWebResponses.getDecodedContent(response)) {
+        FrameResponseReader.read(content, response.getFirstHeader(CONTENT_TYPE),
+            queryBuilder.getInstanceDataPath());
+      }
+      return null;
+    })
+        // Frames are retrieved in the syntax they are stored in, so they are never transcoded
+        .addHeader(ACCEPT, MULTIPART_RELATED_TYPE_APPLICATION_OCTET_STREAM_TRANSFER_SYNTAX
+            + ANY_TRANSFER_SYNTAX)
+        .setLimiter(getLimiter(queryBuilder, OperationClass.WADO));
+  }
+
+  DicomWebCall<byte[]> downloadMetadata(QueryBuilder queryBuilder) throws DicomFuseException {
+    URI uri = dicomWebUris.metadata(queryBuilder);
+    return new DicomWebCall<>("downloadMetadata", GET, uri, response -> {
+      DicomWebResponses.checkStatusCode(response, uri);
+      try (InputStream content = DicomWebResponses.getDecodedContent(response)) {
+        return ByteStreams.toByteArray(content);
+      }
+    })
+        .addHeader(ACCEPT, APPLICATION_DICOM_JSON_CHARSET_UTF8)
+        .addHeader(ACCEPT_ENCODING, ContentEncoding.ACCEPTED_ENCODINGS)
+        // Metadata responses are small like search results, so they share the QIDO limit
+        .setLimiter(getLimiter(queryBuilder, OperationClass.QIDO));
+  }
+
+  DicomWebCall<Void> uploadInstance(QueryBuilder queryBuilder) throws DicomFuseException {
+    DicomWebCall<Void> call = new DicomWebCall<Void>("uploadInstance", POST,
+        dicomWebUris.stow(queryBuilder), response -> {
+          DicomWebResponses.checkUploadStatus(response, queryBuilder.getDicomPath());
+          return null;
+        })
+        // Storing an instance which was stored by a lost request fails, so the upload is
+        // repeated only if the server did not process it
+        .setNotIdempotent();
+    if (queryBuilder.getUploadPipe() != null) {
+      // The request lasts as long as the writing of the file, so it is not counted by the
+      // limiter, whose latency samples it would distort
+      return call.setUploadPipe(queryBuilder.getUploadPipe());
+    }
+    return call.setInstanceDataPaths(Collections.singletonList(queryBuilder.getInstanceDataPath()))
+        .setLimiter(getLimiter(queryBuilder, OperationClass.STOW));
+  }
+
+  /**
+   * Stores several instances with one request. The handler returns the failures of single
+   * instances by their SOP Instance UID, the other instances of the request are stored.
+   */
+  DicomWebCall<Map<String, String>> uploadInstances(QueryBuilder queryBuilder)
+      throws DicomFuseException {
+    List<Path> instanceDataPaths = queryBuilder.getInstanceDataPaths();
+    return new DicomWebCall<>("uploadInstances", POST, dicomWebUris.stow(queryBuilder),
+        response -> DicomWebResponses.readUploadResult(response, instanceDataPaths.size()))
+        .addHeader(ACCEPT, StowErrorFormatter.CONTENT_TYPE_DICOM_XML)
+        .setNotIdempotent()
+        .setInstanceDataPaths(instanceDataPaths)
+        .setLimiter(getLimiter(queryBuilder, OperationClass.STOW));
+  }
+
+  DicomWebCall<Void> deleteInstance(QueryBuilder queryBuilder) throws DicomFuseException {
+    return withoutResult("deleteInstance", DELETE, dicomWebUris.instance(queryBuilder))
+        .addHeader(CONTENT_TYPE, APPLICATION_JSON_CHARSET_UTF8)
+        .setLimiter(getLimiter(queryBuilder, OperationClass.DELETE));
+  }
+
+  DicomWebCall<Void> createDicomStore(QueryBuilder queryBuilder) throws DicomFuseException {
+    return withoutResult("createDicomStore", POST, dicomWebUris.createDicomStore(queryBuilder))
+        .addHeader(CONTENT_TYPE, APPLICATION_JSON_CHARSET_UTF8)
+        // A repeated request fails if the first one created the store
+        .setNotIdempotent();
+  }
+
+  DicomWebCall<Void> deleteDicomStore(QueryBuilder queryBuilder) throws DicomFuseException {
+    return withoutResult("deleteDicomStore", DELETE, dicomWebUris.dicomStore(queryBuilder));
+  }
+
+  private <T> DicomWebCall<T> getObject(String name, URI uri,
+      TypeReference<T> typeReference) {
+    return new DicomWebCall<>(name, GET, uri, response -> {
+      DicomWebResponses.checkStatusCode(response, uri);
+      if (response.getContent() == null) {
+        throw new DicomFuseException("Empty response " + uri);
+      }
+      try (InputStream content = DicomWebResponses.getDecodedContent(response)) {
+        return objectMapper.readValue(content, typeReference);
+      } catch (JsonParseException | JsonMappingException e) {
+        throw new DicomFuseException(e);
+      }
+    })
+        .addHeader(CONTENT_TYPE, APPLICATION_JSON_CHARSET_UTF8)
+        .addHeader(ACCEPT_ENCODING, ContentEncoding.ACCEPTED_ENCODINGS);
+  }
+
+  private <T> DicomWebCall<List<T>> getList(String name, URI uri, ListDecoder<T> listDecoder,
+      QueryBuilder queryBuilder) {
+    return new DicomWebCall<>(name, GET, uri,
+        response -> readList(response, uri, listDecoder))
+        .addHeader(CONTENT_TYPE, APPLICATION_JSON_CHARSET_UTF8)
+        .addHeader(ACCEPT_ENCODING, ContentEncoding.ACCEPTED_ENCODINGS)
+        .setLimiter(getLimiter(queryBuilder, OperationClass.QIDO));
+  }
+
+  private <T> DicomWebCall<T> getFirst(String name, URI uri, ListDecoder<T> listDecoder,
+      QueryBuilder queryBuilder, String notFoundMessage) {
+    return new DicomWebCall<>(name, GET, uri, response -> {
+      List<T> list = readList(response, uri, listDecoder);
+      if (list.isEmpty()) {
+        throw new DicomFuseException(notFoundMessage);
+      }
+      return list.get(0);
+    })
+        .addHeader(CONTENT_TYPE, APPLICATION_JSON_CHARSET_UTF8)
+        .addHeader(ACCEPT_ENCODING, ContentEncoding.ACCEPTED_ENCODINGS)
+        .setLimiter(getLimiter(queryBuilder, OperationClass.QIDO));
+  }
+
+  private static <T> List<T> readList(DicomWebResponse response, URI uri,
+      ListDecoder<T> listDecoder) throws IOException, DicomFuseException {
+    DicomWebResponses.checkStatusCode(response, uri);
+    if (response.getStatusCode() == HttpStatusCodes.STATUS_CODE_NO_CONTENT
+        || response.getContent() == null) {
+      return new ArrayList<>();
+    }
+    try (InputStream content = DicomWebResponses.getDecodedContent(response)) {
+      return listDecoder.decode(content);
+    }
+  }
+
+  private static DicomWebCall<Void> withoutResult(String name, String method, URI uri) {
+    return new DicomWebCall<>(name, method, uri, response -> {
+      DicomWebResponses.checkStatusCode(response, uri);
+      return null;
+    });
+  }
+
+  private AdaptiveLimiter getLimiter(QueryBuilder queryBuilder, OperationClass operationClass) {
+    return adaptiveLimiters.getLimiter(queryBuilder.getDicomStoreId(), operationClass);
+  }
+
+  private interface ListDecoder<T> {
+
+    List<T> decode(InputStream inputStream) throws IOException;
+  }
+}
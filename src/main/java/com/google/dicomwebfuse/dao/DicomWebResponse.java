@@ -0,0 +1,42 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Response to a {@link DicomWebCall} as seen by its handler, whichever HTTP client received it.
+ */
+interface DicomWebResponse {
+
+  int getStatusCode();
+
+  /**
+   * @return the status code with its reason phrase, for error messages
+   */
+  String getStatusLine();
+
+  /**
+   * @return the value of the first header with the given name, or null
+   */
+  String getFirstHeader(String name);
+
+  /**
+   * @return the body, which can be read once while it arrives, or null if the response has no
+   *     body
+   */
+  InputStream getContent() throws IOException;
+}
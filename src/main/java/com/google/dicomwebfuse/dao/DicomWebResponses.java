@@ -0,0 +1,140 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.common.io.ByteStreams;
+import com.google.common.net.HttpHeaders;
+import com.google.dicomwebfuse.dao.http.ContentEncoding;
+import com.google.dicomwebfuse.dao.retry.RetryPolicy;
+import com.google.dicomwebfuse.dao.retry.RetryableStatusException;
+import com.google.dicomwebfuse.entities.DicomPath;
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import com.google.dicomwebfuse.exception.StowErrorFormatter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Interprets DICOMweb responses for both the blocking and the non-blocking dao, which differ only
+ * in the HTTP client the responses are received with.
+ */
+class DicomWebResponses {
+
+  private DicomWebResponses() {
+  }
+
+  static void checkStatusCode(DicomWebResponse response, URI uri) throws DicomFuseException {
+    int statusCode = response.getStatusCode();
+    if (statusCode != HttpStatusCodes.STATUS_CODE_OK
+        && statusCode != HttpStatusCodes.STATUS_CODE_NO_CONTENT) {
+      throw createStatusException("Failed HTTP " + response.getStatusLine() + " " + uri,
+          response);
+    }
+  }
+
+  /**
+   * @param retryAfter value of the Retry-After header, or null
+   * @return a {@link RetryableStatusException} if the request can be repeated
+   */
+  static DicomFuseException createStatusException(String message, DicomWebResponse response) {
+    int statusCode = response.getStatusCode();
+    if (RetryPolicy.isRetryableStatus(statusCode)) {
+      return new RetryableStatusException(message, statusCode,
+          RetryPolicy.parseRetryAfterMillis(response.getFirstHeader(HttpHeaders.RETRY_AFTER)));
+    }
+    return new DicomFuseException(message, statusCode);
+  }
+
+  static void checkUploadStatus(DicomWebResponse response, DicomPath dicomPath)
+      throws IOException, DicomFuseException {
+    if (response.getStatusCode() != HttpStatusCodes.STATUS_CODE_OK) {
+      String message = "Failed to upload - " + dicomPath + "\n" + response.getStatusLine() + "\n"
+          + StowErrorFormatter.formatByMimeType(getBodyText(response), getMimeType(response));
+      throw createStatusException(message, response);
+    }
+  }
+
+  /**
+   * Reads the response to a STOW request with several instances. The server stores the other
+   * instances if only some of them fail, which it reports with 202 Accepted or 409 Conflict.
+   *
+   * @return the failures of single instances by their SOP Instance UID
+   */
+  static Map<String, String> readUploadResult(DicomWebResponse response, int instanceCount)
+      throws IOException, DicomFuseException {
+    int statusCode = response.getStatusCode();
+    if (statusCode == HttpStatusCodes.STATUS_CODE_OK) {
+      return Collections.emptyMap();
+    }
+    String responseBody = getBodyText(response);
+    String mimeType = getMimeType(response);
+    if (statusCode == HttpStatusCodes.STATUS_CODE_ACCEPTED
+        || statusCode == HttpStatusCodes.STATUS_CODE_CONFLICT) {
+      Map<String, String> failedInstances =
+          StowErrorFormatter.formatFailedInstances(responseBody, mimeType);
+      if (!failedInstances.isEmpty()) {
+        return failedInstances;
+      }
+    }
+    String message = "Failed to upload " + instanceCount + " instances\n"
+        + response.getStatusLine() + "\n"
+        + StowErrorFormatter.formatByMimeType(responseBody, mimeType);
+    throw createStatusException(message, response);
+  }
+
+  /**
+   * Returns the body, which is decompressed while it is read, or an empty stream if the response
+   * has no body.
+   */
+  static InputStream getDecodedContent(DicomWebResponse response) throws IOException {
+    InputStream content = response.getContent();
+    if (content == null) {
+      return new ByteArrayInputStream(new byte[0]);
+    }
+    return ContentEncoding.decode(content,
+        response.getFirstHeader(HttpHeaders.CONTENT_ENCODING));
+  }
+
+  // The body of an error response, which may be empty
+  static String getBodyText(DicomWebResponse response) throws IOException {
+    InputStream content = response.getContent();
+    if (content == null) {
+      return "";
+    }
+    try (InputStream inputStream = content) {
+      return new String(ByteStreams.toByteArray(inputStream), UTF_8);
+    }
+  }
+
+  /**
+   * @return the media type of the body without its parameters, or an empty string
+   */
+  static String getMimeType(DicomWebResponse response) {
+    String contentType = response.getFirstHeader(HttpHeaders.CONTENT_TYPE);
+    if (contentType == null) {
+      return "";
+    }
+    int parametersStart = contentType.indexOf(';');
+    return (parametersStart < 0 ? contentType : contentType.substring(0, parametersStart))
+        .trim().toLowerCase(Locale.ROOT);
+  }
+}
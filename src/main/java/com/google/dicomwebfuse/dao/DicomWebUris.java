@@ -0,0 +1,185 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao;
+
+import static com.google.dicomwebfuse.dao.Constants.FRAMES;
+import static com.google.dicomwebfuse.dao.Constants.METADATA;
+import static com.google.dicomwebfuse.dao.Constants.PARAM_DICOM_STORE_ID;
+import static com.google.dicomwebfuse.dao.Constants.PARAM_INCLUDE_FIELD;
+import static com.google.dicomwebfuse.dao.Constants.PARAM_INSTANCE_ID;
+import static com.google.dicomwebfuse.dao.Constants.PARAM_LIMIT;
+import static com.google.dicomwebfuse.dao.Constants.PARAM_OFFSET;
+import static com.google.dicomwebfuse.dao.Constants.PARAM_PAGE_TOKEN;
+import static com.google.dicomwebfuse.dao.Constants.PARAM_SERIES_ID;
+import static com.google.dicomwebfuse.dao.Constants.PARAM_STUDY_ID;
+import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_MAX_LIMIT_FOR_INSTANCES;
+import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_MAX_LIMIT_FOR_SERIES;
+import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_MAX_LIMIT_FOR_STUDY;
+import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_NUMBER_OF_FRAMES;
+import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_SERIES_INSTANCE_UID;
+import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_STUDY_INSTANCE_UID;
+
+import com.google.dicomwebfuse.dao.spec.DicomStorePathBuilder;
+import com.google.dicomwebfuse.dao.spec.DicomStoresPathBuilder;
+import com.google.dicomwebfuse.dao.spec.InstancePathBuilder;
+import com.google.dicomwebfuse.dao.spec.InstancesPathBuilder;
+import com.google.dicomwebfuse.dao.spec.QueryBuilder;
+import com.google.dicomwebfuse.dao.spec.SeriesPathBuilder;
+import com.google.dicomwebfuse.dao.spec.SingleDicomStorePathBuilder;
+import com.google.dicomwebfuse.dao.spec.SingleSeriesPathBuilder;
+import com.google.dicomwebfuse.dao.spec.StudiesPathBuilder;
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import org.apache.http.client.utils.URIBuilder;
+
+/**
+ * Builds the request URIs of the Healthcare API, shared by the blocking and the asynchronous dao.
+ */
+class DicomWebUris {
+
+  private final URI endpoint;
+
+  DicomWebUris(URI endpoint) {
+    this.endpoint = endpoint;
+  }
+
+  URI dicomStores(QueryBuilder queryBuilder, String pageToken) throws DicomFuseException {
+    URIBuilder uriBuilder = createUriBuilder()
+        .setPath(new DicomStoresPathBuilder(queryBuilder).toPath());
+    if (pageToken != null) {
+      uriBuilder.setParameter(PARAM_PAGE_TOKEN, pageToken);
+    }
+    return build(uriBuilder);
+  }
+
+  URI singleDicomStore(QueryBuilder queryBuilder) throws DicomFuseException {
+    return build(createUriBuilder()
+        .setPath(new SingleDicomStorePathBuilder(queryBuilder).toPath()));
+  }
+
+  URI createDicomStore(QueryBuilder queryBuilder) throws DicomFuseException {
+    return build(createUriBuilder()
+        .setPath(new DicomStoresPathBuilder(queryBuilder).toPath())
+        .setParameter(PARAM_DICOM_STORE_ID, queryBuilder.getDicomStoreId()));
+  }
+
+  URI dicomStore(QueryBuilder queryBuilder) throws DicomFuseException {
+    return build(createUriBuilder()
+        .setPath(new DicomStorePathBuilder(queryBuilder).toPath()));
+  }
+
+  URI studies(QueryBuilder queryBuilder) throws DicomFuseException {
+    return build(createUriBuilder()
+        .addParameter(PARAM_LIMIT, VALUE_PARAM_MAX_LIMIT_FOR_STUDY.toString())
+        .addParameter(PARAM_OFFSET, queryBuilder.getOffset().toString())
+        .setPath(new StudiesPathBuilder(queryBuilder).toPath()));
+  }
+
+  URI singleStudy(QueryBuilder queryBuilder) throws DicomFuseException {
+    return build(createUriBuilder()
+        .addParameter(PARAM_STUDY_ID, queryBuilder.getStudyId())
+        .setPath(new StudiesPathBuilder(queryBuilder).toPath()));
+  }
+
+  URI series(QueryBuilder queryBuilder) throws DicomFuseException {
+    return build(createUriBuilder()
+        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_STUDY_INSTANCE_UID)
+        .addParameter(PARAM_LIMIT, VALUE_PARAM_MAX_LIMIT_FOR_SERIES.toString())
+        .addParameter(PARAM_OFFSET, queryBuilder.getOffset().toString())
+        .setPath(new SeriesPathBuilder(queryBuilder).toPath()));
+  }
+
+  URI singleSeries(QueryBuilder queryBuilder) throws DicomFuseException {
+    return build(createUriBuilder()
+        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_STUDY_INSTANCE_UID)
+        .addParameter(PARAM_SERIES_ID, queryBuilder.getSeriesId())
+        .setPath(new SeriesPathBuilder(queryBuilder).toPath()));
+  }
+
+  URI instances(QueryBuilder queryBuilder) throws DicomFuseException {
+    return build(createUriBuilder()
+        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_STUDY_INSTANCE_UID)
+        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_SERIES_INSTANCE_UID)
+        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_NUMBER_OF_FRAMES)
+        .addParameter(PARAM_LIMIT, VALUE_PARAM_MAX_LIMIT_FOR_INSTANCES.toString())
+        .addParameter(PARAM_OFFSET, queryBuilder.getOffset().toString())
+        .setPath(new InstancesPathBuilder(queryBuilder).toPath()));
+  }
+
+  URI singleInstance(QueryBuilder queryBuilder) throws DicomFuseException {
+    return build(createUriBuilder()
+        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_STUDY_INSTANCE_UID)
+        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_SERIES_INSTANCE_UID)
+        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_NUMBER_OF_FRAMES)
+        .addParameter(PARAM_INSTANCE_ID, queryBuilder.getInstanceId())
+        .setPath(new InstancesPathBuilder(queryBuilder).toPath()));
+  }
+
+  URI instance(QueryBuilder queryBuilder) throws DicomFuseException {
+    return build(createUriBuilder()
+        .setPath(new InstancePathBuilder(queryBuilder).toPath()));
+  }
+
+  URI frame(QueryBuilder queryBuilder) throws DicomFuseException {
+    Integer frameNumber = queryBuilder.getFrameNumber();
+    if (frameNumber == null) {
+      throw new DicomFuseException("Frame must not be null!");
+    }
+    return build(createUriBuilder()
+        .setPath(new InstancePathBuilder(queryBuilder).toPath() + FRAMES + frameNumber));
+  }
+
+  // Metadata of the instance, or of the series or study if no instance or series is set
+  URI metadata(QueryBuilder queryBuilder) throws DicomFuseException {
+    String path;
+    if (queryBuilder.getInstanceId() != null) {
+      path = new InstancePathBuilder(queryBuilder).toPath();
+    } else if (queryBuilder.getSeriesId() != null) {
+      path = new SingleSeriesPathBuilder(queryBuilder).toPath();
+    } else if (queryBuilder.getStudyId() != null) {
+      path = new StudiesPathBuilder(queryBuilder).toPath() + queryBuilder.getStudyId();
+    } else {
+      throw new DicomFuseException("Study must not be null!");
+    }
+    return build(createUriBuilder()
+        .setPath(path + METADATA));
+  }
+
+  URI retrieveSeries(QueryBuilder queryBuilder) throws DicomFuseException {
+    return build(createUriBuilder()
+        .setPath(new SingleSeriesPathBuilder(queryBuilder).toPath()));
+  }
+
+  URI stow(QueryBuilder queryBuilder) throws DicomFuseException {
+    return build(createUriBuilder()
+        .setPath(new StudiesPathBuilder(queryBuilder).toPath()));
+  }
+
+  private URIBuilder createUriBuilder() {
+    return new URIBuilder()
+        .setScheme(endpoint.getScheme())
+        .setHost(endpoint.getHost())
+        .setPort(endpoint.getPort());
+  }
+
+  private URI build(URIBuilder uriBuilder) throws DicomFuseException {
+    try {
+      return uriBuilder.build();
+    } catch (URISyntaxException e) {
+      throw new DicomFuseException(e);
+    }
+  }
+}
@@ -0,0 +1,39 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao;
+
+import java.io.IOException;
+
+/**
+ * Receives the progress of an instance download, so that the downloaded file can be read while it
+ * is still being written.
+ */
+public interface DownloadListener {
+
+  /**
+   * Called when the response headers were received, before any content is written.
+   *
+   * @param contentLength size of the instance in bytes, or -1 if unknown
+   */
+  void onStart(long contentLength) throws IOException;
+
+  /**
+   * Called each time a chunk of content was written to the file. Throwing an exception stops the
+   * download.
+   *
+   * @param downloadedBytes number of bytes written to the file so far
+   */
+  void onProgress(long downloadedBytes) throws IOException;
+}
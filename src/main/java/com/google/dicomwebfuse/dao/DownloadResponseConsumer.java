@@ -0,0 +1,125 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao;
+
+import com.google.api.client.http.HttpStatusCodes;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.nio.AsyncResponseConsumer;
+import org.apache.hc.core5.http.nio.entity.AbstractBinDataConsumer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+
+/**
+ * Writes the body of a successful WADO response to the instance file as it arrives. The body of
+ * an error response is discarded, only its status line is returned.
+ */
+class DownloadResponseConsumer extends AbstractBinDataConsumer
+    implements AsyncResponseConsumer<SimpleHttpResponse> {
+
+  private static final int CAPACITY_INCREMENT = 256 * 1024;
+  private final Path instanceDataPath;
+  private final DownloadListener downloadListener;
+  private SimpleHttpResponse response;
+  private FutureCallback<SimpleHttpResponse> resultCallback;
+  private FileChannel fileChannel;
+  private long downloadedBytes;
+  private volatile boolean started;
+
+  DownloadResponseConsumer(Path instanceDataPath, DownloadListener downloadListener) {
+    this.instanceDataPath = instanceDataPath;
+    this.downloadListener = downloadListener;
+  }
+
+  /**
+   * @return whether the download listener was notified about the start of the body
+   */
+  boolean isStarted() {
+    return started;
+  }
+
+  @Override
+  public void consumeResponse(HttpResponse response, EntityDetails entityDetails,
+      HttpContext context, FutureCallback<SimpleHttpResponse> resultCallback) throws IOException {
+    this.response = SimpleHttpResponse.copy(response);
+    this.resultCallback = resultCallback;
+    if (response.getCode() == HttpStatusCodes.STATUS_CODE_OK) {
+      fileChannel = FileChannel.open(instanceDataPath, StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+      if (downloadListener != null) {
+        started = true;
+        downloadListener.onStart(entityDetails != null ? entityDetails.getContentLength() : 0);
+      }
+    }
+    if (entityDetails == null) {
+      completed();
+    }
+  }
+
+  @Override
+  public void informationResponse(HttpResponse response, HttpContext context) {
+  }
+
+  @Override
+  protected int capacityIncrement() {
+    return CAPACITY_INCREMENT;
+  }
+
+  @Override
+  protected void data(ByteBuffer src, boolean endOfStream) throws IOException {
+    if (fileChannel == null) {
+      src.position(src.limit());
+      return;
+    }
+    while (src.hasRemaining()) {
+      downloadedBytes += fileChannel.write(src);
+    }
+    if (downloadListener != null) {
+      downloadListener.onProgress(downloadedBytes);
+    }
+  }
+
+  @Override
+  protected void completed() throws IOException {
+    if (fileChannel != null) {
+      fileChannel.close();
+      fileChannel = null;
+    }
+    resultCallback.completed(response);
+  }
+
+  @Override
+  public void failed(Exception cause) {
+    releaseResources();
+  }
+
+  @Override
+  public void releaseResources() {
+    if (fileChannel != null) {
+      try {
+        fileChannel.close();
+      } catch (IOException e) {
+        // the download has already failed
+      }
+      fileChannel = null;
+    }
+  }
+}
@@ -0,0 +1,177 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.dicomwebfuse.dao;
+
+import com.google.dicomwebfuse.dao.spec.QueryBuilder;
+import com.google.dicomwebfuse.entities.DicomStore;
+import com.google.dicomwebfuse.entities.Instance;
+import com.google.dicomwebfuse.entities.Series;
+import com.google.dicomwebfuse.entities.Study;
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * {@link AsyncFuseDao} which sends the requests of a blocking {@link FuseDao} on a bounded
+ * executor, so that callers composing futures work the same with a client without non-blocking
+ * requests. Requests whose future is cancelled before they start are not sent.
+ */
+public class ExecutorAsyncFuseDao implements AsyncFuseDao {
+
+  private final FuseDao fuseDao;
+  private final Executor executor;
+
+  public ExecutorAsyncFuseDao(FuseDao fuseDao, Executor executor) {
+    this.fuseDao = fuseDao;
+    this.executor = executor;
+  }
+
+  @Override
+  public CompletableFuture<List<DicomStore>> getAllDicomStores(QueryBuilder queryBuilder) {
+    return execute(() -> fuseDao.getAllDicomStores(queryBuilder));
+  }
+
+  @Override
+  public CompletableFuture<DicomStore> getSingleDicomStore(QueryBuilder queryBuilder) {
+    return execute(() -> fuseDao.getSingleDicomStore(queryBuilder));
+  }
+
+  @Override
+  public CompletableFuture<List<Study>> getStudies(QueryBuilder queryBuilder) {
+    return execute(() -> fuseDao.getStudies(queryBuilder));
+  }
+
+  @Override
+  public CompletableFuture<Study> getSingleStudy(QueryBuilder queryBuilder) {
+    return execute(() -> fuseDao.getSingleStudy(queryBuilder));
+  }
+
+  @Override
+  public CompletableFuture<List<Series>> getSeries(QueryBuilder queryBuilder) {
+    return execute(() -> fuseDao.getSeries(queryBuilder));
+  }
+
+  @Override
+  public CompletableFuture<Series> getSingleSeries(QueryBuilder queryBuilder) {
+    return execute(() -> fuseDao.getSingleSeries(queryBuilder));
+  }
+
+  @Override
+  public CompletableFuture<List<Instance>> getInstances(QueryBuilder queryBuilder) {
+    return execute(() -> fuseDao.getInstances(queryBuilder));
+  }
+
+  @Override
+  public CompletableFuture<Instance> getSingleInstance(QueryBuilder queryBuilder) {
+    return execute(() -> fuseDao.getSingleInstance(queryBuilder));
+  }
+
+  @Override
+  public CompletableFuture<Void> downloadInstance(QueryBuilder queryBuilder) {
+    return execute(() -> {
+      fuseDao.downloadInstance(queryBuilder);
+      return null;
+    });
+  }
+
+  @Override
+  public CompletableFuture<Void> downloadSeries(QueryBuilder queryBuilder) {
+    return execute(() -> {
+      fuseDao.downloadSeries(queryBuilder);
+      return null;
+    });
+  }
+
+  @Override
+  public CompletableFuture<Void> downloadFrame(QueryBuilder queryBuilder) {
+    return execute(() -> {
+      fuseDao.downloadFrame(queryBuilder);
+      return null;
+    });
+  }
+
+  @Override
+  public CompletableFuture<byte[]> downloadMetadata(QueryBuilder queryBuilder) {
+    return execute(() -> fuseDao.downloadMetadata(queryBuilder));
+  }
+
+  @Override
+  public CompletableFuture<Void> uploadInstance(QueryBuilder queryBuilder) {
+    return execute(() -> {
+      fuseDao.uploadInstance(queryBuilder);
+      return null;
+    });
+  }
+
+  @Override
+  public CompletableFuture<Map<String, String>> uploadInstances(QueryBuilder queryBuilder) {
+    return execute(() -> fuseDao.uploadInstances(queryBuilder));
+  }
+
+  @Override
+  public CompletableFuture<Void> deleteInstance(QueryBuilder queryBuilder) {
+    return execute(() -> {
+      fuseDao.deleteInstance(queryBuilder);
+      return null;
+    });
+  }
+
+  @Override
+  public CompletableFuture<Void> createDicomStore(QueryBuilder queryBuilder) {
+    return execute(() -> {
+      fuseDao.createDicomStore(queryBuilder);
+      return null;
+    });
+  }
+
+  @Override
+  public CompletableFuture<Void> deleteDicomStore(QueryBuilder queryBuilder) {
+    return execute(() -> {
+      fuseDao.deleteDicomStore(queryBuilder);
+      return null;
+    });
+  }
+
+  private <T> CompletableFuture<T> execute(Request<T> request) {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    try {
+      executor.execute(() -> {
+        if (future.isDone()) {
+          return;
+        }
+        try {
+          future.complete(request.send());
+        } catch (DicomFuseException e) {
+          future.completeExceptionally(e);
+        } catch (RuntimeException e) {
+          future.completeExceptionally(new DicomFuseException(e));
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // The executor is shut down on unmount
+      future.completeExceptionally(new DicomFuseException(e));
+    }
+    return future;
+  }
+
+  private interface Request<T> {
+
+    T send() throws DicomFuseException;
+  }
+}
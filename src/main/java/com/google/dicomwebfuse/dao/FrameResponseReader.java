@@ -0,0 +1,50 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao;
+
+import com.google.dicomwebfuse.dao.http.MultipartReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+
+/**
+ * Writes the frame of a frame retrieve into a file. A single frame is sent as a multipart/related
+ * body with one part, or as a single part body by servers which do not wrap single frames.
+ */
+class FrameResponseReader {
+
+  private static final String MULTIPART = "multipart/";
+
+  private FrameResponseReader() {
+  }
+
+  static void read(InputStream content, String contentType, Path frameDataPath)
+      throws IOException {
+    if (contentType == null || !contentType.toLowerCase(Locale.ROOT).startsWith(MULTIPART)) {
+      Files.copy(content, frameDataPath, StandardCopyOption.REPLACE_EXISTING);
+      return;
+    }
+    MultipartReader multipartReader =
+        new MultipartReader(content, MultipartReader.getBoundary(contentType));
+    if (!multipartReader.nextPart()) {
+      throw new IOException("No frame in the response");
+    }
+    Files.copy(multipartReader.getPartContent(), frameDataPath,
+        StandardCopyOption.REPLACE_EXISTING);
+  }
+}
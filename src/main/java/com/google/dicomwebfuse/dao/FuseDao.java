@@ -21,6 +21,7 @@ import com.google.dicomwebfuse.entities.Instance;
 import com.google.dicomwebfuse.entities.Series;
 import com.google.dicomwebfuse.entities.Study;
 import java.util.List;
+import java.util.Map;
 
 public interface FuseDao {
 
@@ -34,7 +35,11 @@ public interface FuseDao {
   Instance getSingleInstance(QueryBuilder queryBuilder) throws DicomFuseException;
 
   void downloadInstance(QueryBuilder queryBuilder) throws DicomFuseException;
+  void downloadSeries(QueryBuilder queryBuilder) throws DicomFuseException;
+  void downloadFrame(QueryBuilder queryBuilder) throws DicomFuseException;
+  byte[] downloadMetadata(QueryBuilder queryBuilder) throws DicomFuseException;
   void uploadInstance(QueryBuilder queryBuilder) throws DicomFuseException;
+  Map<String, String> uploadInstances(QueryBuilder queryBuilder) throws DicomFuseException;
   void deleteInstance(QueryBuilder queryBuilder) throws DicomFuseException;
   void createDicomStore(QueryBuilder queryBuilder) throws DicomFuseException;
   void deleteDicomStore(QueryBuilder queryBuilder) throws DicomFuseException;
@@ -14,10 +14,6 @@
 
 package com.google.dicomwebfuse.dao;
 
-import static com.google.dicomwebfuse.dao.Constants.MAX_INSTANCES_IN_SERIES;
-import static com.google.dicomwebfuse.dao.Constants.MAX_SERIES_IN_STUDY;
-import static com.google.dicomwebfuse.dao.Constants.MAX_STUDIES_IN_DICOM_STORE;
-import static com.google.dicomwebfuse.dao.Constants.THREAD_COUNT;
 import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_MAX_LIMIT_FOR_INSTANCES;
 import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_MAX_LIMIT_FOR_SERIES;
 import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_MAX_LIMIT_FOR_STUDY;
@@ -33,18 +29,12 @@ import com.google.dicomwebfuse.entities.Study;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.apache.http.HttpStatus;
 
 public class FuseDaoHelper {
 
-  private static final Logger LOGGER = LogManager.getLogger();
-
   public static List<DicomStore> getAllDicomStores(FuseDao fuseDao, CloudConf cloudConf)
       throws DicomFuseException {
     QueryBuilder queryBuilder = QueryBuilder.forConfiguration(cloudConf);
@@ -58,44 +48,28 @@ public class FuseDaoHelper {
     return fuseDao.getSingleDicomStore(queryBuilder);
   }
 
-  public static List<Study> getStudies(FuseDao fuseDao, CloudConf cloudConf,
-      DicomPath dicomPath) throws DicomFuseException {
-    QueryBuilder queryBuilder = QueryBuilder.forConfiguration(cloudConf)
-        .setDicomStoreId(dicomPath.getDicomStoreId());
-    List<Study> studyList = fuseDao.getStudies(queryBuilder);
-
-    if (studyList.size() == VALUE_PARAM_MAX_LIMIT_FOR_STUDY) {
-      ExecutorService executorService = Executors.newFixedThreadPool(THREAD_COUNT);
-      List<Future<List<Study>>> futureList = new ArrayList<>();
+  public static List<Study> getStudies(AsyncFuseDao asyncFuseDao, int pagesInFlight,
+      CloudConf cloudConf, DicomPath dicomPath) throws DicomFuseException {
+    List<Study> studyList = new ArrayList<>();
+    forEachStudyPage(asyncFuseDao, pagesInFlight, cloudConf, dicomPath, studyList::addAll);
+    return studyList;
+  }
 
-      int iterationCount = (int) Math
-          .ceil((double) MAX_STUDIES_IN_DICOM_STORE / VALUE_PARAM_MAX_LIMIT_FOR_STUDY);
-      for (int offset = VALUE_PARAM_MAX_LIMIT_FOR_STUDY, i = 0; i < iterationCount;
-          i++, offset += VALUE_PARAM_MAX_LIMIT_FOR_STUDY) {
-        QueryBuilder queryBuilderCallable = QueryBuilder.forConfiguration(cloudConf)
+  public static void forEachStudyPage(AsyncFuseDao asyncFuseDao, int pagesInFlight,
+      CloudConf cloudConf, DicomPath dicomPath, PageConsumer<Study> pageConsumer)
+      throws DicomFuseException {
+    forEachPage(pagesInFlight, VALUE_PARAM_MAX_LIMIT_FOR_STUDY,
+        offset -> asyncFuseDao.getStudies(QueryBuilder.forConfiguration(cloudConf)
             .setDicomStoreId(dicomPath.getDicomStoreId())
-            .setOffset(offset);
-        Callable<List<Study>> callable = () -> fuseDao.getStudies(queryBuilderCallable);
-        Future<List<Study>> future = executorService.submit(callable);
-        futureList.add(future);
-      }
-      for (Future<List<Study>> future : futureList) {
-        try {
-          studyList.addAll(future.get());
-        } catch (InterruptedException | ExecutionException e) {
-          throw new DicomFuseException(e);
-        }
-      }
-      executorService.shutdown();
-    }
-
-    if (studyList.size() > MAX_STUDIES_IN_DICOM_STORE) {
-      LOGGER.warn("DICOM Store {} has more than {} studies in it, so only showing the first {}",
-          dicomPath.getDicomStoreId(), MAX_STUDIES_IN_DICOM_STORE, MAX_STUDIES_IN_DICOM_STORE);
-      studyList = studyList.subList(0, MAX_STUDIES_IN_DICOM_STORE);
-    }
+            .setOffset(offset)), pageConsumer);
+  }
 
-    return studyList;
+  public static boolean isDicomStoreEmpty(FuseDao fuseDao, CloudConf cloudConf,
+      DicomPath dicomPath) throws DicomFuseException {
+    QueryBuilder queryBuilder = QueryBuilder.forConfiguration(cloudConf)
+        .setDicomStoreId(dicomPath.getDicomStoreId())
+        .setOffset(0);
+    return fuseDao.getStudies(queryBuilder).isEmpty();
   }
 
   public static Study getSingleStudy(FuseDao fuseDao, CloudConf cloudConf, DicomPath dicomPath)
@@ -106,46 +80,21 @@ public class FuseDaoHelper {
     return fuseDao.getSingleStudy(queryBuilder);
   }
 
-  public static List<Series> getSeries(FuseDao fuseDao, CloudConf cloudConf,
-      DicomPath dicomPath) throws DicomFuseException {
-    QueryBuilder queryBuilder = QueryBuilder.forConfiguration(cloudConf)
-        .setDicomStoreId(dicomPath.getDicomStoreId())
-        .setStudyId(dicomPath.getStudyInstanceUID());
-    List<Series> seriesList = fuseDao.getSeries(queryBuilder);
-
-    if (seriesList.size() == VALUE_PARAM_MAX_LIMIT_FOR_SERIES) {
-      ExecutorService executorService = Executors.newFixedThreadPool(THREAD_COUNT);
-      List<Future<List<Series>>> futureList = new ArrayList<>();
+  public static List<Series> getSeries(AsyncFuseDao asyncFuseDao, int pagesInFlight,
+      CloudConf cloudConf, DicomPath dicomPath) throws DicomFuseException {
+    List<Series> seriesList = new ArrayList<>();
+    forEachSeriesPage(asyncFuseDao, pagesInFlight, cloudConf, dicomPath, seriesList::addAll);
+    return seriesList;
+  }
 
-      int iterationCount = (int) Math
-          .ceil((double) MAX_SERIES_IN_STUDY / VALUE_PARAM_MAX_LIMIT_FOR_SERIES);
-      for (int offset = VALUE_PARAM_MAX_LIMIT_FOR_SERIES, i = 0; i < iterationCount;
-          i++, offset += VALUE_PARAM_MAX_LIMIT_FOR_SERIES) {
-        QueryBuilder queryBuilderCallable = QueryBuilder.forConfiguration(cloudConf)
+  public static void forEachSeriesPage(AsyncFuseDao asyncFuseDao, int pagesInFlight,
+      CloudConf cloudConf, DicomPath dicomPath, PageConsumer<Series> pageConsumer)
+      throws DicomFuseException {
+    forEachPage(pagesInFlight, VALUE_PARAM_MAX_LIMIT_FOR_SERIES,
+        offset -> asyncFuseDao.getSeries(QueryBuilder.forConfiguration(cloudConf)
             .setDicomStoreId(dicomPath.getDicomStoreId())
             .setStudyId(dicomPath.getStudyInstanceUID())
-            .setOffset(offset);
-        Callable<List<Series>> callable = () -> fuseDao.getSeries(queryBuilderCallable);
-        Future<List<Series>> future = executorService.submit(callable);
-        futureList.add(future);
-      }
-      for (Future<List<Series>> future : futureList) {
-        try {
-          seriesList.addAll(future.get());
-        } catch (InterruptedException | ExecutionException e) {
-          throw new DicomFuseException(e);
-        }
-      }
-      executorService.shutdown();
-    }
-
-    if (seriesList.size() > MAX_SERIES_IN_STUDY) {
-      LOGGER.warn("DICOM Study {} has more than {} series in it, so only showing the first {}",
-          dicomPath.getStudyInstanceUID(), MAX_SERIES_IN_STUDY, MAX_SERIES_IN_STUDY);
-      seriesList = seriesList.subList(0, MAX_SERIES_IN_STUDY);
-    }
-
-    return seriesList;
+            .setOffset(offset)), pageConsumer);
   }
 
   public static Series getSingleSeries(FuseDao fuseDao, CloudConf cloudConf, DicomPath dicomPath)
@@ -157,31 +106,25 @@ public class FuseDaoHelper {
     return fuseDao.getSingleSeries(queryBuilder);
   }
 
-  public static List<Instance> getInstances(FuseDao fuseDao, CloudConf cloudConf,
-      DicomPath dicomPath) throws DicomFuseException {
-    QueryBuilder queryBuilder = QueryBuilder.forConfiguration(cloudConf)
-        .setDicomStoreId(dicomPath.getDicomStoreId())
-        .setStudyId(dicomPath.getStudyInstanceUID())
-        .setSeriesId(dicomPath.getSeriesInstanceUID());
-    List<Instance> instancesList = fuseDao.getInstances(queryBuilder);
-
-    if (instancesList.size() == VALUE_PARAM_MAX_LIMIT_FOR_INSTANCES) {
-      QueryBuilder secondRequestQueryBuilder = QueryBuilder.forConfiguration(cloudConf)
-          .setDicomStoreId(dicomPath.getDicomStoreId())
-          .setStudyId(dicomPath.getStudyInstanceUID())
-          .setSeriesId(dicomPath.getSeriesInstanceUID())
-          .setOffset(VALUE_PARAM_MAX_LIMIT_FOR_INSTANCES);
-      List<Instance> resultInstancesList = fuseDao.getInstances(secondRequestQueryBuilder);
-      instancesList.addAll(resultInstancesList);
-    }
-    if (instancesList.size() > MAX_INSTANCES_IN_SERIES) {
-      LOGGER.warn("DICOM Series {} has more than {} instances in it, so only showing the first {}",
-          dicomPath.getStudyInstanceUID(), MAX_INSTANCES_IN_SERIES, MAX_INSTANCES_IN_SERIES);
-      instancesList = instancesList.subList(0, MAX_INSTANCES_IN_SERIES);
-    }
+  public static List<Instance> getInstances(AsyncFuseDao asyncFuseDao, int pagesInFlight,
+      CloudConf cloudConf, DicomPath dicomPath) throws DicomFuseException {
+    List<Instance> instancesList = new ArrayList<>();
+    forEachInstancePage(asyncFuseDao, pagesInFlight, cloudConf, dicomPath,
+        instancesList::addAll);
     return instancesList;
   }
 
+  public static void forEachInstancePage(AsyncFuseDao asyncFuseDao, int pagesInFlight,
+      CloudConf cloudConf, DicomPath dicomPath, PageConsumer<Instance> pageConsumer)
+      throws DicomFuseException {
+    forEachPage(pagesInFlight, VALUE_PARAM_MAX_LIMIT_FOR_INSTANCES,
+        offset -> asyncFuseDao.getInstances(QueryBuilder.forConfiguration(cloudConf)
+            .setDicomStoreId(dicomPath.getDicomStoreId())
+            .setStudyId(dicomPath.getStudyInstanceUID())
+            .setSeriesId(dicomPath.getSeriesInstanceUID())
+            .setOffset(offset)), pageConsumer);
+  }
+
   public static Instance getSingleInstance(FuseDao fuseDao, CloudConf cloudConf,
       DicomPath dicomPath) throws DicomFuseException {
     QueryBuilder queryBuilder = QueryBuilder.forConfiguration(cloudConf)
@@ -193,16 +136,89 @@ public class FuseDaoHelper {
   }
 
   public static void downloadInstance(FuseDao fuseDao, CloudConf cloudConf,
-      DicomPath dicomPath, Path instanceDataPath) throws DicomFuseException {
+      DicomPath dicomPath, String transferSyntax, Path instanceDataPath)
+      throws DicomFuseException {
+    downloadInstance(fuseDao, cloudConf, dicomPath, transferSyntax, instanceDataPath, null);
+  }
+
+  public static void downloadInstance(FuseDao fuseDao, CloudConf cloudConf,
+      DicomPath dicomPath, String transferSyntax, Path instanceDataPath,
+      DownloadListener downloadListener) throws DicomFuseException {
     QueryBuilder queryBuilder = QueryBuilder.forConfiguration(cloudConf)
         .setDicomStoreId(dicomPath.getDicomStoreId())
         .setStudyId(dicomPath.getStudyInstanceUID())
         .setSeriesId(dicomPath.getSeriesInstanceUID())
         .setInstanceId(dicomPath.getSopInstanceUID())
-        .setInstanceDataPath(instanceDataPath);
+        .setTransferSyntax(transferSyntax)
+        .setInstanceDataPath(instanceDataPath)
+        .setDownloadListener(downloadListener);
     fuseDao.downloadInstance(queryBuilder);
   }
 
+  public static CompletableFuture<Void> downloadInstance(AsyncFuseDao asyncFuseDao,
+      CloudConf cloudConf, DicomPath dicomPath, String transferSyntax, Path instanceDataPath,
+      DownloadListener downloadListener) {
+    QueryBuilder queryBuilder = QueryBuilder.forConfiguration(cloudConf)
+        .setDicomStoreId(dicomPath.getDicomStoreId())
+        .setStudyId(dicomPath.getStudyInstanceUID())
+        .setSeriesId(dicomPath.getSeriesInstanceUID())
+        .setInstanceId(dicomPath.getSopInstanceUID())
+        .setTransferSyntax(transferSyntax)
+        .setInstanceDataPath(instanceDataPath)
+        .setDownloadListener(downloadListener);
+    return asyncFuseDao.downloadInstance(queryBuilder);
+  }
+
+  /**
+   * @return true if the server failed a download because it cannot convert the object to the
+   * requested transfer syntax
+   */
+  public static boolean isTransferSyntaxUnavailable(DicomFuseException e) {
+    return e.getStatusCode() == HttpStatus.SC_NOT_ACCEPTABLE;
+  }
+
+  public static CompletableFuture<Void> downloadSeries(AsyncFuseDao asyncFuseDao,
+      CloudConf cloudConf, DicomPath dicomPath, String transferSyntax,
+      SeriesDownloadListener seriesDownloadListener) {
+    QueryBuilder queryBuilder = QueryBuilder.forConfiguration(cloudConf)
+        .setDicomStoreId(dicomPath.getDicomStoreId())
+        .setStudyId(dicomPath.getStudyInstanceUID())
+        .setSeriesId(dicomPath.getSeriesInstanceUID())
+        .setTransferSyntax(transferSyntax)
+        .setSeriesDownloadListener(seriesDownloadListener);
+    return asyncFuseDao.downloadSeries(queryBuilder);
+  }
+
+  public static void downloadFrame(FuseDao fuseDao, CloudConf cloudConf, DicomPath dicomPath,
+      Path frameDataPath) throws DicomFuseException {
+    QueryBuilder queryBuilder = QueryBuilder.forConfiguration(cloudConf)
+        .setDicomStoreId(dicomPath.getDicomStoreId())
+        .setStudyId(dicomPath.getStudyInstanceUID())
+        .setSeriesId(dicomPath.getSeriesInstanceUID())
+        .setInstanceId(dicomPath.getSopInstanceUID())
+        .setFrameNumber(dicomPath.getFrameNumber())
+        .setInstanceDataPath(frameDataPath);
+    fuseDao.downloadFrame(queryBuilder);
+  }
+
+  /**
+   * Returns the DICOM JSON metadata of the instance, series or study, depending on the UIDs set in
+   * the path.
+   */
+  public static byte[] downloadMetadata(FuseDao fuseDao, CloudConf cloudConf,
+      DicomPath dicomPath) throws DicomFuseException {
+    QueryBuilder queryBuilder = QueryBuilder.forConfiguration(cloudConf)
+        .setDicomStoreId(dicomPath.getDicomStoreId())
+        .setStudyId(dicomPath.getStudyInstanceUID())
+        .setSeriesId(emptyToNull(dicomPath.getSeriesInstanceUID()))
+        .setInstanceId(emptyToNull(dicomPath.getSopInstanceUID()));
+    return fuseDao.downloadMetadata(queryBuilder);
+  }
+
+  private static String emptyToNull(String uid) {
+    return uid.isEmpty() ? null : uid;
+  }
+
   public static void uploadInstance(FuseDao fuseDao, CloudConf cloudConf, DicomPath dicomPath,
       Path instanceDataPath) throws DicomFuseException {
     QueryBuilder queryBuilder = QueryBuilder.forConfiguration(cloudConf)
@@ -212,6 +228,33 @@ public class FuseDaoHelper {
     fuseDao.uploadInstance(queryBuilder);
   }
 
+  public static void uploadInstance(FuseDao fuseDao, CloudConf cloudConf, DicomPath dicomPath,
+      UploadPipe uploadPipe) throws DicomFuseException {
+    QueryBuilder queryBuilder = QueryBuilder.forConfiguration(cloudConf)
+        .setDicomStoreId(dicomPath.getDicomStoreId())
+        .setUploadPipe(uploadPipe)
+        .setDicomPath(dicomPath);
+    fuseDao.uploadInstance(queryBuilder);
+  }
+
+  public static CompletableFuture<Void> uploadInstance(AsyncFuseDao asyncFuseDao,
+      CloudConf cloudConf, DicomPath dicomPath, Path instanceDataPath) {
+    QueryBuilder queryBuilder = QueryBuilder.forConfiguration(cloudConf)
+        .setDicomStoreId(dicomPath.getDicomStoreId())
+        .setInstanceDataPath(instanceDataPath)
+        .setDicomPath(dicomPath);
+    return asyncFuseDao.uploadInstance(queryBuilder);
+  }
+
+  public static CompletableFuture<Map<String, String>> uploadInstances(
+      AsyncFuseDao asyncFuseDao, CloudConf cloudConf, String dicomStoreId,
+      List<Path> instanceDataPaths) {
+    QueryBuilder queryBuilder = QueryBuilder.forConfiguration(cloudConf)
+        .setDicomStoreId(dicomStoreId)
+        .setInstanceDataPaths(instanceDataPaths);
+    return asyncFuseDao.uploadInstances(queryBuilder);
+  }
+
   public static void deleteInstance(FuseDao fuseDao, CloudConf cloudConf, DicomPath dicomPath)
       throws DicomFuseException {
     QueryBuilder queryBuilder = QueryBuilder.forConfiguration(cloudConf)
@@ -236,6 +279,44 @@ public class FuseDaoHelper {
     fuseDao.deleteDicomStore(queryBuilder);
   }
 
+  // Requests pages until a page is shorter than the page size and passes them on in order. After
+  // the first page, the given number of pages is requested at the same time, so at most that many
+  // pages are held in memory. The requests are sent by the dao without taking a thread each, the
+  // listing thread only waits for the page it passes on next.
+  private static <T> void forEachPage(int pagesInFlight, int pageSize,
+      PageRequest<T> pageRequest, PageConsumer<T> pageConsumer) throws DicomFuseException {
+    List<T> firstPage = BlockingFuseDao.await(pageRequest.getPage(0));
+    pageConsumer.accept(firstPage);
+    boolean lastPage = firstPage.size() < pageSize;
+    int offset = pageSize;
+    while (!lastPage) {
+      List<CompletableFuture<List<T>>> futureList = new ArrayList<>();
+      try {
+        for (int i = 0; i < pagesInFlight; i++, offset += pageSize) {
+          futureList.add(pageRequest.getPage(offset));
+        }
+        for (int i = 0; i < futureList.size() && !lastPage; i++) {
+          List<T> page = BlockingFuseDao.await(futureList.get(i));
+          futureList.set(i, null);
+          pageConsumer.accept(page);
+          lastPage = page.size() < pageSize;
+        }
+      } finally {
+        // Pages which are not needed anymore are not requested if they have not started yet
+        for (CompletableFuture<List<T>> future : futureList) {
+          if (future != null) {
+            future.cancel(false);
+          }
+        }
+      }
+    }
+  }
+
+  private interface PageRequest<T> {
+
+    CompletableFuture<List<T>> getPage(int offset);
+  }
+
   private FuseDaoHelper() {
   }
 }
@@ -14,432 +14,343 @@
 
 package com.google.dicomwebfuse.dao;
 
-import static com.google.dicomwebfuse.dao.Constants.APPLICATION_DICOM_JSON_CHARSET_UTF8;
-import static com.google.dicomwebfuse.dao.Constants.APPLICATION_DICOM_TRANSFER_SYNTAX;
-import static com.google.dicomwebfuse.dao.Constants.APPLICATION_JSON_CHARSET_UTF8;
-import static com.google.dicomwebfuse.dao.Constants.BEARER;
 import static com.google.dicomwebfuse.dao.Constants.HEALTHCARE_HOST;
-import static com.google.dicomwebfuse.dao.Constants.MULTIPART_RELATED_TYPE_APPLICATION_DICOM_BOUNDARY;
-import static com.google.dicomwebfuse.dao.Constants.PARAM_DICOM_STORE_ID;
-import static com.google.dicomwebfuse.dao.Constants.PARAM_INCLUDE_FIELD;
-import static com.google.dicomwebfuse.dao.Constants.PARAM_INSTANCE_ID;
-import static com.google.dicomwebfuse.dao.Constants.PARAM_LIMIT;
-import static com.google.dicomwebfuse.dao.Constants.PARAM_OFFSET;
-import static com.google.dicomwebfuse.dao.Constants.PARAM_PAGE_TOKEN;
-import static com.google.dicomwebfuse.dao.Constants.PARAM_SERIES_ID;
-import static com.google.dicomwebfuse.dao.Constants.PARAM_STUDY_ID;
 import static com.google.dicomwebfuse.dao.Constants.SCHEME;
-import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_MAX_LIMIT_FOR_INSTANCES;
-import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_MAX_LIMIT_FOR_SERIES;
-import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_MAX_LIMIT_FOR_STUDY;
-import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_SERIES_INSTANCE_UID;
-import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_STUDY_INSTANCE_UID;
-import static org.apache.http.HttpHeaders.ACCEPT;
 import static org.apache.http.HttpHeaders.AUTHORIZATION;
 import static org.apache.http.HttpHeaders.CONTENT_TYPE;
 
-import com.fasterxml.jackson.core.JsonParseException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.api.client.http.HttpStatusCodes;
-import com.google.auth.oauth2.GoogleCredentials;
 import com.google.dicomwebfuse.auth.AuthAdc;
 import com.google.dicomwebfuse.dao.http.HttpClientFactory;
-import com.google.dicomwebfuse.dao.spec.DicomStorePathBuilder;
-import com.google.dicomwebfuse.dao.spec.DicomStoresPathBuilder;
-import com.google.dicomwebfuse.dao.spec.InstancePathBuilder;
-import com.google.dicomwebfuse.dao.spec.InstancesPathBuilder;
+import com.google.dicomwebfuse.dao.limiter.AdaptiveLimiter;
+import com.google.dicomwebfuse.dao.limiter.AdaptiveLimiters;
+import com.google.dicomwebfuse.dao.retry.RetryPolicy;
 import com.google.dicomwebfuse.dao.spec.QueryBuilder;
-import com.google.dicomwebfuse.dao.spec.SeriesPathBuilder;
-import com.google.dicomwebfuse.dao.spec.SingleDicomStorePathBuilder;
-import com.google.dicomwebfuse.dao.spec.StudiesPathBuilder;
-import com.google.dicomwebfuse.entities.DicomPath;
 import com.google.dicomwebfuse.entities.DicomStore;
 import com.google.dicomwebfuse.entities.DicomStores;
 import com.google.dicomwebfuse.entities.Instance;
 import com.google.dicomwebfuse.entities.Series;
 import com.google.dicomwebfuse.entities.Study;
 import com.google.dicomwebfuse.exception.DicomFuseException;
-import com.google.dicomwebfuse.exception.StowErrorFormatter;
+import com.google.dicomwebfuse.metrics.FlightRecorderSupport;
+import com.google.dicomwebfuse.metrics.MetricsRegistry;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
-import java.net.URISyntaxException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
-import java.util.UUID;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpDelete;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.methods.RequestBuilder;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.util.EntityUtils;
 
-
+/**
+ * {@link FuseDao} on a blocking HTTP/1.1 client, which holds a pooled connection and the calling
+ * thread for each request.
+ */
 public class FuseDaoImpl implements FuseDao {
 
+  private static final int DOWNLOAD_BUFFER_SIZE = 64 * 1024;
+  private static final boolean FLIGHT_RECORDER_AVAILABLE = FlightRecorderSupport.isAvailable();
+  private static final ContentType APPLICATION_DICOM = ContentType.create("application/dicom");
   private AuthAdc authAdc;
-  private ObjectMapper objectMapper;
   private HttpClientFactory httpClientFactory;
+  private DicomWebCalls dicomWebCalls;
+  private RetryPolicy retryPolicy;
+  private volatile HealthcareApiCallMetrics callMetrics;
+
+  public FuseDaoImpl(AuthAdc authAdc, HttpClientFactory httpClientFactory,
+      AdaptiveLimiters adaptiveLimiters, RetryPolicy retryPolicy) {
+    this(authAdc, httpClientFactory, URI.create(SCHEME + "://" + HEALTHCARE_HOST),
+        adaptiveLimiters, retryPolicy);
+  }
 
-  public FuseDaoImpl(AuthAdc authAdc, HttpClientFactory httpClientFactory) {
+  /**
+   * Creates a dao that sends requests to the given endpoint instead of the Healthcare API host,
+   * limits the number of concurrent requests per DICOM store and operation class with the given
+   * limiters and retries failed requests with the given policy.
+   *
+   * @param endpoint scheme, host and optional port of the DICOMweb server
+   */
+  public FuseDaoImpl(AuthAdc authAdc, HttpClientFactory httpClientFactory, URI endpoint,
+      AdaptiveLimiters adaptiveLimiters, RetryPolicy retryPolicy) {
     this.authAdc = authAdc;
     this.httpClientFactory = httpClientFactory;
-    objectMapper = new ObjectMapper();
-    objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    this.dicomWebCalls = new DicomWebCalls(endpoint, adaptiveLimiters);
+    this.retryPolicy = retryPolicy;
+  }
+
+  /**
+   * Records the duration and the status code of each call in the registry.
+   */
+  public void registerMetrics(MetricsRegistry metricsRegistry) {
+    callMetrics = new HealthcareApiCallMetrics(metricsRegistry);
   }
 
   @Override
   public List<DicomStore> getAllDicomStores(QueryBuilder queryBuilder)
       throws DicomFuseException {
-    DicomStoresPathBuilder dicomStoresPathBuilder = new DicomStoresPathBuilder(queryBuilder);
-    URIBuilder uriBuilder = new URIBuilder()
-        .setScheme(SCHEME)
-        .setHost(HEALTHCARE_HOST)
-        .setPath(dicomStoresPathBuilder.toPath());
-    DicomStores dicomStoresOnPage = createRequestForObjectList(uriBuilder,
-        new TypeReference<DicomStores>() {});
     List<DicomStore> dicomStoresList = new ArrayList<>();
-    if (dicomStoresOnPage.getDicomStores() != null) {
-      dicomStoresList.addAll(dicomStoresOnPage.getDicomStores());
-    }
-    String nextPageToken = dicomStoresOnPage.getNextPageToken();
-    while (nextPageToken != null) {
-      uriBuilder.setParameter(PARAM_PAGE_TOKEN, nextPageToken);
-      dicomStoresOnPage = createRequestForObjectList(uriBuilder,
-          new TypeReference<DicomStores>() {});
-      dicomStoresList.addAll(dicomStoresOnPage.getDicomStores());
-      nextPageToken = dicomStoresOnPage.getNextPageToken();
-    }
+    String pageToken = null;
+    do {
+      DicomStores dicomStoresOnPage =
+          execute(dicomWebCalls.getDicomStores(queryBuilder, pageToken));
+      if (dicomStoresOnPage.getDicomStores() != null) {
+        dicomStoresList.addAll(dicomStoresOnPage.getDicomStores());
+      }
+      pageToken = dicomStoresOnPage.getNextPageToken();
+    } while (pageToken != null);
     return dicomStoresList;
   }
 
   @Override
   public DicomStore getSingleDicomStore(QueryBuilder queryBuilder) throws DicomFuseException {
-    SingleDicomStorePathBuilder singleDicomStorePathBuilder =
-        new SingleDicomStorePathBuilder(queryBuilder);
-    URIBuilder uriBuilder = new URIBuilder()
-        .setScheme(SCHEME)
-        .setHost(HEALTHCARE_HOST)
-        .setPath(singleDicomStorePathBuilder.toPath());
-    return createRequestForObjectList(uriBuilder, new TypeReference<DicomStore>() {});
+    return execute(dicomWebCalls.getSingleDicomStore(queryBuilder));
   }
 
   @Override
   public List<Study> getStudies(QueryBuilder queryBuilder) throws DicomFuseException {
-    StudiesPathBuilder studiesPathBuilder = new StudiesPathBuilder(queryBuilder);
-    String path = studiesPathBuilder.toPath();
-    URIBuilder uriBuilder = new URIBuilder()
-        .setScheme(SCHEME)
-        .setHost(HEALTHCARE_HOST)
-        .addParameter(PARAM_LIMIT, VALUE_PARAM_MAX_LIMIT_FOR_STUDY.toString())
-        .addParameter(PARAM_OFFSET, queryBuilder.getOffset().toString())
-        .setPath(path);
-    return createRequestForObjectsList(uriBuilder, new TypeReference<List<Study>>() {});
+    return execute(dicomWebCalls.getStudies(queryBuilder));
   }
 
   @Override
   public Study getSingleStudy(QueryBuilder queryBuilder) throws DicomFuseException {
-    StudiesPathBuilder studiesPathBuilder = new StudiesPathBuilder(queryBuilder);
-    String path = studiesPathBuilder.toPath();
-    URIBuilder uriBuilder = new URIBuilder()
-        .setScheme(SCHEME)
-        .setHost(HEALTHCARE_HOST)
-        .addParameter(PARAM_STUDY_ID, queryBuilder.getStudyId())
-        .setPath(path);
-    List<Study> studies =
-        createRequestForObjectsList(uriBuilder, new TypeReference<List<Study>>() {});
-    if (studies.size() == 0) {
-      throw new DicomFuseException("Study not found");
-    }
-    return studies.get(0);
+    return execute(dicomWebCalls.getSingleStudy(queryBuilder));
   }
 
   @Override
   public List<Series> getSeries(QueryBuilder queryBuilder) throws DicomFuseException {
-    SeriesPathBuilder seriesPathBuilder = new SeriesPathBuilder(queryBuilder);
-    String path = seriesPathBuilder.toPath();
-    URIBuilder uriBuilder = new URIBuilder()
-        .setScheme(SCHEME)
-        .setHost(HEALTHCARE_HOST)
-        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_STUDY_INSTANCE_UID)
-        .addParameter(PARAM_LIMIT, VALUE_PARAM_MAX_LIMIT_FOR_SERIES.toString())
-        .addParameter(PARAM_OFFSET, queryBuilder.getOffset().toString())
-        .setPath(path);
-    return createRequestForObjectsList(uriBuilder, new TypeReference<List<Series>>() {});
+    return execute(dicomWebCalls.getSeries(queryBuilder));
   }
 
-
   @Override
   public Series getSingleSeries(QueryBuilder queryBuilder) throws DicomFuseException {
-    SeriesPathBuilder studiesPathBuilder = new SeriesPathBuilder(queryBuilder);
-    String path = studiesPathBuilder.toPath();
-    URIBuilder uriBuilder = new URIBuilder()
-        .setScheme(SCHEME)
-        .setHost(HEALTHCARE_HOST)
-        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_STUDY_INSTANCE_UID)
-        .addParameter(PARAM_SERIES_ID, queryBuilder.getSeriesId())
-        .setPath(path);
-    List<Series> series =
-        createRequestForObjectsList(uriBuilder, new TypeReference<List<Series>>() {});
-    if (series.size() == 0) {
-      throw new DicomFuseException("Series not found");
-    }
-    return series.get(0);
+    return execute(dicomWebCalls.getSingleSeries(queryBuilder));
   }
 
   @Override
   public List<Instance> getInstances(QueryBuilder queryBuilder) throws DicomFuseException {
-    InstancesPathBuilder instancesPathBuilder = new InstancesPathBuilder(queryBuilder);
-    String path = instancesPathBuilder.toPath();
-    URIBuilder uriBuilder = new URIBuilder()
-        .setScheme(SCHEME)
-        .setHost(HEALTHCARE_HOST)
-        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_STUDY_INSTANCE_UID)
-        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_SERIES_INSTANCE_UID)
-        .addParameter(PARAM_LIMIT, VALUE_PARAM_MAX_LIMIT_FOR_INSTANCES.toString())
-        .addParameter(PARAM_OFFSET, queryBuilder.getOffset().toString())
-        .setPath(path);
-    return createRequestForObjectsList(uriBuilder, new TypeReference<List<Instance>>() {});
+    return execute(dicomWebCalls.getInstances(queryBuilder));
   }
 
   @Override
   public Instance getSingleInstance(QueryBuilder queryBuilder) throws DicomFuseException {
-    InstancesPathBuilder instancesPathBuilder = new InstancesPathBuilder(queryBuilder);
-    String path = instancesPathBuilder.toPath();
-    URIBuilder uriBuilder = new URIBuilder()
-        .setScheme(SCHEME)
-        .setHost(HEALTHCARE_HOST)
-        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_STUDY_INSTANCE_UID)
-        .addParameter(PARAM_INCLUDE_FIELD, VALUE_PARAM_SERIES_INSTANCE_UID)
-        .addParameter(PARAM_INSTANCE_ID, queryBuilder.getInstanceId())
-        .setPath(path);
-    List<Instance> instances =
-        createRequestForObjectsList(uriBuilder, new TypeReference<List<Instance>>() {});
-    if (instances.size() == 0) {
-      throw new DicomFuseException("Instance not found");
-    }
-    return instances.get(0);
+    return execute(dicomWebCalls.getSingleInstance(queryBuilder));
   }
 
   @Override
   public void downloadInstance(QueryBuilder queryBuilder) throws DicomFuseException {
-    InstancePathBuilder instancePathBuilder = new InstancePathBuilder(queryBuilder);
-    URIBuilder uriBuilder = new URIBuilder()
-        .setScheme(SCHEME)
-        .setHost(HEALTHCARE_HOST)
-        .setPath(instancePathBuilder.toPath());
-    createRequestToDownloadInstance(uriBuilder, queryBuilder.getInstanceDataPath());
+    execute(dicomWebCalls.downloadInstance(queryBuilder));
+  }
+
+  @Override
+  public void downloadSeries(QueryBuilder queryBuilder) throws DicomFuseException {
+    execute(dicomWebCalls.downloadSeries(queryBuilder));
+  }
+
+  @Override
+  public void downloadFrame(QueryBuilder queryBuilder) throws DicomFuseException {
+    execute(dicomWebCalls.downloadFrame(queryBuilder));
+  }
+
+  @Override
+  public byte[] downloadMetadata(QueryBuilder queryBuilder) throws DicomFuseException {
+    return execute(dicomWebCalls.downloadMetadata(queryBuilder));
   }
 
   @Override
   public void uploadInstance(QueryBuilder queryBuilder) throws DicomFuseException {
-    StudiesPathBuilder studiesPathBuilder = new StudiesPathBuilder(queryBuilder);
-    URIBuilder uriBuilder = new URIBuilder()
-        .setScheme(SCHEME)
-        .setHost(HEALTHCARE_HOST)
-        .setPath(studiesPathBuilder.toPath());
-    createRequestToUploadInstance(uriBuilder, queryBuilder.getInstanceDataPath(),
-        queryBuilder.getDicomPath());
+    execute(dicomWebCalls.uploadInstance(queryBuilder));
+  }
+
+  @Override
+  public Map<String, String> uploadInstances(QueryBuilder queryBuilder)
+      throws DicomFuseException {
+    return execute(dicomWebCalls.uploadInstances(queryBuilder));
   }
 
   @Override
   public void deleteInstance(QueryBuilder queryBuilder) throws DicomFuseException {
-    InstancePathBuilder instancePathBuilder = new InstancePathBuilder(queryBuilder);
-    URIBuilder uriBuilder = new URIBuilder()
-        .setScheme(SCHEME)
-        .setHost(HEALTHCARE_HOST)
-        .setPath(instancePathBuilder.toPath());
-    createRequestToDeleteInstance(uriBuilder);
+    execute(dicomWebCalls.deleteInstance(queryBuilder));
   }
 
   @Override
   public void createDicomStore(QueryBuilder queryBuilder) throws DicomFuseException {
-    DicomStoresPathBuilder dicomStoresPathBuilder = new DicomStoresPathBuilder(queryBuilder);
-    try (CloseableHttpClient httpclient = httpClientFactory.createHttpClient()) {
-      URI uri = new URIBuilder()
-          .setScheme(SCHEME)
-          .setHost(HEALTHCARE_HOST)
-          .setPath(dicomStoresPathBuilder.toPath())
-          .setParameter(PARAM_DICOM_STORE_ID, queryBuilder.getDicomStoreId())
-          .build();
-      HttpPost request = new HttpPost(uri);
-      request.addHeader(CONTENT_TYPE, APPLICATION_JSON_CHARSET_UTF8);
-      GoogleCredentials credentials = authAdc.getCredentials();
-      String tokenValue = credentials.getAccessToken().getTokenValue();
-      request.addHeader(AUTHORIZATION, BEARER + tokenValue);
-      try (CloseableHttpResponse response = httpclient.execute(request)) {
-        checkStatusCode(response, uri);
-      }
-    } catch (IOException | URISyntaxException e) {
-      throw new DicomFuseException(e);
-    }
+    execute(dicomWebCalls.createDicomStore(queryBuilder));
   }
 
   @Override
   public void deleteDicomStore(QueryBuilder queryBuilder) throws DicomFuseException {
-    DicomStorePathBuilder dicomStorePathBuilder = new DicomStorePathBuilder(queryBuilder);
-    try (CloseableHttpClient httpclient = httpClientFactory.createHttpClient()) {
-      URI uri = new URIBuilder()
-          .setScheme(SCHEME)
-          .setHost(HEALTHCARE_HOST)
-          .setPath(dicomStorePathBuilder.toPath())
-          .build();
-      HttpDelete request = new HttpDelete(uri);
-      GoogleCredentials credentials = authAdc.getCredentials();
-      String tokenValue = credentials.getAccessToken().getTokenValue();
-      request.addHeader(AUTHORIZATION, BEARER + tokenValue);
-      try (CloseableHttpResponse response = httpclient.execute(request)) {
-        checkStatusCode(response, uri);
-      }
-    } catch (IOException | URISyntaxException e) {
-      throw new DicomFuseException(e);
-    }
+    execute(dicomWebCalls.deleteDicomStore(queryBuilder));
   }
 
-  private <T> T createRequestForObjectList(URIBuilder uriBuilder, TypeReference<T> typeReference)
-      throws DicomFuseException {
-    T result;
-    try (CloseableHttpClient httpclient = httpClientFactory.createHttpClient()) {
-      URI uri = uriBuilder.build();
-      HttpGet request = new HttpGet(uri);
-      request.addHeader(CONTENT_TYPE, APPLICATION_JSON_CHARSET_UTF8);
-      GoogleCredentials credentials = authAdc.getCredentials();
-      String tokenValue = credentials.getAccessToken().getTokenValue();
-      request.addHeader(AUTHORIZATION, BEARER + tokenValue);
-      try (CloseableHttpResponse response = httpclient.execute(request)) {
-        checkStatusCode(response, uri);
-        try (InputStream inputStream = response.getEntity().getContent()) {
-          result = objectMapper.readValue(inputStream, typeReference);
-        } catch (JsonParseException | JsonMappingException e) {
-          throw new DicomFuseException(e);
+  private <T> T execute(DicomWebCall<T> call) throws DicomFuseException {
+    long startNanos = System.nanoTime();
+    AtomicInteger lastStatusCode = new AtomicInteger();
+    CloseableHttpClient httpclient = httpClientFactory.getHttpClient();
+    HttpUriRequest request = createRequest(call);
+    try {
+      if (!call.isRepeatable()) {
+        try {
+          return send(httpclient, request, call, lastStatusCode);
+        } catch (IOException e) {
+          throw new DicomFuseException("Failed HTTP " + call.getMethod() + " " + call.getUri(),
+              e);
         }
       }
-    } catch (IOException | URISyntaxException e) {
-      throw new DicomFuseException(e);
+      return retryPolicy.execute(call.isIdempotent(),
+          () -> send(httpclient, request, call, lastStatusCode));
+    } finally {
+      HealthcareApiCallMetrics metrics = callMetrics;
+      if (metrics != null) {
+        metrics.record(call.getName(), lastStatusCode.get(), startNanos);
+      }
     }
-    return result;
   }
 
-  private <T> List<T> createRequestForObjectsList(URIBuilder uriBuilder, TypeReference<List<T>> typeReference)
-      throws DicomFuseException {
-    List<T> result;
-    try (CloseableHttpClient httpclient = httpClientFactory.createHttpClient()) {
-      URI uri = uriBuilder.build();
-      HttpGet request = new HttpGet(uri);
-      request.addHeader(CONTENT_TYPE, APPLICATION_JSON_CHARSET_UTF8);
-      GoogleCredentials credentials = authAdc.getCredentials();
-      String tokenValue = credentials.getAccessToken().getTokenValue();
-      request.addHeader(AUTHORIZATION, BEARER + tokenValue);
-      try (CloseableHttpResponse response = httpclient.execute(request)) {
-        int statusCode = response.getStatusLine().getStatusCode();
-        if (statusCode == HttpStatusCodes.STATUS_CODE_OK) {
-          try (InputStream inputStream = response.getEntity().getContent()) {
-            result = objectMapper.readValue(inputStream, typeReference);
-          }
-        } else if (statusCode == HttpStatusCodes.STATUS_CODE_NO_CONTENT) {
-          result = new ArrayList<T>();
-        } else {
-          throw new DicomFuseException("Failed HTTP " + response.getStatusLine() + " " + uri,
-              statusCode);
+  private <T> T send(CloseableHttpClient httpclient, HttpUriRequest request,
+      DicomWebCall<T> call, AtomicInteger lastStatusCode) throws IOException, DicomFuseException {
+    lastStatusCode.set(0);
+    request.setHeader(AUTHORIZATION, authAdc.getAuthorizationHeader());
+    try (AdaptiveLimiter.Permit permit = acquire(call.getLimiter());
+        CloseableHttpResponse response = execute(httpclient, request)) {
+      int statusCode = response.getStatusLine().getStatusCode();
+      lastStatusCode.set(statusCode);
+      if (permit != null) {
+        permit.onResponse(statusCode);
+      }
+      Response dicomWebResponse = new Response(response);
+      try {
+        if (call.getDownloadPath() != null && statusCode == HttpStatusCodes.STATUS_CODE_OK) {
+          download(dicomWebResponse, call.getDownloadPath(), call.getDownloadListener());
+        }
+        T result = call.handle(dicomWebResponse);
+        // The entity must be consumed for the connection to be returned to the pool
+        EntityUtils.consume(dicomWebResponse.entity);
+        return result;
+      } catch (DicomFuseException e) {
+        if (RetryPolicy.isRetryableStatus(e.getStatusCode())) {
+          // Consuming the error body keeps the connection in the pool for the next attempt
+          EntityUtils.consumeQuietly(dicomWebResponse.entity);
         }
+        throw e;
       }
-    } catch (IOException | URISyntaxException e) {
-      throw new DicomFuseException(e);
     }
-    return result;
   }
 
-  private void createRequestToDownloadInstance(URIBuilder uriBuilder, Path instanceDataPath)
-      throws DicomFuseException {
-    try (CloseableHttpClient httpclient = httpClientFactory.createHttpClient()) {
-      URI uri = uriBuilder.build();
-      HttpGet request = new HttpGet(uri);
-      request.addHeader(ACCEPT, APPLICATION_DICOM_TRANSFER_SYNTAX);
-      request.addHeader(CONTENT_TYPE, APPLICATION_DICOM_JSON_CHARSET_UTF8);
-      GoogleCredentials credentials = authAdc.getCredentials();
-      String tokenValue = credentials.getAccessToken().getTokenValue();
-      request.addHeader(AUTHORIZATION, BEARER + tokenValue);
-      try (CloseableHttpResponse response = httpclient.execute(request)) {
-        checkStatusCode(response, uri);
-        HttpEntity entity = response.getEntity();
-        try (InputStream is = entity.getContent()) {
-          Files.copy(is, instanceDataPath, StandardCopyOption.REPLACE_EXISTING);
-        } catch (IOException e) {
-          throw new DicomFuseException(e);
+  private static HttpUriRequest createRequest(DicomWebCall<?> call) {
+    RequestBuilder requestBuilder = RequestBuilder.create(call.getMethod())
+        .setUri(call.getUri());
+    call.getHeaders().forEach(requestBuilder::addHeader);
+    if (call.getContentType() != null) {
+      MultipartEntityBuilder multipartEntityBuilder = MultipartEntityBuilder.create()
+          .setBoundary(call.getBoundary());
+      if (call.getUploadPipe() != null) {
+        multipartEntityBuilder.addBinaryBody("DICOMFile", call.getUploadPipe().getInputStream(),
+            APPLICATION_DICOM, "");
+      } else {
+        for (Path instanceDataPath : call.getInstanceDataPaths()) {
+          multipartEntityBuilder.addBinaryBody("DICOMFile", instanceDataPath.toFile(),
+              APPLICATION_DICOM, "");
         }
       }
-    } catch (IOException | URISyntaxException e) {
-      throw new DicomFuseException(e);
+      requestBuilder.setEntity(multipartEntityBuilder.build());
+      requestBuilder.addHeader(CONTENT_TYPE, call.getContentType());
     }
+    return requestBuilder.build();
   }
 
-  private void createRequestToUploadInstance(URIBuilder uriBuilder, Path instanceDataPath,
-      DicomPath dicomPath) throws DicomFuseException {
-    try (CloseableHttpClient httpclient = httpClientFactory.createHttpClient()) {
-      URI uri = uriBuilder.build();
-      HttpPost request = new HttpPost(uri);
-
-      ContentType contentType = ContentType.create("application/dicom");
-      String boundary = UUID.randomUUID().toString();
-
-      HttpEntity httpEntity = MultipartEntityBuilder.create()
-          .setBoundary(boundary)
-          .addBinaryBody("DICOMFile", instanceDataPath.toFile(), contentType, "")
-          .build();
-      request.setEntity(httpEntity);
-
-      request.addHeader(CONTENT_TYPE, MULTIPART_RELATED_TYPE_APPLICATION_DICOM_BOUNDARY + boundary);
-      GoogleCredentials credentials = authAdc.getCredentials();
-      String tokenValue = credentials.getAccessToken().getTokenValue();
-      request.addHeader(AUTHORIZATION, BEARER + tokenValue);
-      try (CloseableHttpResponse response = httpclient.execute(request)) {
-        int statusCode = response.getStatusLine().getStatusCode();
-        if (statusCode != HttpStatusCodes.STATUS_CODE_OK) {
-          HttpEntity entity = response.getEntity();
-          String responseBody = EntityUtils.toString(entity);
-          String mimeType = ContentType.get(entity).getMimeType();
-          throw new DicomFuseException(
-              "Failed to upload - " + dicomPath + "\n" + response.getStatusLine() +
-                  "\n" + StowErrorFormatter.formatByMimeType(responseBody, mimeType), statusCode);
-        }
+  private static void download(Response response, Path downloadPath,
+      DownloadListener downloadListener) throws IOException, DicomFuseException {
+    try (InputStream inputStream = response.getContent()) {
+      if (downloadListener == null) {
+        Files.copy(inputStream, downloadPath, StandardCopyOption.REPLACE_EXISTING);
+        return;
+      }
+      try {
+        copyWithProgress(inputStream, downloadPath, response.entity.getContentLength(),
+            downloadListener);
+      } catch (IOException e) {
+        // Readers may already use the downloaded bytes, so the download is not repeated
+        throw new DicomFuseException(e);
       }
-    } catch (IOException | URISyntaxException e) {
-      throw new DicomFuseException(e);
     }
   }
 
-  private void createRequestToDeleteInstance(URIBuilder uriBuilder) throws DicomFuseException {
-    try (CloseableHttpClient httpclient = httpClientFactory.createHttpClient()) {
-      URI uri = uriBuilder.build();
-      HttpDelete request = new HttpDelete(uri);
-      request.addHeader(CONTENT_TYPE, APPLICATION_JSON_CHARSET_UTF8);
-      GoogleCredentials credentials = authAdc.getCredentials();
-      String tokenValue = credentials.getAccessToken().getTokenValue();
-      request.addHeader(AUTHORIZATION, BEARER + tokenValue);
-      try (CloseableHttpResponse response = httpclient.execute(request)) {
-        checkStatusCode(response, uri);
+  private static void copyWithProgress(InputStream inputStream, Path instanceDataPath,
+      long contentLength, DownloadListener downloadListener) throws IOException {
+    downloadListener.onStart(contentLength);
+    byte[] buffer = new byte[DOWNLOAD_BUFFER_SIZE];
+    long downloadedBytes = 0;
+    try (OutputStream outputStream = Files.newOutputStream(instanceDataPath)) {
+      int length;
+      while ((length = inputStream.read(buffer)) != -1) {
+        // Written without buffering, so the bytes can be read from the file right away
+        outputStream.write(buffer, 0, length);
+        downloadedBytes += length;
+        downloadListener.onProgress(downloadedBytes);
       }
-    } catch (IOException | URISyntaxException e) {
-      throw new DicomFuseException(e);
     }
   }
 
-  private void checkStatusCode(CloseableHttpResponse response, URI uri) throws DicomFuseException {
-    int statusCode = response.getStatusLine().getStatusCode();
-    if (statusCode != HttpStatusCodes.STATUS_CODE_OK && statusCode != HttpStatusCodes.STATUS_CODE_NO_CONTENT) {
-      throw new DicomFuseException("Failed HTTP " + response.getStatusLine() + " " + uri,
-          statusCode);
+  private static AdaptiveLimiter.Permit acquire(AdaptiveLimiter limiter)
+      throws DicomFuseException {
+    return limiter == null ? null : limiter.acquire();
+  }
+
+  private static CloseableHttpResponse execute(CloseableHttpClient httpclient,
+      HttpUriRequest request) throws IOException {
+    if (FLIGHT_RECORDER_AVAILABLE) {
+      return HealthcareApiRequestEvent.execute(httpclient, request);
+    }
+    return httpclient.execute(request);
+  }
+
+  private static class Response implements DicomWebResponse {
+
+    private final CloseableHttpResponse response;
+    // Taken once, as the content of some entities can only be requested once
+    private final HttpEntity entity;
+    private InputStream content;
+
+    private Response(CloseableHttpResponse response) {
+      this.response = response;
+      entity = response.getEntity();
+    }
+
+    @Override
+    public int getStatusCode() {
+      return response.getStatusLine().getStatusCode();
+    }
+
+    @Override
+    public String getStatusLine() {
+      return response.getStatusLine().toString();
+    }
+
+    @Override
+    public String getFirstHeader(String name) {
+      Header header = response.getFirstHeader(name);
+      return header == null ? null : header.getValue();
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+      if (content == null && entity != null) {
+        content = entity.getContent();
+      }
+      return content;
     }
   }
 }
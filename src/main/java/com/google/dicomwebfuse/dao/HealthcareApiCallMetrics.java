@@ -0,0 +1,46 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.dicomwebfuse.dao;
+
+import com.google.dicomwebfuse.metrics.Histogram;
+import com.google.dicomwebfuse.metrics.MetricsRegistry;
+
+/**
+ * Duration of the dao calls including their retries, by dao method and the status code of the
+ * last response. Calls whose last attempt failed without a response, e.g. on a connection error,
+ * are recorded with the status "none".
+ */
+class HealthcareApiCallMetrics {
+
+  private static final String NO_STATUS = "none";
+  private final Histogram callDuration;
+
+  HealthcareApiCallMetrics(MetricsRegistry metricsRegistry) {
+    callDuration = metricsRegistry.histogram("dicomfuse_healthcare_api_call_duration_seconds",
+        "Duration of the calls of the Healthcare API including their retries, by method and "
+            + "status code", MetricsRegistry.DURATION_BUCKETS, "method", "status");
+  }
+
+  /**
+   * Records the call which started at the given time.
+   *
+   * @param statusCode status code of the last response, 0 if no response was received
+   */
+  void record(String method, int statusCode, long startNanos) {
+    callDuration.labels(method, statusCode == 0 ? NO_STATUS : String.valueOf(statusCode))
+        .observeNanos(System.nanoTime() - startNanos);
+  }
+}
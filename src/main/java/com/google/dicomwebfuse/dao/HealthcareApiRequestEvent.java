@@ -0,0 +1,194 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.nio.AsyncResponseConsumer;
+import org.apache.hc.core5.http.nio.CapacityChannel;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.http.impl.client.CloseableHttpClient;
+
+/**
+ * Flight Recorder event of a request to the Healthcare API, sent by either transport. The event
+ * lasts until the response headers are received, the body is read afterwards. Must only be
+ * loaded if {@link com.google.dicomwebfuse.metrics.FlightRecorderSupport#isAvailable()}.
+ */
+@Name("com.google.dicomwebfuse.HealthcareApiRequest")
+@Label("Healthcare API Request")
+@Category({"DICOMFuse", "Healthcare API"})
+@Description("HTTP request to the Healthcare API")
+@StackTrace(false)
+class HealthcareApiRequestEvent extends Event {
+
+  @Label("Method")
+  String method;
+
+  @Label("URI")
+  String uri;
+
+  @Label("Status")
+  @Description("HTTP status code, 0 if no response was received")
+  int status;
+
+  @Label("Request Bytes")
+  @Description("Length of the request body, -1 if it is streamed")
+  @DataAmount
+  long requestBytes;
+
+  @Label("Response Bytes")
+  @Description("Length of the response body, -1 if it is not known in advance")
+  @DataAmount
+  long responseBytes;
+
+  /**
+   * Executes the request and records an event of it if the event is enabled.
+   */
+  static CloseableHttpResponse execute(CloseableHttpClient httpClient, HttpUriRequest request)
+      throws IOException {
+    HealthcareApiRequestEvent event = new HealthcareApiRequestEvent();
+    if (!event.isEnabled()) {
+      return httpClient.execute(request);
+    }
+    event.begin();
+    CloseableHttpResponse response = null;
+    try {
+      response = httpClient.execute(request);
+      return response;
+    } finally {
+      event.end();
+      if (event.shouldCommit()) {
+        event.method = request.getMethod();
+        event.uri = request.getURI().toString();
+        if (request instanceof HttpEntityEnclosingRequest) {
+          event.requestBytes = getLength(((HttpEntityEnclosingRequest) request).getEntity());
+        }
+        if (response != null) {
+          event.status = response.getStatusLine().getStatusCode();
+          event.responseBytes = getLength(response.getEntity());
+        }
+        event.commit();
+      }
+    }
+  }
+
+  /**
+   * Wraps the consumer of the response to a request which is about to be sent, so that an event
+   * of the request is recorded when the response headers arrive or the exchange fails, if the
+   * event is enabled.
+   *
+   * @param entityProducer producer of the request body, or null
+   */
+  static <T> AsyncResponseConsumer<T> record(String method, URI uri,
+      AsyncEntityProducer entityProducer, AsyncResponseConsumer<T> responseConsumer) {
+    HealthcareApiRequestEvent event = new HealthcareApiRequestEvent();
+    if (!event.isEnabled()) {
+      return responseConsumer;
+    }
+    event.method = method;
+    event.uri = uri.toString();
+    event.requestBytes = entityProducer == null ? 0 : entityProducer.getContentLength();
+    event.begin();
+    return new RecordingResponseConsumer<>(event, responseConsumer);
+  }
+
+  private static long getLength(HttpEntity entity) {
+    return entity == null ? 0 : entity.getContentLength();
+  }
+
+  private static class RecordingResponseConsumer<T> implements AsyncResponseConsumer<T> {
+
+    private final HealthcareApiRequestEvent event;
+    private final AsyncResponseConsumer<T> responseConsumer;
+    private final AtomicBoolean ended = new AtomicBoolean();
+
+    private RecordingResponseConsumer(HealthcareApiRequestEvent event,
+        AsyncResponseConsumer<T> responseConsumer) {
+      this.event = event;
+      this.responseConsumer = responseConsumer;
+    }
+
+    @Override
+    public void consumeResponse(HttpResponse response, EntityDetails entityDetails,
+        HttpContext context, FutureCallback<T> resultCallback) throws HttpException, IOException {
+      if (ended.compareAndSet(false, true)) {
+        event.end();
+        if (event.shouldCommit()) {
+          event.status = response.getCode();
+          event.responseBytes = entityDetails == null ? 0 : entityDetails.getContentLength();
+          event.commit();
+        }
+      }
+      responseConsumer.consumeResponse(response, entityDetails, context, resultCallback);
+    }
+
+    @Override
+    public void informationResponse(HttpResponse response, HttpContext context)
+        throws HttpException, IOException {
+      responseConsumer.informationResponse(response, context);
+    }
+
+    @Override
+    public void failed(Exception cause) {
+      if (ended.compareAndSet(false, true)) {
+        event.end();
+        if (event.shouldCommit()) {
+          event.commit();
+        }
+      }
+      responseConsumer.failed(cause);
+    }
+
+    @Override
+    public void updateCapacity(CapacityChannel capacityChannel) throws IOException {
+      responseConsumer.updateCapacity(capacityChannel);
+    }
+
+    @Override
+    public void consume(ByteBuffer src) throws IOException {
+      responseConsumer.consume(src);
+    }
+
+    @Override
+    public void streamEnd(List<? extends Header> trailers) throws HttpException, IOException {
+      responseConsumer.streamEnd(trailers);
+    }
+
+    @Override
+    public void releaseResources() {
+      responseConsumer.releaseResources();
+    }
+  }
+}
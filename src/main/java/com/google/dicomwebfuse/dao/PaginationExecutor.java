@@ -0,0 +1,134 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Process-wide bounded pool sending the requests of a blocking dao for callers which compose
+ * futures, such as the pages of large listings, prefetches and uploads. When the queue is full,
+ * the caller sends the request itself instead of queueing more work. The listings themselves run
+ * on a separate bounded pool, as they wait for their pages and must not take the threads fetching
+ * them.
+ */
+public class PaginationExecutor implements Executor, Closeable {
+
+  private static final int QUEUE_CAPACITY = 1000;
+  private static final long KEEP_ALIVE_SECONDS = 60;
+  // Folders listed at the same time, further listings wait for one of them to end
+  private static final int LISTING_THREAD_COUNT = 16;
+  private final int threadCount;
+  private final ThreadPoolExecutor executor;
+  private final ThreadPoolExecutor listingExecutor;
+  private final AtomicLong startedTaskCount = new AtomicLong();
+  private final AtomicLong totalQueueTimeNanos = new AtomicLong();
+  private final LongAccumulator maxQueueTimeNanos = new LongAccumulator(Math::max, 0);
+
+  public PaginationExecutor(int threadCount) {
+    this(threadCount, threadCount);
+  }
+
+  /**
+   * @param threadCount number of pages each listing requests at the same time
+   * @param poolSize number of threads sending requests, which may belong to other callers than
+   *     the listings
+   */
+  public PaginationExecutor(int threadCount, int poolSize) {
+    this.threadCount = threadCount;
+    AtomicInteger threadNumber = new AtomicInteger();
+    executor = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE_SECONDS,
+        TimeUnit.SECONDS, new ArrayBlockingQueue<>(QUEUE_CAPACITY), runnable -> {
+          Thread thread = new Thread(runnable, "pagination-" + threadNumber.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+    // Threads are not kept while nothing is listed
+    executor.allowCoreThreadTimeOut(true);
+    AtomicInteger listingThreadNumber = new AtomicInteger();
+    listingExecutor = new ThreadPoolExecutor(LISTING_THREAD_COUNT, LISTING_THREAD_COUNT,
+        KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+          Thread thread = new Thread(runnable,
+              "directory-listing-" + listingThreadNumber.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+    listingExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  @Override
+  public void execute(Runnable runnable) {
+    long submitTime = System.nanoTime();
+    executor.execute(() -> {
+      recordStart(submitTime);
+      runnable.run();
+    });
+  }
+
+  /**
+   * Runs the listing of a whole folder in the background. The listing is queued rather than run
+   * by the caller when all listing threads are busy.
+   */
+  public void executeListing(Runnable listing) {
+    listingExecutor.execute(listing);
+  }
+
+  /**
+   * @return how many pages are worth requesting at the same time
+   */
+  public int getThreadCount() {
+    return threadCount;
+  }
+
+  public int getQueueDepth() {
+    return executor.getQueue().size();
+  }
+
+  public int getActiveCount() {
+    return executor.getActiveCount();
+  }
+
+  public long getStartedTaskCount() {
+    return startedTaskCount.get();
+  }
+
+  public long getTotalQueueTimeMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(totalQueueTimeNanos.get());
+  }
+
+  public long getMaxQueueTimeMillis() {
+    return TimeUnit.NANOSECONDS.toMillis(maxQueueTimeNanos.get());
+  }
+
+  private void recordStart(long submitTime) {
+    long queueTime = System.nanoTime() - submitTime;
+    startedTaskCount.incrementAndGet();
+    totalQueueTimeNanos.addAndGet(queueTime);
+    maxQueueTimeNanos.accumulate(queueTime);
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+    listingExecutor.shutdownNow();
+  }
+}
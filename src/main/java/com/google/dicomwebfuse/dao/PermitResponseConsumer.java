@@ -0,0 +1,82 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao;
+
+import com.google.dicomwebfuse.dao.limiter.AdaptiveLimiter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.nio.AsyncResponseConsumer;
+import org.apache.hc.core5.http.nio.CapacityChannel;
+import org.apache.hc.core5.http.protocol.HttpContext;
+
+/**
+ * Reports the response status to the limiter permit when the response headers arrive, before the
+ * body is consumed by the wrapped consumer.
+ */
+class PermitResponseConsumer<T> implements AsyncResponseConsumer<T> {
+
+  private final AsyncResponseConsumer<T> responseConsumer;
+  private final AdaptiveLimiter.Permit permit;
+
+  PermitResponseConsumer(AsyncResponseConsumer<T> responseConsumer,
+      AdaptiveLimiter.Permit permit) {
+    this.responseConsumer = responseConsumer;
+    this.permit = permit;
+  }
+
+  @Override
+  public void consumeResponse(HttpResponse response, EntityDetails entityDetails,
+      HttpContext context, FutureCallback<T> resultCallback) throws HttpException, IOException {
+    permit.onResponse(response.getCode());
+    responseConsumer.consumeResponse(response, entityDetails, context, resultCallback);
+  }
+
+  @Override
+  public void informationResponse(HttpResponse response, HttpContext context)
+      throws HttpException, IOException {
+    responseConsumer.informationResponse(response, context);
+  }
+
+  @Override
+  public void failed(Exception cause) {
+    responseConsumer.failed(cause);
+  }
+
+  @Override
+  public void updateCapacity(CapacityChannel capacityChannel) throws IOException {
+    responseConsumer.updateCapacity(capacityChannel);
+  }
+
+  @Override
+  public void consume(ByteBuffer src) throws IOException {
+    responseConsumer.consume(src);
+  }
+
+  @Override
+  public void streamEnd(List<? extends Header> trailers) throws HttpException, IOException {
+    responseConsumer.streamEnd(trailers);
+  }
+
+  @Override
+  public void releaseResources() {
+    responseConsumer.releaseResources();
+  }
+}
@@ -0,0 +1,121 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao;
+
+import static com.google.dicomwebfuse.dao.Constants.MULTIPART_RELATED_TYPE_APPLICATION_DICOM_BOUNDARY;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.nio.DataStreamChannel;
+
+/**
+ * Produces a multipart/related STOW request body with a single instance, whose bytes are taken
+ * from an {@link UploadPipe} as the file is written. The length of the body is not known in
+ * advance, and the body can be sent only once.
+ */
+class PipeEntityProducer implements AsyncEntityProducer {
+
+  private final UploadPipe uploadPipe;
+  private final String boundary;
+  private final ByteBuffer headBuffer;
+  private final ByteBuffer tailBuffer;
+  private ByteBuffer chunk;
+
+  PipeEntityProducer(UploadPipe uploadPipe, String boundary) {
+    this.uploadPipe = uploadPipe;
+    this.boundary = boundary;
+    headBuffer = ByteBuffer.wrap(("--" + boundary + "\r\nContent-Type: application/dicom\r\n\r\n")
+        .getBytes(US_ASCII));
+    tailBuffer = ByteBuffer.wrap(("\r\n--" + boundary + "--\r\n").getBytes(US_ASCII));
+  }
+
+  @Override
+  public boolean isRepeatable() {
+    return false;
+  }
+
+  @Override
+  public long getContentLength() {
+    return -1;
+  }
+
+  @Override
+  public String getContentType() {
+    return MULTIPART_RELATED_TYPE_APPLICATION_DICOM_BOUNDARY + boundary;
+  }
+
+  @Override
+  public String getContentEncoding() {
+    return null;
+  }
+
+  @Override
+  public boolean isChunked() {
+    return true;
+  }
+
+  @Override
+  public Set<String> getTrailerNames() {
+    return null;
+  }
+
+  @Override
+  public int available() {
+    // Polled again by the listener once the writer adds bytes
+    return 1;
+  }
+
+  @Override
+  public void produce(DataStreamChannel channel) throws IOException {
+    if (!write(channel, headBuffer)) {
+      return;
+    }
+    while (chunk != UploadPipe.END_OF_DATA) {
+      if (chunk == null || !chunk.hasRemaining()) {
+        chunk = uploadPipe.poll(channel::requestOutput);
+        if (chunk == null) {
+          return;
+        }
+        continue;
+      }
+      if (!write(channel, chunk)) {
+        return;
+      }
+    }
+    if (write(channel, tailBuffer)) {
+      channel.endStream();
+    }
+  }
+
+  // Returns whether the whole buffer was written
+  private static boolean write(DataStreamChannel channel, ByteBuffer buffer) throws IOException {
+    if (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    return !buffer.hasRemaining();
+  }
+
+  @Override
+  public void failed(Exception cause) {
+    uploadPipe.fail(cause instanceof IOException ? (IOException) cause : new IOException(cause));
+  }
+
+  @Override
+  public void releaseResources() {
+  }
+}
@@ -0,0 +1,187 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao;
+
+import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_NUMBER_OF_FRAMES;
+import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_SERIES_INSTANCE_UID;
+import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_SOP_INSTANCE_UID;
+import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_STUDY_INSTANCE_UID;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.dicomwebfuse.entities.Instance;
+import com.google.dicomwebfuse.entities.Series;
+import com.google.dicomwebfuse.entities.Study;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Decodes QIDO-RS responses (arrays of DICOM JSON objects) with a streaming parser. Only the
+ * Study, Series and SOP Instance UIDs and the Number of Frames are read, all other attributes are
+ * skipped without being materialized. UIDs repeated in consecutive objects, like the Study and
+ * Series UIDs of the instances in a series, are shared instead of being copied for each object.
+ * QidoResponseDecoderBenchmark of the benchmarks profile compares the time and the allocation of
+ * large listings with data binding.
+ */
+public class QidoResponseDecoder {
+
+  private static final Logger LOGGER = LogManager.getLogger();
+  private static final String VALUE = "Value";
+  private final JsonFactory jsonFactory;
+
+  public QidoResponseDecoder(JsonFactory jsonFactory) {
+    this.jsonFactory = jsonFactory;
+  }
+
+  public List<Study> decodeStudies(InputStream inputStream) throws IOException {
+    return decode(inputStream, (studyInstanceUID, seriesInstanceUID, sopInstanceUID,
+        numberOfFrames) -> studyInstanceUID == null ? null : new Study(studyInstanceUID));
+  }
+
+  public List<Series> decodeSeries(InputStream inputStream) throws IOException {
+    return decode(inputStream, (studyInstanceUID, seriesInstanceUID, sopInstanceUID,
+        numberOfFrames) -> seriesInstanceUID == null ? null
+            : new Series(studyInstanceUID, seriesInstanceUID));
+  }
+
+  public List<Instance> decodeInstances(InputStream inputStream) throws IOException {
+    return decode(inputStream, (studyInstanceUID, seriesInstanceUID, sopInstanceUID,
+        numberOfFrames) -> sopInstanceUID == null ? null
+            : new Instance(studyInstanceUID, seriesInstanceUID, sopInstanceUID, numberOfFrames));
+  }
+
+  private <T> List<T> decode(InputStream inputStream, RecordFactory<T> recordFactory)
+      throws IOException {
+    List<T> records = new ArrayList<>();
+    try (JsonParser parser = jsonFactory.createParser(inputStream)) {
+      if (parser.nextToken() != JsonToken.START_ARRAY) {
+        throw new JsonParseException(parser, "QIDO response is not a JSON array");
+      }
+      String previousStudyInstanceUID = null;
+      String previousSeriesInstanceUID = null;
+      JsonToken token;
+      while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+        String studyInstanceUID = null;
+        String seriesInstanceUID = null;
+        String sopInstanceUID = null;
+        int numberOfFrames = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          // Field names are canonicalized by the parser, so this does not allocate
+          String tag = parser.getCurrentName();
+          parser.nextToken();
+          switch (tag) {
+            case VALUE_PARAM_STUDY_INSTANCE_UID:
+              studyInstanceUID = readFirstValue(parser, previousStudyInstanceUID);
+              previousStudyInstanceUID = studyInstanceUID;
+              break;
+            case VALUE_PARAM_SERIES_INSTANCE_UID:
+              seriesInstanceUID = readFirstValue(parser, previousSeriesInstanceUID);
+              previousSeriesInstanceUID = seriesInstanceUID;
+              break;
+            case VALUE_PARAM_SOP_INSTANCE_UID:
+              sopInstanceUID = readFirstValue(parser, null);
+              break;
+            case VALUE_PARAM_NUMBER_OF_FRAMES:
+              numberOfFrames = parseNumber(readFirstValue(parser, null));
+              break;
+            default:
+              parser.skipChildren();
+          }
+        }
+        T record = recordFactory.create(studyInstanceUID, seriesInstanceUID, sopInstanceUID,
+            numberOfFrames);
+        if (record == null) {
+          LOGGER.warn("Skipping QIDO result without UID");
+        } else {
+          records.add(record);
+        }
+      }
+      if (token != JsonToken.END_ARRAY) {
+        throw new JsonParseException(parser, "Unexpected token in QIDO response: " + token);
+      }
+    }
+    return records;
+  }
+
+  // Reads the first string of the "Value" array of a DICOM JSON attribute. Returns previousValue
+  // instead of a new String if the value is the same.
+  private static String readFirstValue(JsonParser parser, String previousValue)
+      throws IOException {
+    if (parser.currentToken() != JsonToken.START_OBJECT) {
+      parser.skipChildren();
+      return null;
+    }
+    String value = null;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String name = parser.getCurrentName();
+      JsonToken token = parser.nextToken();
+      if (VALUE.equals(name) && token == JsonToken.START_ARRAY) {
+        JsonToken valueToken = parser.nextToken();
+        if (valueToken == JsonToken.VALUE_STRING) {
+          value = hasText(parser, previousValue) ? previousValue : parser.getText();
+        } else if (valueToken == JsonToken.VALUE_NUMBER_INT) {
+          // Integer String attributes, like the Number of Frames, are sent as numbers
+          value = parser.getText();
+        }
+        while (parser.currentToken() != JsonToken.END_ARRAY) {
+          parser.skipChildren();
+          parser.nextToken();
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+    return value;
+  }
+
+  private static int parseNumber(String value) {
+    if (value == null) {
+      return 0;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException e) {
+      LOGGER.warn("Skipping invalid Number of Frames " + value);
+      return 0;
+    }
+  }
+
+  private static boolean hasText(JsonParser parser, String text) throws IOException {
+    if (text == null || parser.getTextLength() != text.length()) {
+      return false;
+    }
+    char[] characters = parser.getTextCharacters();
+    int offset = parser.getTextOffset();
+    for (int i = 0; i < text.length(); i++) {
+      if (characters[offset + i] != text.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private interface RecordFactory<T> {
+
+    // Returns null if the record has no UID of its own level
+    T create(String studyInstanceUID, String seriesInstanceUID, String sopInstanceUID,
+        int numberOfFrames);
+  }
+}
@@ -0,0 +1,33 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Receives the instances of a series retrieved by a single request, one after another as they
+ * arrive.
+ */
+public interface SeriesDownloadListener {
+
+  /**
+   * Called for each instance of the series. What is not read of the content before the method
+   * returns is skipped. Throwing an exception stops the download.
+   *
+   * @param content content of the instance as a DICOM file
+   */
+  void onInstance(InputStream content) throws IOException;
+}
@@ -0,0 +1,37 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao;
+
+import com.google.dicomwebfuse.dao.http.MultipartReader;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Splits the multipart/related response of a series retrieve into instances.
+ */
+class SeriesResponseReader {
+
+  private SeriesResponseReader() {
+  }
+
+  static void read(InputStream content, String contentType,
+      SeriesDownloadListener seriesDownloadListener) throws IOException {
+    MultipartReader multipartReader =
+        new MultipartReader(content, MultipartReader.getBoundary(contentType));
+    while (multipartReader.nextPart()) {
+      seriesDownloadListener.onInstance(multipartReader.getPartContent());
+    }
+  }
+}
@@ -0,0 +1,176 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao;
+
+import static com.google.dicomwebfuse.dao.Constants.MULTIPART_RELATED_TYPE_APPLICATION_DICOM_BOUNDARY;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.nio.DataStreamChannel;
+
+/**
+ * Produces a multipart/related STOW request body with one part per instance file. The files are
+ * read in chunks as the connection accepts them, so an upload does not occupy a thread.
+ */
+class StowEntityProducer implements AsyncEntityProducer {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private final List<Path> instanceDataPaths;
+  private final String boundary;
+  private final byte[] firstHead;
+  private final byte[] head;
+  private final byte[] tail;
+  private final long contentLength;
+  private int fileIndex;
+  private ByteBuffer headBuffer;
+  private ByteBuffer tailBuffer;
+  private ByteBuffer fileBuffer;
+  private FileChannel fileChannel;
+  private long producedBytes;
+
+  StowEntityProducer(Path instanceDataPath, String boundary) throws IOException {
+    this(Collections.singletonList(instanceDataPath), boundary);
+  }
+
+  StowEntityProducer(List<Path> instanceDataPaths, String boundary) throws IOException {
+    this.instanceDataPaths = instanceDataPaths;
+    this.boundary = boundary;
+    firstHead = ("--" + boundary + "\r\nContent-Type: application/dicom\r\n\r\n")
+        .getBytes(US_ASCII);
+    // The parts after the first one start with the line break that ends the previous part
+    head = ("\r\n" + new String(firstHead, US_ASCII)).getBytes(US_ASCII);
+    tail = ("\r\n--" + boundary + "--\r\n").getBytes(US_ASCII);
+    long filesLength = 0;
+    for (Path instanceDataPath : instanceDataPaths) {
+      filesLength += Files.size(instanceDataPath);
+    }
+    contentLength = firstHead.length + (long) head.length * (instanceDataPaths.size() - 1)
+        + filesLength + tail.length;
+  }
+
+  @Override
+  public boolean isRepeatable() {
+    return true;
+  }
+
+  @Override
+  public long getContentLength() {
+    return contentLength;
+  }
+
+  @Override
+  public String getContentType() {
+    return MULTIPART_RELATED_TYPE_APPLICATION_DICOM_BOUNDARY + boundary;
+  }
+
+  @Override
+  public String getContentEncoding() {
+    return null;
+  }
+
+  @Override
+  public boolean isChunked() {
+    return false;
+  }
+
+  @Override
+  public Set<String> getTrailerNames() {
+    return null;
+  }
+
+  @Override
+  public int available() {
+    return (int) Math.min(Integer.MAX_VALUE, contentLength - producedBytes);
+  }
+
+  @Override
+  public void produce(DataStreamChannel channel) throws IOException {
+    if (tailBuffer == null) {
+      // Started again for every attempt of the request
+      fileIndex = 0;
+      tailBuffer = ByteBuffer.wrap(tail);
+      fileBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+      startFile();
+    }
+    while (fileIndex < instanceDataPaths.size()) {
+      if (!write(channel, headBuffer)) {
+        return;
+      }
+      while (fileChannel.isOpen()) {
+        if (!fileBuffer.hasRemaining()) {
+          fileBuffer.clear();
+          int length = fileChannel.read(fileBuffer);
+          fileBuffer.flip();
+          if (length == -1) {
+            fileChannel.close();
+            break;
+          }
+        }
+        if (!write(channel, fileBuffer)) {
+          return;
+        }
+      }
+      fileIndex++;
+      if (fileIndex < instanceDataPaths.size()) {
+        startFile();
+      }
+    }
+    if (write(channel, tailBuffer)) {
+      channel.endStream();
+    }
+  }
+
+  private void startFile() throws IOException {
+    headBuffer = ByteBuffer.wrap(fileIndex == 0 ? firstHead : head);
+    fileBuffer.clear();
+    fileBuffer.flip();
+    fileChannel = FileChannel.open(instanceDataPaths.get(fileIndex), StandardOpenOption.READ);
+  }
+
+  // Returns whether the whole buffer was written
+  private boolean write(DataStreamChannel channel, ByteBuffer buffer) throws IOException {
+    if (buffer.hasRemaining()) {
+      producedBytes += channel.write(buffer);
+    }
+    return !buffer.hasRemaining();
+  }
+
+  @Override
+  public void failed(Exception cause) {
+    releaseResources();
+  }
+
+  @Override
+  public void releaseResources() {
+    if (fileChannel != null) {
+      try {
+        fileChannel.close();
+      } catch (IOException e) {
+        // nothing is read from the file anymore
+      }
+    }
+    tailBuffer = null;
+    producedBytes = 0;
+  }
+}
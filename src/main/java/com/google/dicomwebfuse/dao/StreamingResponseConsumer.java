@@ -0,0 +1,169 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao;
+
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.nio.AsyncResponseConsumer;
+import org.apache.hc.core5.http.nio.CapacityChannel;
+import org.apache.hc.core5.http.nio.support.classic.SharedInputBuffer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+
+/**
+ * Passes the response body to a reader while it arrives and completes with the result of the
+ * reader. The body is handed over through a bounded buffer, so the flow control of the stream
+ * slows the server down instead of the whole body being held in memory. The reader runs on the
+ * given executor, as it blocks while waiting for the body and must not block the I/O threads.
+ */
+class StreamingResponseConsumer<T> implements AsyncResponseConsumer<T> {
+
+  private static final int BUFFER_SIZE = 256 * 1024;
+  private final ResponseReader<T> responseReader;
+  private final Executor executor;
+  private final SharedInputBuffer buffer = new SharedInputBuffer(BUFFER_SIZE);
+  private final CompletableFuture<T> readerResult = new CompletableFuture<>();
+  private volatile boolean responseReceived;
+  private volatile Exception failure;
+
+  interface ResponseReader<T> {
+
+    /**
+     * @param content body of the response, or null if the response has no body
+     */
+    T read(HttpResponse response, InputStream content) throws IOException, DicomFuseException;
+  }
+
+  StreamingResponseConsumer(ResponseReader<T> responseReader, Executor executor) {
+    this.responseReader = responseReader;
+    this.executor = executor;
+  }
+
+  /**
+   * Completes with the result of the reader once the response was received, even if the exchange
+   * fails meanwhile, so that the reader decides whether a broken body is worth another attempt.
+   *
+   * @param exchange future of the exchange which uses this consumer
+   */
+  CompletableFuture<T> getResult(CompletableFuture<T> exchange) {
+    return exchange.handle((result, throwable) -> responseReceived ? readerResult : exchange)
+        .thenCompose(Function.identity());
+  }
+
+  @Override
+  public void consumeResponse(HttpResponse response, EntityDetails entityDetails,
+      HttpContext context, FutureCallback<T> resultCallback) {
+    if (entityDetails == null) {
+      buffer.markEndStream();
+    }
+    InputStream body = entityDetails == null ? null : new ResponseInputStream();
+    responseReceived = true;
+    executor.execute(() -> {
+      try {
+        T result = responseReader.read(response, body);
+        readerResult.complete(result);
+        resultCallback.completed(result);
+      } catch (IOException | DicomFuseException | RuntimeException e) {
+        readerResult.completeExceptionally(e);
+        resultCallback.failed(e);
+      } finally {
+        // The rest of the body is consumed, so that the server can end the stream
+        drain(body);
+      }
+    });
+  }
+
+  @Override
+  public void informationResponse(HttpResponse response, HttpContext context) {
+  }
+
+  @Override
+  public void updateCapacity(CapacityChannel capacityChannel) throws IOException {
+    buffer.updateCapacity(capacityChannel);
+  }
+
+  @Override
+  public void consume(ByteBuffer src) {
+    buffer.fill(src);
+  }
+
+  @Override
+  public void streamEnd(List<? extends Header> trailers) {
+    buffer.markEndStream();
+  }
+
+  @Override
+  public void failed(Exception cause) {
+    failure = cause;
+    buffer.abort();
+  }
+
+  @Override
+  public void releaseResources() {
+  }
+
+  private static void drain(InputStream content) {
+    if (content == null) {
+      return;
+    }
+    byte[] skipped = new byte[4096];
+    try {
+      while (content.read(skipped, 0, skipped.length) != -1) {
+        // discard
+      }
+    } catch (IOException e) {
+      // the stream has already failed
+    }
+  }
+
+  // Reports a reset stream or a broken connection instead of a silently truncated body
+  private class ResponseInputStream extends InputStream {
+
+    @Override
+    public int read() throws IOException {
+      int result = buffer.read();
+      checkFailure(result);
+      return result;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      int result = buffer.read(bytes, offset, length);
+      checkFailure(result);
+      return result;
+    }
+
+    @Override
+    public int available() {
+      return buffer.length();
+    }
+
+    private void checkFailure(int result) throws IOException {
+      Exception cause = failure;
+      if (result == -1 && cause != null) {
+        throw new IOException("HTTP/2 stream failed", cause);
+      }
+    }
+  }
+}
@@ -0,0 +1,198 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Passes the bytes of a file which is still being written to the request which uploads it. The
+ * writer waits while the pipe holds more than its capacity, so a slow upload slows down the
+ * writer instead of filling the memory. The request reads the bytes either as a blocking stream
+ * or by polling without blocking.
+ */
+public class UploadPipe {
+
+  // Returned by poll at the end of the file
+  static final ByteBuffer END_OF_DATA = ByteBuffer.allocate(0);
+  // A writer which stops writing without closing the file would hold the request forever
+  private static final long READ_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+  private final int capacity;
+  private final ArrayDeque<ByteBuffer> chunks = new ArrayDeque<>();
+  private int bufferedBytes;
+  private boolean closed;
+  private IOException failure;
+  private Runnable dataListener;
+
+  public UploadPipe(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Adds the bytes to the pipe, waiting while it is full. The array is not copied. Fails if the
+   * upload has failed.
+   */
+  public void write(byte[] bytes) throws IOException {
+    Runnable listener;
+    synchronized (this) {
+      while (failure == null && bufferedBytes >= capacity) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException();
+        }
+      }
+      if (failure != null) {
+        throw new IOException("Upload failed", failure);
+      }
+      if (closed) {
+        throw new IOException("Upload pipe is closed");
+      }
+      chunks.add(ByteBuffer.wrap(bytes));
+      bufferedBytes += bytes.length;
+      notifyAll();
+      listener = takeDataListener();
+    }
+    runDataListener(listener);
+  }
+
+  /**
+   * Marks the end of the file.
+   */
+  public void close() {
+    Runnable listener;
+    synchronized (this) {
+      closed = true;
+      notifyAll();
+      listener = takeDataListener();
+    }
+    runDataListener(listener);
+  }
+
+  /**
+   * Fails both the writer and the request.
+   */
+  public void fail(IOException cause) {
+    Runnable listener;
+    synchronized (this) {
+      if (failure == null) {
+        failure = cause;
+      }
+      notifyAll();
+      listener = takeDataListener();
+    }
+    runDataListener(listener);
+  }
+
+  /**
+   * Returns the bytes as a stream, which blocks until the writer writes them.
+   */
+  public InputStream getInputStream() {
+    return new InputStream() {
+
+      private ByteBuffer chunk = ByteBuffer.allocate(0);
+
+      @Override
+      public int read() throws IOException {
+        byte[] bytes = new byte[1];
+        return read(bytes, 0, 1) == -1 ? -1 : bytes[0] & 0xFF;
+      }
+
+      @Override
+      public int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) {
+          return 0;
+        }
+        while (!chunk.hasRemaining()) {
+          chunk = take();
+          if (chunk == END_OF_DATA) {
+            return -1;
+          }
+        }
+        int count = Math.min(length, chunk.remaining());
+        chunk.get(bytes, offset, count);
+        return count;
+      }
+    };
+  }
+
+  /**
+   * Returns the next bytes without waiting, or {@link #END_OF_DATA} at the end of the file. If
+   * there are no bytes yet, returns null and runs the listener once there are.
+   */
+  ByteBuffer poll(Runnable listener) throws IOException {
+    synchronized (this) {
+      if (failure != null) {
+        throw new IOException("Upload failed", failure);
+      }
+      ByteBuffer chunk = chunks.poll();
+      if (chunk != null) {
+        bufferedBytes -= chunk.remaining();
+        notifyAll();
+        return chunk;
+      }
+      if (closed) {
+        return END_OF_DATA;
+      }
+      dataListener = listener;
+      return null;
+    }
+  }
+
+  private synchronized ByteBuffer take() throws IOException {
+    long deadline = System.currentTimeMillis() + READ_TIMEOUT_MILLIS;
+    while (failure == null && chunks.isEmpty() && !closed) {
+      long timeout = deadline - System.currentTimeMillis();
+      if (timeout <= 0) {
+        throw new InterruptedIOException("Nothing was written to the uploaded file for "
+            + TimeUnit.MILLISECONDS.toSeconds(READ_TIMEOUT_MILLIS) + " seconds");
+      }
+      try {
+        wait(timeout);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+    }
+    if (failure != null) {
+      throw new IOException("Upload failed", failure);
+    }
+    ByteBuffer chunk = chunks.poll();
+    if (chunk == null) {
+      return END_OF_DATA;
+    }
+    bufferedBytes -= chunk.remaining();
+    notifyAll();
+    return chunk;
+  }
+
+  private Runnable takeDataListener() {
+    Runnable listener = dataListener;
+    dataListener = null;
+    return listener;
+  }
+
+  private static void runDataListener(Runnable listener) {
+    // Run outside of the lock, as the listener may poll again
+    if (listener != null) {
+      listener.run();
+    }
+  }
+}
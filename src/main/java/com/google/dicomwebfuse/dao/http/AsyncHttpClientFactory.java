@@ -0,0 +1,34 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao.http;
+
+import java.io.Closeable;
+import java.util.concurrent.Executor;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+
+/**
+ * Owns the non-blocking HTTP client shared by all requests of the asynchronous dao. The returned
+ * client must not be closed by the caller.
+ */
+public interface AsyncHttpClientFactory extends Closeable {
+
+  CloseableHttpAsyncClient getHttpAsyncClient();
+
+  /**
+   * @return executor for reading response bodies, which blocks while waiting for the data and so
+   *     must not run on the I/O threads of the client
+   */
+  Executor getResponseExecutor();
+}
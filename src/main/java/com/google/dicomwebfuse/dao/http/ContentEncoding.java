@@ -0,0 +1,61 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import org.apache.http.client.entity.DeflateInputStream;
+
+/**
+ * Negotiation of compressed responses. Only DICOM JSON responses are requested compressed, DICOM
+ * instances are mostly compressed pixel data already and their byte ranges must stay readable
+ * while downloading.
+ */
+public class ContentEncoding {
+
+  public static final String ACCEPTED_ENCODINGS = "gzip, deflate";
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  /**
+   * Wraps the response body so that it is decompressed while it is read.
+   *
+   * @param inputStream response body
+   * @param contentEncoding value of the Content-Encoding header, or null
+   */
+  public static InputStream decode(InputStream inputStream, String contentEncoding)
+      throws IOException {
+    if (contentEncoding == null) {
+      return inputStream;
+    }
+    switch (contentEncoding.trim().toLowerCase(Locale.ROOT)) {
+      case "":
+      case "identity":
+        return inputStream;
+      case "gzip":
+      case "x-gzip":
+        return new GZIPInputStream(inputStream, BUFFER_SIZE);
+      case "deflate":
+        // Handles zlib wrapped and raw deflate data, servers send both
+        return new DeflateInputStream(inputStream);
+      default:
+        throw new IOException("Unsupported Content-Encoding " + contentEncoding);
+    }
+  }
+
+  private ContentEncoding() {
+  }
+}
@@ -0,0 +1,75 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao.http;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.util.TimeValue;
+
+public class Http2ClientFactoryImpl implements AsyncHttpClientFactory {
+
+  private final CloseableHttpAsyncClient httpAsyncClient;
+  private final ExecutorService responseExecutor;
+
+  /**
+   * Creates a factory with a single long-lived HTTP/2 client. Concurrent requests to the same host
+   * are sent as streams of one multiplexed connection instead of occupying a connection each.
+   *
+   * @param idleTimeSeconds time after which idle connections are evicted
+   */
+  public Http2ClientFactoryImpl(long idleTimeSeconds) {
+    httpAsyncClient = HttpAsyncClients.customHttp2()
+        .evictIdleConnections(TimeValue.ofSeconds(idleTimeSeconds))
+        .build();
+    httpAsyncClient.start();
+    responseExecutor = Executors.newCachedThreadPool(new ResponseThreadFactory());
+  }
+
+  @Override
+  public CloseableHttpAsyncClient getHttpAsyncClient() {
+    return httpAsyncClient;
+  }
+
+  @Override
+  public Executor getResponseExecutor() {
+    return responseExecutor;
+  }
+
+  @Override
+  public void close() throws IOException {
+    httpAsyncClient.close(CloseMode.GRACEFUL);
+    responseExecutor.shutdownNow();
+  }
+
+  // Response bodies are read by these threads while the I/O reactor receives them
+  private static class ResponseThreadFactory implements ThreadFactory {
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "http2-response-" + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
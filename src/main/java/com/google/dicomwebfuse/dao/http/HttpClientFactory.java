@@ -14,9 +14,14 @@
 
 package com.google.dicomwebfuse.dao.http;
 
+import java.io.Closeable;
 import org.apache.http.impl.client.CloseableHttpClient;
 
-public interface HttpClientFactory {
+/**
+ * Owns the HTTP client shared by all requests. The returned client must not be closed by the
+ * caller, it is closed together with the factory when DICOMFuse is unmounted.
+ */
+public interface HttpClientFactory extends Closeable {
 
-  CloseableHttpClient createHttpClient();
+  CloseableHttpClient getHttpClient();
 }
@@ -14,13 +14,59 @@
 
 package com.google.dicomwebfuse.dao.http;
 
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 
 public class HttpClientFactoryImpl implements HttpClientFactory {
 
+  // Connections that were idle longer than this are checked before reuse
+  private static final int VALIDATE_AFTER_INACTIVITY_MILLIS = 2000;
+  private final CloseableHttpClient httpClient;
+
+  /**
+   * Creates a factory with a single long-lived client backed by a connection pool, so that TCP and
+   * TLS handshakes to the Healthcare API are paid once per connection instead of once per request.
+   *
+   * @param maxConnections maximum number of pooled connections in total
+   * @param maxConnectionsPerRoute maximum number of pooled connections per host
+   * @param idleTimeSeconds time after which idle connections are evicted, also used as keep-alive
+   * time if the server does not send one
+   */
+  public HttpClientFactoryImpl(int maxConnections, int maxConnectionsPerRoute,
+      long idleTimeSeconds) {
+    PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(maxConnections);
+    connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+    connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY_MILLIS);
+    long idleTimeMillis = TimeUnit.SECONDS.toMillis(idleTimeSeconds);
+    ConnectionKeepAliveStrategy keepAliveStrategy = (response, context) -> {
+      long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE
+          .getKeepAliveDuration(response, context);
+      return keepAlive > 0 ? Math.min(keepAlive, idleTimeMillis) : idleTimeMillis;
+    };
+    httpClient = HttpClients.custom()
+        .setConnectionManager(connectionManager)
+        .setKeepAliveStrategy(keepAliveStrategy)
+        .evictExpiredConnections()
+        .evictIdleConnections(idleTimeSeconds, TimeUnit.SECONDS)
+        // Compression is requested per request by the dao, so that downloaded instances are not
+        // transcoded and their lengths stay known
+        .disableContentCompression()
+        .build();
+  }
+
+  @Override
+  public CloseableHttpClient getHttpClient() {
+    return httpClient;
+  }
+
   @Override
-  public CloseableHttpClient createHttpClient() {
-    return HttpClients.createDefault();
+  public void close() throws IOException {
+    httpClient.close();
   }
 }
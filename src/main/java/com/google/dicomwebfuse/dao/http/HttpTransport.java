@@ -0,0 +1,25 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao.http;
+
+/**
+ * HTTP protocol used to talk to the Healthcare API.
+ */
+public enum HttpTransport {
+  // Pooled HTTP/1.1 connections, one request per connection at a time
+  HTTP_1_1,
+  // HTTP/2 connections, concurrent requests are multiplexed as streams over a single connection
+  HTTP_2
+}
@@ -0,0 +1,226 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao.http;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Reads the parts of a multipart body one after another as they arrive, e.g. the instances of a
+ * series retrieved by a single WADO-RS request. Parts are never held in memory as a whole.
+ */
+public class MultipartReader {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final String BOUNDARY = "boundary";
+  private final InputStream inputStream;
+  private final byte[] delimiter;
+  private final byte[] buffer;
+  private int head;
+  private int tail;
+  private boolean lastPart;
+  private PartInputStream partInputStream;
+  private Map<String, String> partHeaders = new HashMap<>();
+
+  public MultipartReader(InputStream inputStream, String boundary) {
+    this.inputStream = inputStream;
+    delimiter = ("\r\n--" + boundary).getBytes(US_ASCII);
+    buffer = new byte[Math.max(BUFFER_SIZE, delimiter.length * 2)];
+    // The first delimiter may follow the preamble or start the body, so a line break is put in
+    // front of the body and the preamble is read as a part that is skipped
+    buffer[tail++] = '\r';
+    buffer[tail++] = '\n';
+    partInputStream = new PartInputStream();
+  }
+
+  /**
+   * Returns the boundary parameter of a multipart Content-Type header.
+   */
+  public static String getBoundary(String contentType) throws IOException {
+    if (contentType != null) {
+      for (String parameter : contentType.split(";")) {
+        String[] nameValue = parameter.split("=", 2);
+        if (nameValue.length == 2 && BOUNDARY.equalsIgnoreCase(nameValue[0].trim())) {
+          String boundary = nameValue[1].trim();
+          if (boundary.length() > 1 && boundary.startsWith("\"") && boundary.endsWith("\"")) {
+            boundary = boundary.substring(1, boundary.length() - 1);
+          }
+          if (!boundary.isEmpty()) {
+            return boundary;
+          }
+        }
+      }
+    }
+    throw new IOException("No multipart boundary in Content-Type " + contentType);
+  }
+
+  /**
+   * Moves to the next part, skipping what was not read of the current one.
+   *
+   * @return false if there are no more parts
+   */
+  public boolean nextPart() throws IOException {
+    if (lastPart) {
+      return false;
+    }
+    byte[] skipBuffer = new byte[BUFFER_SIZE];
+    while (partInputStream.read(skipBuffer, 0, skipBuffer.length) != -1) {
+      // skipping the rest of the part
+    }
+    if (!fill(2)) {
+      throw new EOFException("Multipart body ends after a delimiter");
+    }
+    if (buffer[head] == '-' && buffer[head + 1] == '-') {
+      // The close delimiter, the epilogue is ignored
+      lastPart = true;
+      return false;
+    }
+    readLine();
+    partHeaders = new HashMap<>();
+    String line;
+    while (!(line = readLine()).isEmpty()) {
+      int colon = line.indexOf(':');
+      if (colon > 0) {
+        partHeaders.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT),
+            line.substring(colon + 1).trim());
+      }
+    }
+    partInputStream = new PartInputStream();
+    return true;
+  }
+
+  /**
+   * Returns a header of the current part, or null if the part has no such header.
+   */
+  public String getPartHeader(String name) {
+    return partHeaders.get(name.toLowerCase(Locale.ROOT));
+  }
+
+  /**
+   * Returns the content of the current part, which ends before the next delimiter.
+   */
+  public InputStream getPartContent() {
+    return partInputStream;
+  }
+
+  private String readLine() throws IOException {
+    // Bytes after the head which were already searched, kept across compactions of the buffer
+    int searched = 0;
+    while (true) {
+      for (int i = head + searched; i < tail - 1; i++) {
+        if (buffer[i] == '\r' && buffer[i + 1] == '\n') {
+          String line = new String(buffer, head, i - head, ISO_8859_1);
+          head = i + 2;
+          return line;
+        }
+      }
+      if (tail - head == buffer.length) {
+        throw new IOException("Multipart header line is too long");
+      }
+      searched = Math.max(tail - head - 1, 0);
+      if (!fillMore()) {
+        throw new EOFException("Multipart body ends in the headers of a part");
+      }
+    }
+  }
+
+  // Reads until at least the given number of bytes is buffered, returns false at the end of stream
+  private boolean fill(int count) throws IOException {
+    while (tail - head < count) {
+      if (!fillMore()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean fillMore() throws IOException {
+    if (head > 0) {
+      System.arraycopy(buffer, head, buffer, 0, tail - head);
+      tail -= head;
+      head = 0;
+    }
+    int length = inputStream.read(buffer, tail, buffer.length - tail);
+    if (length == -1) {
+      return false;
+    }
+    tail += length;
+    return true;
+  }
+
+  private int indexOfDelimiter() {
+    for (int i = head; i <= tail - delimiter.length; i++) {
+      int j = 0;
+      while (j < delimiter.length && buffer[i + j] == delimiter[j]) {
+        j++;
+      }
+      if (j == delimiter.length) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private class PartInputStream extends InputStream {
+
+    private boolean ended;
+    // Bytes after the head which are known to belong to the part
+    private int contentBytes;
+
+    @Override
+    public int read() throws IOException {
+      byte[] oneByte = new byte[1];
+      int length = read(oneByte, 0, 1);
+      return length == -1 ? -1 : oneByte[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      if (ended) {
+        return -1;
+      }
+      if (length == 0) {
+        return 0;
+      }
+      while (contentBytes == 0) {
+        int index = indexOfDelimiter();
+        if (index == head) {
+          head += delimiter.length;
+          ended = true;
+          return -1;
+        }
+        // Without a delimiter the last bytes may be its beginning, so they are kept until more
+        // bytes arrive
+        contentBytes = index > head ? index - head
+            : Math.max(tail - head - delimiter.length + 1, 0);
+        if (contentBytes == 0 && !fillMore()) {
+          throw new EOFException("Multipart body ends in the content of a part");
+        }
+      }
+      int count = Math.min(length, contentBytes);
+      System.arraycopy(buffer, head, bytes, offset, count);
+      head += count;
+      contentBytes -= count;
+      return count;
+    }
+  }
+}
@@ -0,0 +1,207 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao.limiter;
+
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.LongSupplier;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Limits the number of concurrent requests with additive increase and multiplicative decrease.
+ * The limit grows by one per limit-worth of fast successful responses and shrinks when the server
+ * answers 429 or 503, or when the latency exceeds the tolerance over the observed baseline.
+ */
+public class AdaptiveLimiter {
+
+  private static final Logger LOGGER = LogManager.getLogger();
+  private static final int TOO_MANY_REQUESTS = 429;
+  private static final int SERVICE_UNAVAILABLE = 503;
+  private static final double OVERLOAD_BACKOFF_RATIO = 0.5;
+  private static final double LATENCY_BACKOFF_RATIO = 0.9;
+  private static final double LATENCY_TOLERANCE = 2.0;
+  // Number of samples after which the latency baseline is recalculated
+  private static final int LATENCY_WINDOW_SIZE = 100;
+  private final String name;
+  private final int minLimit;
+  private final int maxLimit;
+  private final LongSupplier nanoClock;
+  private double limit;
+  private int inFlight;
+  private final Deque<CompletableFuture<Permit>> waiters = new ArrayDeque<>();
+  private long lastDecreaseNanos;
+  private long baselineLatencyNanos = Long.MAX_VALUE;
+  private long windowMinLatencyNanos = Long.MAX_VALUE;
+  private int windowSamples;
+
+  public AdaptiveLimiter(String name, int initialLimit, int maxLimit) {
+    this(name, initialLimit, maxLimit, System::nanoTime);
+  }
+
+  AdaptiveLimiter(String name, int initialLimit, int maxLimit, LongSupplier nanoClock) {
+    this.name = name;
+    this.minLimit = 1;
+    this.maxLimit = Math.max(minLimit, maxLimit);
+    this.limit = Math.max(minLimit, Math.min(initialLimit, this.maxLimit));
+    this.nanoClock = nanoClock;
+    this.lastDecreaseNanos = nanoClock.getAsLong();
+  }
+
+  /**
+   * Waits until the number of requests in flight is below the limit.
+   *
+   * @return a permit which must be closed when the request is finished
+   */
+  public Permit acquire() throws DicomFuseException {
+    CompletableFuture<Permit> future = acquireAsync();
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      synchronized (this) {
+        waiters.remove(future);
+      }
+      // The permit may have been granted in the meantime
+      if (!future.cancel(false)) {
+        future.join().close();
+      }
+      Thread.currentThread().interrupt();
+      throw new DicomFuseException("Interrupted while waiting for a request slot", e);
+    } catch (ExecutionException e) {
+      throw new DicomFuseException(e);
+    }
+  }
+
+  /**
+   * Returns a permit when the number of requests in flight is below the limit, without blocking
+   * the calling thread. Waiting requests get their permits in the order they asked for them.
+   *
+   * @return a future of the permit which must be closed when the request is finished
+   */
+  public CompletableFuture<Permit> acquireAsync() {
+    synchronized (this) {
+      if (waiters.isEmpty() && inFlight < getLimit()) {
+        inFlight++;
+        return CompletableFuture.completedFuture(new Permit(nanoClock.getAsLong()));
+      }
+      CompletableFuture<Permit> future = new CompletableFuture<>();
+      waiters.add(future);
+      return future;
+    }
+  }
+
+  public synchronized int getLimit() {
+    return (int) limit;
+  }
+
+  public synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  public synchronized int getQueueDepth() {
+    return waiters.size();
+  }
+
+  private void release(Permit permit) {
+    List<CompletableFuture<Permit>> granted = new ArrayList<>();
+    synchronized (this) {
+      int previousLimit = getLimit();
+      if (permit.latencyNanos >= 0) {
+        if (permit.overloaded) {
+          decrease(permit, OVERLOAD_BACKOFF_RATIO);
+        } else {
+          updateBaseline(permit.latencyNanos);
+          if (permit.latencyNanos > baselineLatencyNanos * LATENCY_TOLERANCE) {
+            decrease(permit, LATENCY_BACKOFF_RATIO);
+          } else if (inFlight * 2 >= limit) {
+            // Growing only when the limit is actually used, idle limiters keep their limit
+            limit = Math.min(maxLimit, limit + 1 / limit);
+          }
+        }
+      }
+      inFlight--;
+      while (!waiters.isEmpty() && inFlight < getLimit()) {
+        granted.add(waiters.poll());
+        inFlight++;
+      }
+      if (getLimit() != previousLimit) {
+        LOGGER.debug("Concurrency limit of " + name + " changed from " + previousLimit + " to "
+            + getLimit());
+      }
+    }
+    // Completed outside of the lock, because the waiters may continue in this thread
+    for (CompletableFuture<Permit> waiter : granted) {
+      Permit grantedPermit = new Permit(nanoClock.getAsLong());
+      if (!waiter.complete(grantedPermit)) {
+        grantedPermit.close();
+      }
+    }
+  }
+
+  private void decrease(Permit permit, double backoffRatio) {
+    // Requests sent before the previous decrease saw the old limit, so they must not decrease it
+    // again. Otherwise one burst of 429 responses would drop the limit to the minimum.
+    if (permit.startNanos < lastDecreaseNanos) {
+      return;
+    }
+    limit = Math.max(minLimit, limit * backoffRatio);
+    lastDecreaseNanos = nanoClock.getAsLong();
+  }
+
+  private void updateBaseline(long latencyNanos) {
+    windowMinLatencyNanos = Math.min(windowMinLatencyNanos, latencyNanos);
+    baselineLatencyNanos = Math.min(baselineLatencyNanos, latencyNanos);
+    if (++windowSamples == LATENCY_WINDOW_SIZE) {
+      // The baseline follows the server when its latency grows for a long time
+      baselineLatencyNanos = windowMinLatencyNanos;
+      windowMinLatencyNanos = Long.MAX_VALUE;
+      windowSamples = 0;
+    }
+  }
+
+  public final class Permit implements AutoCloseable {
+
+    private final long startNanos;
+    private long latencyNanos = -1;
+    private boolean overloaded;
+    private boolean closed;
+
+    private Permit(long startNanos) {
+      this.startNanos = startNanos;
+    }
+
+    /**
+     * Records the latency until the response status was received. A permit closed without a
+     * response, for example after an I/O error, does not change the limit.
+     */
+    public void onResponse(int statusCode) {
+      latencyNanos = nanoClock.getAsLong() - startNanos;
+      overloaded = statusCode == TOO_MANY_REQUESTS || statusCode == SERVICE_UNAVAILABLE;
+    }
+
+    @Override
+    public void close() {
+      if (!closed) {
+        closed = true;
+        release(this);
+      }
+    }
+  }
+}
@@ -0,0 +1,92 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao.limiter;
+
+import com.google.dicomwebfuse.metrics.MetricsRegistry;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds one {@link AdaptiveLimiter} per DICOM store and operation class, so that an overloaded
+ * store or a slow download does not hold back listings of other stores.
+ */
+public class AdaptiveLimiters {
+
+  private static final int DEFAULT_INITIAL_LIMIT = 10;
+  private final int initialLimit;
+  private final int maxLimit;
+  private final Map<String, Map<OperationClass, AdaptiveLimiter>> limiters =
+      new ConcurrentHashMap<>();
+
+  /**
+   * @param maxLimit upper bound of every limit, usually the size of the connection pool per host
+   */
+  public AdaptiveLimiters(int maxLimit) {
+    this(Math.min(DEFAULT_INITIAL_LIMIT, maxLimit), maxLimit);
+  }
+
+  public AdaptiveLimiters(int initialLimit, int maxLimit) {
+    this.initialLimit = initialLimit;
+    this.maxLimit = maxLimit;
+  }
+
+  public AdaptiveLimiter getLimiter(String dicomStoreId, OperationClass operationClass) {
+    Map<OperationClass, AdaptiveLimiter> storeLimiters = limiters.computeIfAbsent(dicomStoreId,
+        key -> {
+          Map<OperationClass, AdaptiveLimiter> map = new EnumMap<>(OperationClass.class);
+          for (OperationClass value : OperationClass.values()) {
+            map.put(value, new AdaptiveLimiter(key + "/" + value, initialLimit, maxLimit));
+          }
+          return map;
+        });
+    return storeLimiters.get(operationClass);
+  }
+
+  /**
+   * Registers the limits, requests in flight and queue depths of the limiters.
+   */
+  public void registerMetrics(MetricsRegistry metricsRegistry) {
+    metricsRegistry.gauge("dicomfuse_limiter_limit",
+        "Concurrent requests allowed, by DICOM store and operation class",
+        samples -> getMetrics().forEach(metrics -> samples.add(metrics.getLimit(),
+            metrics.getDicomStoreId(), metrics.getOperationClass().name())),
+        "dicom_store", "operation_class");
+    metricsRegistry.gauge("dicomfuse_limiter_in_flight",
+        "Requests in flight, by DICOM store and operation class",
+        samples -> getMetrics().forEach(metrics -> samples.add(metrics.getInFlight(),
+            metrics.getDicomStoreId(), metrics.getOperationClass().name())),
+        "dicom_store", "operation_class");
+    metricsRegistry.gauge("dicomfuse_limiter_queue_depth",
+        "Requests waiting for the limiter, by DICOM store and operation class",
+        samples -> getMetrics().forEach(metrics -> samples.add(metrics.getQueueDepth(),
+            metrics.getDicomStoreId(), metrics.getOperationClass().name())),
+        "dicom_store", "operation_class");
+  }
+
+  public List<LimiterMetrics> getMetrics() {
+    List<LimiterMetrics> metrics = new ArrayList<>();
+    for (Map.Entry<String, Map<OperationClass, AdaptiveLimiter>> store : limiters.entrySet()) {
+      for (Map.Entry<OperationClass, AdaptiveLimiter> entry : store.getValue().entrySet()) {
+        AdaptiveLimiter limiter = entry.getValue();
+        metrics.add(new LimiterMetrics(store.getKey(), entry.getKey(), limiter.getLimit(),
+            limiter.getInFlight(), limiter.getQueueDepth()));
+      }
+    }
+    return metrics;
+  }
+}
@@ -0,0 +1,67 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao.limiter;
+
+/**
+ * Snapshot of the state of an {@link AdaptiveLimiter}.
+ */
+public class LimiterMetrics {
+
+  private final String dicomStoreId;
+  private final OperationClass operationClass;
+  private final int limit;
+  private final int inFlight;
+  private final int queueDepth;
+
+  LimiterMetrics(String dicomStoreId, OperationClass operationClass, int limit, int inFlight,
+      int queueDepth) {
+    this.dicomStoreId = dicomStoreId;
+    this.operationClass = operationClass;
+    this.limit = limit;
+    this.inFlight = inFlight;
+    this.queueDepth = queueDepth;
+  }
+
+  public String getDicomStoreId() {
+    return dicomStoreId;
+  }
+
+  public OperationClass getOperationClass() {
+    return operationClass;
+  }
+
+  public int getLimit() {
+    return limit;
+  }
+
+  public int getInFlight() {
+    return inFlight;
+  }
+
+  public int getQueueDepth() {
+    return queueDepth;
+  }
+
+  @Override
+  public String toString() {
+    return "LimiterMetrics{" +
+        "dicomStoreId='" + dicomStoreId + '\'' +
+        ", operationClass=" + operationClass +
+        ", limit=" + limit +
+        ", inFlight=" + inFlight +
+        ", queueDepth=" + queueDepth +
+        '}';
+  }
+}
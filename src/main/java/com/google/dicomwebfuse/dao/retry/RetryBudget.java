@@ -0,0 +1,56 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao.retry;
+
+/**
+ * Process-wide limit of retries. Every request deposits a fraction of a retry and every retry
+ * withdraws a whole one, so during an outage the retries add at most that fraction to the load
+ * instead of multiplying it by the number of attempts.
+ */
+public class RetryBudget {
+
+  // Retries allowed in a burst, e.g. right after the mount when few requests were sent yet
+  private static final double MAX_BALANCE = 10;
+  private final double retryRatio;
+  private double balance = MAX_BALANCE;
+  private long exhaustedCount;
+
+  /**
+   * @param retryRatio retries allowed per request, e.g. 0.1 allows one retry for ten requests
+   */
+  public RetryBudget(double retryRatio) {
+    this.retryRatio = retryRatio;
+  }
+
+  synchronized void onRequest() {
+    balance = Math.min(MAX_BALANCE, balance + retryRatio);
+  }
+
+  synchronized boolean tryWithdraw() {
+    if (balance < 1) {
+      exhaustedCount++;
+      return false;
+    }
+    balance--;
+    return true;
+  }
+
+  /**
+   * @return number of retries which were not done because the budget was exhausted
+   */
+  public synchronized long getExhaustedCount() {
+    return exhaustedCount;
+  }
+}
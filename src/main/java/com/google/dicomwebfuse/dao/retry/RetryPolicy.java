@@ -0,0 +1,244 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao.retry;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLException;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Sends a request again after transient failures, waiting between attempts with decorrelated
+ * jitter, so that clients which failed together do not retry together.
+ */
+public class RetryPolicy {
+
+  private static final Logger LOGGER = LogManager.getLogger();
+  private static final long BASE_DELAY_MILLIS = 100;
+  private static final int TOO_MANY_REQUESTS = 429;
+  private static final int SERVICE_UNAVAILABLE = 503;
+  private final int maxRetries;
+  private final long maxDelayMillis;
+  private final RetryBudget retryBudget;
+  private final Sleeper sleeper;
+
+  /**
+   * @param maxRetries maximum number of retries of a single request, 0 disables retries
+   * @param maxDelayMillis maximum delay before a retry. Requests are not retried if the server asks
+   * to wait longer.
+   * @param retryBudget budget shared by all requests of the process
+   */
+  public RetryPolicy(int maxRetries, long maxDelayMillis, RetryBudget retryBudget) {
+    this(maxRetries, maxDelayMillis, retryBudget, Thread::sleep);
+  }
+
+  RetryPolicy(int maxRetries, long maxDelayMillis, RetryBudget retryBudget, Sleeper sleeper) {
+    this.maxRetries = maxRetries;
+    this.maxDelayMillis = maxDelayMillis;
+    this.retryBudget = retryBudget;
+    this.sleeper = sleeper;
+  }
+
+  /**
+   * Runs the attempt until it succeeds, fails permanently or the retries are exhausted.
+   *
+   * @param idempotent whether the request may be repeated after it could have reached the server.
+   * Otherwise it is retried only if the server rejected it without processing (429 and 503) or the
+   * connection could not be established.
+   */
+  public <T> T execute(boolean idempotent, Attempt<T> attempt) throws DicomFuseException {
+    retryBudget.onRequest();
+    Backoff backoff = new Backoff(idempotent);
+    while (true) {
+      Exception failure;
+      try {
+        return attempt.run();
+      } catch (DicomFuseException | IOException e) {
+        failure = e;
+      }
+      long sleepMillis = backoff.nextDelayMillis(failure);
+      if (sleepMillis < 0) {
+        throw toDicomFuseException(failure);
+      }
+      try {
+        sleeper.sleep(sleepMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw toDicomFuseException(failure);
+      }
+    }
+  }
+
+  /**
+   * Same as {@link #execute(boolean, Attempt)}, but waits between attempts without blocking a
+   * thread. The returned future fails with a {@link DicomFuseException}.
+   */
+  public <T> CompletableFuture<T> executeAsync(boolean idempotent, AsyncAttempt<T> attempt) {
+    retryBudget.onRequest();
+    CompletableFuture<T> result = new CompletableFuture<>();
+    runAsync(attempt, new Backoff(idempotent), result);
+    return result;
+  }
+
+  private <T> void runAsync(AsyncAttempt<T> attempt, Backoff backoff,
+      CompletableFuture<T> result) {
+    CompletableFuture<T> future;
+    try {
+      future = attempt.run();
+    } catch (RuntimeException e) {
+      result.completeExceptionally(e);
+      return;
+    }
+    future.whenComplete((value, throwable) -> {
+      if (throwable == null) {
+        result.complete(value);
+        return;
+      }
+      Throwable failure = throwable instanceof CompletionException && throwable.getCause() != null
+          ? throwable.getCause() : throwable;
+      long sleepMillis = failure instanceof Exception
+          ? backoff.nextDelayMillis((Exception) failure) : -1;
+      if (sleepMillis < 0) {
+        result.completeExceptionally(failure instanceof Exception
+            ? toDicomFuseException((Exception) failure) : failure);
+      } else {
+        SchedulerHolder.SCHEDULER.schedule(() -> runAsync(attempt, backoff, result),
+            sleepMillis, TimeUnit.MILLISECONDS);
+      }
+    });
+  }
+
+  private static DicomFuseException toDicomFuseException(Exception e) {
+    return e instanceof DicomFuseException ? (DicomFuseException) e : new DicomFuseException(e);
+  }
+
+  /**
+   * Parses the value of the Retry-After header, which is either a number of seconds or an HTTP
+   * date.
+   *
+   * @return delay in milliseconds, or -1 if the value is absent or invalid
+   */
+  public static long parseRetryAfterMillis(String value) {
+    if (value == null) {
+      return -1;
+    }
+    String trimmed = value.trim();
+    try {
+      return TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(trimmed)));
+    } catch (NumberFormatException e) {
+      Date date = DateUtils.parseDate(trimmed);
+      if (date == null) {
+        return -1;
+      }
+      return Math.max(0, date.getTime() - System.currentTimeMillis());
+    }
+  }
+
+  public static boolean isRetryableStatus(int statusCode) {
+    return statusCode == TOO_MANY_REQUESTS || statusCode == 500 || statusCode == 502
+        || statusCode == SERVICE_UNAVAILABLE || statusCode == 504;
+  }
+
+  private static boolean isTransient(IOException e) {
+    if (e instanceof InterruptedIOException) {
+      // Interrupted reads are cancellations, only timeouts are worth another attempt
+      return e instanceof SocketTimeoutException;
+    }
+    return !(e instanceof UnknownHostException || e instanceof SSLException
+        || e instanceof JsonProcessingException);
+  }
+
+  public interface Attempt<T> {
+
+    T run() throws IOException, DicomFuseException;
+  }
+
+  /**
+   * Sends the request once. The returned future fails with a {@link DicomFuseException} or an
+   * {@link IOException}.
+   */
+  public interface AsyncAttempt<T> {
+
+    CompletableFuture<T> run();
+  }
+
+  interface Sleeper {
+
+    void sleep(long millis) throws InterruptedException;
+  }
+
+  // Delays of asynchronous retries are short and rare, so one daemon thread schedules them all
+  private static class SchedulerHolder {
+
+    private static final ScheduledExecutorService SCHEDULER =
+        Executors.newSingleThreadScheduledExecutor(runnable -> {
+          Thread thread = new Thread(runnable, "retry-scheduler");
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
+  private class Backoff {
+
+    private final boolean idempotent;
+    private int retry;
+    private long delayMillis = BASE_DELAY_MILLIS;
+
+    private Backoff(boolean idempotent) {
+      this.idempotent = idempotent;
+    }
+
+    // Returns the time to wait before the next attempt, or -1 if the failure is final
+    private long nextDelayMillis(Exception failure) {
+      long retryAfterMillis = -1;
+      boolean retryable;
+      if (failure instanceof RetryableStatusException) {
+        RetryableStatusException statusException = (RetryableStatusException) failure;
+        retryAfterMillis = statusException.getRetryAfterMillis();
+        retryable = idempotent || statusException.getStatusCode() == TOO_MANY_REQUESTS
+            || statusException.getStatusCode() == SERVICE_UNAVAILABLE;
+      } else if (failure instanceof IOException) {
+        retryable = idempotent ? isTransient((IOException) failure)
+            : failure instanceof ConnectException;
+      } else {
+        retryable = false;
+      }
+      if (!retryable || retry >= maxRetries || retryAfterMillis > maxDelayMillis
+          || !retryBudget.tryWithdraw()) {
+        return -1;
+      }
+      retry++;
+      delayMillis = Math.min(maxDelayMillis,
+          ThreadLocalRandom.current().nextLong(BASE_DELAY_MILLIS, delayMillis * 3 + 1));
+      long sleepMillis = Math.max(delayMillis, retryAfterMillis);
+      LOGGER.debug("Retrying in " + sleepMillis + " ms after: " + failure.getMessage());
+      return sleepMillis;
+    }
+  }
+}
@@ -0,0 +1,37 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao.retry;
+
+import com.google.dicomwebfuse.exception.DicomFuseException;
+
+/**
+ * Thrown for a response status after which the request may succeed if it is sent again.
+ */
+public class RetryableStatusException extends DicomFuseException {
+
+  private final long retryAfterMillis;
+
+  /**
+   * @param retryAfterMillis delay requested by the server with the Retry-After header, or -1
+   */
+  public RetryableStatusException(String message, int statusCode, long retryAfterMillis) {
+    super(message, statusCode);
+    this.retryAfterMillis = retryAfterMillis;
+  }
+
+  long getRetryAfterMillis() {
+    return retryAfterMillis;
+  }
+}
@@ -14,9 +14,15 @@
 
 package com.google.dicomwebfuse.dao.spec;
 
+import static com.google.dicomwebfuse.dao.Constants.ANY_TRANSFER_SYNTAX;
+
+import com.google.dicomwebfuse.dao.DownloadListener;
+import com.google.dicomwebfuse.dao.SeriesDownloadListener;
+import com.google.dicomwebfuse.dao.UploadPipe;
 import com.google.dicomwebfuse.entities.CloudConf;
 import com.google.dicomwebfuse.entities.DicomPath;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.Objects;
 
 public class QueryBuilder {
@@ -26,9 +32,15 @@ public class QueryBuilder {
   private String studyId;
   private String seriesId;
   private String instanceId;
+  private Integer frameNumber;
   private Path instanceDataPath;
+  private List<Path> instanceDataPaths;
+  private UploadPipe uploadPipe;
   private DicomPath dicomPath;
   private Integer offset = 0;
+  private DownloadListener downloadListener;
+  private String transferSyntax = ANY_TRANSFER_SYNTAX;
+  private SeriesDownloadListener seriesDownloadListener;
 
   private QueryBuilder() {
   }
@@ -59,11 +71,26 @@ public class QueryBuilder {
     return this;
   }
 
+  public QueryBuilder setFrameNumber(Integer frameNumber) {
+    this.frameNumber = frameNumber;
+    return this;
+  }
+
   public QueryBuilder setInstanceDataPath(Path instanceDataPath) {
     this.instanceDataPath = instanceDataPath;
     return this;
   }
 
+  public QueryBuilder setInstanceDataPaths(List<Path> instanceDataPaths) {
+    this.instanceDataPaths = instanceDataPaths;
+    return this;
+  }
+
+  public QueryBuilder setUploadPipe(UploadPipe uploadPipe) {
+    this.uploadPipe = uploadPipe;
+    return this;
+  }
+
   public QueryBuilder setDicomPath(DicomPath dicomPath) {
     this.dicomPath = dicomPath;
     return this;
@@ -74,6 +101,21 @@ public class QueryBuilder {
     return this;
   }
 
+  public QueryBuilder setDownloadListener(DownloadListener downloadListener) {
+    this.downloadListener = downloadListener;
+    return this;
+  }
+
+  public QueryBuilder setTransferSyntax(String transferSyntax) {
+    this.transferSyntax = transferSyntax;
+    return this;
+  }
+
+  public QueryBuilder setSeriesDownloadListener(SeriesDownloadListener seriesDownloadListener) {
+    this.seriesDownloadListener = seriesDownloadListener;
+    return this;
+  }
+
   public CloudConf getCloudConf() {
     return cloudConf;
   }
@@ -94,10 +136,22 @@ public class QueryBuilder {
     return instanceId;
   }
 
+  public Integer getFrameNumber() {
+    return frameNumber;
+  }
+
   public Path getInstanceDataPath() {
     return instanceDataPath;
   }
 
+  public List<Path> getInstanceDataPaths() {
+    return instanceDataPaths;
+  }
+
+  public UploadPipe getUploadPipe() {
+    return uploadPipe;
+  }
+
   public DicomPath getDicomPath() {
     return dicomPath;
   }
@@ -106,6 +160,18 @@ public class QueryBuilder {
     return offset;
   }
 
+  public DownloadListener getDownloadListener() {
+    return downloadListener;
+  }
+
+  public String getTransferSyntax() {
+    return transferSyntax;
+  }
+
+  public SeriesDownloadListener getSeriesDownloadListener() {
+    return seriesDownloadListener;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -120,15 +186,18 @@ public class QueryBuilder {
         Objects.equals(studyId, that.studyId) &&
         Objects.equals(seriesId, that.seriesId) &&
         Objects.equals(instanceId, that.instanceId) &&
+        Objects.equals(frameNumber, that.frameNumber) &&
         Objects.equals(instanceDataPath, that.instanceDataPath) &&
+        Objects.equals(instanceDataPaths, that.instanceDataPaths) &&
         Objects.equals(dicomPath, that.dicomPath) &&
-        Objects.equals(offset, that.offset);
+        Objects.equals(offset, that.offset) &&
+        Objects.equals(downloadListener, that.downloadListener);
   }
 
   @Override
   public int hashCode() {
     return Objects
-        .hash(cloudConf, dicomStoreId, studyId, seriesId, instanceId, instanceDataPath, dicomPath,
-            offset);
+        .hash(cloudConf, dicomStoreId, studyId, seriesId, instanceId, frameNumber,
+            instanceDataPath, instanceDataPaths, dicomPath, offset, downloadListener);
   }
 }
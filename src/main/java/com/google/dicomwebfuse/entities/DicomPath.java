@@ -19,11 +19,16 @@ import java.util.Objects;
 public class DicomPath {
 
   private static final String DCM_EXTENSION = ".dcm";
+  private static final String FRAMES_EXTENSION = ".frames";
+  private static final String FRAME_NAME_FORMAT = "%04d.bin";
+  private static final String METADATA_FILE_NAME = "metadata.json";
+  private static final String JSON_EXTENSION = ".json";
   private final DicomPathLevel dicomPathLevel;
   private final String dicomStoreId;
   private final String studyInstanceUID;
   private final String seriesInstanceUID;
   private final String sopInstanceUID;
+  private final int frameNumber;
   private final String fileName;
 
 
@@ -34,6 +39,7 @@ public class DicomPath {
     private String studyInstanceUID = "";
     private String seriesInstanceUID = "";
     private String sopInstanceUID = "";
+    private int frameNumber;
     private String fileName = "";
 
     public Builder(DicomPathLevel dicomPathLevel) {
@@ -60,6 +66,11 @@ public class DicomPath {
       return this;
     }
 
+    public Builder frameNumber(int frameNumber) {
+      this.frameNumber = frameNumber;
+      return this;
+    }
+
     public Builder fileName(String fileName) {
       this.fileName = fileName;
       return this;
@@ -76,6 +87,7 @@ public class DicomPath {
     studyInstanceUID = builder.studyInstanceUID;
     seriesInstanceUID = builder.seriesInstanceUID;
     sopInstanceUID = builder.sopInstanceUID;
+    frameNumber = builder.frameNumber;
     fileName = builder.fileName;
   }
 
@@ -99,6 +111,10 @@ public class DicomPath {
     return sopInstanceUID;
   }
 
+  public int getFrameNumber() {
+    return frameNumber;
+  }
+
   public String getFileName() {
     return fileName;
   }
@@ -134,6 +150,54 @@ public class DicomPath {
         stringBuilder.append(sopInstanceUID);
         stringBuilder.append(DCM_EXTENSION);
         break;
+      case FRAMES:
+        stringBuilder.append(dicomStoreId);
+        stringBuilder.append("/");
+        stringBuilder.append(studyInstanceUID);
+        stringBuilder.append("/");
+        stringBuilder.append(seriesInstanceUID);
+        stringBuilder.append("/");
+        stringBuilder.append(sopInstanceUID);
+        stringBuilder.append(FRAMES_EXTENSION);
+        break;
+      case FRAME:
+        stringBuilder.append(dicomStoreId);
+        stringBuilder.append("/");
+        stringBuilder.append(studyInstanceUID);
+        stringBuilder.append("/");
+        stringBuilder.append(seriesInstanceUID);
+        stringBuilder.append("/");
+        stringBuilder.append(sopInstanceUID);
+        stringBuilder.append(FRAMES_EXTENSION);
+        stringBuilder.append("/");
+        stringBuilder.append(String.format(FRAME_NAME_FORMAT, frameNumber));
+        break;
+      case STUDY_METADATA:
+        stringBuilder.append(dicomStoreId);
+        stringBuilder.append("/");
+        stringBuilder.append(studyInstanceUID);
+        stringBuilder.append("/");
+        stringBuilder.append(METADATA_FILE_NAME);
+        break;
+      case SERIES_METADATA:
+        stringBuilder.append(dicomStoreId);
+        stringBuilder.append("/");
+        stringBuilder.append(studyInstanceUID);
+        stringBuilder.append("/");
+        stringBuilder.append(seriesInstanceUID);
+        stringBuilder.append("/");
+        stringBuilder.append(METADATA_FILE_NAME);
+        break;
+      case INSTANCE_METADATA:
+        stringBuilder.append(dicomStoreId);
+        stringBuilder.append("/");
+        stringBuilder.append(studyInstanceUID);
+        stringBuilder.append("/");
+        stringBuilder.append(seriesInstanceUID);
+        stringBuilder.append("/");
+        stringBuilder.append(sopInstanceUID);
+        stringBuilder.append(JSON_EXTENSION);
+        break;
       case TEMP_FILE_IN_DICOM_STORE:
         stringBuilder.append(dicomStoreId);
         stringBuilder.append("/");
@@ -167,6 +231,7 @@ public class DicomPath {
         Objects.equals(studyInstanceUID, dicomPath.studyInstanceUID) &&
         Objects.equals(seriesInstanceUID, dicomPath.seriesInstanceUID) &&
         Objects.equals(sopInstanceUID, dicomPath.sopInstanceUID) &&
+        frameNumber == dicomPath.frameNumber &&
         Objects.equals(fileName, dicomPath.fileName);
   }
 
@@ -174,6 +239,6 @@ public class DicomPath {
   public int hashCode() {
     return Objects
         .hash(dicomPathLevel, dicomStoreId, studyInstanceUID, seriesInstanceUID, sopInstanceUID,
-            fileName);
+            frameNumber, fileName);
   }
 }
@@ -20,6 +20,11 @@ public enum DicomPathLevel {
   STUDY,
   SERIES,
   INSTANCE,
+  FRAMES,
+  FRAME,
+  STUDY_METADATA,
+  SERIES_METADATA,
+  INSTANCE_METADATA,
   TEMP_FILE_IN_DICOM_STORE,
   TEMP_FILE_IN_SERIES
 }
@@ -14,44 +14,63 @@
 
 package com.google.dicomwebfuse.entities;
 
-import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.annotation.JsonProperty;
 import java.util.Objects;
 
-@JsonInclude(JsonInclude.Include.NON_NULL)
 public class Instance {
 
-  @JsonProperty("0020000D")
-  private DicomAttribute<String> studyInstanceUID;
-  @JsonProperty("0020000E")
-  private DicomAttribute<String> seriesInstanceUID;
-  @JsonProperty("00080018")
-  private DicomAttribute<String> sopInstanceUID;
+  private String studyInstanceUID;
+  private String seriesInstanceUID;
+  private String sopInstanceUID;
+  // 0 if the instance has no Number of Frames attribute
+  private int numberOfFrames;
 
-  public DicomAttribute<String> getStudyInstanceUID() {
+  public Instance() {
+  }
+
+  public Instance(String studyInstanceUID, String seriesInstanceUID, String sopInstanceUID) {
+    this.studyInstanceUID = studyInstanceUID;
+    this.seriesInstanceUID = seriesInstanceUID;
+    this.sopInstanceUID = sopInstanceUID;
+  }
+
+  public Instance(String studyInstanceUID, String seriesInstanceUID, String sopInstanceUID,
+      int numberOfFrames) {
+    this(studyInstanceUID, seriesInstanceUID, sopInstanceUID);
+    this.numberOfFrames = numberOfFrames;
+  }
+
+  public String getStudyInstanceUID() {
     return studyInstanceUID;
   }
 
-  public void setStudyInstanceUID(DicomAttribute<String> studyInstanceUID) {
+  public void setStudyInstanceUID(String studyInstanceUID) {
     this.studyInstanceUID = studyInstanceUID;
   }
 
-  public DicomAttribute<String> getSeriesInstanceUID() {
+  public String getSeriesInstanceUID() {
     return seriesInstanceUID;
   }
 
-  public void setSeriesInstanceUID(DicomAttribute<String> seriesInstanceUID) {
+  public void setSeriesInstanceUID(String seriesInstanceUID) {
     this.seriesInstanceUID = seriesInstanceUID;
   }
 
-  public DicomAttribute<String> getSopInstanceUID() {
+  public String getSopInstanceUID() {
     return sopInstanceUID;
   }
 
-  public void setSopInstanceUID(DicomAttribute<String> sopInstanceUID) {
+  public void setSopInstanceUID(String sopInstanceUID) {
     this.sopInstanceUID = sopInstanceUID;
   }
 
+  public int getNumberOfFrames() {
+    return numberOfFrames;
+  }
+
+  public void setNumberOfFrames(int numberOfFrames) {
+    this.numberOfFrames = numberOfFrames;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) {
@@ -61,9 +80,9 @@ public class Instance {
       return false;
     }
     Instance instance = (Instance) o;
-    return studyInstanceUID.equals(instance.studyInstanceUID) &&
-        seriesInstanceUID.equals(instance.seriesInstanceUID) &&
-        sopInstanceUID.equals(instance.sopInstanceUID);
+    return Objects.equals(studyInstanceUID, instance.studyInstanceUID) &&
+        Objects.equals(seriesInstanceUID, instance.seriesInstanceUID) &&
+        Objects.equals(sopInstanceUID, instance.sopInstanceUID);
   }
 
   @Override
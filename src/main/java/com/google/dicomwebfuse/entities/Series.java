@@ -14,29 +14,34 @@
 
 package com.google.dicomwebfuse.entities;
 
-import com.fasterxml.jackson.annotation.JsonProperty;
 import java.util.Objects;
 
 public class Series {
 
-  @JsonProperty("0020000D")
-  private DicomAttribute<String> studyInstanceUID;
-  @JsonProperty("0020000E")
-  private DicomAttribute<String> seriesInstanceUID;
+  private String studyInstanceUID;
+  private String seriesInstanceUID;
 
-  public DicomAttribute<String> getStudyInstanceUID() {
+  public Series() {
+  }
+
+  public Series(String studyInstanceUID, String seriesInstanceUID) {
+    this.studyInstanceUID = studyInstanceUID;
+    this.seriesInstanceUID = seriesInstanceUID;
+  }
+
+  public String getStudyInstanceUID() {
     return studyInstanceUID;
   }
 
-  public void setStudyInstanceUID(DicomAttribute<String> studyInstanceUID) {
+  public void setStudyInstanceUID(String studyInstanceUID) {
     this.studyInstanceUID = studyInstanceUID;
   }
 
-  public DicomAttribute<String> getSeriesInstanceUID() {
+  public String getSeriesInstanceUID() {
     return seriesInstanceUID;
   }
 
-  public void setSeriesInstanceUID(DicomAttribute<String> seriesInstanceUID) {
+  public void setSeriesInstanceUID(String seriesInstanceUID) {
     this.seriesInstanceUID = seriesInstanceUID;
   }
 
@@ -49,8 +54,8 @@ public class Series {
       return false;
     }
     Series series = (Series) o;
-    return studyInstanceUID.equals(series.studyInstanceUID) &&
-        seriesInstanceUID.equals(series.seriesInstanceUID);
+    return Objects.equals(studyInstanceUID, series.studyInstanceUID) &&
+        Objects.equals(seriesInstanceUID, series.seriesInstanceUID);
   }
 
   @Override
@@ -14,19 +14,24 @@
 
 package com.google.dicomwebfuse.entities;
 
-import com.fasterxml.jackson.annotation.JsonProperty;
 import java.util.Objects;
 
 public class Study {
 
-  @JsonProperty("0020000D")
-  private DicomAttribute<String> studyInstanceUID;
+  private String studyInstanceUID;
 
-  public DicomAttribute<String> getStudyInstanceUID() {
+  public Study() {
+  }
+
+  public Study(String studyInstanceUID) {
+    this.studyInstanceUID = studyInstanceUID;
+  }
+
+  public String getStudyInstanceUID() {
     return studyInstanceUID;
   }
 
-  public void setStudyInstanceUID(DicomAttribute<String> studyInstanceUID) {
+  public void setStudyInstanceUID(String studyInstanceUID) {
     this.studyInstanceUID = studyInstanceUID;
   }
 
@@ -39,7 +44,7 @@ public class Study {
       return false;
     }
     Study study = (Study) o;
-    return studyInstanceUID.equals(study.studyInstanceUID);
+    return Objects.equals(studyInstanceUID, study.studyInstanceUID);
   }
 
   @Override
@@ -25,7 +25,10 @@ import com.google.dicomwebfuse.exception.DicomFuseException;
 import com.google.dicomwebfuse.fuse.Command;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -333,4 +336,29 @@ public class Cache {
     CachedDicomStore cachedDicomStore = getCachedDicomStore(dicomPath);
     return getTempInstanceContent(cachedDicomStore, dicomPath).getOffset();
   }
+
+  /**
+   * Returns the numbers of cached DICOM Stores, Studies, Series and Instances.
+   */
+  public Map<DicomPathLevel, Long> getObjectCounts() {
+    long studyCount = 0;
+    long seriesCount = 0;
+    long instanceCount = 0;
+    Collection<CachedDicomStore> cachedDicomStores = cachedDataset.getCachedDicomStores().values();
+    for (CachedDicomStore cachedDicomStore : cachedDicomStores) {
+      for (CachedStudy cachedStudy : cachedDicomStore.getCachedStudies().values()) {
+        studyCount++;
+        for (CachedSeries cachedSeries : cachedStudy.getCachedSeries().values()) {
+          seriesCount++;
+          instanceCount += cachedSeries.getCachedInstances().size();
+        }
+      }
+    }
+    Map<DicomPathLevel, Long> objectCounts = new EnumMap<>(DicomPathLevel.class);
+    objectCounts.put(DicomPathLevel.DICOM_STORE, (long) cachedDicomStores.size());
+    objectCounts.put(DicomPathLevel.STUDY, studyCount);
+    objectCounts.put(DicomPathLevel.SERIES, seriesCount);
+    objectCounts.put(DicomPathLevel.INSTANCE, instanceCount);
+    return objectCounts;
+  }
 }
@@ -23,6 +23,8 @@ public class CachedSeries {
   private final Series series;
   private ConcurrentHashMap<String, InstanceContent> cachedInstances; //key - sopInstanceUID
   private Instant seriesCacheTime;
+  // Number of the last listing of the folder which listed the object
+  private volatile long listing;
 
   public CachedSeries(Series series) {
     this.series = series;
@@ -45,4 +47,21 @@ public class CachedSeries {
   public void setSeriesCacheTime(Instant cachedTime) {
     this.seriesCacheTime = cachedTime;
   }
+
+  /**
+   * Marks the object as listed by a listing of its folder.
+   *
+   * @return false if the listing already listed it
+   */
+  public boolean markListed(long listing) {
+    if (this.listing == listing) {
+      return false;
+    }
+    this.listing = listing;
+    return true;
+  }
+
+  public boolean isListed(long listing) {
+    return this.listing == listing;
+  }
 }
@@ -23,6 +23,8 @@ public class CachedStudy {
   private final Study study;
   private ConcurrentHashMap<String, CachedSeries> cachedSeries; // key - seriesInstanceUID
   private Instant studyCacheTime;
+  // Number of the last listing of the folder which listed the object
+  private volatile long listing;
 
   public CachedStudy(Study study) {
     this.study = study;
@@ -45,4 +47,21 @@ public class CachedStudy {
   public void setStudyCacheTime(Instant studyCacheTime) {
     this.studyCacheTime = studyCacheTime;
   }
+
+  /**
+   * Marks the object as listed by a listing of its folder.
+   *
+   * @return false if the listing already listed it
+   */
+  public boolean markListed(long listing) {
+    if (this.listing == listing) {
+      return false;
+    }
+    this.listing = listing;
+    return true;
+  }
+
+  public boolean isListed(long listing) {
+    return this.listing == listing;
+  }
 }
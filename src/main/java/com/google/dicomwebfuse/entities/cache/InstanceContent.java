@@ -24,8 +24,10 @@ public class InstanceContent {
   // offset for macOS for to prevent the following error:
   // https://github.com/osxfuse/osxfuse/issues/587
   private final AtomicLong offset = new AtomicLong();
-  private long instanceSize;
+  private volatile long instanceSize;
   private volatile Command command;
+  // Number of the last listing of the folder which listed the object
+  private volatile long listing;
 
   public InstanceContent(Instance instance) {
     this.instance = instance;
@@ -54,4 +56,21 @@ public class InstanceContent {
   public AtomicLong getOffset() {
     return offset;
   }
+
+  /**
+   * Marks the object as listed by a listing of its folder.
+   *
+   * @return false if the listing already listed it
+   */
+  public boolean markListed(long listing) {
+    if (this.listing == listing) {
+      return false;
+    }
+    this.listing = listing;
+    return true;
+  }
+
+  public boolean isListed(long listing) {
+    return this.listing == listing;
+  }
 }
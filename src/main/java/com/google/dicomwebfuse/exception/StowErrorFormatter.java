@@ -14,13 +14,20 @@
 
 package com.google.dicomwebfuse.exception;
 
+import java.util.HashMap;
+import java.util.Map;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
 import org.jsoup.parser.Parser;
 
 public class StowErrorFormatter {
 
   public static final String CONTENT_TYPE_DICOM_XML = "application/dicom+xml";
+  private static final String TAG = "tag";
+  private static final String ITEM = "Item";
+  private static final String FAILED_SOP_SEQUENCE = "00081198";
+  private static final String REFERENCED_SOP_INSTANCE_UID = "00081155";
 
   public static String formatByMimeType(String errorBody, String mimeType) {
     switch (mimeType) {
@@ -32,4 +39,32 @@ public class StowErrorFormatter {
         return errorBody;
     }
   }
+
+  /**
+   * Returns the items of the Failed SOP Sequence of a STOW response by their Referenced SOP
+   * Instance UID, so that each failure can be reported for its own file. Responses that are not
+   * DICOM XML have no items.
+   */
+  public static Map<String, String> formatFailedInstances(String responseBody, String mimeType) {
+    Map<String, String> failedInstances = new HashMap<>();
+    if (!CONTENT_TYPE_DICOM_XML.equals(mimeType)) {
+      return failedInstances;
+    }
+    Document parsedResponse = Jsoup.parse(responseBody, "", Parser.xmlParser());
+    parsedResponse.outputSettings().prettyPrint(true);
+    for (Element failedSopSequence :
+        parsedResponse.getElementsByAttributeValue(TAG, FAILED_SOP_SEQUENCE)) {
+      for (Element item : failedSopSequence.children()) {
+        if (!ITEM.equals(item.tagName())) {
+          continue;
+        }
+        Element sopInstanceUid =
+            item.getElementsByAttributeValue(TAG, REFERENCED_SOP_INSTANCE_UID).first();
+        if (sopInstanceUid != null) {
+          failedInstances.put(sopInstanceUid.text().trim(), item.toString());
+        }
+      }
+    }
+    return failedInstances;
+  }
 }
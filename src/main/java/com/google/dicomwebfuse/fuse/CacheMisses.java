@@ -0,0 +1,38 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse;
+
+/**
+ * Counts per thread the objects which were not cached and had to be requested from the server,
+ * so that a FUSE callback can tell whether it was served from the caches alone.
+ */
+public final class CacheMisses {
+
+  private static final ThreadLocal<long[]> COUNTS = ThreadLocal.withInitial(() -> new long[1]);
+
+  private CacheMisses() {
+  }
+
+  public static void increment() {
+    COUNTS.get()[0]++;
+  }
+
+  /**
+   * @return how many cache misses the current thread had so far
+   */
+  public static long get() {
+    return COUNTS.get()[0];
+  }
+}
@@ -14,232 +14,119 @@
 
 package com.google.dicomwebfuse.fuse;
 
+import static com.google.dicomwebfuse.fuse.FuseConstants.RETRIEVE_SERIES_XATTR;
 import static jnr.ffi.Platform.OS.DARWIN;
-import static jnr.ffi.Platform.OS.LINUX;
 import static jnr.ffi.Platform.OS.WINDOWS;
 
-import com.google.dicomwebfuse.entities.DicomPath;
-import com.google.dicomwebfuse.entities.DicomPathLevel;
-import com.google.dicomwebfuse.entities.cache.Cache;
 import com.google.dicomwebfuse.exception.DicomFuseException;
-import com.google.dicomwebfuse.fuse.cacher.DicomPathCacher;
 import jnr.ffi.Platform.OS;
 import jnr.ffi.Pointer;
 import jnr.ffi.types.off_t;
 import jnr.ffi.types.size_t;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-import ru.serce.jnrfuse.ErrorCodes;
 import ru.serce.jnrfuse.FuseFillDir;
 import ru.serce.jnrfuse.FuseStubFS;
 import ru.serce.jnrfuse.struct.FileStat;
 import ru.serce.jnrfuse.struct.FuseFileInfo;
 import ru.serce.jnrfuse.struct.Statvfs;
 
+/**
+ * Passes the FUSE callbacks to {@link DicomFuseOperations}. Creating it loads the FUSE library.
+ */
 public class DicomFuse extends FuseStubFS {
 
-  private static final Logger LOGGER = LogManager.getLogger();
-  private final DicomFuseHelper dicomFuseHelper;
-  private final Parameters parameters;
-  private final DicomPathParser dicomPathParser;
+  private final DicomFuseOperations operations;
   private final OS os;
 
   public DicomFuse(Parameters parameters) {
-    this.parameters = parameters;
-    DicomPathCacher dicomPathCacher = new DicomPathCacher();
-    Cache cache = new Cache();
-    dicomFuseHelper = new DicomFuseHelper(parameters, dicomPathCacher, cache);
-    dicomPathParser = new DicomPathParser(dicomPathCacher);
-    os = parameters.getOs();
+    this(new DicomFuseOperations(parameters), parameters.getOs());
+  }
+
+  public DicomFuse(DicomFuseOperations operations, OS os) {
+    this.operations = operations;
+    this.os = os;
+  }
+
+  /**
+   * Resumes the uploads left in the upload journal, if one is configured.
+   */
+  public void startUploadQueue() throws DicomFuseException {
+    operations.startUploadQueue();
   }
 
   @Override
-  public int getattr(String path, FileStat fileStat) {
-    LOGGER.debug("getattr " + path);
-    DicomPath dicomPath;
-    try {
-      dicomFuseHelper.checkPath(path);
-      dicomPath = dicomPathParser.parsePath(path);
-    } catch (DicomFuseException e) {
-      return -ErrorCodes.ENOENT();
-    }
+  public void umount() {
     try {
-      dicomFuseHelper.checkExistingObject(dicomPath);
-      dicomFuseHelper.setAttr(dicomPath, this, fileStat);
-    } catch (DicomFuseException e) {
-      LOGGER.debug("getattr error", e);
-      return -ErrorCodes.ENOENT();
+      super.umount();
+    } finally {
+      operations.close();
     }
-    return 0;
+  }
+
+  @Override
+  public int getattr(String path, FileStat fileStat) {
+    return operations.getattr(path, fileStat, getContext());
   }
 
   @Override
   public int readdir(String path, Pointer buf, FuseFillDir filler, @off_t long offset,
       FuseFileInfo fi) {
-    LOGGER.debug("readdir " + path);
-    filler.apply(buf, ".", null, 0); // add default folder
-    filler.apply(buf, "..", null, 0); // add default folder
-    try {
-      DicomPath dicomPath = dicomPathParser.parsePath(path);
-      dicomFuseHelper.fillFolder(dicomPath, buf, filler);
-    } catch (DicomFuseException e) {
-      LOGGER.error("readdir error", e);
-      return -ErrorCodes.ENOENT();
-    }
-    return 0;
+    return operations.readdir(path, buf, filler, offset, fi);
   }
 
   @Override
   public int opendir(String path, FuseFileInfo fi) {
-    LOGGER.debug("opendir " + path);
-    try {
-      DicomPath dicomPath = dicomPathParser.parsePath(path);
-      dicomFuseHelper.updateDir(dicomPath);
-    } catch (DicomFuseException e) {
-      LOGGER.error("opendir error", e);
-      return -ErrorCodes.ENOENT();
-    }
-    return 0;
+    return operations.opendir(path, fi);
+  }
+
+  @Override
+  public int releasedir(String path, FuseFileInfo fi) {
+    return operations.releasedir(path, fi);
   }
 
   @Override
   public int read(String path, Pointer buf, @size_t long size, @off_t long offset,
       FuseFileInfo fi) {
-    try {
-      DicomPath dicomPath = dicomPathParser.parsePath(path);
-      return dicomFuseHelper.readInstance(dicomPath, buf, (int) size, offset);
-    } catch (DicomFuseException e) {
-      LOGGER.error("read error", e);
-      return -ErrorCodes.EIO();
-    }
+    return operations.read(path, buf, size, offset, fi);
   }
 
   @Override
   public int write(String path, Pointer buf, long size, long offset, FuseFileInfo fi) {
-    try {
-      DicomPath dicomPath = dicomPathParser.parsePath(path);
-      return dicomFuseHelper.writeInstance(dicomPath, buf, (int) size, offset);
-    } catch (DicomFuseException e) {
-      LOGGER.error("write error", e);
-      return -ErrorCodes.EIO();
-    }
+    return operations.write(path, buf, size, offset, fi);
   }
 
   @Override
   public int open(String path, FuseFileInfo fi) {
-    LOGGER.debug("open " + path);
-    try {
-      DicomPath dicomPath = dicomPathParser.parsePath(path);
-      dicomFuseHelper.cacheInstanceData(dicomPath);
-    } catch (DicomFuseException e) {
-      LOGGER.error("open error", e);
-      return -ErrorCodes.EIO();
-    }
-    return 0;
+    return operations.open(path, fi);
   }
 
   @Override
   public int flush(String path, FuseFileInfo fi) {
-    LOGGER.debug("flush " + path);
-    try {
-      dicomFuseHelper.checkPath(path);
-    } catch (DicomFuseException e) {
-      LOGGER.debug(e);
-      return -ErrorCodes.ENOENT();
-    }
-    try {
-      DicomPath dicomPath = dicomPathParser.parsePath(path);
-      dicomFuseHelper.flushInstance(dicomPath);
-    } catch (DicomFuseException e) {
-      LOGGER.error("flush error", e);
-      if (os == LINUX) {
-        // "Remote I/O error" in Linux but in macOS "Unknown error: 121"
-        return -ErrorCodes.EREMOTEIO();
-      } else {
-        // "Input/output error" in macOS
-        return -ErrorCodes.EIO();
-      }
-    }
-    return 0;
+    return operations.flush(path, fi);
+  }
+
+  @Override
+  public int release(String path, FuseFileInfo fi) {
+    return operations.release(path, fi);
   }
 
   @Override
   public int create(String path, long mode, FuseFileInfo fi) {
-    LOGGER.debug("create " + path);
-    try {
-      dicomFuseHelper.checkPath(path);
-    } catch (DicomFuseException e) {
-      LOGGER.debug(e);
-      return -ErrorCodes.ENOENT();
-    }
-    try {
-      DicomPath dicomPath = dicomPathParser.parsePath(path, Command.CREATE);
-      dicomFuseHelper.createTemporaryInstance(dicomPath);
-    } catch (DicomFuseException e) {
-      LOGGER.error("create error", e);
-      return -ErrorCodes.EIO();
-    }
-    return 0;
+    return operations.create(path, mode, fi);
   }
 
   @Override
   public int unlink(String path) {
-    LOGGER.debug("unlink " + path);
-    if (parameters.isEnableDeletion()) {
-      try {
-        dicomFuseHelper.checkPath(path);
-      } catch (DicomFuseException e) {
-        LOGGER.debug(e);
-        return -ErrorCodes.ENOENT();
-      }
-      try {
-        DicomPath dicomPath = dicomPathParser.parsePath(path);
-        // Before creating a file in macOS, unlink method will be called for checking the existence
-        // of the file
-        if (dicomPath.getDicomPathLevel() != DicomPathLevel.INSTANCE) {
-          return -ErrorCodes.ENOENT();
-        }
-        dicomFuseHelper.unlinkInstance(dicomPath);
-      } catch (DicomFuseException e) {
-        LOGGER.error("unlink error", e);
-        return -ErrorCodes.EIO();
-      }
-    }
-    return 0;
+    return operations.unlink(path);
   }
 
   @Override
   public int mkdir(String path, long mode) {
-    LOGGER.debug("mkdir " + path);
-    try {
-      dicomFuseHelper.checkPath(path);
-    } catch (DicomFuseException e) {
-      LOGGER.debug(e);
-      return -ErrorCodes.EPERM();
-    }
-    try {
-      DicomPath dicomPath = dicomPathParser.parsePath(path);
-      dicomFuseHelper.createDicomStoreInDataset(dicomPath);
-    } catch (DicomFuseException e) {
-      LOGGER.error("mkdir error", e);
-      return -ErrorCodes.EPERM();
-    }
-    return 0;
+    return operations.mkdir(path, mode);
   }
 
   @Override
   public int rename(String oldPath, String newPath) {
-    // See: http://man7.org/linux/man-pages/man2/rename.2.html
-    LOGGER.debug("rename " + oldPath + " to " + newPath);
-    try {
-      DicomPath oldDicomPath = dicomPathParser.parsePath(oldPath);
-      DicomPath newDicomPath = dicomPathParser.parsePath(newPath);
-      dicomFuseHelper.renameDicomStoreInDataset(oldDicomPath, newDicomPath);
-    } catch (DicomFuseException e) {
-      LOGGER.error("rename error", e);
-      return -ErrorCodes.ENOENT();
-    }
-    return 0;
+    return operations.rename(oldPath, newPath);
   }
 
   @Override
@@ -258,10 +145,13 @@ public class DicomFuse extends FuseStubFS {
 
   // When auto_xattr option used may cause the error in the terminal - "Could not copy extended
   // attributes. Operation not permitted". Instead auto_xattr option, these methods were implemented
-  // but do nothing.
+  // but do nothing, except for setting the attribute which retrieves a whole Series.
   // See: https://github.com/osxfuse/osxfuse/issues/363
   @Override
   public int setxattr(String path, String name, Pointer value, long size, int flags) {
+    if (RETRIEVE_SERIES_XATTR.equals(name)) {
+      return operations.retrieveSeries(path);
+    }
     return super.setxattr(path, name, value, size, flags);
   }
 
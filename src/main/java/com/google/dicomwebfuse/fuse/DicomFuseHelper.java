@@ -17,12 +17,21 @@ package com.google.dicomwebfuse.fuse;
 import static com.google.dicomwebfuse.entities.DicomPathLevel.DICOM_STORE;
 import static com.google.dicomwebfuse.entities.DicomPathLevel.SERIES;
 import static com.google.dicomwebfuse.entities.DicomPathLevel.STUDY;
+import static com.google.dicomwebfuse.entities.DicomPathLevel.TEMP_FILE_IN_DICOM_STORE;
+import static com.google.dicomwebfuse.entities.DicomPathLevel.TEMP_FILE_IN_SERIES;
 import static com.google.dicomwebfuse.fuse.FuseConstants.DCM_EXTENSION;
+import static com.google.dicomwebfuse.fuse.FuseConstants.FRAMES_EXTENSION;
+import static com.google.dicomwebfuse.fuse.FuseConstants.FRAME_NAME_FORMAT;
+import static com.google.dicomwebfuse.fuse.FuseConstants.JSON_EXTENSION;
+import static com.google.dicomwebfuse.fuse.FuseConstants.METADATA_FILE_NAME;
 import static com.google.dicomwebfuse.fuse.FuseConstants.LINUX_FORBIDDEN_PATHS;
 import static com.google.dicomwebfuse.fuse.FuseConstants.MAC_OS_FORBIDDEN_PATHS;
 import static com.google.dicomwebfuse.fuse.FuseConstants.WINDOWS_FORBIDDEN_PATHS;
+import static com.google.dicomwebfuse.fuse.SingleFlight.Operation.LISTING;
+import static com.google.dicomwebfuse.fuse.SingleFlight.Operation.LOOKUP;
 
 import com.google.dicomwebfuse.dao.FuseDaoHelper;
+import com.google.dicomwebfuse.dao.PaginationExecutor;
 import com.google.dicomwebfuse.entities.DicomPath;
 import com.google.dicomwebfuse.entities.DicomPathLevel;
 import com.google.dicomwebfuse.entities.DicomStore;
@@ -37,13 +46,24 @@ import com.google.dicomwebfuse.entities.cache.InstanceContent;
 import com.google.dicomwebfuse.exception.DicomFuseException;
 import com.google.dicomwebfuse.fuse.cacher.DicomPathCacher;
 import com.google.dicomwebfuse.fuse.cacher.DownloadCacher;
+import com.google.dicomwebfuse.fuse.cacher.MetadataCacher;
+import com.google.dicomwebfuse.fuse.cacher.StreamingUploader;
+import com.google.dicomwebfuse.fuse.cacher.UploadBatcher;
 import com.google.dicomwebfuse.fuse.cacher.UploadCacher;
+import com.google.dicomwebfuse.fuse.cacher.UploadQueue;
+import com.google.dicomwebfuse.metrics.Histogram;
+import com.google.dicomwebfuse.metrics.MetricsRegistry;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import jnr.ffi.Platform.OS;
@@ -52,27 +72,102 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import ru.serce.jnrfuse.FuseFillDir;
 import ru.serce.jnrfuse.struct.FileStat;
+import ru.serce.jnrfuse.struct.FuseContext;
 
 class DicomFuseHelper {
 
   private static final Logger LOGGER = LogManager.getLogger();
   private final Parameters parameters;
   private final DownloadCacher downloadCacher;
+  private final MetadataCacher metadataCacher;
   private final UploadCacher uploadCacher;
+  private final UploadBatcher uploadBatcher;
+  // Uploads in the background when a journal is configured, otherwise flush waits for the upload
+  private final UploadQueue uploadQueue;
+  private final StreamingUploader streamingUploader;
   private final Cache cache;
   private final DicomPathCacher dicomPathCacher;
   private final OS os;
   private final Instant defaultInstant;
-
+  private final SingleFlight singleFlight = new SingleFlight();
+  private final AtomicLong listingCount = new AtomicLong();
+  private final Histogram refreshDuration;
 
   DicomFuseHelper(Parameters parameters, DicomPathCacher dicomPathCacher, Cache cache) {
     this.parameters = parameters;
     downloadCacher = new DownloadCacher(parameters);
+    metadataCacher = new MetadataCacher(parameters);
     uploadCacher = new UploadCacher();
+    uploadBatcher = new UploadBatcher(parameters);
+    if (parameters.getUploadJournalPath() == null) {
+      uploadQueue = null;
+    } else {
+      // Enough unfinished uploads for every thread to fill a batch
+      uploadQueue = new UploadQueue(parameters.getUploadJournalPath(),
+          parameters.getUploadThreads(),
+          parameters.getUploadThreads() * Math.max(1, parameters.getStowBatchSize()),
+          uploadBatcher::submit, this::invalidateDicomStoreCache);
+    }
+    streamingUploader = new StreamingUploader(parameters);
     this.cache = cache;
     this.dicomPathCacher = dicomPathCacher;
     os = parameters.getOs();
     defaultInstant = Instant.EPOCH.plusSeconds(60 * 60 * 24).plusNanos(1000);
+    MetricsRegistry metricsRegistry = parameters.getMetricsRegistry();
+    refreshDuration = metricsRegistry.histogram("dicomfuse_cache_refresh_duration_seconds",
+        "Duration of listing an outdated folder again, by level", MetricsRegistry.DURATION_BUCKETS,
+        "level");
+    registerMetrics(metricsRegistry);
+  }
+
+  private void registerMetrics(MetricsRegistry metricsRegistry) {
+    metricsRegistry.counter("dicomfuse_download_cache_requests_total",
+        "Instance and frame files asked for from the download cache",
+        samples -> samples.add(downloadCacher.getRequestCount()));
+    metricsRegistry.counter("dicomfuse_download_cache_misses_total",
+        "Instance and frame files which were not cached and were downloaded",
+        samples -> samples.add(downloadCacher.getMissCount()));
+    metricsRegistry.counter("dicomfuse_download_cache_evictions_total",
+        "Files removed from the download cache because it was full or they expired",
+        samples -> samples.add(downloadCacher.getEvictionCount()));
+    metricsRegistry.counter("dicomfuse_download_cache_downloaded_bytes_total",
+        "Bytes of the downloaded instance and frame files",
+        samples -> samples.add(downloadCacher.getDownloadedBytes()));
+    metricsRegistry.gauge("dicomfuse_download_cache_bytes", "Bytes of the cached files",
+        downloadCacher::getCachedBytes);
+    metricsRegistry.gauge("dicomfuse_cache_objects", "Cached objects, by level", samples -> {
+      for (Map.Entry<DicomPathLevel, Long> entry : cache.getObjectCounts().entrySet()) {
+        samples.add(entry.getValue(), labelOf(entry.getKey()));
+      }
+    }, "level");
+    metricsRegistry.counter("dicomfuse_single_flight_calls_total",
+        "Lookups and listings, by operation", samples -> {
+          for (SingleFlight.Operation operation : SingleFlight.Operation.values()) {
+            samples.add(singleFlight.getCallCount(operation), labelOf(operation));
+          }
+        }, "operation");
+    metricsRegistry.counter("dicomfuse_single_flight_deduplicated_total",
+        "Lookups and listings which shared the request of a concurrent call, by operation",
+        samples -> {
+          for (SingleFlight.Operation operation : SingleFlight.Operation.values()) {
+            samples.add(singleFlight.getDeduplicatedCount(operation), labelOf(operation));
+          }
+        }, "operation");
+    PaginationExecutor paginationExecutor = parameters.getPaginationExecutor();
+    metricsRegistry.gauge("dicomfuse_pagination_queue_depth",
+        "Requests waiting for a pagination thread", paginationExecutor::getQueueDepth);
+    metricsRegistry.gauge("dicomfuse_pagination_active_threads",
+        "Pagination threads sending requests", paginationExecutor::getActiveCount);
+    metricsRegistry.counter("dicomfuse_pagination_tasks_total",
+        "Requests sent by the pagination threads",
+        samples -> samples.add(paginationExecutor.getStartedTaskCount()));
+    metricsRegistry.counter("dicomfuse_pagination_queue_seconds_total",
+        "Time the requests waited for a pagination thread",
+        samples -> samples.add(paginationExecutor.getTotalQueueTimeMillis() / 1000.0));
+  }
+
+  private static String labelOf(Enum<?> value) {
+    return value.name().toLowerCase(Locale.ROOT);
   }
 
   void checkExistingObject(DicomPath dicomPath) throws DicomFuseException {
@@ -81,23 +176,60 @@ class DicomFuseHelper {
         break;
       case DICOM_STORE:
         if (cache.isDicomStoreNotExist(dicomPath)) {
-          cacheDicomStoreIfPresent(dicomPath);
+          singleFlight.execute(LOOKUP, dicomPath, () -> {
+            if (cache.isDicomStoreNotExist(dicomPath)) {
+              cacheDicomStoreIfPresent(dicomPath);
+            }
+            return null;
+          });
         }
         break;
       case STUDY:
         if (cache.isStudyNotExist(dicomPath)) {
-          cacheStudyIfPresent(dicomPath);
+          singleFlight.execute(LOOKUP, dicomPath, () -> {
+            if (cache.isStudyNotExist(dicomPath)) {
+              cacheStudyIfPresent(dicomPath);
+            }
+            return null;
+          });
         }
         break;
       case SERIES:
         if (cache.isSeriesNotExist(dicomPath)) {
-          cacheSeriesIfPresent(dicomPath);
+          singleFlight.execute(LOOKUP, dicomPath, () -> {
+            if (cache.isSeriesNotExist(dicomPath)) {
+              cacheSeriesIfPresent(dicomPath);
+            }
+            return null;
+          });
         }
         break;
       case INSTANCE:
         if (cache.isInstanceNotExist(dicomPath)) {
-          cacheInstanceIfPresent(dicomPath);
+          singleFlight.execute(LOOKUP, dicomPath, () -> {
+            if (cache.isInstanceNotExist(dicomPath)) {
+              cacheInstanceIfPresent(dicomPath);
+            }
+            return null;
+          });
+        }
+        break;
+      case FRAMES:
+      case FRAME:
+        DicomPath instancePath = instancePathOf(dicomPath);
+        checkExistingObject(instancePath);
+        int numberOfFrames = getNumberOfFrames(instancePath);
+        if (numberOfFrames < 2 || dicomPath.getFrameNumber() > numberOfFrames) {
+          throw new DicomFuseException("Frame not found - " + dicomPath);
+        }
+        break;
+      case STUDY_METADATA:
+      case SERIES_METADATA:
+      case INSTANCE_METADATA:
+        if (!parameters.isMetadataFiles()) {
+          throw new DicomFuseException("Metadata files are disabled - " + dicomPath);
         }
+        checkExistingObject(metadataOwnerOf(dicomPath));
         break;
       case TEMP_FILE_IN_DICOM_STORE:
       case TEMP_FILE_IN_SERIES:
@@ -139,62 +271,138 @@ class DicomFuseHelper {
   }
 
   void updateDir(DicomPath dicomPath) throws DicomFuseException {
+    DirectoryListing directoryListing = startUpdate(dicomPath, false);
+    if (directoryListing != null) {
+      directoryListing.awaitComplete();
+    }
+  }
+
+  /**
+   * Opens a folder for reading. If the cached folder is outdated, it is listed again and the
+   * returned reader receives the names page by page. The reader must be closed.
+   */
+  DirectoryListing.Reader openDir(DicomPath dicomPath) throws DicomFuseException {
+    DirectoryListing directoryListing = startUpdate(dicomPath, true);
+    DirectoryListing.Reader reader = directoryListing == null ? null
+        : directoryListing.openReader();
+    if (reader == null) {
+      // A running listing whose first names were released is read from the cache once it ends
+      if (directoryListing != null) {
+        directoryListing.awaitComplete();
+      }
+      reader = DirectoryListing.completed(getCachedNames(dicomPath)).openReader();
+    }
+    return reader;
+  }
+
+  // Returns null if the cached folder is up to date
+  private DirectoryListing startUpdate(DicomPath dicomPath, boolean held)
+      throws DicomFuseException {
+    boolean outdated;
     switch (dicomPath.getDicomPathLevel()) {
       case DATASET:
-        if (cache.isDatasetOutdated()) {
-          updateDicomStoresInDataset();
-        }
+        outdated = cache.isDatasetOutdated();
         break;
       case DICOM_STORE:
-        if (cache.isDicomStoreOutdated(dicomPath)) {
-          updateStudiesInDicomStore(dicomPath);
-        }
+        outdated = cache.isDicomStoreOutdated(dicomPath);
         break;
       case STUDY:
-        if (cache.isStudyOutdated(dicomPath)) {
-          updateSeriesInStudy(dicomPath);
-        }
+        outdated = cache.isStudyOutdated(dicomPath);
         break;
       case SERIES:
-        if (cache.isSeriesOutdated(dicomPath)) {
-          updateInstancesInSeries(dicomPath);
+        outdated = cache.isSeriesOutdated(dicomPath);
+        break;
+      case FRAMES:
+        // The frames are known from the cached Instance
+        outdated = false;
+        break;
+      default:
+        throw new DicomFuseException("Invalid path - " + dicomPath);
+    }
+    if (!outdated) {
+      return null;
+    }
+    // Concurrent opens of the same folder share one listing
+    return singleFlight.join(LISTING, dicomPath, () -> {
+      DirectoryListing directoryListing = new DirectoryListing(held);
+      parameters.getPaginationExecutor().executeListing(() -> {
+        long startNanos = System.nanoTime();
+        try {
+          updateFolder(dicomPath, directoryListing);
+          directoryListing.complete();
+        } catch (DicomFuseException e) {
+          directoryListing.fail(e);
+        } catch (RuntimeException e) {
+          directoryListing.fail(new DicomFuseException(e));
+        } finally {
+          singleFlight.release(LISTING, dicomPath, directoryListing);
+          refreshDuration.labels(labelOf(dicomPath.getDicomPathLevel()))
+              .observeNanos(System.nanoTime() - startNanos);
         }
+      });
+      return directoryListing;
+    });
+  }
+
+  private void updateFolder(DicomPath dicomPath, DirectoryListing directoryListing)
+      throws DicomFuseException {
+    switch (dicomPath.getDicomPathLevel()) {
+      case DATASET:
+        updateDicomStoresInDataset(directoryListing);
+        break;
+      case DICOM_STORE:
+        updateStudiesInDicomStore(dicomPath, directoryListing);
+        break;
+      case STUDY:
+        updateSeriesInStudy(dicomPath, directoryListing);
+        break;
+      case SERIES:
+        updateInstancesInSeries(dicomPath, directoryListing);
         break;
       default:
         throw new DicomFuseException("Invalid path - " + dicomPath);
     }
   }
 
-  void setAttr(DicomPath dicomPath, DicomFuse dicomFuse, FileStat fileStat)
+  void setAttr(DicomPath dicomPath, FuseContext context, FileStat fileStat)
       throws DicomFuseException {
     switch (dicomPath.getDicomPathLevel()) {
       case DATASET:
-        setStat(dicomFuse, fileStat, FileStat.S_IFDIR | 0777);
+        setStat(context, fileStat, FileStat.S_IFDIR | 0777);
         break;
       case DICOM_STORE:
-        setStat(dicomFuse, fileStat, FileStat.S_IFDIR | 0777);
+        setStat(context, fileStat, FileStat.S_IFDIR | 0777);
         break;
       case STUDY:
-        setStat(dicomFuse, fileStat, FileStat.S_IFDIR | 0777);
+        setStat(context, fileStat, FileStat.S_IFDIR | 0777);
         break;
       case SERIES:
-        setStat(dicomFuse, fileStat, FileStat.S_IFDIR | 0777);
+        setStat(context, fileStat, FileStat.S_IFDIR | 0777);
         break;
       case INSTANCE:
       case TEMP_FILE_IN_DICOM_STORE:
       case TEMP_FILE_IN_SERIES:
-        setStat(dicomFuse, fileStat, FileStat.S_IFREG | 0666, dicomPath);
+        setStat(context, fileStat, FileStat.S_IFREG | 0666, dicomPath);
+        break;
+      case FRAMES:
+        setStat(context, fileStat, FileStat.S_IFDIR | 0555);
+        break;
+      case FRAME:
+      case STUDY_METADATA:
+      case SERIES_METADATA:
+      case INSTANCE_METADATA:
+        setStat(context, fileStat, FileStat.S_IFREG | 0444, dicomPath);
         break;
       default:
         throw new DicomFuseException("Error level");
     }
   }
 
-  private void setStat(DicomFuse dicomFuse, FileStat fileStat, int perm) throws DicomFuseException {
-    setStat(dicomFuse, fileStat, perm, null);
+  private void setStat(FuseContext context, FileStat fileStat, int perm) throws DicomFuseException {
+    setStat(context, fileStat, perm, null);
   }
 
-  private void setStat(DicomFuse dicomFuse, FileStat fileStat, int perm, DicomPath dicomPath)
+  private void setStat(FuseContext context, FileStat fileStat, int perm, DicomPath dicomPath)
       throws DicomFuseException {
     fileStat.st_mode.set(perm);
     fileStat.st_nlink.set(1);
@@ -207,14 +415,20 @@ class DicomFuseHelper {
         } else {
           fileStat.st_size.set(0);
         }
+      } else if (dicomPath.getDicomPathLevel() == DicomPathLevel.FRAME) {
+        // The size is known once the frame is opened
+        fileStat.st_size.set(downloadCacher.getSizeIfPresent(dicomPath));
+      } else if (isMetadata(dicomPath)) {
+        byte[] metadata = metadataCacher.getMetadataIfPresent(dicomPath);
+        fileStat.st_size.set(metadata == null ? 0 : metadata.length);
       } else {
         fileStat.st_size.set(0);
       }
     }
 
     // set uid and gid
-    fileStat.st_uid.set(dicomFuse.getContext().uid.get());
-    fileStat.st_gid.set(dicomFuse.getContext().gid.get());
+    fileStat.st_uid.set(context.uid.get());
+    fileStat.st_gid.set(context.gid.get());
 
     // set default data, it needs to be implemented because
     // FileStat contains garbage from uninitialized memory in getattr.
@@ -246,62 +460,121 @@ class DicomFuseHelper {
   }
 
   void fillFolder(DicomPath dicomPath, Pointer buf, FuseFillDir filler) throws DicomFuseException {
+    for (String name : getCachedNames(dicomPath)) {
+      filler.apply(buf, name, null, 0);
+    }
+  }
+
+  private List<String> getCachedNames(DicomPath dicomPath) throws DicomFuseException {
+    List<String> names = new ArrayList<>();
     switch (dicomPath.getDicomPathLevel()) {
       case DATASET:
-        fillDatasetFolder(buf, filler);
+        for (DicomStore dicomStore : cache.getCachedDicomStoreList()) {
+          names.add(dicomStore.getDicomStoreId());
+        }
         break;
       case DICOM_STORE:
-        fillDicomStoreFolder(dicomPath, buf, filler);
+        for (Study study : cache.getCachedStudyList(dicomPath)) {
+          names.add(study.getStudyInstanceUID());
+        }
         break;
       case STUDY:
-        fillStudyFolder(dicomPath, buf, filler);
+        addMetadataName(names);
+        for (Series series : cache.getCachedSeriesList(dicomPath)) {
+          names.add(series.getSeriesInstanceUID());
+        }
         break;
       case SERIES:
-        fillSeriesFolder(dicomPath, buf, filler);
+        addMetadataName(names);
+        for (Instance instance : cache.getCachedInstanceList(dicomPath)) {
+          addInstanceNames(instance, names);
+        }
+        break;
+      case FRAMES:
+        int numberOfFrames = getNumberOfFrames(instancePathOf(dicomPath));
+        for (int frameNumber = 1; frameNumber <= numberOfFrames; frameNumber++) {
+          names.add(String.format(FRAME_NAME_FORMAT, frameNumber));
+        }
         break;
       default:
         throw new DicomFuseException("Error level");
     }
+    return names;
   }
 
-  private void fillDatasetFolder(Pointer buf, FuseFillDir filler) {
-    List<DicomStore> dicomStoreList = cache.getCachedDicomStoreList();
-    for (DicomStore dicomStore : dicomStoreList) {
-      String dicomStoreId = dicomStore.getDicomStoreId();
-      filler.apply(buf, dicomStoreId, null, 0);
+  private void addInstanceNames(Instance instance, List<String> names) {
+    names.add(instance.getSopInstanceUID() + DCM_EXTENSION);
+    if (parameters.isMetadataFiles()) {
+      names.add(instance.getSopInstanceUID() + JSON_EXTENSION);
+    }
+    if (parameters.isFrameDirectories() && instance.getNumberOfFrames() > 1) {
+      names.add(instance.getSopInstanceUID() + FRAMES_EXTENSION);
     }
   }
 
-  private void fillDicomStoreFolder(DicomPath dicomPath, Pointer buf, FuseFillDir filler)
-      throws DicomFuseException {
-    List<Study> studyList = cache.getCachedStudyList(dicomPath);
-    for (Study study : studyList) {
-      String studyInstanceUID = study.getStudyInstanceUID().getValue1();
-      filler.apply(buf, studyInstanceUID, null, 0);
+  private void addMetadataName(List<String> names) {
+    if (parameters.isMetadataFiles()) {
+      names.add(METADATA_FILE_NAME);
     }
   }
 
-  private void fillStudyFolder(DicomPath dicomPath, Pointer buf, FuseFillDir filler)
-      throws DicomFuseException {
-    List<Series> seriesList = cache.getCachedSeriesList(dicomPath);
-    for (Series series : seriesList) {
-      String seriesInstanceUID = series.getSeriesInstanceUID().getValue1();
-      filler.apply(buf, seriesInstanceUID, null, 0);
+  private static boolean isMetadata(DicomPath dicomPath) {
+    DicomPathLevel dicomPathLevel = dicomPath.getDicomPathLevel();
+    return dicomPathLevel == DicomPathLevel.STUDY_METADATA
+        || dicomPathLevel == DicomPathLevel.SERIES_METADATA
+        || dicomPathLevel == DicomPathLevel.INSTANCE_METADATA;
+  }
+
+  // Study, Series or Instance described by the metadata file
+  private static DicomPath metadataOwnerOf(DicomPath dicomPath) throws DicomFuseException {
+    switch (dicomPath.getDicomPathLevel()) {
+      case STUDY_METADATA:
+        return new DicomPath.Builder(STUDY)
+            .dicomStoreId(dicomPath.getDicomStoreId())
+            .studyInstanceUID(dicomPath.getStudyInstanceUID())
+            .build();
+      case SERIES_METADATA:
+        return new DicomPath.Builder(SERIES)
+            .dicomStoreId(dicomPath.getDicomStoreId())
+            .studyInstanceUID(dicomPath.getStudyInstanceUID())
+            .seriesInstanceUID(dicomPath.getSeriesInstanceUID())
+            .build();
+      case INSTANCE_METADATA:
+        return instancePathOf(dicomPath);
+      default:
+        throw new DicomFuseException("Invalid path - " + dicomPath);
     }
   }
 
-  private void fillSeriesFolder(DicomPath dicomPath, Pointer buf, FuseFillDir filler)
-      throws DicomFuseException {
-    List<Instance> instanceList = cache.getCachedInstanceList(dicomPath);
-    for (Instance instance : instanceList) {
-      String sopInstanceUID = instance.getSopInstanceUID().getValue1();
-      filler.apply(buf, sopInstanceUID + DCM_EXTENSION, null, 0);
+  private int getNumberOfFrames(DicomPath instancePath) throws DicomFuseException {
+    if (!parameters.isFrameDirectories()) {
+      throw new DicomFuseException("Frame folders are disabled - " + instancePath);
     }
+    return cache.getInstanceContent(instancePath).getInstance().getNumberOfFrames();
+  }
+
+  private static DicomPath instancePathOf(DicomPath dicomPath) {
+    return new DicomPath.Builder(DicomPathLevel.INSTANCE)
+        .dicomStoreId(dicomPath.getDicomStoreId())
+        .studyInstanceUID(dicomPath.getStudyInstanceUID())
+        .seriesInstanceUID(dicomPath.getSeriesInstanceUID())
+        .sopInstanceUID(dicomPath.getSopInstanceUID())
+        .build();
   }
 
   int readInstance(DicomPath dicomPath, Pointer buf, int size, long offset)
       throws DicomFuseException {
-    Path instancePath = downloadCacher.getPathIfPresent(dicomPath);
+    if (isMetadata(dicomPath)) {
+      byte[] metadata = metadataCacher.getMetadata(dicomPath);
+      if (offset >= metadata.length) {
+        return 0;
+      }
+      int length = (int) Math.min(size, metadata.length - offset);
+      buf.put(0, metadata, (int) offset, length);
+      return length;
+    }
+    // Waits for the requested bytes if the file is still being downloaded
+    Path instancePath = downloadCacher.awaitRange(dicomPath, offset, size);
     if (instancePath == null) {
       throw new DicomFuseException("Error reading file. Try open the file again. " + dicomPath);
     }
@@ -322,13 +595,19 @@ class DicomFuseHelper {
 
   int writeInstance(DicomPath dicomPath, Pointer buf, int size, long offset)
       throws DicomFuseException {
+    if (dicomPath.getDicomPathLevel() == DicomPathLevel.FRAME || isMetadata(dicomPath)) {
+      throw new DicomFuseException("File is read-only - " + dicomPath);
+    }
     AtomicLong instanceOffset = cache.getOffset(dicomPath);
-    if (offset == 0) {
-      // Double check for macOS.
-      // See: https://github.com/osxfuse/osxfuse/issues/587
-      if (uploadCacher.getPath(dicomPath) == null) {
-        uploadCacher.createPath(dicomPath);
+    // Double check for macOS.
+    // See: https://github.com/osxfuse/osxfuse/issues/587
+    if (uploadCacher.getPath(dicomPath) == null) {
+      if (offset == 0 && isStreamingUpload(dicomPath)) {
+        streamingUploader.start(dicomPath);
       }
+      // Streamed files are kept as well, to upload them once they are closed if they are not
+      // written in order
+      uploadCacher.createPath(dicomPath);
     }
     // check for macOS
     if (offset < instanceOffset.get()) {
@@ -337,33 +616,76 @@ class DicomFuseHelper {
     if (cache.getInstanceCommand(dicomPath) != Command.WRITE) {
       cache.setInstanceCommand(dicomPath, Command.WRITE);
     }
-    Path instancePath = uploadCacher.getPath(dicomPath);
-    try (RandomAccessFile raf = new RandomAccessFile(instancePath.toFile(), "rw")) {
-      raf.seek(offset);
-      byte[] buffer = new byte[size];
-      buf.get(0, buffer, 0, size);
-      raf.write(buffer);
-    } catch (IOException e) {
-      LOGGER.error("Random access file write error", e);
+    byte[] buffer = new byte[size];
+    buf.get(0, buffer, 0, size);
+    if (streamingUploader.isStreaming(dicomPath)
+        && !streamingUploader.write(dicomPath, buffer, offset)) {
+      LOGGER.info("File is not written in order, it is uploaded when it is closed - " + dicomPath);
+    }
+    try {
+      uploadCacher.write(dicomPath, buffer, offset);
+    } catch (DicomFuseException e) {
+      LOGGER.error("Temporary file write error", e);
+      streamingUploader.cancel(dicomPath);
       return 0;
     }
     instanceOffset.set(offset + size); // for macOS
     return size;
   }
 
+  void releaseInstance(DicomPath dicomPath) {
+    // An upload which is still streaming was not finished by a flush, so it is incomplete
+    streamingUploader.cancel(dicomPath);
+  }
+
+  private boolean isStreamingUpload(DicomPath dicomPath) {
+    // The journal keeps a copy of the file, and an overwritten Instance is deleted before the
+    // new one is uploaded
+    DicomPathLevel dicomPathLevel = dicomPath.getDicomPathLevel();
+    return parameters.isStreamingUpload() && uploadQueue == null
+        && (dicomPathLevel == TEMP_FILE_IN_DICOM_STORE || dicomPathLevel == TEMP_FILE_IN_SERIES);
+  }
+
   void cacheInstanceData(DicomPath dicomPath) throws DicomFuseException {
     if (dicomPath.getDicomPathLevel() == DicomPathLevel.INSTANCE) {
-      Path path = downloadCacher.getPath(dicomPath);
+      long size = downloadCacher.getSize(dicomPath);
       long instanceSize = cache.getInstanceSize(dicomPath);
-      if (instanceSize == 0) {
+      // The indexed size is replaced if the Instance was changed outside of the mount
+      if (instanceSize != size) {
         InstanceContent instanceContent = cache.getInstanceContent(dicomPath);
-        try {
-          instanceContent.setInstanceSize(Files.size(path));
-        } catch (IOException e) {
-          throw new DicomFuseException(e);
-        }
+        instanceContent.setInstanceSize(size);
       }
+    } else if (dicomPath.getDicomPathLevel() == DicomPathLevel.FRAME) {
+      downloadCacher.getSize(dicomPath);
+    } else if (isMetadata(dicomPath)) {
+      metadataCacher.getMetadata(dicomPath);
+    }
+  }
+
+  void retrieveSeries(DicomPath dicomPath) throws DicomFuseException {
+    if (dicomPath.getDicomPathLevel() != SERIES) {
+      throw new DicomFuseException("You can only retrieve Series folders");
+    }
+    checkExistingObject(dicomPath);
+    downloadCacher.cacheSeries(dicomPath);
+  }
+
+  void startUploadQueue() throws DicomFuseException {
+    if (uploadQueue != null) {
+      uploadQueue.start();
+    }
+  }
+
+  /**
+   * Lets the started uploads finish and stops the background threads, before the dao is closed.
+   */
+  void close() {
+    if (uploadQueue != null) {
+      uploadQueue.close();
     }
+    uploadBatcher.close();
+    streamingUploader.close();
+    downloadCacher.close();
   }
 
   void flushInstance(DicomPath dicomPath) throws DicomFuseException {
@@ -376,7 +698,9 @@ class DicomFuseHelper {
     if (command == Command.WRITE) {
       cache.setInstanceCommand(dicomPath, null);
       saveInstance(dicomPath);
-      LOGGER.info("Instance was uploaded - " + dicomPath);
+      if (uploadQueue == null) {
+        LOGGER.info("Instance was uploaded - " + dicomPath);
+      }
     }
   }
 
@@ -386,8 +710,7 @@ class DicomFuseHelper {
       case TEMP_FILE_IN_DICOM_STORE:
       case TEMP_FILE_IN_SERIES:
         try {
-          FuseDaoHelper.uploadInstance(parameters.getFuseDAO(), parameters.getCloudConf(),
-              dicomPath, instanceDataPath);
+          upload(dicomPath, instanceDataPath);
         } finally {
           Runnable clearResources = () -> {
             try {
@@ -402,7 +725,9 @@ class DicomFuseHelper {
           Thread thread = new Thread(clearResources);
           thread.start();
         }
-        invalidateDicomStoreCache(dicomPath);
+        if (uploadQueue == null) {
+          invalidateDicomStoreCache(dicomPath);
+        }
         break;
       case INSTANCE:
         try {
@@ -413,8 +738,12 @@ class DicomFuseHelper {
         }
         LOGGER.info("Instance was deleted - " + dicomPath);
         try {
-          FuseDaoHelper.uploadInstance(parameters.getFuseDAO(), parameters.getCloudConf(),
-              dicomPath, instanceDataPath);
+          if (uploadQueue == null) {
+            FuseDaoHelper.uploadInstance(parameters.getFuseDAO(), parameters.getCloudConf(),
+                dicomPath, instanceDataPath);
+          } else {
+            uploadQueue.add(dicomPath, instanceDataPath);
+          }
         } finally {
           uploadCacher.removePath(dicomPath);
           invalidateDicomStoreCache(dicomPath);
@@ -424,6 +753,16 @@ class DicomFuseHelper {
     }
   }
 
+  private void upload(DicomPath dicomPath, Path instanceDataPath) throws DicomFuseException {
+    if (streamingUploader.isStreaming(dicomPath)) {
+      streamingUploader.finish(dicomPath);
+    } else if (uploadQueue == null) {
+      uploadBatcher.upload(dicomPath, instanceDataPath);
+    } else {
+      uploadQueue.add(dicomPath, instanceDataPath);
+    }
+  }
+
   void createTemporaryInstance(DicomPath dicomPath) throws DicomFuseException {
     InstanceContent instanceContent = new InstanceContent(new Instance());
     cache.getCachedTempInstances(dicomPath).put(dicomPath.getFileName(), instanceContent);
@@ -476,109 +815,105 @@ class DicomFuseHelper {
   }
 
   boolean isDicomStoreEmpty(DicomPath dicomPath) throws DicomFuseException {
-    List<Study> studies =
-        FuseDaoHelper.getStudies(parameters.getFuseDAO(), parameters.getCloudConf(), dicomPath);
-    return studies.size() == 0;
+    return FuseDaoHelper.isDicomStoreEmpty(parameters.getFuseDAO(), parameters.getCloudConf(),
+        dicomPath);
   }
 
-  private void updateDicomStoresInDataset() throws DicomFuseException {
+  private void updateDicomStoresInDataset(DirectoryListing directoryListing)
+      throws DicomFuseException {
     List<DicomStore> dicomStoreList =
         FuseDaoHelper.getAllDicomStores(parameters.getFuseDAO(), parameters.getCloudConf());
-    List<DicomStore> cachedDicomStoreList = cache.getCachedDicomStoreList();
-    for (DicomStore dicomStore : cachedDicomStoreList) {
-      if (dicomStoreList.contains(dicomStore)) {
-        dicomStoreList.remove(dicomStore);
-      } else {
-        String dicomStoreId = dicomStore.getDicomStoreId();
-        cache.getCachedDicomStores().remove(dicomStoreId);
-      }
-    }
+    ConcurrentHashMap<String, CachedDicomStore> cachedDicomStores = cache.getCachedDicomStores();
+    Set<String> listedDicomStores = new HashSet<>();
     for (DicomStore dicomStore : dicomStoreList) {
       String dicomStoreId = dicomStore.getDicomStoreId();
-      CachedDicomStore newCachedDicomStore = new CachedDicomStore(dicomStore);
-      cache.getCachedDicomStores().put(dicomStoreId, newCachedDicomStore);
+      listedDicomStores.add(dicomStoreId);
+      cachedDicomStores.putIfAbsent(dicomStoreId, new CachedDicomStore(dicomStore));
     }
+    cachedDicomStores.keySet().retainAll(listedDicomStores);
+    directoryListing.addNames(listedDicomStores);
     Instant newInstant = Instant.now().plusSeconds(parameters.getCacheTime().getObjectsCacheTime());
     cache.setDatasetCacheTime(newInstant);
   }
 
-  private void updateStudiesInDicomStore(DicomPath dicomPath) throws DicomFuseException {
-    List<Study> studyList = FuseDaoHelper.getStudies(parameters.getFuseDAO(),
-        parameters.getCloudConf(), dicomPath);
-    List<Study> cachedStudyList;
-    try {
-      cachedStudyList = cache.getCachedStudyList(dicomPath);
-    } catch (DicomFuseException e) {
-      LOGGER.debug("Study null in " + dicomPath.getDicomStoreId() + " dicom store");
-      return;
-    }
-    for (Study study : cachedStudyList) {
-      if (studyList.contains(study)) {
-        studyList.remove(study);
-      } else {
-        String studyInstanceUID = study.getStudyInstanceUID().getValue1();
-        cache.getCachedStudies(dicomPath).remove(studyInstanceUID);
-      }
-    }
-    for (Study study : studyList) {
-      String studyInstanceUID = study.getStudyInstanceUID().getValue1();
-      CachedStudy newCachedStudy = new CachedStudy(study);
-      cache.getCachedStudies(dicomPath).put(studyInstanceUID, newCachedStudy);
-    }
+  // Each page is added to the cache and to the listing as soon as it arrives, and the cached
+  // entries of the page are marked with the number of the listing. Cached entries of listed
+  // objects are kept with their children, and entries which were not marked are removed once the
+  // last page arrived, so the listing holds no UIDs besides the cache.
+  private void updateStudiesInDicomStore(DicomPath dicomPath,
+      DirectoryListing directoryListing) throws DicomFuseException {
+    ConcurrentHashMap<String, CachedStudy> cachedStudies = cache.getCachedStudies(dicomPath);
+    long listing = listingCount.incrementAndGet();
+    FuseDaoHelper.forEachStudyPage(parameters.getAsyncFuseDao(), getPagesInFlight(),
+        parameters.getCloudConf(), dicomPath, studyPage -> {
+          List<String> names = new ArrayList<>(studyPage.size());
+          for (Study study : studyPage) {
+            String studyInstanceUID = study.getStudyInstanceUID();
+            CachedStudy cachedStudy = cachedStudies.computeIfAbsent(studyInstanceUID,
+                uid -> new CachedStudy(study));
+            // Pages overlap if studies were added while the store was listed
+            if (cachedStudy.markListed(listing)) {
+              names.add(studyInstanceUID);
+            }
+          }
+          directoryListing.addNames(names);
+        });
+    cachedStudies.values().removeIf(cachedStudy -> !cachedStudy.isListed(listing));
     Instant newInstant = Instant.now().plusSeconds(parameters.getCacheTime().getObjectsCacheTime());
     cache.setDicomStoreCacheTime(dicomPath, newInstant);
   }
 
-  private void updateSeriesInStudy(DicomPath dicomPath) throws DicomFuseException {
-    List<Series> seriesList = FuseDaoHelper.getSeries(parameters.getFuseDAO(),
-        parameters.getCloudConf(), dicomPath);
-    List<Series> cachedSeriesList;
-    try {
-      cachedSeriesList = cache.getCachedSeriesList(dicomPath);
-    } catch (DicomFuseException e) {
-      LOGGER.debug("Series null in " + dicomPath.getStudyInstanceUID() + " study");
-      return;
-    }
-    for (Series series : cachedSeriesList) {
-      if (seriesList.contains(series)) {
-        seriesList.remove(series);
-      } else {
-        String seriesInstanceUID = series.getSeriesInstanceUID().getValue1();
-        cache.getCachedSeries(dicomPath).remove(seriesInstanceUID);
-      }
-    }
-    for (Series series : seriesList) {
-      String seriesInstanceUID = series.getSeriesInstanceUID().getValue1();
-      CachedSeries newCachedSeries = new CachedSeries(series);
-      cache.getCachedSeries(dicomPath).put(seriesInstanceUID, newCachedSeries);
-    }
+  private void updateSeriesInStudy(DicomPath dicomPath, DirectoryListing directoryListing)
+      throws DicomFuseException {
+    ConcurrentHashMap<String, CachedSeries> cachedSeries = cache.getCachedSeries(dicomPath);
+    long listing = listingCount.incrementAndGet();
+    if (parameters.isMetadataFiles()) {
+      directoryListing.addLocalName(METADATA_FILE_NAME);
+    }
+    FuseDaoHelper.forEachSeriesPage(parameters.getAsyncFuseDao(), getPagesInFlight(),
+        parameters.getCloudConf(), dicomPath, seriesPage -> {
+          List<String> names = new ArrayList<>(seriesPage.size());
+          for (Series series : seriesPage) {
+            String seriesInstanceUID = series.getSeriesInstanceUID();
+            if (cachedSeries.computeIfAbsent(seriesInstanceUID, uid -> new CachedSeries(series))
+                .markListed(listing)) {
+              names.add(seriesInstanceUID);
+            }
+          }
+          directoryListing.addNames(names);
+        });
+    cachedSeries.values().removeIf(series -> !series.isListed(listing));
     Instant newInstant = Instant.now().plusSeconds(parameters.getCacheTime().getObjectsCacheTime());
     cache.setStudyCacheTime(dicomPath, newInstant);
   }
 
-  private void updateInstancesInSeries(DicomPath dicomPath) throws DicomFuseException {
-    List<Instance> instanceList = FuseDaoHelper.getInstances(parameters.getFuseDAO(),
-        parameters.getCloudConf(), dicomPath);
-    List<Instance> cachedInstanceList;
-    try {
-      cachedInstanceList = cache.getCachedInstanceList(dicomPath);
-    } catch (DicomFuseException e) {
-      LOGGER.debug("Instances null in " + dicomPath.getSeriesInstanceUID() + " series");
-      return;
-    }
-    for (Instance instance : cachedInstanceList) {
-      if (instanceList.contains(instance)) {
-        instanceList.remove(instance);
-      } else {
-        String sopInstanceUID = instance.getSopInstanceUID().getValue1();
-        cache.getCachedInstances(dicomPath).remove(sopInstanceUID);
-      }
-    }
-    for (Instance instance : instanceList) {
-      String sopInstanceUID = instance.getSopInstanceUID().getValue1();
-      InstanceContent newInstanceContent = new InstanceContent(instance);
-      cache.getCachedInstances(dicomPath).put(sopInstanceUID, newInstanceContent);
-    }
+  private void updateInstancesInSeries(DicomPath dicomPath, DirectoryListing directoryListing)
+      throws DicomFuseException {
+    ConcurrentHashMap<String, InstanceContent> cachedInstances =
+        cache.getCachedInstances(dicomPath);
+    long listing = listingCount.incrementAndGet();
+    if (parameters.isMetadataFiles()) {
+      directoryListing.addLocalName(METADATA_FILE_NAME);
+    }
+    FuseDaoHelper.forEachInstancePage(parameters.getAsyncFuseDao(), getPagesInFlight(),
+        parameters.getCloudConf(), dicomPath, instancePage -> {
+          List<String> names = new ArrayList<>(instancePage.size());
+          for (Instance instance : instancePage) {
+            // An Instance stored again with other content replaces the cached one, unless it
+            // was listed by an overlapping page already
+            InstanceContent instanceContent = cachedInstances.compute(
+                instance.getSopInstanceUID(),
+                (uid, cached) -> cached != null && (cached.isListed(listing)
+                    || isSameInstance(cached.getInstance(), instance))
+                    ? cached : new InstanceContent(instance));
+            if (instanceContent.markListed(listing)) {
+              setIndexedSize(dicomPath, instanceContent);
+              addInstanceNames(instance, names);
+            }
+          }
+          directoryListing.addNames(names);
+        });
+    cachedInstances.values().removeIf(instanceContent -> !instanceContent.isListed(listing));
     Instant newInstant = Instant.now().plusSeconds(parameters.getCacheTime().getObjectsCacheTime());
     cache.setSeriesCacheTime(dicomPath, newInstant);
   }
@@ -594,7 +929,7 @@ class DicomFuseHelper {
   private void cacheStudyIfPresent(DicomPath dicomPath) throws DicomFuseException {
     Study study = FuseDaoHelper.getSingleStudy(parameters.getFuseDAO(), parameters.getCloudConf(),
         dicomPath);
-    String studyInstanceUID = study.getStudyInstanceUID().getValue1();
+    String studyInstanceUID = study.getStudyInstanceUID();
     CachedStudy newCachedStudy = new CachedStudy(study);
     cache.getCachedStudies(dicomPath).put(studyInstanceUID, newCachedStudy);
   }
@@ -602,7 +937,7 @@ class DicomFuseHelper {
   private void cacheSeriesIfPresent(DicomPath dicomPath) throws DicomFuseException {
     Series series = FuseDaoHelper.getSingleSeries(parameters.getFuseDAO(),
         parameters.getCloudConf(), dicomPath);
-    String seriesInstanceUID = series.getSeriesInstanceUID().getValue1();
+    String seriesInstanceUID = series.getSeriesInstanceUID();
     CachedSeries newCachedSeries = new CachedSeries(series);
     cache.getCachedSeries(dicomPath).put(seriesInstanceUID, newCachedSeries);
   }
@@ -610,24 +945,49 @@ class DicomFuseHelper {
   private void cacheInstanceIfPresent(DicomPath dicomPath) throws DicomFuseException {
     Instance instance = FuseDaoHelper.getSingleInstance(parameters.getFuseDAO(),
         parameters.getCloudConf(), dicomPath);
-    String sopInstanceUID = instance.getSopInstanceUID().getValue1();
+    String sopInstanceUID = instance.getSopInstanceUID();
     InstanceContent newInstanceContent = new InstanceContent(instance);
+    setIndexedSize(dicomPath, newInstanceContent);
     cache.getCachedInstances(dicomPath).put(sopInstanceUID, newInstanceContent);
   }
 
+  private int getPagesInFlight() {
+    return parameters.getPaginationExecutor().getThreadCount();
+  }
+
+  private static boolean isSameInstance(Instance cachedInstance, Instance instance) {
+    return cachedInstance.equals(instance)
+        && cachedInstance.getNumberOfFrames() == instance.getNumberOfFrames();
+  }
+
+  private void setIndexedSize(DicomPath dicomPath, InstanceContent instanceContent) {
+    if (instanceContent.getInstanceSize() != 0) {
+      return;
+    }
+    // Looked up locally, so that listing a Series does not send a request per Instance
+    DicomPath instancePath = new DicomPath.Builder(DicomPathLevel.INSTANCE)
+        .dicomStoreId(dicomPath.getDicomStoreId())
+        .studyInstanceUID(dicomPath.getStudyInstanceUID())
+        .seriesInstanceUID(dicomPath.getSeriesInstanceUID())
+        .sopInstanceUID(instanceContent.getInstance().getSopInstanceUID())
+        .build();
+    instanceContent.setInstanceSize(downloadCacher.getIndexedSize(instancePath));
+  }
+
   private void invalidateDicomStoreCache(DicomPath dicomPath) throws DicomFuseException {
+    metadataCacher.removeDicomStore(dicomPath.getDicomStoreId());
     CachedDicomStore cachedDicomStore = cache.getCachedDicomStore(dicomPath);
     cachedDicomStore.setDicomStoreCacheTime(Instant.now());
     List<Study> existingStudiesInCache = cache.getCachedStudyList(dicomPath);
     for (Study study : existingStudiesInCache) {
-      String studyInstanceUID = study.getStudyInstanceUID().getValue1();
+      String studyInstanceUID = study.getStudyInstanceUID();
       DicomPath studyDicomPath = new DicomPath.Builder(STUDY)
           .dicomStoreId(dicomPath.getDicomStoreId())
           .studyInstanceUID(studyInstanceUID)
           .build();
       List<Series> cachedSeriesList = cache.getCachedSeriesList(studyDicomPath);
       for (Series series : cachedSeriesList) {
-        String seriesInstanceUID = series.getSeriesInstanceUID().getValue1();
+        String seriesInstanceUID = series.getSeriesInstanceUID();
         DicomPath seriesDicomPath = new DicomPath.Builder(SERIES)
             .dicomStoreId(dicomPath.getDicomStoreId())
             .studyInstanceUID(studyInstanceUID)
@@ -0,0 +1,384 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse;
+
+import static jnr.ffi.Platform.OS.LINUX;
+
+import com.google.dicomwebfuse.entities.DicomPath;
+import com.google.dicomwebfuse.entities.DicomPathLevel;
+import com.google.dicomwebfuse.entities.cache.Cache;
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import com.google.dicomwebfuse.fuse.FuseOperationMetrics.Operation;
+import com.google.dicomwebfuse.fuse.cacher.DicomPathCacher;
+import com.google.dicomwebfuse.metrics.FlightRecorderSupport;
+import java.io.Closeable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+import jnr.ffi.Platform.OS;
+import jnr.ffi.Pointer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.serce.jnrfuse.ErrorCodes;
+import ru.serce.jnrfuse.FuseFillDir;
+import ru.serce.jnrfuse.struct.FileStat;
+import ru.serce.jnrfuse.struct.FuseContext;
+import ru.serce.jnrfuse.struct.FuseFileInfo;
+
+/**
+ * The file system operations behind the FUSE callbacks of {@link DicomFuse}. Unlike DicomFuse
+ * they do not load the FUSE library, so they can be called without a mount, as the replay of a
+ * recorded workload does.
+ */
+public class DicomFuseOperations implements Closeable {
+
+  private static final Logger LOGGER = LogManager.getLogger();
+  private static final int O_ACCMODE = 3;
+  private static final int O_RDONLY = 0;
+  private static final boolean FLIGHT_RECORDER_AVAILABLE = FlightRecorderSupport.isAvailable();
+  private final DicomFuseHelper dicomFuseHelper;
+  private final Parameters parameters;
+  private final DicomPathParser dicomPathParser;
+  private final OS os;
+  private final ConcurrentHashMap<Long, DirectoryListing.Reader> openDirectories =
+      new ConcurrentHashMap<>();
+  private final AtomicLong directoryHandles = new AtomicLong();
+  private final FuseOperationMetrics fuseOperationMetrics;
+
+  public DicomFuseOperations(Parameters parameters) {
+    this.parameters = parameters;
+    DicomPathCacher dicomPathCacher = new DicomPathCacher();
+    Cache cache = new Cache();
+    dicomFuseHelper = new DicomFuseHelper(parameters, dicomPathCacher, cache);
+    dicomPathParser = new DicomPathParser(dicomPathCacher);
+    os = parameters.getOs();
+    fuseOperationMetrics = new FuseOperationMetrics(parameters.getMetricsRegistry());
+  }
+
+  /**
+   * Resumes the uploads left in the upload journal, if one is configured.
+   */
+  public void startUploadQueue() throws DicomFuseException {
+    dicomFuseHelper.startUploadQueue();
+  }
+
+  /**
+   * @param context the caller, who is set as the owner of the file
+   */
+  public int getattr(String path, FileStat fileStat, FuseContext context) {
+    return record(Operation.GETATTR, path, () -> doGetattr(path, fileStat, context));
+  }
+
+  private int doGetattr(String path, FileStat fileStat, FuseContext context) {
+    LOGGER.debug("getattr " + path);
+    DicomPath dicomPath;
+    try {
+      dicomFuseHelper.checkPath(path);
+      dicomPath = dicomPathParser.parsePath(path);
+    } catch (DicomFuseException e) {
+      return -ErrorCodes.ENOENT();
+    }
+    try {
+      dicomFuseHelper.checkExistingObject(dicomPath);
+      dicomFuseHelper.setAttr(dicomPath, context, fileStat);
+    } catch (DicomFuseException e) {
+      LOGGER.debug("getattr error", e);
+      return -ErrorCodes.ENOENT();
+    }
+    return 0;
+  }
+
+  public int readdir(String path, Pointer buf, FuseFillDir filler, long offset,
+      FuseFileInfo fi) {
+    return record(Operation.READDIR, path, () -> doReaddir(path, buf, filler, offset, fi));
+  }
+
+  private int doReaddir(String path, Pointer buf, FuseFillDir filler, long offset,
+      FuseFileInfo fi) {
+    LOGGER.debug("readdir " + path);
+    DirectoryListing.Reader directoryReader = openDirectories.get(fi.fh.get());
+    if (directoryReader == null) {
+      filler.apply(buf, ".", null, 0); // add default folder
+      filler.apply(buf, "..", null, 0); // add default folder
+      try {
+        DicomPath dicomPath = dicomPathParser.parsePath(path);
+        dicomFuseHelper.fillFolder(dicomPath, buf, filler);
+      } catch (DicomFuseException e) {
+        LOGGER.error("readdir error", e);
+        return -ErrorCodes.ENOENT();
+      }
+      return 0;
+    }
+    // Entries are passed with their offsets, so the kernel returns full buffers to the reader and
+    // asks for the next entries while the rest of the folder is still being listed
+    if (offset < 1 && filler.apply(buf, ".", null, 1) != 0) {
+      return 0;
+    }
+    if (offset < 2 && filler.apply(buf, "..", null, 2) != 0) {
+      return 0;
+    }
+    try {
+      int firstIndex = (int) Math.max(offset - 2, 0);
+      if (directoryReader.isReleased(firstIndex)) {
+        // The folder is read again after a rewind
+        directoryReader.close();
+        directoryReader = dicomFuseHelper.openDir(dicomPathParser.parsePath(path));
+        openDirectories.put(fi.fh.get(), directoryReader);
+      }
+      for (int index = firstIndex; ; index++) {
+        String name = directoryReader.awaitName(index);
+        if (name == null || filler.apply(buf, name, null, index + 3) != 0) {
+          break;
+        }
+      }
+    } catch (DicomFuseException e) {
+      LOGGER.error("readdir error", e);
+      return -ErrorCodes.EIO();
+    }
+    return 0;
+  }
+
+  public int opendir(String path, FuseFileInfo fi) {
+    return record(Operation.OPENDIR, path, () -> doOpendir(path, fi));
+  }
+
+  private int doOpendir(String path, FuseFileInfo fi) {
+    LOGGER.debug("opendir " + path);
+    try {
+      DicomPath dicomPath = dicomPathParser.parsePath(path);
+      DirectoryListing.Reader directoryReader = dicomFuseHelper.openDir(dicomPath);
+      try {
+        // Errors of the first page are reported when the folder is opened
+        directoryReader.awaitStart();
+      } catch (DicomFuseException e) {
+        directoryReader.close();
+        throw e;
+      }
+      long handle = directoryHandles.incrementAndGet();
+      openDirectories.put(handle, directoryReader);
+      fi.fh.set(handle);
+    } catch (DicomFuseException e) {
+      LOGGER.error("opendir error", e);
+      return -ErrorCodes.ENOENT();
+    }
+    return 0;
+  }
+
+  public int releasedir(String path, FuseFileInfo fi) {
+    DirectoryListing.Reader directoryReader = openDirectories.remove(fi.fh.get());
+    if (directoryReader != null) {
+      directoryReader.close();
+    }
+    return 0;
+  }
+
+  public int read(String path, Pointer buf, long size, long offset, FuseFileInfo fi) {
+    return record(Operation.READ, path, () -> doRead(path, buf, size, offset, fi));
+  }
+
+  private int doRead(String path, Pointer buf, long size, long offset, FuseFileInfo fi) {
+    try {
+      DicomPath dicomPath = dicomPathParser.parsePath(path);
+      return dicomFuseHelper.readInstance(dicomPath, buf, (int) size, offset);
+    } catch (DicomFuseException e) {
+      LOGGER.error("read error", e);
+      return -ErrorCodes.EIO();
+    }
+  }
+
+  public int write(String path, Pointer buf, long size, long offset, FuseFileInfo fi) {
+    return record(Operation.WRITE, path, () -> doWrite(path, buf, size, offset, fi));
+  }
+
+  private int doWrite(String path, Pointer buf, long size, long offset, FuseFileInfo fi) {
+    try {
+      DicomPath dicomPath = dicomPathParser.parsePath(path);
+      return dicomFuseHelper.writeInstance(dicomPath, buf, (int) size, offset);
+    } catch (DicomFuseException e) {
+      LOGGER.error("write error", e);
+      return -ErrorCodes.EIO();
+    }
+  }
+
+  public int open(String path, FuseFileInfo fi) {
+    return record(Operation.OPEN, path, () -> doOpen(path, fi));
+  }
+
+  private int doOpen(String path, FuseFileInfo fi) {
+    LOGGER.debug("open " + path);
+    try {
+      DicomPath dicomPath = dicomPathParser.parsePath(path);
+      dicomFuseHelper.cacheInstanceData(dicomPath);
+    } catch (DicomFuseException e) {
+      LOGGER.error("open error", e);
+      return -ErrorCodes.EIO();
+    }
+    return 0;
+  }
+
+  public int flush(String path, FuseFileInfo fi) {
+    return record(Operation.FLUSH, path, () -> doFlush(path, fi));
+  }
+
+  private int doFlush(String path, FuseFileInfo fi) {
+    LOGGER.debug("flush " + path);
+    try {
+      dicomFuseHelper.checkPath(path);
+    } catch (DicomFuseException e) {
+      LOGGER.debug(e);
+      return -ErrorCodes.ENOENT();
+    }
+    try {
+      DicomPath dicomPath = dicomPathParser.parsePath(path);
+      dicomFuseHelper.flushInstance(dicomPath);
+    } catch (DicomFuseException e) {
+      LOGGER.error("flush error", e);
+      if (os == LINUX) {
+        // "Remote I/O error" in Linux but in macOS "Unknown error: 121"
+        return -ErrorCodes.EREMOTEIO();
+      } else {
+        // "Input/output error" in macOS
+        return -ErrorCodes.EIO();
+      }
+    }
+    return 0;
+  }
+
+  public int release(String path, FuseFileInfo fi) {
+    LOGGER.debug("release " + path);
+    if ((fi.flags.get() & O_ACCMODE) == O_RDONLY) {
+      // Files opened for reading are released while another file handle may still write
+      return 0;
+    }
+    try {
+      DicomPath dicomPath = dicomPathParser.parsePath(path);
+      dicomFuseHelper.releaseInstance(dicomPath);
+    } catch (DicomFuseException e) {
+      LOGGER.debug(e);
+    }
+    return 0;
+  }
+
+  public int create(String path, long mode, FuseFileInfo fi) {
+    LOGGER.debug("create " + path);
+    try {
+      dicomFuseHelper.checkPath(path);
+    } catch (DicomFuseException e) {
+      LOGGER.debug(e);
+      return -ErrorCodes.ENOENT();
+    }
+    try {
+      DicomPath dicomPath = dicomPathParser.parsePath(path, Command.CREATE);
+      dicomFuseHelper.createTemporaryInstance(dicomPath);
+    } catch (DicomFuseException e) {
+      LOGGER.error("create error", e);
+      return -ErrorCodes.EIO();
+    }
+    return 0;
+  }
+
+  public int unlink(String path) {
+    return record(Operation.UNLINK, path, () -> doUnlink(path));
+  }
+
+  private int doUnlink(String path) {
+    LOGGER.debug("unlink " + path);
+    if (parameters.isEnableDeletion()) {
+      try {
+        dicomFuseHelper.checkPath(path);
+      } catch (DicomFuseException e) {
+        LOGGER.debug(e);
+        return -ErrorCodes.ENOENT();
+      }
+      try {
+        DicomPath dicomPath = dicomPathParser.parsePath(path);
+        // Before creating a file in macOS, unlink method will be called for checking the existence
+        // of the file
+        if (dicomPath.getDicomPathLevel() != DicomPathLevel.INSTANCE) {
+          return -ErrorCodes.ENOENT();
+        }
+        dicomFuseHelper.unlinkInstance(dicomPath);
+      } catch (DicomFuseException e) {
+        LOGGER.error("unlink error", e);
+        return -ErrorCodes.EIO();
+      }
+    }
+    return 0;
+  }
+
+  public int mkdir(String path, long mode) {
+    LOGGER.debug("mkdir " + path);
+    try {
+      dicomFuseHelper.checkPath(path);
+    } catch (DicomFuseException e) {
+      LOGGER.debug(e);
+      return -ErrorCodes.EPERM();
+    }
+    try {
+      DicomPath dicomPath = dicomPathParser.parsePath(path);
+      dicomFuseHelper.createDicomStoreInDataset(dicomPath);
+    } catch (DicomFuseException e) {
+      LOGGER.error("mkdir error", e);
+      return -ErrorCodes.EPERM();
+    }
+    return 0;
+  }
+
+  public int rename(String oldPath, String newPath) {
+    // See: http://man7.org/linux/man-pages/man2/rename.2.html
+    LOGGER.debug("rename " + oldPath + " to " + newPath);
+    try {
+      DicomPath oldDicomPath = dicomPathParser.parsePath(oldPath);
+      DicomPath newDicomPath = dicomPathParser.parsePath(newPath);
+      dicomFuseHelper.renameDicomStoreInDataset(oldDicomPath, newDicomPath);
+    } catch (DicomFuseException e) {
+      LOGGER.error("rename error", e);
+      return -ErrorCodes.ENOENT();
+    }
+    return 0;
+  }
+
+  /**
+   * Retrieves a whole Series at once, when its folder is given the retrieve attribute.
+   */
+  public int retrieveSeries(String path) {
+    LOGGER.debug("retrieve " + path);
+    try {
+      DicomPath dicomPath = dicomPathParser.parsePath(path);
+      dicomFuseHelper.retrieveSeries(dicomPath);
+    } catch (DicomFuseException e) {
+      LOGGER.error("retrieve error", e);
+      return -ErrorCodes.EINVAL();
+    }
+    return 0;
+  }
+
+  /**
+   * Called when the file system is unmounted.
+   */
+  @Override
+  public void close() {
+    dicomFuseHelper.close();
+  }
+
+  // Runs the callback and records its duration and result
+  private int record(Operation operation, String path, IntSupplier callback) {
+    long startNanos = System.nanoTime();
+    int result = FLIGHT_RECORDER_AVAILABLE
+        ? FuseOperationEvent.record(operation, path, dicomPathParser, callback)
+        : callback.getAsInt();
+    return fuseOperationMetrics.record(operation, startNanos, result);
+  }
+}
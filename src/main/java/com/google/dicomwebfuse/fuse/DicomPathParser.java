@@ -15,16 +15,21 @@
 package com.google.dicomwebfuse.fuse;
 
 import static com.google.dicomwebfuse.fuse.FuseConstants.DCM_EXTENSION;
+import static com.google.dicomwebfuse.fuse.FuseConstants.FRAMES_EXTENSION;
+import static com.google.dicomwebfuse.fuse.FuseConstants.JSON_EXTENSION;
+import static com.google.dicomwebfuse.fuse.FuseConstants.METADATA_FILE_NAME;
 
 import com.google.dicomwebfuse.fuse.cacher.DicomPathCacher;
 import com.google.dicomwebfuse.entities.DicomPath;
 import com.google.dicomwebfuse.entities.DicomPathLevel;
 import com.google.dicomwebfuse.exception.DicomFuseException;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 class DicomPathParser {
 
   private static final Pattern PATTERN = Pattern.compile(".*[a-zA-Z]+.*");
+  private static final Pattern FRAME_PATTERN = Pattern.compile("0*([1-9][0-9]{0,8})\\.bin");
   private final DicomPathCacher dicomPathCacher;
 
   DicomPathParser(DicomPathCacher dicomPathCacher) {
@@ -86,6 +91,13 @@ class DicomPathParser {
         }
         break;
       case 3:
+        if (METADATA_FILE_NAME.equals(pathREST[2])) {
+          dicomPath = new DicomPath.Builder(DicomPathLevel.STUDY_METADATA)
+              .dicomStoreId(pathREST[0])
+              .studyInstanceUID(pathREST[1])
+              .build();
+          break;
+        }
         if (PATTERN.matcher(pathREST[2]).matches()) {
           throw new DicomFuseException("Invalid Series UID - " + pathREST[2]);
         }
@@ -110,6 +122,27 @@ class DicomPathParser {
         tempDicomPath = dicomPathCacher.getDicomPath(path);
         if (tempDicomPath != null) {
           dicomPath = tempDicomPath;
+        } else if (METADATA_FILE_NAME.equals(fileName)) {
+          dicomPath = new DicomPath.Builder(DicomPathLevel.SERIES_METADATA)
+              .dicomStoreId(pathREST[0])
+              .studyInstanceUID(pathREST[1])
+              .seriesInstanceUID(pathREST[2])
+              .build();
+        } else if (fileName.endsWith(JSON_EXTENSION)) {
+          dicomPath = new DicomPath.Builder(DicomPathLevel.INSTANCE_METADATA)
+              .dicomStoreId(pathREST[0])
+              .studyInstanceUID(pathREST[1])
+              .seriesInstanceUID(pathREST[2])
+              .sopInstanceUID(fileName.substring(0, fileName.length() - JSON_EXTENSION.length()))
+              .build();
+        } else if (fileName.endsWith(FRAMES_EXTENSION)) {
+          dicomPath = new DicomPath.Builder(DicomPathLevel.FRAMES)
+              .dicomStoreId(pathREST[0])
+              .studyInstanceUID(pathREST[1])
+              .seriesInstanceUID(pathREST[2])
+              .sopInstanceUID(fileName.substring(0,
+                  fileName.length() - FRAMES_EXTENSION.length()))
+              .build();
         } else {
           int fileNameLength = fileName.length();
           int sopInstanceUIDLength = fileNameLength;
@@ -125,6 +158,25 @@ class DicomPathParser {
               .build();
         }
         break;
+      case 5:
+        // Frames of an Instance, e.g. 0001.bin in <SOPInstanceUID>.frames
+        String frameFolder = pathREST[3];
+        if (command == Command.CREATE || !frameFolder.endsWith(FRAMES_EXTENSION)) {
+          throw new DicomFuseException("Error parsing path");
+        }
+        Matcher matcher = FRAME_PATTERN.matcher(pathREST[4]);
+        if (!matcher.matches()) {
+          throw new DicomFuseException("Invalid frame - " + pathREST[4]);
+        }
+        dicomPath = new DicomPath.Builder(DicomPathLevel.FRAME)
+            .dicomStoreId(pathREST[0])
+            .studyInstanceUID(pathREST[1])
+            .seriesInstanceUID(pathREST[2])
+            .sopInstanceUID(frameFolder.substring(0,
+                frameFolder.length() - FRAMES_EXTENSION.length()))
+            .frameNumber(Integer.parseInt(matcher.group(1)))
+            .build();
+        break;
       default:
         throw new DicomFuseException("Error parsing path");
     }
@@ -0,0 +1,195 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse;
+
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Names of a folder in listing order. Names are added page by page while the folder is being
+ * listed, so readers can return the first entries before the last page arrives. Names which every
+ * open reader has passed are released, so a listing holds only the names between its readers and
+ * the last page.
+ */
+class DirectoryListing {
+
+  // Names from firstIndex, of which the ones before releasedCount are released
+  private final List<String> names = new ArrayList<>();
+  private final Set<Reader> readers = new HashSet<>();
+  private int firstIndex;
+  private int releasedCount;
+  // Keeps the names for the first reader, which opens after the listing has started
+  private boolean held;
+  // Set by the first page from the server, names known locally do not start the listing
+  private boolean started;
+  private boolean complete;
+  private DicomFuseException failure;
+
+  /**
+   * @param held whether the names are kept until the first reader opens. Otherwise names are
+   *     released while no reader is open, which suits a listing that only updates the cache.
+   */
+  DirectoryListing(boolean held) {
+    this.held = held;
+  }
+
+  static DirectoryListing completed(Collection<String> names) {
+    DirectoryListing directoryListing = new DirectoryListing(true);
+    directoryListing.addNames(names);
+    directoryListing.complete();
+    return directoryListing;
+  }
+
+  synchronized void addNames(Collection<String> newNames) {
+    names.addAll(newNames);
+    started = true;
+    release();
+    notifyAll();
+  }
+
+  /**
+   * Adds a name which is not listed by the server, such as the metadata file of a folder.
+   */
+  synchronized void addLocalName(String name) {
+    names.add(name);
+    release();
+    notifyAll();
+  }
+
+  synchronized void complete() {
+    complete = true;
+    notifyAll();
+  }
+
+  synchronized void fail(DicomFuseException e) {
+    failure = e;
+    notifyAll();
+  }
+
+  synchronized void awaitComplete() throws DicomFuseException {
+    while (!complete) {
+      await();
+    }
+  }
+
+  /**
+   * Opens a reader at the first name.
+   *
+   * @return the reader, or null if the first names were already released
+   */
+  synchronized Reader openReader() {
+    if (releasedCount > 0) {
+      return null;
+    }
+    held = false;
+    Reader reader = new Reader();
+    readers.add(reader);
+    return reader;
+  }
+
+  // Releases the names before the position of every reader
+  private void release() {
+    if (held) {
+      return;
+    }
+    int position = firstIndex + names.size();
+    for (Reader reader : readers) {
+      position = Math.min(position, reader.position);
+    }
+    releasedCount = Math.max(releasedCount, position);
+    // Released names are removed in batches, so that each name is moved a few times at most
+    int releasedSize = releasedCount - firstIndex;
+    if (releasedSize > 0 && releasedSize >= names.size() / 2) {
+      names.subList(0, releasedSize).clear();
+      firstIndex = releasedCount;
+    }
+  }
+
+  private void await() throws DicomFuseException {
+    if (failure != null) {
+      throw new DicomFuseException(failure.getMessage(), failure);
+    }
+    try {
+      wait();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DicomFuseException(e);
+    }
+  }
+
+  /**
+   * Reads the names of an open folder. Asking for a name marks the names before it as read.
+   */
+  class Reader {
+
+    private int position;
+
+    /**
+     * Waits until the first page is listed or the listing ends, so that an error of the first
+     * request is reported.
+     */
+    void awaitStart() throws DicomFuseException {
+      synchronized (DirectoryListing.this) {
+        while (!started && !complete) {
+          await();
+        }
+      }
+    }
+
+    void awaitComplete() throws DicomFuseException {
+      DirectoryListing.this.awaitComplete();
+    }
+
+    /**
+     * @return whether the name at the index was released, so the folder must be listed again to
+     *     read it
+     */
+    boolean isReleased(int index) {
+      synchronized (DirectoryListing.this) {
+        return index < releasedCount;
+      }
+    }
+
+    /**
+     * Waits until the name at the index is listed.
+     *
+     * @return the name, or null if the folder has fewer names
+     */
+    String awaitName(int index) throws DicomFuseException {
+      synchronized (DirectoryListing.this) {
+        if (index < releasedCount) {
+          throw new DicomFuseException("The name at " + index + " was already read");
+        }
+        position = index;
+        release();
+        while (firstIndex + names.size() <= index && !complete) {
+          await();
+        }
+        return index < firstIndex + names.size() ? names.get(index - firstIndex) : null;
+      }
+    }
+
+    void close() {
+      synchronized (DirectoryListing.this) {
+        readers.remove(this);
+        release();
+      }
+    }
+  }
+}
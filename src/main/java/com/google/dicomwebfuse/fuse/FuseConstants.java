@@ -20,6 +20,14 @@ import java.util.List;
 class FuseConstants {
 
   static final String DCM_EXTENSION = ".dcm"; // Default extension
+  // Folder of the frames of an Instance and the files of the frames in it, e.g. 0001.bin
+  static final String FRAMES_EXTENSION = ".frames";
+  static final String FRAME_NAME_FORMAT = "%04d.bin";
+  // Metadata of a Study or Series in its folder, and of an Instance next to it, e.g. 1.2.3.json
+  static final String METADATA_FILE_NAME = "metadata.json";
+  static final String JSON_EXTENSION = ".json";
+  // Setting this extended attribute of a Series folder downloads the whole Series
+  static final String RETRIEVE_SERIES_XATTR = "user.dicomfuse.retrieve";
   static final List<String> LINUX_FORBIDDEN_PATHS = Arrays.asList(
       "Trash", // Ubuntu
       "hidden", // Ubuntu
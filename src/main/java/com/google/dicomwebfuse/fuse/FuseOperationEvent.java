@@ -0,0 +1,97 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse;
+
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import com.google.dicomwebfuse.fuse.FuseOperationMetrics.Operation;
+import java.util.Locale;
+import java.util.function.IntSupplier;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event of a FUSE callback. Must only be loaded if
+ * {@link com.google.dicomwebfuse.metrics.FlightRecorderSupport#isAvailable()}.
+ */
+@Name("com.google.dicomwebfuse.FuseOperation")
+@Label("FUSE Operation")
+@Category({"DICOMFuse", "FUSE"})
+@Description("Callback of FUSE served by DICOMFuse")
+@StackTrace(false)
+class FuseOperationEvent extends Event {
+
+  @Label("Operation")
+  String operation;
+
+  @Label("Path")
+  String path;
+
+  @Label("Path Level")
+  String pathLevel;
+
+  @Label("Bytes")
+  @Description("Bytes read or written")
+  @DataAmount
+  long bytes;
+
+  @Label("Result")
+  @Description("Result of the callback, negative error codes are failures")
+  int result;
+
+  @Label("Cache Hit")
+  @Description("Nothing had to be requested from the Healthcare API")
+  boolean cacheHit;
+
+  /**
+   * Runs the callback and records an event of it if the event is enabled.
+   */
+  static int record(Operation operation, String path, DicomPathParser dicomPathParser,
+      IntSupplier callback) {
+    FuseOperationEvent event = new FuseOperationEvent();
+    if (!event.isEnabled()) {
+      return callback.getAsInt();
+    }
+    long cacheMisses = CacheMisses.get();
+    event.begin();
+    int result = callback.getAsInt();
+    event.end();
+    if (event.shouldCommit()) {
+      event.operation = operation.name().toLowerCase(Locale.ROOT);
+      event.path = path;
+      event.pathLevel = getPathLevel(dicomPathParser, path);
+      if (result > 0 && (operation == Operation.READ || operation == Operation.WRITE)) {
+        event.bytes = result;
+      }
+      event.result = result;
+      event.cacheHit = CacheMisses.get() == cacheMisses;
+      event.commit();
+    }
+    return result;
+  }
+
+  // Returns null for paths which are not part of the mount
+  private static String getPathLevel(DicomPathParser dicomPathParser, String path) {
+    try {
+      return dicomPathParser.parsePath(path).getDicomPathLevel().name();
+    } catch (DicomFuseException e) {
+      return null;
+    }
+  }
+}
@@ -0,0 +1,77 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse;
+
+import com.google.dicomwebfuse.metrics.Counter;
+import com.google.dicomwebfuse.metrics.Histogram;
+import com.google.dicomwebfuse.metrics.MetricsRegistry;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Durations, errors and transferred bytes of the FUSE callbacks.
+ */
+class FuseOperationMetrics {
+
+  enum Operation {
+    GETATTR,
+    OPENDIR,
+    READDIR,
+    OPEN,
+    READ,
+    WRITE,
+    FLUSH,
+    UNLINK
+  }
+
+  // The children are looked up once, so that recording a callback does not allocate
+  private final Map<Operation, Histogram.Child> durations = new EnumMap<>(Operation.class);
+  private final Map<Operation, Counter.Child> errors = new EnumMap<>(Operation.class);
+  private final Counter.Child readBytes;
+  private final Counter.Child writtenBytes;
+
+  FuseOperationMetrics(MetricsRegistry metricsRegistry) {
+    Histogram duration = metricsRegistry.histogram("dicomfuse_fuse_operation_duration_seconds",
+        "Duration of the FUSE callbacks, by operation", MetricsRegistry.DURATION_BUCKETS,
+        "operation");
+    Counter error = metricsRegistry.counter("dicomfuse_fuse_operation_errors_total",
+        "FUSE callbacks which returned an error, by operation", "operation");
+    for (Operation operation : Operation.values()) {
+      String label = operation.name().toLowerCase(Locale.ROOT);
+      durations.put(operation, duration.labels(label));
+      errors.put(operation, error.labels(label));
+    }
+    Counter bytes = metricsRegistry.counter("dicomfuse_fuse_bytes_total",
+        "Bytes read from and written to the files of the mount, by operation", "operation");
+    readBytes = bytes.labels("read");
+    writtenBytes = bytes.labels("write");
+  }
+
+  /**
+   * Records the callback which started at the given time and returns its result.
+   */
+  int record(Operation operation, long startNanos, int result) {
+    durations.get(operation).observeNanos(System.nanoTime() - startNanos);
+    if (result < 0) {
+      errors.get(operation).inc();
+    } else if (operation == Operation.READ) {
+      readBytes.inc(result);
+    } else if (operation == Operation.WRITE) {
+      writtenBytes.inc(result);
+    }
+    return result;
+  }
+}
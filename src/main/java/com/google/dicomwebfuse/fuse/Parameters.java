@@ -14,27 +14,90 @@
 
 package com.google.dicomwebfuse.fuse;
 
+import com.google.dicomwebfuse.dao.AsyncFuseDao;
+import com.google.dicomwebfuse.dao.ExecutorAsyncFuseDao;
 import com.google.dicomwebfuse.dao.FuseDao;
+import com.google.dicomwebfuse.dao.PaginationExecutor;
 import com.google.dicomwebfuse.entities.CloudConf;
 import com.google.dicomwebfuse.entities.cache.CacheTime;
+import com.google.dicomwebfuse.metrics.MetricsRegistry;
 import com.google.dicomwebfuse.parser.Arguments;
+import java.nio.file.Path;
+import java.util.Map;
 import jnr.ffi.Platform.OS;
 
 public class Parameters {
 
   private final FuseDao fuseDAO;
+  private final AsyncFuseDao asyncFuseDao;
+  private final PaginationExecutor paginationExecutor;
+  private final MetricsRegistry metricsRegistry;
   private final CloudConf cloudConf;
   private final CacheTime cacheTime;
   private final long cacheSize;
   private final boolean enableDeletion;
+  private final boolean streamingDownload;
+  private final String transferSyntax;
+  private final Map<String, String> storeTransferSyntaxes;
+  private final int seriesRetrieveThreshold;
+  private final int stowBatchWindow;
+  private final int stowBatchSize;
+  private final int stowBatchBytes;
+  private final Path uploadJournalPath;
+  private final int uploadThreads;
+  private final boolean streamingUpload;
+  private final boolean frameDirectories;
+  private final boolean metadataFiles;
+  private final long metadataCacheTime;
+  private final long metadataCacheSize;
+  private final Path sizeIndexPath;
   private final OS os;
 
   public Parameters(FuseDao fuseDAO, Arguments arguments, OS os) {
+    this(fuseDAO, new PaginationExecutor(arguments.paginationThreads), arguments, os);
+  }
+
+  public Parameters(FuseDao fuseDAO, PaginationExecutor paginationExecutor, Arguments arguments,
+      OS os) {
+    this(fuseDAO, paginationExecutor, new MetricsRegistry(), arguments, os);
+  }
+
+  public Parameters(FuseDao fuseDAO, PaginationExecutor paginationExecutor,
+      MetricsRegistry metricsRegistry, Arguments arguments, OS os) {
+    this(fuseDAO, new ExecutorAsyncFuseDao(fuseDAO, paginationExecutor), paginationExecutor,
+        metricsRegistry, arguments, os);
+  }
+
+  /**
+   * @param asyncFuseDao dao sending the same requests as the blocking one, for the pages of
+   *     listings, prefetches and uploads which must not take a thread each
+   */
+  public Parameters(FuseDao fuseDAO, AsyncFuseDao asyncFuseDao,
+      PaginationExecutor paginationExecutor, MetricsRegistry metricsRegistry, Arguments arguments,
+      OS os) {
     this.fuseDAO = fuseDAO;
+    this.asyncFuseDao = asyncFuseDao;
+    this.paginationExecutor = paginationExecutor;
+    this.metricsRegistry = metricsRegistry;
     this.cloudConf = arguments.cloudConf;
     this.cacheTime = arguments.cacheTime;
     this.cacheSize = arguments.cacheSize;
     this.enableDeletion = arguments.enableDeletion;
+    this.streamingDownload = arguments.streamingDownload;
+    this.transferSyntax = arguments.transferSyntax;
+    this.storeTransferSyntaxes = arguments.storeTransferSyntaxes;
+    this.seriesRetrieveThreshold = arguments.seriesRetrieveThreshold;
+    this.stowBatchWindow = arguments.stowBatchWindow;
+    this.stowBatchSize = arguments.stowBatchSize;
+    this.stowBatchBytes = arguments.stowBatchBytes;
+    this.uploadJournalPath = arguments.uploadJournalPath;
+    this.uploadThreads = arguments.uploadThreads;
+    this.streamingUpload = arguments.streamingUpload;
+    this.frameDirectories = arguments.frameDirectories;
+    this.metadataFiles = arguments.metadataFiles;
+    this.metadataCacheTime = arguments.metadataCacheTime;
+    this.metadataCacheSize = arguments.metadataCacheSize;
+    this.sizeIndexPath = arguments.sizeIndexPath;
     this.os = os;
   }
 
@@ -42,6 +105,18 @@ public class Parameters {
     return fuseDAO;
   }
 
+  public AsyncFuseDao getAsyncFuseDao() {
+    return asyncFuseDao;
+  }
+
+  public PaginationExecutor getPaginationExecutor() {
+    return paginationExecutor;
+  }
+
+  public MetricsRegistry getMetricsRegistry() {
+    return metricsRegistry;
+  }
+
   public CloudConf getCloudConf() {
     return cloudConf;
   }
@@ -58,6 +133,65 @@ public class Parameters {
     return enableDeletion;
   }
 
+  public boolean isStreamingDownload() {
+    return streamingDownload;
+  }
+
+  /**
+   * Returns the transfer syntax in which the Instances of the DICOM Store are downloaded.
+   */
+  public String getTransferSyntax(String dicomStoreId) {
+    return storeTransferSyntaxes.getOrDefault(dicomStoreId, transferSyntax);
+  }
+
+  public int getSeriesRetrieveThreshold() {
+    return seriesRetrieveThreshold;
+  }
+
+  public int getStowBatchWindow() {
+    return stowBatchWindow;
+  }
+
+  public int getStowBatchSize() {
+    return stowBatchSize;
+  }
+
+  public int getStowBatchBytes() {
+    return stowBatchBytes;
+  }
+
+  Path getUploadJournalPath() {
+    return uploadJournalPath;
+  }
+
+  int getUploadThreads() {
+    return uploadThreads;
+  }
+
+  boolean isStreamingUpload() {
+    return streamingUpload;
+  }
+
+  boolean isFrameDirectories() {
+    return frameDirectories;
+  }
+
+  boolean isMetadataFiles() {
+    return metadataFiles;
+  }
+
+  public long getMetadataCacheTime() {
+    return metadataCacheTime;
+  }
+
+  public long getMetadataCacheSize() {
+    return metadataCacheSize;
+  }
+
+  public Path getSizeIndexPath() {
+    return sizeIndexPath;
+  }
+
   OS getOs() {
     return os;
   }
@@ -0,0 +1,122 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One FUSE callback as written by {@link RecordingDicomFuseOperations}. A recording has one
+ * operation per line, with tab-separated fields: start time and duration in microseconds,
+ * operation, result, offset, size and path. The path is the last field, so that it may contain
+ * tabs.
+ */
+public class RecordedOperation {
+
+  private static final int FIELD_COUNT = 7;
+  private final long startMicros;
+  private final long durationMicros;
+  private final Type type;
+  private final int result;
+  private final long offset;
+  private final long size;
+  private final String path;
+
+  public enum Type {
+    GETATTR, OPENDIR, READDIR, RELEASEDIR, OPEN, READ, FLUSH
+  }
+
+  public RecordedOperation(long startMicros, long durationMicros, Type type, int result,
+      long offset, long size, String path) {
+    this.startMicros = startMicros;
+    this.durationMicros = durationMicros;
+    this.type = type;
+    this.result = result;
+    this.offset = offset;
+    this.size = size;
+    this.path = path;
+  }
+
+  /**
+   * Reads a recording. An incomplete last line, left if the mount was killed, is skipped.
+   */
+  public static List<RecordedOperation> read(Path recordingPath) throws IOException {
+    List<RecordedOperation> operations = new ArrayList<>();
+    try (BufferedReader reader = Files.newBufferedReader(recordingPath, UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        RecordedOperation operation = parse(line);
+        if (operation != null) {
+          operations.add(operation);
+        }
+      }
+    }
+    return operations;
+  }
+
+  // Returns null if the line is not a complete operation
+  static RecordedOperation parse(String line) {
+    String[] fields = line.split("\t", FIELD_COUNT);
+    if (fields.length != FIELD_COUNT) {
+      return null;
+    }
+    try {
+      return new RecordedOperation(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+          Type.valueOf(fields[2]), Integer.parseInt(fields[3]), Long.parseLong(fields[4]),
+          Long.parseLong(fields[5]), fields[6]);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  String format() {
+    return startMicros + "\t" + durationMicros + "\t" + type + "\t" + result + "\t" + offset
+        + "\t" + size + "\t" + path;
+  }
+
+  public long getStartMicros() {
+    return startMicros;
+  }
+
+  public long getDurationMicros() {
+    return durationMicros;
+  }
+
+  public Type getType() {
+    return type;
+  }
+
+  public int getResult() {
+    return result;
+  }
+
+  public long getOffset() {
+    return offset;
+  }
+
+  public long getSize() {
+    return size;
+  }
+
+  public String getPath() {
+    return path;
+  }
+}
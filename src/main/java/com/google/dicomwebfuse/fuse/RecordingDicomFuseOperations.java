@@ -0,0 +1,145 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.dicomwebfuse.fuse.RecordedOperation.Type;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import jnr.ffi.Pointer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import ru.serce.jnrfuse.FuseFillDir;
+import ru.serce.jnrfuse.struct.FileStat;
+import ru.serce.jnrfuse.struct.FuseContext;
+import ru.serce.jnrfuse.struct.FuseFileInfo;
+
+/**
+ * Writes the operations which read the mount to a file, with their timing and results, so that
+ * the workload of a mount can be replayed later. Writes and other changes are not recorded.
+ */
+public class RecordingDicomFuseOperations extends DicomFuseOperations {
+
+  private static final Logger LOGGER = LogManager.getLogger();
+  private final BufferedWriter writer;
+  private final long startNanos = System.nanoTime();
+  private boolean failed;
+
+  public RecordingDicomFuseOperations(Parameters parameters, Path recordingPath)
+      throws IOException {
+    super(parameters);
+    writer = Files.newBufferedWriter(recordingPath, UTF_8, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+  }
+
+  @Override
+  public int getattr(String path, FileStat fileStat, FuseContext context) {
+    long callNanos = System.nanoTime();
+    int result = super.getattr(path, fileStat, context);
+    record(Type.GETATTR, callNanos, result, 0, 0, path);
+    return result;
+  }
+
+  @Override
+  public int readdir(String path, Pointer buf, FuseFillDir filler, long offset,
+      FuseFileInfo fi) {
+    long callNanos = System.nanoTime();
+    int result = super.readdir(path, buf, filler, offset, fi);
+    record(Type.READDIR, callNanos, result, offset, 0, path);
+    return result;
+  }
+
+  @Override
+  public int opendir(String path, FuseFileInfo fi) {
+    long callNanos = System.nanoTime();
+    int result = super.opendir(path, fi);
+    record(Type.OPENDIR, callNanos, result, 0, 0, path);
+    return result;
+  }
+
+  @Override
+  public int releasedir(String path, FuseFileInfo fi) {
+    long callNanos = System.nanoTime();
+    int result = super.releasedir(path, fi);
+    record(Type.RELEASEDIR, callNanos, result, 0, 0, path);
+    return result;
+  }
+
+  @Override
+  public int read(String path, Pointer buf, long size, long offset, FuseFileInfo fi) {
+    long callNanos = System.nanoTime();
+    int result = super.read(path, buf, size, offset, fi);
+    record(Type.READ, callNanos, result, offset, size, path);
+    return result;
+  }
+
+  @Override
+  public int open(String path, FuseFileInfo fi) {
+    long callNanos = System.nanoTime();
+    int result = super.open(path, fi);
+    record(Type.OPEN, callNanos, result, 0, 0, path);
+    return result;
+  }
+
+  @Override
+  public int flush(String path, FuseFileInfo fi) {
+    long callNanos = System.nanoTime();
+    int result = super.flush(path, fi);
+    record(Type.FLUSH, callNanos, result, 0, 0, path);
+    return result;
+  }
+
+  @Override
+  public void close() {
+    try {
+      super.close();
+    } finally {
+      synchronized (this) {
+        try {
+          writer.close();
+        } catch (IOException e) {
+          LOGGER.error("Error closing the operation recording", e);
+        }
+        failed = true;
+      }
+    }
+  }
+
+  private void record(Type type, long callNanos, int result, long offset, long size,
+      String path) {
+    long endNanos = System.nanoTime();
+    RecordedOperation operation = new RecordedOperation(
+        TimeUnit.NANOSECONDS.toMicros(callNanos - startNanos),
+        TimeUnit.NANOSECONDS.toMicros(endNanos - callNanos), type, result, offset, size, path);
+    synchronized (this) {
+      if (failed) {
+        return;
+      }
+      try {
+        writer.write(operation.format());
+        writer.newLine();
+      } catch (IOException e) {
+        // The mount keeps working without the recording
+        LOGGER.error("Error recording operations, recording stopped", e);
+        failed = true;
+      }
+    }
+  }
+}
@@ -0,0 +1,162 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse;
+
+import com.google.dicomwebfuse.entities.DicomPath;
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Lets concurrent callers of the same operation on the same path share one request and its
+ * result. For example, the kernel sends many getattr calls for one uncached object when a file
+ * manager opens a folder.
+ */
+public class SingleFlight {
+
+  public enum Operation {
+    LOOKUP,
+    LISTING
+  }
+
+  private final ConcurrentHashMap<Key, Object> inFlight = new ConcurrentHashMap<>();
+  private final Map<Operation, LongAdder> callCounts = new EnumMap<>(Operation.class);
+  private final Map<Operation, LongAdder> deduplicatedCounts = new EnumMap<>(Operation.class);
+
+  public SingleFlight() {
+    for (Operation operation : Operation.values()) {
+      callCounts.put(operation, new LongAdder());
+      deduplicatedCounts.put(operation, new LongAdder());
+    }
+  }
+
+  /**
+   * Runs the call, or waits for the result of the same call which is already running.
+   */
+  @SuppressWarnings("unchecked")
+  <T> T execute(Operation operation, DicomPath dicomPath, Call<T> call)
+      throws DicomFuseException {
+    Key key = new Key(operation, dicomPath);
+    CompletableFuture<T> flight = new CompletableFuture<>();
+    CompletableFuture<T> runningFlight = (CompletableFuture<T>) inFlight.putIfAbsent(key, flight);
+    callCounts.get(operation).increment();
+    // Only objects which are not cached are looked up or listed
+    CacheMisses.increment();
+    if (runningFlight != null) {
+      deduplicatedCounts.get(operation).increment();
+      return await(runningFlight);
+    }
+    try {
+      T result = call.call();
+      flight.complete(result);
+      return result;
+    } catch (DicomFuseException | RuntimeException e) {
+      flight.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, flight);
+    }
+  }
+
+  /**
+   * Returns the task which is already running for the operation and path, or the task created by
+   * the starter. The task is shared until it is passed to {@link #release}. The starter must only
+   * start the work, because concurrent callers wait for it.
+   */
+  @SuppressWarnings("unchecked")
+  <T> T join(Operation operation, DicomPath dicomPath, Supplier<T> starter) {
+    Key key = new Key(operation, dicomPath);
+    boolean[] started = new boolean[1];
+    T task = (T) inFlight.computeIfAbsent(key, k -> {
+      started[0] = true;
+      return starter.get();
+    });
+    callCounts.get(operation).increment();
+    CacheMisses.increment();
+    if (!started[0]) {
+      deduplicatedCounts.get(operation).increment();
+    }
+    return task;
+  }
+
+  void release(Operation operation, DicomPath dicomPath, Object task) {
+    inFlight.remove(new Key(operation, dicomPath), task);
+  }
+
+  public long getCallCount(Operation operation) {
+    return callCounts.get(operation).sum();
+  }
+
+  /**
+   * @return how many calls shared the request of another call
+   */
+  public long getDeduplicatedCount(Operation operation) {
+    return deduplicatedCounts.get(operation).sum();
+  }
+
+  private static <T> T await(CompletableFuture<T> flight) throws DicomFuseException {
+    try {
+      return flight.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DicomFuseException(e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof DicomFuseException) {
+        DicomFuseException cause = (DicomFuseException) e.getCause();
+        throw new DicomFuseException(cause.getMessage(), cause.getStatusCode());
+      }
+      throw new DicomFuseException(e);
+    }
+  }
+
+  interface Call<T> {
+
+    T call() throws DicomFuseException;
+  }
+
+  private static class Key {
+
+    private final Operation operation;
+    private final DicomPath dicomPath;
+
+    private Key(Operation operation, DicomPath dicomPath) {
+      this.operation = operation;
+      this.dicomPath = dicomPath;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      Key key = (Key) o;
+      return operation == key.operation && Objects.equals(dicomPath, key.dicomPath);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(operation, dicomPath);
+    }
+  }
+}
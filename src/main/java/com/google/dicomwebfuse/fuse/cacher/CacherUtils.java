@@ -18,6 +18,7 @@ import com.google.dicomwebfuse.exception.DicomFuseException;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.concurrent.CompletionException;
 
 class CacherUtils {
 
@@ -39,6 +40,19 @@ class CacherUtils {
     }
   }
 
+  /**
+   * Returns the failure of a future of the dao, unwrapped from the exception of a dependent stage.
+   */
+  static DicomFuseException toDicomFuseException(Throwable throwable) {
+    Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+        ? throwable.getCause() : throwable;
+    if (cause instanceof DicomFuseException) {
+      return (DicomFuseException) cause;
+    }
+    return new DicomFuseException(cause instanceof Exception ? (Exception) cause
+        : new RuntimeException(cause));
+  }
+
   private CacherUtils() {
   }
 }
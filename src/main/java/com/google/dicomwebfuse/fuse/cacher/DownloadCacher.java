@@ -14,19 +14,40 @@
 
 package com.google.dicomwebfuse.fuse.cacher;
 
+import static com.google.dicomwebfuse.dao.Constants.ANY_TRANSFER_SYNTAX;
+
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalCause;
 import com.google.common.cache.RemovalListener;
+import com.google.dicomwebfuse.dao.DownloadListener;
 import com.google.dicomwebfuse.dao.FuseDaoHelper;
+import com.google.dicomwebfuse.dao.SeriesDownloadListener;
 import com.google.dicomwebfuse.entities.DicomPath;
+import com.google.dicomwebfuse.entities.DicomPathLevel;
 import com.google.dicomwebfuse.exception.DicomFuseException;
+import com.google.dicomwebfuse.fuse.CacheMisses;
 import com.google.dicomwebfuse.fuse.Parameters;
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.checkerframework.checker.nullness.qual.NonNull;
@@ -35,60 +56,480 @@ public class DownloadCacher {
 
   private static final Logger LOGGER = LogManager.getLogger();
   private static final int BYTES_IN_MEGABYTE = 1000 * 1000;
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
   private final Parameters parameters;
-  private LoadingCache<DicomPath, Path> downloadedFiles;
+  // Numbers of instances downloaded one by one per series, which show that a series is being read
+  // in full
+  private final Cache<DicomPath, AtomicInteger> seriesDownloads;
+  private final Set<DicomPath> retrievedSeries = ConcurrentHashMap.newKeySet();
+  // Sizes of the instances downloaded so far, which stay known after the files are evicted
+  private final SizeIndex sizeIndex;
+  // Instances are cached per transfer syntax, so that the variants of the same Instance coexist
+  private LoadingCache<InstanceKey, InstanceFile> downloadedFiles;
+  private final LongAdder requestCount = new LongAdder();
+  private final LongAdder missCount = new LongAdder();
+  private final LongAdder evictionCount = new LongAdder();
+  private final LongAdder downloadedBytes = new LongAdder();
+  private volatile boolean closed;
 
   public DownloadCacher(Parameters parameters) {
     this.parameters = parameters;
+    sizeIndex = new SizeIndex(parameters.getSizeIndexPath());
     long instancesTime = parameters.getCacheTime().getInstanceFilesCacheTime();
+    seriesDownloads = CacheBuilder.newBuilder()
+        .expireAfterAccess(instancesTime, TimeUnit.SECONDS)
+        .build();
     downloadedFiles = CacheBuilder.newBuilder()
         .expireAfterWrite(instancesTime, TimeUnit.SECONDS)
-        .removalListener((RemovalListener<DicomPath, Path>) notification -> {
-          Path path = notification.getValue();
+        .removalListener((RemovalListener<InstanceKey, InstanceFile>) notification -> {
+          if (notification.getCause() == RemovalCause.REPLACED) {
+            // The entry was put again to update its weight, the file is still in use
+            return;
+          }
+          if (notification.wasEvicted()) {
+            evictionCount.increment();
+          }
+          InstanceFile instanceFile = notification.getValue();
+          instanceFile.cancel();
           try {
-            CacherUtils.deleteFile(path);
+            CacherUtils.deleteFile(instanceFile.getPath());
           } catch (DicomFuseException e) {
             LOGGER.error("Error deleting the downloaded file!", e);
           }
         })
         .maximumWeight(parameters.getCacheSize())
-        .weigher((dicomPath, path) -> {
-          try {
-            return (int) Files.size(path) / BYTES_IN_MEGABYTE;
-          } catch (IOException e) {
-            LOGGER.error("Error getting file size!", e);
-            return 0;
-          }
-        })
-        .build(new CacheLoader<DicomPath, Path>() {
+        .weigher((instanceKey, instanceFile) ->
+            (int) (instanceFile.getWeightBytes() / BYTES_IN_MEGABYTE))
+        .build(new CacheLoader<InstanceKey, InstanceFile>() {
           @Override
-          public Path load(@NonNull DicomPath dicomPath) throws DicomFuseException {
-            return getInstance(dicomPath);
+          public InstanceFile load(@NonNull InstanceKey instanceKey) throws DicomFuseException {
+            return getInstance(instanceKey);
           }
         });
   }
 
+  /**
+   * Returns the path of the downloaded instance, downloading it if necessary. With streaming
+   * downloads the download continues in the background after the path is returned.
+   */
   public Path getPath(DicomPath dicomPath) throws DicomFuseException {
+    return getInstanceFile(keyOf(dicomPath)).getPath();
+  }
+
+  /**
+   * Returns the path of the instance downloaded in the given transfer syntax, downloading it if
+   * necessary.
+   */
+  public Path getPath(DicomPath dicomPath, String transferSyntax) throws DicomFuseException {
+    return getInstanceFile(new InstanceKey(dicomPath, transferSyntax)).getPath();
+  }
+
+  public Path getPathIfPresent(DicomPath dicomPath) {
+    InstanceFile instanceFile = downloadedFiles.getIfPresent(keyOf(dicomPath));
+    return instanceFile == null ? null : instanceFile.getPath();
+  }
+
+  public Path getPathIfPresent(DicomPath dicomPath, String transferSyntax) {
+    InstanceFile instanceFile =
+        downloadedFiles.getIfPresent(new InstanceKey(dicomPath, transferSyntax));
+    return instanceFile == null ? null : instanceFile.getPath();
+  }
+
+  /**
+   * Returns the size of the instance. With streaming downloads blocks until the response headers
+   * arrive, or until the download completes if the server does not send the content length.
+   */
+  public long getSize(DicomPath dicomPath) throws DicomFuseException {
+    return getInstanceFile(keyOf(dicomPath)).awaitSize();
+  }
+
+  /**
+   * Returns the size of the instance or frame if it is cached, otherwise 0.
+   */
+  public long getSizeIfPresent(DicomPath dicomPath) throws DicomFuseException {
+    InstanceFile instanceFile = downloadedFiles.getIfPresent(keyOf(dicomPath));
+    return instanceFile == null ? 0 : instanceFile.awaitSize();
+  }
+
+  /**
+   * Returns the size of the instance from its earlier downloads, without downloading it, or 0 if
+   * it has not been downloaded in the current transfer syntax.
+   */
+  public long getIndexedSize(DicomPath dicomPath) {
+    return sizeIndex.getSize(dicomPath, parameters.getTransferSyntax(dicomPath.getDicomStoreId()));
+  }
+
+  /**
+   * @return how many times an instance or frame file was asked for, from the cache or not
+   */
+  public long getRequestCount() {
+    return requestCount.sum();
+  }
+
+  /**
+   * @return how many times an instance or frame file was not cached and had to be downloaded
+   */
+  public long getMissCount() {
+    return missCount.sum();
+  }
+
+  /**
+   * @return how many files were removed from the cache because it was full or they expired
+   */
+  public long getEvictionCount() {
+    return evictionCount.sum();
+  }
+
+  public long getDownloadedBytes() {
+    return downloadedBytes.sum();
+  }
+
+  /**
+   * Returns the size of the cached files, including the parts of the files still downloading.
+   */
+  public long getCachedBytes() {
+    long cachedBytes = 0;
+    for (InstanceFile instanceFile : downloadedFiles.asMap().values()) {
+      cachedBytes += instanceFile.getWeightBytes();
+    }
+    return cachedBytes;
+  }
+
+  /**
+   * Blocks until the given range of a streaming download is written to the file. Returns at once
+   * for downloads that are complete.
+   *
+   * @return the path of the downloaded instance, or null if it is not cached
+   */
+  public Path awaitRange(DicomPath dicomPath, long offset, long size) throws DicomFuseException {
+    InstanceFile instanceFile = downloadedFiles.getIfPresent(keyOf(dicomPath));
+    if (instanceFile == null) {
+      return null;
+    }
+    instanceFile.awaitRange(offset, size);
+    return instanceFile.getPath();
+  }
+
+  /**
+   * Removes the instance downloaded in any transfer syntax, and its frames.
+   */
+  public void removePath(DicomPath dicomPath) {
+    List<InstanceKey> instanceKeys = downloadedFiles.asMap().keySet().stream()
+        .filter(instanceKey -> instanceKey.dicomPath.equals(dicomPath)
+            || isFrameOf(instanceKey.dicomPath, dicomPath))
+        .collect(Collectors.toList());
+    downloadedFiles.invalidateAll(instanceKeys);
+    sizeIndex.remove(dicomPath);
+  }
+
+  /**
+   * Downloads all instances of the series with a single request in the background. The instances
+   * are cached one after another as they arrive, instances that are already cached are skipped.
+   */
+  public void cacheSeries(DicomPath dicomPath) {
+    DicomPath seriesPath = seriesPathOf(dicomPath);
+    if (closed || !retrievedSeries.add(seriesPath)) {
+      return;
+    }
+    LOGGER.info("Series caching started  - " + seriesPath);
+    String transferSyntax = parameters.getTransferSyntax(seriesPath.getDicomStoreId());
+    SeriesDownloadListener seriesDownloadListener =
+        content -> cacheSeriesInstance(seriesPath, transferSyntax, content);
+    downloadInAnySyntax(transferSyntax, seriesPath,
+        syntax -> FuseDaoHelper.downloadSeries(parameters.getAsyncFuseDao(),
+            parameters.getCloudConf(), seriesPath, syntax, seriesDownloadListener))
+        .whenComplete((ignored, throwable) -> {
+          retrievedSeries.remove(seriesPath);
+          if (throwable == null) {
+            LOGGER.info("Series caching finished - " + seriesPath);
+          } else {
+            LOGGER.error("Error downloading series - " + seriesPath,
+                CacherUtils.toDicomFuseException(throwable));
+          }
+        });
+  }
+
+  // Downloads in the syntax the object is stored in if the server cannot convert it to the
+  // requested one
+  private static CompletableFuture<Void> downloadInAnySyntax(String transferSyntax,
+      Object downloaded, Function<String, CompletableFuture<Void>> download) {
+    return download.apply(transferSyntax).handle((ignored, throwable) -> {
+      if (throwable == null) {
+        return CompletableFuture.<Void>completedFuture(null);
+      }
+      DicomFuseException e = CacherUtils.toDicomFuseException(throwable);
+      if (!FuseDaoHelper.isTransferSyntaxUnavailable(e)
+          || ANY_TRANSFER_SYNTAX.equals(transferSyntax)) {
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        failed.completeExceptionally(e);
+        return failed;
+      }
+      LOGGER.warn("Transfer syntax not available, downloading the stored one - " + downloaded);
+      return download.apply(ANY_TRANSFER_SYNTAX);
+    }).thenCompose(Function.identity());
+  }
+
+  private void cacheSeriesInstance(DicomPath seriesPath, String transferSyntax,
+      InputStream content) throws IOException {
+    if (closed) {
+      throw new InterruptedIOException("Download cancelled - " + seriesPath);
+    }
+    InputStream inputStream = new BufferedInputStream(content, COPY_BUFFER_SIZE);
+    inputStream.mark(Part10Header.MAX_LENGTH);
+    String sopInstanceUID = Part10Header.readSopInstanceUid(inputStream);
+    inputStream.reset();
+    if (sopInstanceUID == null) {
+      LOGGER.warn("Skipping an instance without SOP Instance UID - " + seriesPath);
+      return;
+    }
+    DicomPath dicomPath = new DicomPath.Builder(DicomPathLevel.INSTANCE)
+        .dicomStoreId(seriesPath.getDicomStoreId())
+        .studyInstanceUID(seriesPath.getStudyInstanceUID())
+        .seriesInstanceUID(seriesPath.getSeriesInstanceUID())
+        .sopInstanceUID(sopInstanceUID)
+        .build();
+    InstanceKey instanceKey = new InstanceKey(dicomPath, transferSyntax);
+    Path instanceDataPath;
+    try {
+      instanceDataPath = CacherUtils.createTempPath();
+    } catch (DicomFuseException e) {
+      throw new IOException(e);
+    }
+    InstanceFile instanceFile = new InstanceFile(instanceDataPath);
+    // The entry is added before the content is written, so that the instance is not downloaded
+    // again if it is opened in the meantime
+    if (downloadedFiles.asMap().putIfAbsent(instanceKey, instanceFile) != null) {
+      Files.delete(instanceDataPath);
+      return;
+    }
     try {
-      return downloadedFiles.get(dicomPath);
+      long size = copyWithProgress(inputStream, instanceFile);
+      if (instanceFile.isCancelled()) {
+        instanceFile.fail(new DicomFuseException("Download cancelled - " + instanceKey));
+        return;
+      }
+      instanceFile.complete(size);
+      downloadedBytes.add(size);
+      sizeIndex.putSize(dicomPath, transferSyntax, size);
+      // Putting the same entry again, so that it is weighed with its final size
+      downloadedFiles.asMap().replace(instanceKey, instanceFile, instanceFile);
+    } catch (IOException | RuntimeException e) {
+      // Readers waiting for the instance are released, and the next open downloads it again
+      downloadedFiles.asMap().remove(instanceKey, instanceFile);
+      instanceFile.fail(new DicomFuseException(e));
+      throw e;
+    }
+  }
+
+  private static long copyWithProgress(InputStream inputStream, InstanceFile instanceFile)
+      throws IOException {
+    byte[] buffer = new byte[COPY_BUFFER_SIZE];
+    long downloadedBytes = 0;
+    try (OutputStream outputStream = Files.newOutputStream(instanceFile.getPath())) {
+      int length;
+      while (!instanceFile.isCancelled() && (length = inputStream.read(buffer)) != -1) {
+        // Written without buffering, so the bytes can be read from the file right away
+        outputStream.write(buffer, 0, length);
+        downloadedBytes += length;
+        instanceFile.progress(downloadedBytes);
+      }
+    }
+    return downloadedBytes;
+  }
+
+  /**
+   * Cancels the downloads in progress and deletes the cached files, as they are not kept across
+   * mounts. The requests of the cancelled downloads end when their next bytes arrive.
+   */
+  public void close() {
+    closed = true;
+    downloadedFiles.invalidateAll();
+  }
+
+  private void countSeriesDownload(DicomPath dicomPath) {
+    int seriesRetrieveThreshold = parameters.getSeriesRetrieveThreshold();
+    if (seriesRetrieveThreshold == 0) {
+      return;
+    }
+    DicomPath seriesPath = seriesPathOf(dicomPath);
+    AtomicInteger downloads =
+        seriesDownloads.asMap().computeIfAbsent(seriesPath, path -> new AtomicInteger());
+    if (downloads.incrementAndGet() == seriesRetrieveThreshold) {
+      LOGGER.info("Series is read in full, downloading the rest of it - " + seriesPath);
+      cacheSeries(seriesPath);
+    }
+  }
+
+  private static boolean isFrameOf(DicomPath framePath, DicomPath dicomPath) {
+    return framePath.getDicomPathLevel() == DicomPathLevel.FRAME
+        && framePath.getDicomStoreId().equals(dicomPath.getDicomStoreId())
+        && framePath.getStudyInstanceUID().equals(dicomPath.getStudyInstanceUID())
+        && framePath.getSeriesInstanceUID().equals(dicomPath.getSeriesInstanceUID())
+        && framePath.getSopInstanceUID().equals(dicomPath.getSopInstanceUID());
+  }
+
+  private static DicomPath seriesPathOf(DicomPath dicomPath) {
+    return new DicomPath.Builder(DicomPathLevel.SERIES)
+        .dicomStoreId(dicomPath.getDicomStoreId())
+        .studyInstanceUID(dicomPath.getStudyInstanceUID())
+        .seriesInstanceUID(dicomPath.getSeriesInstanceUID())
+        .build();
+  }
+
+  private InstanceKey keyOf(DicomPath dicomPath) {
+    if (dicomPath.getDicomPathLevel() == DicomPathLevel.FRAME) {
+      // Frames are downloaded in the syntax they are stored in
+      return new InstanceKey(dicomPath, ANY_TRANSFER_SYNTAX);
+    }
+    return new InstanceKey(dicomPath, parameters.getTransferSyntax(dicomPath.getDicomStoreId()));
+  }
+
+  private InstanceFile getInstanceFile(InstanceKey instanceKey) throws DicomFuseException {
+    requestCount.increment();
+    try {
+      return downloadedFiles.get(instanceKey);
     } catch (ExecutionException e) {
       throw new DicomFuseException(e);
     }
   }
 
-  public Path getPathIfPresent(DicomPath dicomPath) {
-    return downloadedFiles.getIfPresent(dicomPath);
+  private InstanceFile getInstance(InstanceKey instanceKey) throws DicomFuseException {
+    LOGGER.info("File caching started  - " + instanceKey);
+    missCount.increment();
+    CacheMisses.increment();
+    Path instanceDataPath = CacherUtils.createTempPath();
+    InstanceFile instanceFile = new InstanceFile(instanceDataPath);
+    if (instanceKey.dicomPath.getDicomPathLevel() == DicomPathLevel.FRAME) {
+      // Frames are small, so each one is cached on its own once it is downloaded
+      FuseDaoHelper.downloadFrame(parameters.getFuseDAO(), parameters.getCloudConf(),
+          instanceKey.dicomPath, instanceDataPath);
+      long size = size(instanceDataPath);
+      instanceFile.complete(size);
+      downloadedBytes.add(size);
+      return instanceFile;
+    }
+    countSeriesDownload(instanceKey.dicomPath);
+    if (parameters.isStreamingDownload()) {
+      streamInstance(instanceKey, instanceFile);
+    } else {
+      downloadInstance(instanceKey, instanceDataPath, null);
+      long size = size(instanceDataPath);
+      instanceFile.complete(size);
+      downloadedBytes.add(size);
+      sizeIndex.putSize(instanceKey.dicomPath, instanceKey.transferSyntax, size);
+    }
+    return instanceFile;
   }
 
-  public void removePath(DicomPath dicomPath) {
-    downloadedFiles.invalidate(dicomPath);
+  private void downloadInstance(InstanceKey instanceKey, Path instanceDataPath,
+      DownloadListener downloadListener) throws DicomFuseException {
+    try {
+      FuseDaoHelper.downloadInstance(parameters.getFuseDAO(), parameters.getCloudConf(),
+          instanceKey.dicomPath, instanceKey.transferSyntax, instanceDataPath, downloadListener);
+    } catch (DicomFuseException e) {
+      if (!FuseDaoHelper.isTransferSyntaxUnavailable(e)
+          || ANY_TRANSFER_SYNTAX.equals(instanceKey.transferSyntax)) {
+        throw e;
+      }
+      // The instance cannot be converted to the requested syntax, so it is cached in the syntax it
+      // is stored in rather than failing the open
+      LOGGER.warn("Transfer syntax not available, downloading the stored one - " + instanceKey);
+      FuseDaoHelper.downloadInstance(parameters.getFuseDAO(), parameters.getCloudConf(),
+          instanceKey.dicomPath, ANY_TRANSFER_SYNTAX, instanceDataPath, downloadListener);
+    }
   }
 
-  private Path getInstance(DicomPath dicomPath) throws DicomFuseException {
-    LOGGER.info("File caching started  - " + dicomPath);
-    Path instanceDataPath = CacherUtils.createTempPath();
-    FuseDaoHelper.downloadInstance(parameters.getFuseDAO(), parameters.getCloudConf(),
-        dicomPath, instanceDataPath);
-    return instanceDataPath;
+  // Starts the download without waiting for it, the readers wait for the parts of the file they
+  // read
+  private void streamInstance(InstanceKey instanceKey, InstanceFile instanceFile) {
+    DownloadListener downloadListener = new DownloadListener() {
+      @Override
+      public void onStart(long contentLength) {
+        instanceFile.start(contentLength);
+      }
+
+      @Override
+      public void onProgress(long downloadedBytes) throws IOException {
+        if (instanceFile.isCancelled()) {
+          throw new InterruptedIOException("Download cancelled - " + instanceKey);
+        }
+        instanceFile.progress(downloadedBytes);
+      }
+    };
+    downloadInAnySyntax(instanceKey.transferSyntax, instanceKey,
+        syntax -> FuseDaoHelper.downloadInstance(parameters.getAsyncFuseDao(),
+            parameters.getCloudConf(), instanceKey.dicomPath, syntax, instanceFile.getPath(),
+            downloadListener))
+        .whenComplete((ignored, throwable) -> {
+          if (throwable != null) {
+            // Failing the file also for unexpected errors, so that the readers waiting for it
+            // return
+            failDownload(instanceKey, instanceFile, CacherUtils.toDicomFuseException(throwable));
+            return;
+          }
+          try {
+            long size = size(instanceFile.getPath());
+            instanceFile.complete(size);
+            downloadedBytes.add(size);
+            sizeIndex.putSize(instanceKey.dicomPath, instanceKey.transferSyntax, size);
+            // Putting the same entry again, so that it is weighed with its final size
+            downloadedFiles.asMap().replace(instanceKey, instanceFile, instanceFile);
+            LOGGER.info("File caching finished - " + instanceKey);
+          } catch (DicomFuseException e) {
+            failDownload(instanceKey, instanceFile, e);
+          }
+        });
+  }
+
+  private void failDownload(InstanceKey instanceKey, InstanceFile instanceFile,
+      DicomFuseException e) {
+    if (!instanceFile.isCancelled()) {
+      LOGGER.error("Error downloading - " + instanceKey, e);
+    }
+    // The next open downloads the instance again
+    downloadedFiles.asMap().remove(instanceKey, instanceFile);
+    instanceFile.fail(e);
+  }
+
+  private static long size(Path path) throws DicomFuseException {
+    try {
+      return Files.size(path);
+    } catch (IOException e) {
+      throw new DicomFuseException(e);
+    }
+  }
+
+  private static final class InstanceKey {
+
+    private final DicomPath dicomPath;
+    private final String transferSyntax;
+
+    private InstanceKey(DicomPath dicomPath, String transferSyntax) {
+      this.dicomPath = dicomPath;
+      this.transferSyntax = transferSyntax;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      InstanceKey instanceKey = (InstanceKey) o;
+      return dicomPath.equals(instanceKey.dicomPath) &&
+          transferSyntax.equals(instanceKey.transferSyntax);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(dicomPath, transferSyntax);
+    }
+
+    @Override
+    public String toString() {
+      return dicomPath + " (transfer syntax " + transferSyntax + ")";
+    }
   }
 }
@@ -0,0 +1,109 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse.cacher;
+
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import java.nio.file.Path;
+
+/**
+ * Downloaded instance file together with the progress of its download. A file that is still being
+ * downloaded can be read up to the number of bytes downloaded so far.
+ */
+class InstanceFile {
+
+  private static final long UNKNOWN_SIZE = -1;
+  private final Path path;
+  private long contentLength = UNKNOWN_SIZE;
+  private long downloadedBytes;
+  private boolean completed;
+  private DicomFuseException failure;
+  private volatile boolean cancelled;
+
+  InstanceFile(Path path) {
+    this.path = path;
+  }
+
+  Path getPath() {
+    return path;
+  }
+
+  synchronized void start(long contentLength) {
+    this.contentLength = contentLength;
+    notifyAll();
+  }
+
+  synchronized void progress(long downloadedBytes) {
+    this.downloadedBytes = downloadedBytes;
+    notifyAll();
+  }
+
+  synchronized void complete(long size) {
+    downloadedBytes = size;
+    contentLength = size;
+    completed = true;
+    notifyAll();
+  }
+
+  synchronized void fail(DicomFuseException failure) {
+    this.failure = failure;
+    notifyAll();
+  }
+
+  void cancel() {
+    cancelled = true;
+  }
+
+  boolean isCancelled() {
+    return cancelled;
+  }
+
+  synchronized long getWeightBytes() {
+    return Math.max(contentLength, downloadedBytes);
+  }
+
+  /**
+   * Blocks until the size of the instance is known, which is as soon as the response headers
+   * arrive if the server sends the content length, or else when the download completes.
+   */
+  synchronized long awaitSize() throws DicomFuseException {
+    while (!completed && contentLength == UNKNOWN_SIZE) {
+      awaitProgress();
+    }
+    return contentLength;
+  }
+
+  /**
+   * Blocks until the bytes in [offset, offset + size) are downloaded, or the download completes
+   * before reaching them.
+   */
+  synchronized void awaitRange(long offset, long size) throws DicomFuseException {
+    long end = offset + size;
+    while (!completed && downloadedBytes < end) {
+      awaitProgress();
+    }
+  }
+
+  private void awaitProgress() throws DicomFuseException {
+    if (failure != null) {
+      throw new DicomFuseException("Error downloading file - " + path, failure);
+    }
+    try {
+      wait();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DicomFuseException(e);
+    }
+  }
+}
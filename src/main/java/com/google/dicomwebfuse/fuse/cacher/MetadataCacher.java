@@ -0,0 +1,88 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse.cacher;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.dicomwebfuse.dao.FuseDaoHelper;
+import com.google.dicomwebfuse.entities.DicomPath;
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import com.google.dicomwebfuse.fuse.CacheMisses;
+import com.google.dicomwebfuse.fuse.Parameters;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.checkerframework.checker.nullness.qual.NonNull;
+
+/**
+ * Caches the DICOM JSON metadata of studies, series and instances in memory. The metadata is
+ * small compared to the instances, so it is kept apart from them, with its own cache time and
+ * size.
+ */
+public class MetadataCacher {
+
+  private static final Logger LOGGER = LogManager.getLogger();
+  private static final int BYTES_IN_MEGABYTE = 1000 * 1000;
+  private final LoadingCache<DicomPath, byte[]> metadata;
+
+  public MetadataCacher(Parameters parameters) {
+    metadata = CacheBuilder.newBuilder()
+        .expireAfterWrite(parameters.getMetadataCacheTime(), TimeUnit.SECONDS)
+        .maximumWeight(parameters.getMetadataCacheSize() * BYTES_IN_MEGABYTE)
+        .weigher((DicomPath dicomPath, byte[] bytes) -> bytes.length)
+        .build(new CacheLoader<DicomPath, byte[]>() {
+          @Override
+          public byte[] load(@NonNull DicomPath dicomPath) throws DicomFuseException {
+            LOGGER.debug("Metadata caching - " + dicomPath);
+            CacheMisses.increment();
+            return FuseDaoHelper.downloadMetadata(parameters.getFuseDAO(),
+                parameters.getCloudConf(), dicomPath);
+          }
+        });
+  }
+
+  /**
+   * Returns the metadata of the metadata file, downloading it if necessary.
+   */
+  public byte[] getMetadata(DicomPath dicomPath) throws DicomFuseException {
+    try {
+      return metadata.get(dicomPath);
+    } catch (ExecutionException | UncheckedExecutionException e) {
+      if (e.getCause() instanceof DicomFuseException) {
+        throw (DicomFuseException) e.getCause();
+      }
+      throw new DicomFuseException(e);
+    }
+  }
+
+  public byte[] getMetadataIfPresent(DicomPath dicomPath) {
+    return metadata.getIfPresent(dicomPath);
+  }
+
+  /**
+   * Removes the metadata of the DICOM store, after one of its instances was uploaded or deleted.
+   */
+  public void removeDicomStore(String dicomStoreId) {
+    List<DicomPath> dicomPaths = metadata.asMap().keySet().stream()
+        .filter(dicomPath -> dicomPath.getDicomStoreId().equals(dicomStoreId))
+        .collect(Collectors.toList());
+    metadata.invalidateAll(dicomPaths);
+  }
+}
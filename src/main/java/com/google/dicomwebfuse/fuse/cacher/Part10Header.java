@@ -0,0 +1,94 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse.cacher;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Reads the SOP Instance UID from the File Meta Information of a DICOM file, which is written in
+ * Explicit VR Little Endian after the 128 byte preamble and the "DICM" prefix.
+ */
+class Part10Header {
+
+  // The File Meta Information is much shorter, longer headers are not read
+  static final int MAX_LENGTH = 64 * 1024;
+  private static final int PREAMBLE_LENGTH = 128;
+  private static final byte[] PREFIX = "DICM".getBytes(US_ASCII);
+  private static final int FILE_META_GROUP = 0x0002;
+  private static final int MEDIA_STORAGE_SOP_INSTANCE_UID = 0x0003;
+  // Value representations with a 4 byte value length
+  private static final Set<String> LONG_VRS = new HashSet<>(Arrays.asList(
+      "OB", "OD", "OF", "OL", "OV", "OW", "SQ", "SV", "UC", "UN", "UR", "UT", "UV"));
+
+  private Part10Header() {
+  }
+
+  /**
+   * Returns the Media Storage SOP Instance UID, or null if the content is not a DICOM file or has
+   * no such element. Reads at most {@link #MAX_LENGTH} bytes.
+   */
+  static String readSopInstanceUid(InputStream inputStream) throws IOException {
+    DataInputStream dataInputStream = new DataInputStream(inputStream);
+    byte[] prefix = new byte[PREAMBLE_LENGTH + PREFIX.length];
+    dataInputStream.readFully(prefix);
+    if (!Arrays.equals(PREFIX, Arrays.copyOfRange(prefix, PREAMBLE_LENGTH, prefix.length))) {
+      return null;
+    }
+    int length = prefix.length;
+    byte[] header = new byte[8];
+    while (length + header.length <= MAX_LENGTH) {
+      dataInputStream.readFully(header);
+      int group = readUnsignedShort(header, 0);
+      int element = readUnsignedShort(header, 2);
+      if (group != FILE_META_GROUP) {
+        return null;
+      }
+      String vr = new String(header, 4, 2, US_ASCII);
+      long valueLength;
+      length += header.length;
+      if (LONG_VRS.contains(vr)) {
+        byte[] longLength = new byte[4];
+        dataInputStream.readFully(longLength);
+        length += longLength.length;
+        valueLength =
+            readUnsignedShort(longLength, 0) | (long) readUnsignedShort(longLength, 2) << 16;
+      } else {
+        valueLength = readUnsignedShort(header, 6);
+      }
+      if (length + valueLength > MAX_LENGTH) {
+        return null;
+      }
+      byte[] value = new byte[(int) valueLength];
+      dataInputStream.readFully(value);
+      length += value.length;
+      if (element == MEDIA_STORAGE_SOP_INSTANCE_UID) {
+        // UIDs are padded with a trailing null byte to an even length
+        return new String(value, US_ASCII).replace("\0", "").trim();
+      }
+    }
+    return null;
+  }
+
+  private static int readUnsignedShort(byte[] bytes, int offset) {
+    return (bytes[offset] & 0xFF) | (bytes[offset + 1] & 0xFF) << 8;
+  }
+}
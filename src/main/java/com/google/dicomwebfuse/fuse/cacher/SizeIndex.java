@@ -0,0 +1,185 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse.cacher;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.dicomwebfuse.entities.DicomPath;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Sizes of the downloaded instances per transfer syntax, so that the size of a file is known
+ * before it is opened. Sizes are only learned from downloads, as neither QIDO nor the metadata
+ * report the size of an instance file. With a file the sizes are kept between mounts: each change
+ * is appended as a line, and the file is rewritten without the replaced lines when it is loaded.
+ */
+class SizeIndex {
+
+  private static final Logger LOGGER = LogManager.getLogger();
+  private static final String SEPARATOR = "\t";
+  private static final String PART_EXTENSION = ".part";
+  private final Path indexPath;
+  private final Map<SizeKey, Long> sizes = new ConcurrentHashMap<>();
+
+  /**
+   * @param indexPath the file in which the sizes are kept, or null to keep them in memory only
+   */
+  SizeIndex(Path indexPath) {
+    this.indexPath = indexPath;
+    if (indexPath != null) {
+      load();
+    }
+  }
+
+  /**
+   * Returns the size of the instance in the given transfer syntax, or 0 if it is not known.
+   */
+  long getSize(DicomPath dicomPath, String transferSyntax) {
+    return sizes.getOrDefault(new SizeKey(dicomPath, transferSyntax), 0L);
+  }
+
+  synchronized void putSize(DicomPath dicomPath, String transferSyntax, long size) {
+    SizeKey sizeKey = new SizeKey(dicomPath, transferSyntax);
+    Long previousSize = sizes.put(sizeKey, size);
+    if (previousSize == null || previousSize != size) {
+      append(sizeKey, size);
+    }
+  }
+
+  /**
+   * Removes the sizes of the instance in all transfer syntaxes.
+   */
+  synchronized void remove(DicomPath dicomPath) {
+    for (SizeKey sizeKey : sizes.keySet()) {
+      if (sizeKey.dicomStoreId.equals(dicomPath.getDicomStoreId())
+          && sizeKey.sopInstanceUID.equals(dicomPath.getSopInstanceUID())
+          && sizes.remove(sizeKey) != null) {
+        // A size of 0 removes the entry when the file is loaded
+        append(sizeKey, 0);
+      }
+    }
+  }
+
+  private void load() {
+    try {
+      if (Files.exists(indexPath)) {
+        List<String> lines = Files.readAllLines(indexPath, UTF_8);
+        for (String line : lines) {
+          String[] fields = line.split(SEPARATOR);
+          long size = fields.length == 4 ? parseSize(fields[3]) : -1;
+          if (size < 0) {
+            // The last line may be incomplete after a crash
+            LOGGER.warn("Skipping a malformed line of the size index - " + line);
+            continue;
+          }
+          SizeKey sizeKey = new SizeKey(fields[0], fields[1], fields[2]);
+          if (size == 0) {
+            sizes.remove(sizeKey);
+          } else {
+            sizes.put(sizeKey, size);
+          }
+        }
+      }
+      Path partPath = indexPath.resolveSibling(indexPath.getFileName() + PART_EXTENSION);
+      try (BufferedWriter writer = Files.newBufferedWriter(partPath, UTF_8)) {
+        for (Map.Entry<SizeKey, Long> entry : sizes.entrySet()) {
+          writer.write(lineOf(entry.getKey(), entry.getValue()));
+        }
+      }
+      Files.move(partPath, indexPath, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      LOGGER.info("Size index loaded - " + sizes.size() + " instances");
+    } catch (IOException e) {
+      // The index only saves requests, so the mount works without it
+      LOGGER.error("Error loading the size index - " + indexPath, e);
+    }
+  }
+
+  /**
+   * Returns the size written in the index, or -1 if the field is not a size.
+   */
+  private static long parseSize(String field) {
+    try {
+      return Long.parseLong(field);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private void append(SizeKey sizeKey, long size) {
+    if (indexPath == null) {
+      return;
+    }
+    try {
+      Files.write(indexPath, lineOf(sizeKey, size).getBytes(UTF_8), StandardOpenOption.CREATE,
+          StandardOpenOption.APPEND);
+    } catch (IOException e) {
+      LOGGER.error("Error writing the size index - " + indexPath, e);
+    }
+  }
+
+  private static String lineOf(SizeKey sizeKey, long size) {
+    return sizeKey.dicomStoreId + SEPARATOR + sizeKey.sopInstanceUID + SEPARATOR
+        + sizeKey.transferSyntax + SEPARATOR + size + System.lineSeparator();
+  }
+
+  private static final class SizeKey {
+
+    // SOP Instance UIDs are unique within a DICOM store
+    private final String dicomStoreId;
+    private final String sopInstanceUID;
+    private final String transferSyntax;
+
+    private SizeKey(DicomPath dicomPath, String transferSyntax) {
+      this(dicomPath.getDicomStoreId(), dicomPath.getSopInstanceUID(), transferSyntax);
+    }
+
+    private SizeKey(String dicomStoreId, String sopInstanceUID, String transferSyntax) {
+      this.dicomStoreId = dicomStoreId;
+      this.sopInstanceUID = sopInstanceUID;
+      this.transferSyntax = transferSyntax;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      SizeKey sizeKey = (SizeKey) o;
+      return dicomStoreId.equals(sizeKey.dicomStoreId)
+          && sopInstanceUID.equals(sizeKey.sopInstanceUID)
+          && transferSyntax.equals(sizeKey.transferSyntax);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(dicomStoreId, sopInstanceUID, transferSyntax);
+    }
+  }
+}
@@ -0,0 +1,172 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse.cacher;
+
+import com.google.dicomwebfuse.dao.FuseDaoHelper;
+import com.google.dicomwebfuse.dao.UploadPipe;
+import com.google.dicomwebfuse.entities.DicomPath;
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import com.google.dicomwebfuse.fuse.Parameters;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Uploads files while they are written. The STOW request is sent when the first bytes are
+ * written and the bytes of each write are passed to it through an {@link UploadPipe}, so little is
+ * left to send when the file is closed. Only a file written in order can be streamed, so the
+ * writer keeps its own copy of the bytes to upload once the file is closed if the stream is
+ * cancelled.
+ */
+public class StreamingUploader {
+
+  private static final int PIPE_CAPACITY = 4 * 1024 * 1024;
+  private static final long CLOSE_TIMEOUT_SECONDS = 10;
+  private final Parameters parameters;
+  private final ExecutorService uploadExecutor;
+  private final ConcurrentHashMap<DicomPath, StreamingUpload> uploads = new ConcurrentHashMap<>();
+
+  public StreamingUploader(Parameters parameters) {
+    this.parameters = parameters;
+    AtomicInteger threadCount = new AtomicInteger();
+    uploadExecutor = Executors.newCachedThreadPool(runnable -> {
+      Thread thread = new Thread(runnable, "streaming-upload-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  public boolean isStreaming(DicomPath dicomPath) {
+    return uploads.containsKey(dicomPath);
+  }
+
+  public void start(DicomPath dicomPath) {
+    StreamingUpload upload = new StreamingUpload();
+    uploads.put(dicomPath, upload);
+    uploadExecutor.execute(() -> {
+      try {
+        FuseDaoHelper.uploadInstance(parameters.getFuseDAO(), parameters.getCloudConf(),
+            dicomPath, upload.uploadPipe);
+        upload.result.complete(null);
+      } catch (DicomFuseException e) {
+        fail(upload, e);
+      } catch (RuntimeException e) {
+        fail(upload, new DicomFuseException("Failed to upload - " + dicomPath, e));
+      } finally {
+        // Whatever went wrong, the writer and the flush waiting for the upload must return
+        if (!upload.result.isDone()) {
+          fail(upload, new DicomFuseException("Failed to upload - " + dicomPath));
+        }
+      }
+    });
+  }
+
+  /**
+   * Passes the bytes to the request, waiting while the request has not sent the previous ones.
+   * Bytes which do not continue the ones already sent cannot be streamed, in which case the
+   * upload is cancelled rather than sending a hole or stale bytes.
+   *
+   * @return false if the upload was cancelled, and the file must be uploaded once it is closed
+   */
+  public boolean write(DicomPath dicomPath, byte[] buffer, long offset) throws DicomFuseException {
+    StreamingUpload upload = uploads.get(dicomPath);
+    if (upload == null) {
+      throw new DicomFuseException("The upload was finished - " + dicomPath);
+    }
+    synchronized (upload) {
+      if (offset != upload.length) {
+        cancel(dicomPath, "The file was not written in order");
+        return false;
+      }
+      try {
+        upload.uploadPipe.write(buffer);
+        upload.length += buffer.length;
+      } catch (IOException e) {
+        throw new DicomFuseException("Failed to upload - " + dicomPath, e);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Ends the file and waits for the response to the upload.
+   */
+  public void finish(DicomPath dicomPath) throws DicomFuseException {
+    StreamingUpload upload = uploads.remove(dicomPath);
+    if (upload == null) {
+      throw new DicomFuseException("The upload was finished - " + dicomPath);
+    }
+    upload.uploadPipe.close();
+    try {
+      upload.result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      upload.uploadPipe.fail(new IOException("Upload was interrupted"));
+      throw new DicomFuseException(e);
+    } catch (ExecutionException e) {
+      DicomFuseException cause = (DicomFuseException) e.getCause();
+      throw new DicomFuseException(cause.getMessage(), cause.getStatusCode());
+    }
+  }
+
+  /**
+   * Cancels the upload if it was not finished, which happens when the file is closed without a
+   * flush which finishes it. The request fails rather than storing a partial file.
+   */
+  public void cancel(DicomPath dicomPath) {
+    cancel(dicomPath, "The file was closed before it was uploaded");
+  }
+
+  /**
+   * Cancels the uploads of the files which are still open and stops the upload threads once the
+   * requests failed.
+   */
+  public void close() {
+    for (DicomPath dicomPath : uploads.keySet()) {
+      cancel(dicomPath);
+    }
+    uploadExecutor.shutdown();
+    try {
+      uploadExecutor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void cancel(DicomPath dicomPath, String message) {
+    StreamingUpload upload = uploads.remove(dicomPath);
+    if (upload != null) {
+      upload.uploadPipe.fail(new IOException(message));
+    }
+  }
+
+  private static void fail(StreamingUpload upload, DicomFuseException e) {
+    // Stops the writer, whose bytes would not be sent anymore
+    upload.uploadPipe.fail(new IOException(e.getMessage(), e));
+    upload.result.completeExceptionally(e);
+  }
+
+  private static class StreamingUpload {
+
+    private final UploadPipe uploadPipe = new UploadPipe(PIPE_CAPACITY);
+    private final CompletableFuture<Void> result = new CompletableFuture<>();
+    private long length;
+  }
+}
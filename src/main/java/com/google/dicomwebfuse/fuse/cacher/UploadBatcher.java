@@ -0,0 +1,300 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse.cacher;
+
+import com.google.dicomwebfuse.dao.FuseDaoHelper;
+import com.google.dicomwebfuse.entities.DicomPath;
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import com.google.dicomwebfuse.fuse.Parameters;
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Collects the instances flushed within a short window and stores them with one STOW request per
+ * DICOM Store. A batch is sent when the window elapses or when it reaches the configured number of
+ * instances or bytes. The failures reported for single instances are mapped back to their files
+ * by the SOP Instance UID.
+ */
+public class UploadBatcher {
+
+  private static final Logger LOGGER = LogManager.getLogger();
+  private static final int BYTES_IN_MEGABYTE = 1000 * 1000;
+  private static final long CLOSE_TIMEOUT_SECONDS = 30;
+  private final Parameters parameters;
+  private final ScheduledExecutorService scheduler;
+  // The batches which still accept instances by DICOM Store, guarded by this
+  private final Map<String, Batch> openBatches = new HashMap<>();
+  // Completes when the results of all entries of a sent batch are known
+  private final Set<CompletableFuture<Void>> sentBatches = ConcurrentHashMap.newKeySet();
+
+  public UploadBatcher(Parameters parameters) {
+    this.parameters = parameters;
+    scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "stow-batch-timer");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Stores the instance, waiting until the batch it was added to is sent.
+   */
+  public void upload(DicomPath dicomPath, Path instanceDataPath) throws DicomFuseException {
+    try {
+      submit(dicomPath, instanceDataPath).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DicomFuseException(e);
+    } catch (ExecutionException e) {
+      DicomFuseException cause = (DicomFuseException) e.getCause();
+      throw new DicomFuseException(cause.getMessage(), cause.getStatusCode());
+    }
+  }
+
+  /**
+   * Adds the instance to a batch and returns without waiting for the batch to be sent. Instances
+   * which cannot be batched are sent on their own. The returned future completes, always with a
+   * DicomFuseException if it fails, when the instance is stored.
+   */
+  public CompletableFuture<Void> submit(DicomPath dicomPath, Path instanceDataPath)
+      throws DicomFuseException {
+    String sopInstanceUid = null;
+    if (parameters.getStowBatchWindow() > 0) {
+      sopInstanceUid = readSopInstanceUid(instanceDataPath);
+    }
+    if (sopInstanceUid == null) {
+      // Without the UID a failure of the instance could not be told apart in a batch
+      CompletableFuture<Void> result = new CompletableFuture<>();
+      completeWith(result, FuseDaoHelper.uploadInstance(parameters.getAsyncFuseDao(),
+          parameters.getCloudConf(), dicomPath, instanceDataPath));
+      return result;
+    }
+    long size;
+    try {
+      size = Files.size(instanceDataPath);
+    } catch (IOException e) {
+      throw new DicomFuseException(e);
+    }
+    BatchEntry batchEntry = new BatchEntry(dicomPath, instanceDataPath, sopInstanceUid, size);
+    // The batches are sent outside of the lock, as sending may wait for the credentials
+    for (Batch batch : add(batchEntry)) {
+      upload(batch);
+    }
+    return batchEntry.result;
+  }
+
+  // Returns the batches which were closed by adding the entry and are to be sent
+  private synchronized List<Batch> add(BatchEntry batchEntry) {
+    List<Batch> closedBatches = new ArrayList<>();
+    String dicomStoreId = batchEntry.dicomPath.getDicomStoreId();
+    Batch batch = openBatches.get(dicomStoreId);
+    if (batch != null && batch.containsInstance(batchEntry.sopInstanceUid)) {
+      // The server reports both copies of an instance as one, so the batch is sent first
+      closeBatch(batch);
+      closedBatches.add(batch);
+      batch = null;
+    }
+    if (batch == null) {
+      Batch newBatch = new Batch(dicomStoreId);
+      newBatch.timer = scheduler.schedule(() -> {
+        if (closeIfOpen(newBatch)) {
+          upload(newBatch);
+        }
+      }, parameters.getStowBatchWindow(), TimeUnit.MILLISECONDS);
+      openBatches.put(dicomStoreId, newBatch);
+      batch = newBatch;
+    }
+    batch.entries.add(batchEntry);
+    batch.bytes += batchEntry.size;
+    if (batch.entries.size() >= parameters.getStowBatchSize()
+        || batch.bytes >= parameters.getStowBatchBytes() * BYTES_IN_MEGABYTE) {
+      closeBatch(batch);
+      closedBatches.add(batch);
+    }
+    return closedBatches;
+  }
+
+  private synchronized boolean closeIfOpen(Batch batch) {
+    if (openBatches.get(batch.dicomStoreId) != batch) {
+      return false;
+    }
+    closeBatch(batch);
+    return true;
+  }
+
+  private void closeBatch(Batch batch) {
+    openBatches.remove(batch.dicomStoreId);
+    batch.timer.cancel(false);
+  }
+
+  // Sends the batch without waiting for the response, which completes the results of its entries
+  private void upload(Batch batch) {
+    List<BatchEntry> entries = batch.entries;
+    CompletableFuture<Void> sentBatch = CompletableFuture.allOf(entries.stream()
+        .map(batchEntry -> batchEntry.result).toArray(CompletableFuture[]::new));
+    sentBatches.add(sentBatch);
+    sentBatch.whenComplete((ignored, throwable) -> sentBatches.remove(sentBatch));
+    if (entries.size() == 1) {
+      BatchEntry batchEntry = entries.get(0);
+      completeWith(batchEntry.result, FuseDaoHelper.uploadInstance(parameters.getAsyncFuseDao(),
+          parameters.getCloudConf(), batchEntry.dicomPath, batchEntry.instanceDataPath));
+      return;
+    }
+    FuseDaoHelper.uploadInstances(parameters.getAsyncFuseDao(), parameters.getCloudConf(),
+        batch.dicomStoreId, entries.stream().map(batchEntry -> batchEntry.instanceDataPath)
+            .collect(Collectors.toList()))
+        .whenComplete((failedInstances, throwable) -> {
+          try {
+            if (throwable == null) {
+              completeEntries(entries, failedInstances);
+            } else {
+              failEntries(entries, CacherUtils.toDicomFuseException(throwable));
+            }
+          } finally {
+            // Whatever went wrong, the flushes waiting for the batch must not block forever
+            for (BatchEntry batchEntry : entries) {
+              if (!batchEntry.result.isDone()) {
+                batchEntry.result.completeExceptionally(
+                    new DicomFuseException("Failed to upload - " + batchEntry.dicomPath));
+              }
+            }
+          }
+        });
+  }
+
+  /**
+   * Sends the open batches without waiting for their windows, waits a bounded time for the sent
+   * batches and stops the timer of the windows.
+   */
+  public void close() {
+    List<Batch> batches;
+    synchronized (this) {
+      batches = new ArrayList<>(openBatches.values());
+      batches.forEach(this::closeBatch);
+    }
+    batches.forEach(this::upload);
+    scheduler.shutdownNow();
+    try {
+      CompletableFuture.allOf(sentBatches.toArray(new CompletableFuture[0]))
+          .get(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      // The failures are passed to the flushes waiting for the instances
+    } catch (TimeoutException e) {
+      LOGGER.warn(sentBatches.size() + " batches were not uploaded before closing");
+    }
+  }
+
+  private static void completeEntries(List<BatchEntry> entries,
+      Map<String, String> failedInstances) {
+    LOGGER.debug("Uploaded a batch of " + entries.size() + " instances, "
+        + failedInstances.size() + " failed");
+    for (BatchEntry batchEntry : entries) {
+      String failure = failedInstances.get(batchEntry.sopInstanceUid);
+      if (failure == null) {
+        batchEntry.result.complete(null);
+      } else {
+        batchEntry.result.completeExceptionally(new DicomFuseException(
+            "Failed to upload - " + batchEntry.dicomPath + "\n" + failure));
+      }
+    }
+  }
+
+  private static void failEntries(List<BatchEntry> entries, DicomFuseException e) {
+    LOGGER.error("Failed to upload a batch of " + entries.size() + " instances", e);
+    for (BatchEntry batchEntry : entries) {
+      batchEntry.result.completeExceptionally(new DicomFuseException(
+          "Failed to upload - " + batchEntry.dicomPath + "\n" + e.getMessage(),
+          e.getStatusCode()));
+    }
+  }
+
+  private static void completeWith(CompletableFuture<Void> result, CompletableFuture<?> upload) {
+    upload.whenComplete((ignored, throwable) -> {
+      if (throwable == null) {
+        result.complete(null);
+      } else {
+        result.completeExceptionally(CacherUtils.toDicomFuseException(throwable));
+      }
+    });
+  }
+
+  private static String readSopInstanceUid(Path instanceDataPath) throws DicomFuseException {
+    try (InputStream inputStream = new BufferedInputStream(
+        Files.newInputStream(instanceDataPath))) {
+      return Part10Header.readSopInstanceUid(inputStream);
+    } catch (EOFException e) {
+      // Shorter than the File Meta Information, the server rejects it on its own
+      return null;
+    } catch (IOException e) {
+      throw new DicomFuseException(e);
+    }
+  }
+
+  private static class Batch {
+
+    private final String dicomStoreId;
+    private final List<BatchEntry> entries = new ArrayList<>();
+    private long bytes;
+    private ScheduledFuture<?> timer;
+
+    private Batch(String dicomStoreId) {
+      this.dicomStoreId = dicomStoreId;
+    }
+
+    private boolean containsInstance(String sopInstanceUid) {
+      return entries.stream()
+          .anyMatch(batchEntry -> batchEntry.sopInstanceUid.equals(sopInstanceUid));
+    }
+  }
+
+  private static class BatchEntry {
+
+    private final DicomPath dicomPath;
+    private final Path instanceDataPath;
+    private final String sopInstanceUid;
+    private final long size;
+    private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+    private BatchEntry(DicomPath dicomPath, Path instanceDataPath, String sopInstanceUid,
+        long size) {
+      this.dicomPath = dicomPath;
+      this.instanceDataPath = instanceDataPath;
+      this.sopInstanceUid = sopInstanceUid;
+      this.size = size;
+    }
+  }
+}
@@ -16,17 +16,27 @@ package com.google.dicomwebfuse.fuse.cacher;
 
 import com.google.dicomwebfuse.entities.DicomPath;
 import com.google.dicomwebfuse.exception.DicomFuseException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class UploadCacher {
 
   private ConcurrentHashMap<DicomPath, Path> filesForUploading = new ConcurrentHashMap<>();
+  // Kept open between writes, so that the file is not opened again for every write
+  private ConcurrentHashMap<DicomPath, FileChannel> openFiles = new ConcurrentHashMap<>();
 
   public void removePath(DicomPath dicomPath) throws DicomFuseException {
+    closeFile(dicomPath);
     Path path = filesForUploading.get(dicomPath);
     filesForUploading.remove(dicomPath);
-    CacherUtils.deleteFile(path);
+    if (path != null) {
+      CacherUtils.deleteFile(path);
+    }
   }
 
   public Path getPath(DicomPath dicomPath) {
@@ -38,4 +48,34 @@ public class UploadCacher {
     path.toFile().deleteOnExit();
     filesForUploading.put(dicomPath, path);
   }
+
+  public void write(DicomPath dicomPath, byte[] buffer, long offset) throws DicomFuseException {
+    try {
+      FileChannel fileChannel = openFiles.computeIfAbsent(dicomPath, key -> {
+        try {
+          return FileChannel.open(filesForUploading.get(key), StandardOpenOption.WRITE);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      });
+      ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+      long position = offset;
+      while (byteBuffer.hasRemaining()) {
+        position += fileChannel.write(byteBuffer, position);
+      }
+    } catch (IOException | UncheckedIOException e) {
+      throw new DicomFuseException("Error writing file - " + dicomPath, e);
+    }
+  }
+
+  private void closeFile(DicomPath dicomPath) {
+    FileChannel fileChannel = openFiles.remove(dicomPath);
+    if (fileChannel != null) {
+      try {
+        fileChannel.close();
+      } catch (IOException e) {
+        // nothing is written to the file anymore
+      }
+    }
+  }
 }
@@ -0,0 +1,308 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse.cacher;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.dicomwebfuse.entities.DicomPath;
+import com.google.dicomwebfuse.entities.DicomPathLevel;
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Uploads kept on disk until the server stores them. An entry is the content of the file and a
+ * properties file with its path in the mount. Both are written under a temporary name, synced and
+ * then renamed, so a crash leaves either a complete entry or none.
+ */
+class UploadJournal {
+
+  private static final Logger LOGGER = LogManager.getLogger();
+  private static final String DATA_EXTENSION = ".dcm";
+  private static final String ENTRY_EXTENSION = ".properties";
+  private static final String PART_EXTENSION = ".part";
+  private static final String FAILED = "failed";
+  private static final String STATUS = "status";
+  private static final String LEVEL = "level";
+  private static final String DICOM_STORE_ID = "dicomStoreId";
+  private static final String STUDY_INSTANCE_UID = "studyInstanceUID";
+  private static final String SERIES_INSTANCE_UID = "seriesInstanceUID";
+  private static final String SOP_INSTANCE_UID = "sopInstanceUID";
+  private static final String FILE_NAME = "fileName";
+  private static final String ATTEMPTS = "attempts";
+  private static final String ERROR = "error";
+  private final Path journalPath;
+  private final Path failedPath;
+  private final AtomicLong sequence = new AtomicLong();
+
+  UploadJournal(Path journalPath) {
+    this.journalPath = journalPath;
+    failedPath = journalPath.resolve(FAILED);
+  }
+
+  /**
+   * Creates the journal folders and removes the files of entries which were not written in full.
+   */
+  void open() throws DicomFuseException {
+    try {
+      Files.createDirectories(failedPath);
+      for (Path path : list(journalPath, "*" + PART_EXTENSION)) {
+        Files.delete(path);
+      }
+      for (Path dataPath : list(journalPath, "*" + DATA_EXTENSION)) {
+        if (!Files.exists(entryPathOf(journalPath, idOf(dataPath)))) {
+          Files.delete(dataPath);
+        }
+      }
+    } catch (IOException e) {
+      throw new DicomFuseException("Failed to open the upload journal - " + journalPath, e);
+    }
+  }
+
+  /**
+   * Returns the pending entries in the order they were added.
+   */
+  List<Entry> loadPending() throws DicomFuseException {
+    return load(journalPath);
+  }
+
+  List<Entry> loadFailed() throws DicomFuseException {
+    return load(failedPath);
+  }
+
+  Entry add(DicomPath dicomPath, Path instanceDataPath) throws DicomFuseException {
+    // Ids sort in the order the entries were added
+    String id = String.format("%013d-%010d", System.currentTimeMillis(),
+        sequence.incrementAndGet());
+    Entry entry = new Entry(id, dicomPath, journalPath.resolve(id + DATA_EXTENSION));
+    try {
+      Path partPath = journalPath.resolve(id + DATA_EXTENSION + PART_EXTENSION);
+      try (FileChannel source = FileChannel.open(instanceDataPath, StandardOpenOption.READ);
+          FileChannel target = FileChannel.open(partPath, StandardOpenOption.CREATE_NEW,
+              StandardOpenOption.WRITE)) {
+        long position = 0;
+        long size = source.size();
+        while (position < size) {
+          position += source.transferTo(position, size - position, target);
+        }
+        target.force(true);
+      }
+      Files.move(partPath, entry.getDataPath(), StandardCopyOption.ATOMIC_MOVE);
+      write(entryPathOf(journalPath, id), toProperties(entry));
+    } catch (IOException e) {
+      throw new DicomFuseException("Failed to add the upload to the journal - " + dicomPath, e);
+    }
+    return entry;
+  }
+
+  void update(Entry entry) throws DicomFuseException {
+    try {
+      write(entryPathOf(journalPath, entry.getId()), toProperties(entry));
+    } catch (IOException e) {
+      throw new DicomFuseException(e);
+    }
+  }
+
+  void remove(Entry entry) throws DicomFuseException {
+    try {
+      // The entry goes first, a data file without it is removed on the next start
+      Files.deleteIfExists(entryPathOf(journalPath, entry.getId()));
+      Files.deleteIfExists(entry.getDataPath());
+    } catch (IOException e) {
+      throw new DicomFuseException(e);
+    }
+  }
+
+  /**
+   * Moves the entry to the failed folder, from where it can be moved back to upload it again.
+   */
+  void fail(Entry entry) throws DicomFuseException {
+    try {
+      Path failedDataPath = failedPath.resolve(entry.getDataPath().getFileName());
+      Files.move(entry.getDataPath(), failedDataPath, StandardCopyOption.REPLACE_EXISTING);
+      write(entryPathOf(failedPath, entry.getId()), toProperties(entry));
+      Files.deleteIfExists(entryPathOf(journalPath, entry.getId()));
+      entry.dataPath = failedDataPath;
+    } catch (IOException e) {
+      throw new DicomFuseException(e);
+    }
+  }
+
+  void writeStatus(String status) {
+    try {
+      // The status is rewritten often and is not needed after a crash, so it is not synced
+      write(journalPath.resolve(STATUS), status.getBytes(UTF_8), false);
+    } catch (IOException e) {
+      LOGGER.error("Failed to write the upload status", e);
+    }
+  }
+
+  private List<Entry> load(Path path) throws DicomFuseException {
+    List<Entry> entries = new ArrayList<>();
+    try {
+      for (Path entryPath : list(path, "*" + ENTRY_EXTENSION)) {
+        String id = idOf(entryPath);
+        Path dataPath = path.resolve(id + DATA_EXTENSION);
+        if (!Files.exists(dataPath)) {
+          LOGGER.error("Upload without its file is skipped - " + entryPath);
+          continue;
+        }
+        Properties properties = new Properties();
+        try (InputStream inputStream = Files.newInputStream(entryPath)) {
+          properties.load(inputStream);
+        }
+        entries.add(fromProperties(id, dataPath, properties));
+      }
+    } catch (IOException | IllegalArgumentException e) {
+      throw new DicomFuseException("Failed to read the upload journal - " + path, e);
+    }
+    entries.sort(Comparator.comparing(Entry::getId));
+    return entries;
+  }
+
+  private static List<Path> list(Path path, String glob) throws IOException {
+    if (!Files.isDirectory(path)) {
+      return Collections.emptyList();
+    }
+    List<Path> paths = new ArrayList<>();
+    try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(path, glob)) {
+      for (Path entryPath : directoryStream) {
+        paths.add(entryPath);
+      }
+    }
+    return paths;
+  }
+
+  private static void write(Path path, byte[] content) throws IOException {
+    write(path, content, true);
+  }
+
+  private static void write(Path path, byte[] content, boolean sync) throws IOException {
+    Path partPath = path.resolveSibling(path.getFileName() + PART_EXTENSION);
+    try (FileChannel channel = FileChannel.open(partPath, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      ByteBuffer buffer = ByteBuffer.wrap(content);
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      if (sync) {
+        channel.force(true);
+      }
+    }
+    Files.move(partPath, path, StandardCopyOption.ATOMIC_MOVE,
+        StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static byte[] toProperties(Entry entry) throws IOException {
+    DicomPath dicomPath = entry.getDicomPath();
+    Properties properties = new Properties();
+    properties.setProperty(LEVEL, dicomPath.getDicomPathLevel().name());
+    properties.setProperty(DICOM_STORE_ID, dicomPath.getDicomStoreId());
+    properties.setProperty(STUDY_INSTANCE_UID, dicomPath.getStudyInstanceUID());
+    properties.setProperty(SERIES_INSTANCE_UID, dicomPath.getSeriesInstanceUID());
+    properties.setProperty(SOP_INSTANCE_UID, dicomPath.getSopInstanceUID());
+    properties.setProperty(FILE_NAME, dicomPath.getFileName());
+    properties.setProperty(ATTEMPTS, String.valueOf(entry.getAttempts()));
+    if (entry.getError() != null) {
+      properties.setProperty(ERROR, entry.getError());
+    }
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    properties.store(outputStream, null);
+    return outputStream.toByteArray();
+  }
+
+  private static Entry fromProperties(String id, Path dataPath, Properties properties) {
+    DicomPath dicomPath =
+        new DicomPath.Builder(DicomPathLevel.valueOf(properties.getProperty(LEVEL)))
+            .dicomStoreId(properties.getProperty(DICOM_STORE_ID, ""))
+            .studyInstanceUID(properties.getProperty(STUDY_INSTANCE_UID, ""))
+            .seriesInstanceUID(properties.getProperty(SERIES_INSTANCE_UID, ""))
+            .sopInstanceUID(properties.getProperty(SOP_INSTANCE_UID, ""))
+            .fileName(properties.getProperty(FILE_NAME, ""))
+            .build();
+    Entry entry = new Entry(id, dicomPath, dataPath);
+    entry.setAttempts(Integer.parseInt(properties.getProperty(ATTEMPTS, "0")));
+    entry.setError(properties.getProperty(ERROR));
+    return entry;
+  }
+
+  private static Path entryPathOf(Path path, String id) {
+    return path.resolve(id + ENTRY_EXTENSION);
+  }
+
+  private static String idOf(Path path) {
+    String fileName = path.getFileName().toString();
+    return fileName.substring(0, fileName.lastIndexOf('.'));
+  }
+
+  static class Entry {
+
+    private final String id;
+    private final DicomPath dicomPath;
+    private volatile Path dataPath;
+    private volatile int attempts;
+    private volatile String error;
+
+    private Entry(String id, DicomPath dicomPath, Path dataPath) {
+      this.id = id;
+      this.dicomPath = dicomPath;
+      this.dataPath = dataPath;
+    }
+
+    String getId() {
+      return id;
+    }
+
+    DicomPath getDicomPath() {
+      return dicomPath;
+    }
+
+    Path getDataPath() {
+      return dataPath;
+    }
+
+    int getAttempts() {
+      return attempts;
+    }
+
+    void setAttempts(int attempts) {
+      this.attempts = attempts;
+    }
+
+    String getError() {
+      return error;
+    }
+
+    void setError(String error) {
+      this.error = error;
+    }
+  }
+}
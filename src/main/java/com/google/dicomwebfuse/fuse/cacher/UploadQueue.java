@@ -0,0 +1,296 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse.cacher;
+
+import com.google.dicomwebfuse.dao.retry.RetryPolicy;
+import com.google.dicomwebfuse.entities.DicomPath;
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import com.google.dicomwebfuse.fuse.cacher.UploadJournal.Entry;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Uploads files in the background after they are added to a journal on disk, so that a flush does
+ * not wait for the upload. The uploads are handed to the uploader without waiting for them, so
+ * that the uploader can batch them, up to the given number of unfinished uploads. Uploads which
+ * fail for a transient reason are repeated until they succeed, uploads which the server rejects
+ * are moved to the failed folder of the journal. The uploads left in the journal are resumed on
+ * start. The numbers of pending and failed uploads are written to the status file of the journal
+ * by a background thread, at most once per second.
+ */
+public class UploadQueue {
+
+  private static final Logger LOGGER = LogManager.getLogger();
+  private static final long MIN_RETRY_DELAY_MILLIS = 1000;
+  private static final long MAX_RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+  private static final long STATUS_DELAY_MILLIS = 1000;
+  // The status lists only the oldest entries, so that writing it stays cheap
+  private static final int MAX_STATUS_ENTRIES = 100;
+  private static final long CLOSE_TIMEOUT_SECONDS = 30;
+  private final UploadJournal uploadJournal;
+  private final Uploader uploader;
+  private final UploadListener uploadListener;
+  private final ScheduledExecutorService uploadExecutor;
+  private final ScheduledExecutorService statusExecutor;
+  private final int maxUnfinishedUploads;
+  private final Semaphore unfinishedUploads;
+  private final AtomicBoolean statusScheduled = new AtomicBoolean();
+  private final Map<String, Entry> pendingEntries = new ConcurrentHashMap<>();
+  private final Map<String, Entry> failedEntries = new ConcurrentHashMap<>();
+  private final AtomicInteger uploadingCount = new AtomicInteger();
+
+  public interface Uploader {
+
+    /**
+     * Starts the upload of the file and returns when the upload is submitted, the returned future
+     * completes when the upload is finished.
+     */
+    CompletableFuture<Void> upload(DicomPath dicomPath, Path instanceDataPath)
+        throws DicomFuseException;
+  }
+
+  public interface UploadListener {
+
+    void onUploaded(DicomPath dicomPath) throws DicomFuseException;
+  }
+
+  /**
+   * @param uploadThreads number of threads which submit the uploads
+   * @param maxUnfinishedUploads number of uploads submitted to the uploader and not finished yet,
+   *     beyond which the threads wait for the earlier uploads
+   */
+  public UploadQueue(Path journalPath, int uploadThreads, int maxUnfinishedUploads,
+      Uploader uploader, UploadListener uploadListener) {
+    uploadJournal = new UploadJournal(journalPath);
+    this.uploader = uploader;
+    this.uploadListener = uploadListener;
+    this.maxUnfinishedUploads = maxUnfinishedUploads;
+    unfinishedUploads = new Semaphore(maxUnfinishedUploads);
+    AtomicInteger threadCount = new AtomicInteger();
+    uploadExecutor = Executors.newScheduledThreadPool(uploadThreads, runnable -> {
+      Thread thread = new Thread(runnable, "upload-queue-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    statusExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "upload-queue-status");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Opens the journal and resumes the uploads left in it.
+   */
+  public void start() throws DicomFuseException {
+    uploadJournal.open();
+    for (Entry entry : uploadJournal.loadFailed()) {
+      failedEntries.put(entry.getId(), entry);
+    }
+    List<Entry> entries = uploadJournal.loadPending();
+    if (!entries.isEmpty()) {
+      LOGGER.info("Resuming " + entries.size() + " uploads");
+    }
+    for (Entry entry : entries) {
+      pendingEntries.put(entry.getId(), entry);
+      submit(entry, 0);
+    }
+    updateStatus();
+  }
+
+  /**
+   * Adds a copy of the file to the journal and returns, the copy is uploaded in the background.
+   */
+  public void add(DicomPath dicomPath, Path instanceDataPath) throws DicomFuseException {
+    Entry entry = uploadJournal.add(dicomPath, instanceDataPath);
+    pendingEntries.put(entry.getId(), entry);
+    updateStatus();
+    submit(entry, 0);
+    LOGGER.info("Instance was queued for upload - " + dicomPath);
+  }
+
+  /**
+   * Stops starting uploads and waits a bounded time for the started ones to finish. The uploads
+   * which did not finish stay in the journal and are resumed on the next start.
+   */
+  public void close() {
+    uploadExecutor.shutdownNow();
+    try {
+      if (!unfinishedUploads.tryAcquire(maxUnfinishedUploads, CLOSE_TIMEOUT_SECONDS,
+          TimeUnit.SECONDS)) {
+        LOGGER.warn(uploadingCount.get() + " uploads did not finish, they are resumed on the next"
+            + " start");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    statusExecutor.shutdownNow();
+    writeStatus();
+  }
+
+  int getPendingCount() {
+    return pendingEntries.size();
+  }
+
+  int getFailedCount() {
+    return failedEntries.size();
+  }
+
+  private void submit(Entry entry, long delayMillis) {
+    try {
+      uploadExecutor.schedule(() -> upload(entry), delayMillis, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      LOGGER.debug("Upload is left in the journal of the closed queue - " + entry.getDicomPath());
+    }
+  }
+
+  private void upload(Entry entry) {
+    try {
+      unfinishedUploads.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    uploadingCount.incrementAndGet();
+    updateStatus();
+    CompletableFuture<Void> result;
+    try {
+      result = uploader.upload(entry.getDicomPath(), entry.getDataPath());
+    } catch (DicomFuseException | RuntimeException e) {
+      result = new CompletableFuture<>();
+      result.completeExceptionally(e);
+    }
+    result.whenComplete((ignored, throwable) -> {
+      try {
+        if (throwable == null) {
+          onSuccess(entry);
+        } else {
+          onFailure(entry, throwable instanceof CompletionException
+              ? throwable.getCause() : throwable);
+        }
+      } finally {
+        uploadingCount.decrementAndGet();
+        unfinishedUploads.release();
+        updateStatus();
+      }
+    });
+  }
+
+  private void onSuccess(Entry entry) {
+    DicomPath dicomPath = entry.getDicomPath();
+    pendingEntries.remove(entry.getId());
+    LOGGER.info("Instance was uploaded - " + dicomPath);
+    try {
+      uploadJournal.remove(entry);
+    } catch (DicomFuseException | RuntimeException e) {
+      LOGGER.error("Failed to remove the upload from the journal - " + dicomPath, e);
+    }
+    try {
+      uploadListener.onUploaded(dicomPath);
+    } catch (DicomFuseException | RuntimeException e) {
+      LOGGER.debug("Upload listener error", e);
+    }
+  }
+
+  private void onFailure(Entry entry, Throwable exception) {
+    DicomPath dicomPath = entry.getDicomPath();
+    entry.setAttempts(entry.getAttempts() + 1);
+    entry.setError(String.valueOf(exception.getMessage()));
+    // Errors without a status code are failures to reach the server, or unexpected errors of the
+    // client, which are both repeated
+    int statusCode = exception instanceof DicomFuseException
+        ? ((DicomFuseException) exception).getStatusCode() : 0;
+    if (statusCode == 0 || RetryPolicy.isRetryableStatus(statusCode)) {
+      long delayMillis = Math.min(MAX_RETRY_DELAY_MILLIS,
+          MIN_RETRY_DELAY_MILLIS << Math.min(entry.getAttempts() - 1, 20));
+      LOGGER.warn("Upload will be repeated in " + delayMillis + " ms - " + dicomPath, exception);
+      try {
+        uploadJournal.update(entry);
+      } catch (DicomFuseException | RuntimeException e) {
+        LOGGER.error("Failed to update the upload in the journal - " + dicomPath, e);
+      }
+      submit(entry, delayMillis);
+      return;
+    }
+    LOGGER.error("Upload was rejected - " + dicomPath, exception);
+    try {
+      uploadJournal.fail(entry);
+    } catch (DicomFuseException | RuntimeException e) {
+      LOGGER.error("Failed to move the upload to the failed folder - " + dicomPath, e);
+    }
+    pendingEntries.remove(entry.getId());
+    failedEntries.put(entry.getId(), entry);
+  }
+
+  private void updateStatus() {
+    if (statusScheduled.compareAndSet(false, true)) {
+      try {
+        statusExecutor.schedule(() -> {
+          statusScheduled.set(false);
+          writeStatus();
+        }, STATUS_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+      } catch (RejectedExecutionException e) {
+        // The queue is closed, which writes the status one last time
+      }
+    }
+  }
+
+  private void writeStatus() {
+    StringBuilder status = new StringBuilder()
+        .append("pending: ").append(pendingEntries.size()).append('\n')
+        .append("uploading: ").append(uploadingCount.get()).append('\n')
+        .append("failed: ").append(failedEntries.size()).append('\n');
+    List<Entry> retriedEntries = new ArrayList<>();
+    for (Entry entry : pendingEntries.values()) {
+      if (entry.getAttempts() > 0) {
+        retriedEntries.add(entry);
+      }
+    }
+    appendEntries(status, "retrying", retriedEntries);
+    appendEntries(status, "failed", new ArrayList<>(failedEntries.values()));
+    uploadJournal.writeStatus(status.toString());
+  }
+
+  private static void appendEntries(StringBuilder status, String state, List<Entry> entries) {
+    entries.sort(Comparator.comparing(Entry::getId));
+    for (Entry entry : entries.subList(0, Math.min(entries.size(), MAX_STATUS_ENTRIES))) {
+      String error = entry.getError() == null ? "" : entry.getError();
+      int lineEnd = error.indexOf('\n');
+      status.append('\n').append(state).append(' ').append(entry.getId())
+          .append(" (attempts: ").append(entry.getAttempts()).append(") ")
+          .append(entry.getDicomPath()).append('\n')
+          .append("  ").append(lineEnd == -1 ? error : error.substring(0, lineEnd)).append('\n');
+    }
+    if (entries.size() > MAX_STATUS_ENTRIES) {
+      status.append("\n... ").append(entries.size() - MAX_STATUS_ENTRIES).append(" more ")
+          .append(state).append('\n');
+    }
+  }
+}
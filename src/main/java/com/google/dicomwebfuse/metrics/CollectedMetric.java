@@ -0,0 +1,57 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.metrics;
+
+import com.google.dicomwebfuse.metrics.MetricsRegistry.Collector;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Metric whose samples are read from the instrumented object when the metrics are written, for
+ * values which the object already keeps, such as queue depths and cache sizes.
+ */
+class CollectedMetric extends Metric {
+
+  private final String type;
+  private final Collector collector;
+
+  CollectedMetric(String name, String help, String type, Collector collector,
+      String[] labelNames) {
+    super(name, help, labelNames);
+    this.type = type;
+    this.collector = collector;
+  }
+
+  @Override
+  String getType() {
+    return type;
+  }
+
+  @Override
+  void writeSamples(Writer writer) throws IOException {
+    List<List<String>> labelValues = new ArrayList<>();
+    List<Double> values = new ArrayList<>();
+    collector.collect((value, sampleLabelValues) -> {
+      labelValues.add(checkLabelValues(Arrays.asList(sampleLabelValues)));
+      values.add(value);
+    });
+    for (int i = 0; i < values.size(); i++) {
+      writeSample(writer, "", labelValues.get(i), null, null, values.get(i));
+    }
+  }
+}
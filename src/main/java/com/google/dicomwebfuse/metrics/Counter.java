@@ -0,0 +1,73 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counter with a value per combination of label values.
+ */
+public class Counter extends Metric {
+
+  private final Map<List<String>, Child> children = new ConcurrentHashMap<>();
+
+  Counter(String name, String help, String[] labelNames) {
+    super(name, help, labelNames);
+  }
+
+  /**
+   * Returns the counter of the label values. Callers on hot paths should keep the returned child
+   * rather than looking it up for every increment.
+   */
+  public Child labels(String... labelValues) {
+    return children.computeIfAbsent(checkLabelValues(Arrays.asList(labelValues)),
+        key -> new Child());
+  }
+
+  @Override
+  String getType() {
+    return "counter";
+  }
+
+  @Override
+  void writeSamples(Writer writer) throws IOException {
+    for (Map.Entry<List<String>, Child> entry : children.entrySet()) {
+      writeSample(writer, "", entry.getKey(), null, null, entry.getValue().get());
+    }
+  }
+
+  public static class Child {
+
+    private final LongAdder value = new LongAdder();
+
+    public void inc() {
+      value.increment();
+    }
+
+    public void inc(long amount) {
+      value.add(amount);
+    }
+
+    public long get() {
+      return value.sum();
+    }
+  }
+}
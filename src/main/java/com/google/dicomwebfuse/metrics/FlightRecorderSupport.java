@@ -0,0 +1,40 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.metrics;
+
+/**
+ * Tells whether the Java Flight Recorder API is present. It is missing in Java 8 runtimes before
+ * update 262, so classes of events must not be loaded unless it is.
+ */
+public final class FlightRecorderSupport {
+
+  private static final boolean AVAILABLE = checkAvailable();
+
+  private FlightRecorderSupport() {
+  }
+
+  public static boolean isAvailable() {
+    return AVAILABLE;
+  }
+
+  private static boolean checkAvailable() {
+    try {
+      Class.forName("jdk.jfr.Event", false, FlightRecorderSupport.class.getClassLoader());
+      return true;
+    } catch (ClassNotFoundException | LinkageError e) {
+      return false;
+    }
+  }
+}
@@ -0,0 +1,122 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of observed values with fixed bucket bounds, per combination of label values.
+ */
+public class Histogram extends Metric {
+
+  private static final double NANOS_IN_SECOND = TimeUnit.SECONDS.toNanos(1);
+  private final double[] bucketBounds;
+  private final Map<List<String>, Child> children = new ConcurrentHashMap<>();
+
+  Histogram(String name, String help, double[] bucketBounds, String[] labelNames) {
+    super(name, help, labelNames);
+    this.bucketBounds = bucketBounds.clone();
+    for (int i = 1; i < bucketBounds.length; i++) {
+      if (bucketBounds[i] <= bucketBounds[i - 1]) {
+        throw new IllegalArgumentException("Bucket bounds of " + name + " are not increasing");
+      }
+    }
+  }
+
+  /**
+   * Returns the histogram of the label values. Callers on hot paths should keep the returned
+   * child rather than looking it up for every observation.
+   */
+  public Child labels(String... labelValues) {
+    return children.computeIfAbsent(checkLabelValues(Arrays.asList(labelValues)),
+        key -> new Child(bucketBounds));
+  }
+
+  @Override
+  String getType() {
+    return "histogram";
+  }
+
+  @Override
+  void writeSamples(Writer writer) throws IOException {
+    for (Map.Entry<List<String>, Child> entry : children.entrySet()) {
+      List<String> labelValues = entry.getKey();
+      Child child = entry.getValue();
+      // Buckets are written cumulatively, each one counting the values up to its bound
+      long cumulativeCount = 0;
+      for (int i = 0; i < bucketBounds.length; i++) {
+        cumulativeCount += child.bucketCounts[i].sum();
+        writeSample(writer, "_bucket", labelValues, "le", formatValue(bucketBounds[i]),
+            cumulativeCount);
+      }
+      cumulativeCount += child.bucketCounts[bucketBounds.length].sum();
+      writeSample(writer, "_bucket", labelValues, "le", "+Inf", cumulativeCount);
+      writeSample(writer, "_sum", labelValues, null, null, child.sum.sum());
+      writeSample(writer, "_count", labelValues, null, null, cumulativeCount);
+    }
+  }
+
+  public static class Child {
+
+    private final double[] bucketBounds;
+    // The last count is of the values above all bounds
+    private final LongAdder[] bucketCounts;
+    private final DoubleAdder sum = new DoubleAdder();
+
+    private Child(double[] bucketBounds) {
+      this.bucketBounds = bucketBounds;
+      bucketCounts = new LongAdder[bucketBounds.length + 1];
+      for (int i = 0; i < bucketCounts.length; i++) {
+        bucketCounts[i] = new LongAdder();
+      }
+    }
+
+    public void observe(double value) {
+      int bucket = 0;
+      while (bucket < bucketBounds.length && value > bucketBounds[bucket]) {
+        bucket++;
+      }
+      bucketCounts[bucket].increment();
+      sum.add(value);
+    }
+
+    /**
+     * Observes a duration in seconds.
+     */
+    public void observeNanos(long durationNanos) {
+      observe(durationNanos / NANOS_IN_SECOND);
+    }
+
+    public long getCount() {
+      long count = 0;
+      for (LongAdder bucketCount : bucketCounts) {
+        count += bucketCount.sum();
+      }
+      return count;
+    }
+
+    public double getSum() {
+      return sum.sum();
+    }
+  }
+}
@@ -0,0 +1,104 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * Metric family with a name, a help text and the names of its labels.
+ */
+abstract class Metric {
+
+  private final String name;
+  private final String help;
+  private final String[] labelNames;
+
+  Metric(String name, String help, String[] labelNames) {
+    this.name = name;
+    this.help = help;
+    this.labelNames = labelNames.clone();
+  }
+
+  String getName() {
+    return name;
+  }
+
+  abstract String getType();
+
+  void write(Writer writer) throws IOException {
+    writer.write("# HELP " + name + " " + escapeHelp(help) + "\n");
+    writer.write("# TYPE " + name + " " + getType() + "\n");
+    writeSamples(writer);
+  }
+
+  abstract void writeSamples(Writer writer) throws IOException;
+
+  List<String> checkLabelValues(List<String> labelValues) {
+    if (labelValues.size() != labelNames.length) {
+      throw new IllegalArgumentException("Metric " + name + " has " + labelNames.length
+          + " labels, found " + labelValues.size());
+    }
+    return labelValues;
+  }
+
+  void writeSample(Writer writer, String suffix, List<String> labelValues, String extraLabel,
+      String extraValue, double value) throws IOException {
+    StringBuilder line = new StringBuilder(name).append(suffix);
+    boolean hasLabels = labelNames.length > 0 || extraLabel != null;
+    if (hasLabels) {
+      line.append('{');
+      for (int i = 0; i < labelNames.length; i++) {
+        appendLabel(line, labelNames[i], labelValues.get(i));
+      }
+      if (extraLabel != null) {
+        appendLabel(line, extraLabel, extraValue);
+      }
+      line.setCharAt(line.length() - 1, '}');
+    }
+    line.append(' ').append(formatValue(value)).append('\n');
+    writer.write(line.toString());
+  }
+
+  static String formatValue(double value) {
+    if (Double.isInfinite(value)) {
+      return value > 0 ? "+Inf" : "-Inf";
+    }
+    if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+      return Long.toString((long) value);
+    }
+    return Double.toString(value);
+  }
+
+  private static void appendLabel(StringBuilder line, String labelName, String labelValue) {
+    line.append(labelName).append("=\"");
+    for (int i = 0; i < labelValue.length(); i++) {
+      char c = labelValue.charAt(i);
+      if (c == '\\' || c == '"') {
+        line.append('\\').append(c);
+      } else if (c == '\n') {
+        line.append("\\n");
+      } else {
+        line.append(c);
+      }
+    }
+    line.append("\",");
+  }
+
+  private static String escapeHelp(String help) {
+    return help.replace("\\", "\\\\").replace("\n", "\\n");
+  }
+}
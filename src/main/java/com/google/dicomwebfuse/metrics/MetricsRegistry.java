@@ -0,0 +1,89 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Metrics of the mount, written in the Prometheus text format. Counters and histograms are
+ * updated by the instrumented code, other values are collected from their owners on every write.
+ */
+public class MetricsRegistry {
+
+  /**
+   * Bucket bounds in seconds for the durations of FUSE operations and Healthcare API requests.
+   */
+  public static final double[] DURATION_BUCKETS =
+      {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30};
+  private final Map<String, Metric> metrics = new ConcurrentSkipListMap<>();
+
+  public Counter counter(String name, String help, String... labelNames) {
+    return register(new Counter(name, help, labelNames));
+  }
+
+  public Histogram histogram(String name, String help, double[] bucketBounds,
+      String... labelNames) {
+    return register(new Histogram(name, help, bucketBounds, labelNames));
+  }
+
+  /**
+   * Registers a gauge whose samples are collected when the metrics are written.
+   */
+  public void gauge(String name, String help, Collector collector, String... labelNames) {
+    register(new CollectedMetric(name, help, "gauge", collector, labelNames));
+  }
+
+  public void gauge(String name, String help, DoubleSupplier value) {
+    gauge(name, help, samples -> samples.add(value.getAsDouble()));
+  }
+
+  /**
+   * Registers a counter which is kept by the instrumented object and whose samples are collected
+   * when the metrics are written.
+   */
+  public void counter(String name, String help, Collector collector, String... labelNames) {
+    register(new CollectedMetric(name, help, "counter", collector, labelNames));
+  }
+
+  /**
+   * Writes all metrics in the Prometheus text format, version 0.0.4.
+   */
+  public void write(Writer writer) throws IOException {
+    for (Metric metric : metrics.values()) {
+      metric.write(writer);
+    }
+  }
+
+  private <T extends Metric> T register(T metric) {
+    if (metrics.putIfAbsent(metric.getName(), metric) != null) {
+      throw new IllegalArgumentException("Metric already registered - " + metric.getName());
+    }
+    return metric;
+  }
+
+  public interface Collector {
+
+    void collect(Samples samples);
+  }
+
+  public interface Samples {
+
+    void add(double value, String... labelValues);
+  }
+}
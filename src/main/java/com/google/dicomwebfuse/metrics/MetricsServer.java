@@ -0,0 +1,68 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.Method;
+import org.apache.hc.core5.http.impl.bootstrap.HttpServer;
+import org.apache.hc.core5.http.impl.bootstrap.ServerBootstrap;
+import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.io.CloseMode;
+
+/**
+ * Serves the metrics at /metrics in the Prometheus text format. The server listens on the
+ * loopback interface only, so the metrics are not exposed to the network.
+ */
+public class MetricsServer implements Closeable {
+
+  private static final ContentType CONTENT_TYPE =
+      ContentType.parse("text/plain; version=0.0.4; charset=utf-8");
+  private final HttpServer httpServer;
+
+  public MetricsServer(MetricsRegistry metricsRegistry, int port) {
+    httpServer = ServerBootstrap.bootstrap()
+        .setLocalAddress(InetAddress.getLoopbackAddress())
+        .setListenerPort(port)
+        .register("/metrics", (request, response, context) -> {
+          if (!Method.GET.isSame(request.getMethod())) {
+            response.setCode(HttpStatus.SC_METHOD_NOT_ALLOWED);
+            return;
+          }
+          StringWriter writer = new StringWriter();
+          metricsRegistry.write(writer);
+          response.setCode(HttpStatus.SC_OK);
+          response.setEntity(new StringEntity(writer.toString(), CONTENT_TYPE));
+        })
+        .create();
+  }
+
+  public void start() throws IOException {
+    httpServer.start();
+  }
+
+  public int getPort() {
+    return httpServer.getLocalPort();
+  }
+
+  @Override
+  public void close() {
+    httpServer.close(CloseMode.IMMEDIATE);
+  }
+}
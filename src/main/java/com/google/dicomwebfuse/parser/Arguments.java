@@ -16,13 +16,18 @@ package com.google.dicomwebfuse.parser;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.converters.BooleanConverter;
+import com.beust.jcommander.converters.IntegerConverter;
 import com.beust.jcommander.converters.LongConverter;
 import com.beust.jcommander.converters.PathConverter;
+import com.google.dicomwebfuse.dao.Constants;
+import com.google.dicomwebfuse.dao.http.HttpTransport;
 import com.google.dicomwebfuse.entities.CloudConf;
 import com.google.dicomwebfuse.entities.cache.CacheTime;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class Arguments {
 
@@ -85,11 +90,225 @@ public class Arguments {
   )
   public List<String> extraMountOptions = new ArrayList<>();
 
+  @Parameter(
+      names = {"--maxConnections"},
+      descriptionKey = "option.maxConnections",
+      converter = IntegerConverter.class,
+      order = 7,
+      validateWith = PositiveNumberValidator.class
+  )
+  public int maxConnections = 64;
+
+  @Parameter(
+      names = {"--maxConnectionsPerRoute"},
+      descriptionKey = "option.maxConnectionsPerRoute",
+      converter = IntegerConverter.class,
+      order = 8,
+      validateWith = PositiveNumberValidator.class
+  )
+  public int maxConnectionsPerRoute = 32;
+
+  @Parameter(
+      names = {"--connectionIdleTime"},
+      descriptionKey = "option.connectionIdleTime",
+      converter = LongConverter.class,
+      order = 9,
+      validateWith = PositiveNumberValidator.class
+  )
+  public long connectionIdleTime = 60;
+
+  @Parameter(
+      names = {"--httpTransport"},
+      descriptionKey = "option.httpTransport",
+      order = 10
+  )
+  public HttpTransport httpTransport = HttpTransport.HTTP_1_1;
+
+  @Parameter(
+      names = {"--streamingDownload"},
+      descriptionKey = "option.streamingDownload",
+      order = 11,
+      converter = BooleanConverter.class
+  )
+  public boolean streamingDownload = false;
+
+  @Parameter(
+      names = {"--maxRetries"},
+      descriptionKey = "option.maxRetries",
+      converter = IntegerConverter.class,
+      order = 12,
+      validateWith = NonNegativeNumberValidator.class
+  )
+  public int maxRetries = 3;
+
+  @Parameter(
+      names = {"--maxRetryDelay"},
+      descriptionKey = "option.maxRetryDelay",
+      converter = LongConverter.class,
+      order = 13,
+      validateWith = PositiveNumberValidator.class
+  )
+  public long maxRetryDelay = 20;
+
+  @Parameter(
+      names = {"--retryBudget"},
+      descriptionKey = "option.retryBudget",
+      converter = IntegerConverter.class,
+      order = 14,
+      validateWith = NonNegativeNumberValidator.class
+  )
+  public int retryBudget = 10;
+
+  @Parameter(
+      names = {"--paginationThreads"},
+      descriptionKey = "option.paginationThreads",
+      converter = IntegerConverter.class,
+      order = 15,
+      validateWith = PositiveNumberValidator.class
+  )
+  public int paginationThreads = 3;
+
+  @Parameter(
+      names = {"--transferSyntax"},
+      descriptionKey = "option.transferSyntax",
+      order = 16,
+      validateWith = TransferSyntaxValidator.class
+  )
+  public String transferSyntax = Constants.ANY_TRANSFER_SYNTAX;
+
+  @Parameter(
+      names = {"--storeTransferSyntaxes"},
+      descriptionKey = "option.storeTransferSyntaxes",
+      converter = StoreTransferSyntaxesConverter.class,
+      order = 17
+  )
+  public Map<String, String> storeTransferSyntaxes = new HashMap<>();
+
+  @Parameter(
+      names = {"--seriesRetrieveThreshold"},
+      descriptionKey = "option.seriesRetrieveThreshold",
+      converter = IntegerConverter.class,
+      order = 18,
+      validateWith = NonNegativeNumberValidator.class
+  )
+  public int seriesRetrieveThreshold = 0;
+
+  @Parameter(
+      names = {"--stowBatchWindow"},
+      descriptionKey = "option.stowBatchWindow",
+      converter = IntegerConverter.class,
+      order = 19,
+      validateWith = NonNegativeNumberValidator.class
+  )
+  public int stowBatchWindow = 0;
+
+  @Parameter(
+      names = {"--stowBatchSize"},
+      descriptionKey = "option.stowBatchSize",
+      converter = IntegerConverter.class,
+      order = 20,
+      validateWith = PositiveNumberValidator.class
+  )
+  public int stowBatchSize = 100;
+
+  @Parameter(
+      names = {"--stowBatchBytes"},
+      descriptionKey = "option.stowBatchBytes",
+      converter = IntegerConverter.class,
+      order = 21,
+      validateWith = PositiveNumberValidator.class
+  )
+  public int stowBatchBytes = 100;
+
+  @Parameter(
+      names = {"--uploadJournal"},
+      descriptionKey = "option.uploadJournal",
+      order = 22,
+      converter = PathConverter.class
+  )
+  public Path uploadJournalPath;
+
+  @Parameter(
+      names = {"--uploadThreads"},
+      descriptionKey = "option.uploadThreads",
+      converter = IntegerConverter.class,
+      order = 23,
+      validateWith = PositiveNumberValidator.class
+  )
+  public int uploadThreads = 4;
+
+  @Parameter(
+      names = {"--streamingUpload"},
+      descriptionKey = "option.streamingUpload",
+      order = 24,
+      converter = BooleanConverter.class
+  )
+  public boolean streamingUpload = false;
+
+  @Parameter(
+      names = {"--frameDirectories"},
+      descriptionKey = "option.frameDirectories",
+      order = 25,
+      converter = BooleanConverter.class
+  )
+  public boolean frameDirectories = false;
+
+  @Parameter(
+      names = {"--metadataFiles"},
+      descriptionKey = "option.metadataFiles",
+      order = 26,
+      converter = BooleanConverter.class
+  )
+  public boolean metadataFiles = false;
+
+  @Parameter(
+      names = {"--metadataCacheTime"},
+      descriptionKey = "option.metadataCacheTime",
+      converter = LongConverter.class,
+      order = 27,
+      validateWith = PositiveNumberValidator.class
+  )
+  public long metadataCacheTime = 300;
+
+  @Parameter(
+      names = {"--metadataCacheSize"},
+      descriptionKey = "option.metadataCacheSize",
+      converter = LongConverter.class,
+      order = 28,
+      validateWith = PositiveNumberValidator.class
+  )
+  public long metadataCacheSize = 100;
+
+  @Parameter(
+      names = {"--sizeIndex"},
+      descriptionKey = "option.sizeIndex",
+      order = 29,
+      converter = PathConverter.class
+  )
+  public Path sizeIndexPath;
+
+  @Parameter(
+      names = {"--recordOperations"},
+      descriptionKey = "option.recordOperations",
+      order = 30,
+      converter = PathConverter.class
+  )
+  public Path recordingPath;
+
+  @Parameter(
+      names = {"--metricsPort"},
+      descriptionKey = "option.metricsPort",
+      converter = IntegerConverter.class,
+      order = 31,
+      validateWith = NonNegativeNumberValidator.class
+  )
+  public int metricsPort = 0;
+
   @Parameter(
       names = {"--help", "-h"},
       help = true,
       descriptionKey = "option.help",
-      order = 7
+      order = 32
   )
   public boolean help = false;
 }
\ No newline at end of file
@@ -0,0 +1,37 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.parser;
+
+import com.beust.jcommander.IStringConverter;
+import com.beust.jcommander.ParameterException;
+import java.util.HashMap;
+import java.util.Map;
+
+public class StoreTransferSyntaxesConverter implements IStringConverter<Map<String, String>> {
+
+  @Override
+  public Map<String, String> convert(String parameters) {
+    Map<String, String> storeTransferSyntaxes = new HashMap<>();
+    for (String param : parameters.split(",")) {
+      String[] storeTransferSyntax = param.split("=");
+      if (storeTransferSyntax.length != 2 || storeTransferSyntax[0].isEmpty()
+          || !TransferSyntaxValidator.isTransferSyntax(storeTransferSyntax[1])) {
+        throw new ParameterException("Expected dicomStoreId=transferSyntax (found " + param + ")");
+      }
+      storeTransferSyntaxes.put(storeTransferSyntax[0], storeTransferSyntax[1]);
+    }
+    return storeTransferSyntaxes;
+  }
+}
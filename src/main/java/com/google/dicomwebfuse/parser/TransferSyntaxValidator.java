@@ -0,0 +1,37 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.parser;
+
+import com.beust.jcommander.IParameterValidator;
+import com.beust.jcommander.ParameterException;
+import java.util.regex.Pattern;
+
+public class TransferSyntaxValidator implements IParameterValidator {
+
+  // A transfer syntax UID, e.g. 1.2.840.10008.1.2.4.90, or * for the stored syntax
+  private static final Pattern TRANSFER_SYNTAX = Pattern.compile("\\*|[0-9]+(\\.[0-9]+)*");
+
+  @Override
+  public void validate(String name, String value) throws ParameterException {
+    if (!isTransferSyntax(value)) {
+      throw new ParameterException(
+          "Parameter " + name + " should be a transfer syntax UID or * (found " + value + ")");
+    }
+  }
+
+  static boolean isTransferSyntax(String value) {
+    return TRANSFER_SYNTAX.matcher(value).matches();
+  }
+}
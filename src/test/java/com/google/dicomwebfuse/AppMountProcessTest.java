@@ -21,6 +21,7 @@ import static org.junit.jupiter.api.Assumptions.assumeTrue;
 import static org.mockito.ArgumentMatchers.any;
 
 import com.google.dicomwebfuse.dao.FuseDao;
+import com.google.dicomwebfuse.dao.http.HttpClientFactory;
 import com.google.dicomwebfuse.exception.DicomFuseException;
 import com.google.dicomwebfuse.fuse.DicomFuse;
 import com.google.dicomwebfuse.fuse.Parameters;
@@ -33,6 +34,7 @@ import jnr.ffi.Platform.OS;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
 
 class AppMountProcessTest {
@@ -54,12 +56,37 @@ class AppMountProcessTest {
     Mockito.when(fuseDao.getAllDicomStores(any())).thenThrow(DicomFuseException.class);
     Parameters parameters = new Parameters(fuseDao, arguments, os);
     DicomFuse dicomFuse = Mockito.mock(DicomFuse.class);
+    HttpClientFactory httpClientFactory = Mockito.mock(HttpClientFactory.class);
     // When
-    AppMountProcess appMountProcess = new AppMountProcess(arguments, os, parameters, dicomFuse);
+    AppMountProcess appMountProcess = new AppMountProcess(arguments, os, parameters, dicomFuse,
+        httpClientFactory);
     // Then
     assertThrows(DicomFuseException.class, appMountProcess::startMountProcess);
   }
 
+  @Test
+  void testShouldCloseHttpClientFactoryAfterUnmount() throws IOException, DicomFuseException {
+    // Skip the test if the system OS is Windows to prevent the error during setting UID and GID
+    // in the MountOptions class
+    assumeTrue(systemOs != OS.WINDOWS);
+    // Given
+    Arguments arguments = new Arguments();
+    // Setting OS
+    OS os = OS.LINUX;
+    FuseDao fuseDao = Mockito.mock(FuseDao.class);
+    Parameters parameters = new Parameters(fuseDao, arguments, os);
+    DicomFuse dicomFuse = Mockito.mock(DicomFuse.class);
+    HttpClientFactory httpClientFactory = Mockito.mock(HttpClientFactory.class);
+    // When
+    AppMountProcess appMountProcess = new AppMountProcess(arguments, os, parameters, dicomFuse,
+        httpClientFactory);
+    appMountProcess.startMountProcess();
+    // Then
+    InOrder inOrder = Mockito.inOrder(dicomFuse, httpClientFactory);
+    inOrder.verify(dicomFuse).umount();
+    inOrder.verify(httpClientFactory).close();
+  }
+
   @Test
   void testShouldMountDicomFuseOnLinuxAndSetExtraMountOptions()
       throws IOException, DicomFuseException {
@@ -76,12 +103,14 @@ class AppMountProcessTest {
     FuseDao fuseDao = Mockito.mock(FuseDao.class);
     Parameters parameters = new Parameters(fuseDao, arguments, os);
     DicomFuse dicomFuse = Mockito.mock(DicomFuse.class);
+    HttpClientFactory httpClientFactory = Mockito.mock(HttpClientFactory.class);
     ArgumentCaptor<String[]> captor = ArgumentCaptor.forClass(String[].class);
     Mockito.doNothing()
         .when(dicomFuse)
         .mount(any(), any(Boolean.class), any(Boolean.class), captor.capture());
     // When
-    AppMountProcess appMountProcess = new AppMountProcess(arguments, os, parameters, dicomFuse);
+    AppMountProcess appMountProcess = new AppMountProcess(arguments, os, parameters, dicomFuse,
+        httpClientFactory);
     appMountProcess.startMountProcess();
     // Then
     List<String> options = Arrays.asList(captor.getValue());
@@ -102,12 +131,14 @@ class AppMountProcessTest {
     FuseDao fuseDao = Mockito.mock(FuseDao.class);
     Parameters parameters = new Parameters(fuseDao, arguments, os);
     DicomFuse dicomFuse = Mockito.mock(DicomFuse.class);
+    HttpClientFactory httpClientFactory = Mockito.mock(HttpClientFactory.class);
     ArgumentCaptor<String[]> captor = ArgumentCaptor.forClass(String[].class);
     Mockito.doNothing()
         .when(dicomFuse)
         .mount(any(), any(Boolean.class), any(Boolean.class), captor.capture());
     // When
-    AppMountProcess appMountProcess = new AppMountProcess(arguments, os, parameters, dicomFuse);
+    AppMountProcess appMountProcess = new AppMountProcess(arguments, os, parameters, dicomFuse,
+        httpClientFactory);
     appMountProcess.startMountProcess();
     // Then
     List<String> options = Arrays.asList(captor.getValue());
@@ -128,12 +159,14 @@ class AppMountProcessTest {
     FuseDao fuseDao = Mockito.mock(FuseDao.class);
     Parameters parameters = new Parameters(fuseDao, arguments, os);
     DicomFuse dicomFuse = Mockito.mock(DicomFuse.class);
+    HttpClientFactory httpClientFactory = Mockito.mock(HttpClientFactory.class);
     ArgumentCaptor<String[]> captor = ArgumentCaptor.forClass(String[].class);
     Mockito.doNothing()
         .when(dicomFuse)
         .mount(any(), any(Boolean.class), any(Boolean.class), captor.capture());
     // When
-    AppMountProcess appMountProcess = new AppMountProcess(arguments, os, parameters, dicomFuse);
+    AppMountProcess appMountProcess = new AppMountProcess(arguments, os, parameters, dicomFuse,
+        httpClientFactory);
     appMountProcess.startMountProcess();
     // Then
     List<String> options = Arrays.asList(captor.getValue());
@@ -152,12 +185,14 @@ class AppMountProcessTest {
     FuseDao fuseDao = Mockito.mock(FuseDao.class);
     Parameters parameters = new Parameters(fuseDao, arguments, os);
     DicomFuse dicomFuse = Mockito.mock(DicomFuse.class);
+    HttpClientFactory httpClientFactory = Mockito.mock(HttpClientFactory.class);
     ArgumentCaptor<String[]> captor = ArgumentCaptor.forClass(String[].class);
     Mockito.doNothing()
         .when(dicomFuse)
         .mount(any(), any(Boolean.class), any(Boolean.class), captor.capture());
     // When
-    AppMountProcess appMountProcess = new AppMountProcess(arguments, os, parameters, dicomFuse);
+    AppMountProcess appMountProcess = new AppMountProcess(arguments, os, parameters, dicomFuse,
+        httpClientFactory);
     appMountProcess.startMountProcess();
     // Then
     List<String> options = Arrays.asList(captor.getValue());
@@ -181,12 +216,14 @@ class AppMountProcessTest {
     FuseDao fuseDao = Mockito.mock(FuseDao.class);
     Parameters parameters = new Parameters(fuseDao, arguments, os);
     DicomFuse dicomFuse = Mockito.mock(DicomFuse.class);
+    HttpClientFactory httpClientFactory = Mockito.mock(HttpClientFactory.class);
     ArgumentCaptor<String[]> captor = ArgumentCaptor.forClass(String[].class);
     Mockito.doNothing()
         .when(dicomFuse)
         .mount(any(), any(Boolean.class), any(Boolean.class), captor.capture());
     // When
-    AppMountProcess appMountProcess = new AppMountProcess(arguments, os, parameters, dicomFuse);
+    AppMountProcess appMountProcess = new AppMountProcess(arguments, os, parameters, dicomFuse,
+        httpClientFactory);
     appMountProcess.startMountProcess();
     // Then
     List<String> options = Arrays.asList(captor.getValue());
@@ -207,12 +244,14 @@ class AppMountProcessTest {
     FuseDao fuseDao = Mockito.mock(FuseDao.class);
     Parameters parameters = new Parameters(fuseDao, arguments, os);
     DicomFuse dicomFuse = Mockito.mock(DicomFuse.class);
+    HttpClientFactory httpClientFactory = Mockito.mock(HttpClientFactory.class);
     ArgumentCaptor<String[]> captor = ArgumentCaptor.forClass(String[].class);
     Mockito.doNothing()
         .when(dicomFuse)
         .mount(any(), any(Boolean.class), any(Boolean.class), captor.capture());
     // When
-    AppMountProcess appMountProcess = new AppMountProcess(arguments, os, parameters, dicomFuse);
+    AppMountProcess appMountProcess = new AppMountProcess(arguments, os, parameters, dicomFuse,
+        httpClientFactory);
     appMountProcess.startMountProcess();
     // Then
     List<String> options = Arrays.asList(captor.getValue());
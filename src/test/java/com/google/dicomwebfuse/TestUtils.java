@@ -15,9 +15,6 @@
 package com.google.dicomwebfuse;
 
 import static com.google.dicomwebfuse.EntityType.DICOM_STORE;
-import static com.google.dicomwebfuse.dao.Constants.MAX_INSTANCES_IN_SERIES;
-import static com.google.dicomwebfuse.dao.Constants.MAX_SERIES_IN_STUDY;
-import static com.google.dicomwebfuse.dao.Constants.MAX_STUDIES_IN_DICOM_STORE;
 import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_MAX_LIMIT_FOR_INSTANCES;
 import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_MAX_LIMIT_FOR_SERIES;
 import static com.google.dicomwebfuse.dao.Constants.VALUE_PARAM_MAX_LIMIT_FOR_STUDY;
@@ -26,18 +23,23 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import com.google.auth.oauth2.AccessToken;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.dicomwebfuse.auth.AuthAdc;
+import com.google.dicomwebfuse.dao.FuseDaoImpl;
 import com.google.dicomwebfuse.dao.http.HttpClientFactory;
 import com.google.dicomwebfuse.exception.DicomFuseException;
+import com.google.dicomwebfuse.parser.Arguments;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import org.apache.http.HttpEntity;
 import org.apache.http.ProtocolVersion;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.entity.BasicHttpEntity;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.message.BasicStatusLine;
 import org.mockito.ArgumentMatchers;
@@ -48,6 +50,29 @@ import org.mockito.Mockito;
  */
 public class TestUtils {
 
+  /**
+   * Generates FuseDaoImpl for the Healthcare API host, which limits and retries requests as a
+   * mount with the default arguments does.
+   */
+  public static FuseDaoImpl prepareFuseDao(AuthAdc authAdc, HttpClientFactory httpClientFactory) {
+    Arguments arguments = new Arguments();
+    return new FuseDaoImpl(authAdc, httpClientFactory,
+        AppMountProcess.createAdaptiveLimiters(arguments),
+        AppMountProcess.createRetryPolicy(arguments));
+  }
+
+  /**
+   * Generates FuseDaoImpl for the given endpoint, which limits and retries requests as a mount
+   * with the default arguments does.
+   */
+  public static FuseDaoImpl prepareFuseDao(AuthAdc authAdc, HttpClientFactory httpClientFactory,
+      URI endpoint) {
+    Arguments arguments = new Arguments();
+    return new FuseDaoImpl(authAdc, httpClientFactory, endpoint,
+        AppMountProcess.createAdaptiveLimiters(arguments),
+        AppMountProcess.createRetryPolicy(arguments));
+  }
+
   /**
    * Generates mocked HttpClientFactory.
    *
@@ -57,7 +82,7 @@ public class TestUtils {
   public static HttpClientFactory prepareHttpClientFactory(
       CloseableHttpClient closeableHttpClient) {
     HttpClientFactory httpClientFactory = Mockito.mock(HttpClientFactory.class);
-    Mockito.when(httpClientFactory.createHttpClient()).thenReturn(closeableHttpClient);
+    Mockito.when(httpClientFactory.getHttpClient()).thenReturn(closeableHttpClient);
     return httpClientFactory;
   }
 
@@ -88,7 +113,7 @@ public class TestUtils {
   public static void prepareHttpClient(CloseableHttpClient closeableHttpClient, int entityCount,
       int offset, EntityType entityType, int statusCode, String path, String query)
       throws IOException, DicomFuseException {
-    List<BasicHttpEntity> basicHttpEntities = prepareHttpEntities(entityCount, offset, entityType);
+    List<HttpEntity> basicHttpEntities = prepareHttpEntities(entityCount, offset, entityType);
     CloseableHttpResponse httpResponse = prepareHttpResponse(statusCode, basicHttpEntities);
     Mockito.doReturn(httpResponse)
         .when(closeableHttpClient)
@@ -117,9 +142,9 @@ public class TestUtils {
    * @param offset start offset
    * @param entityType  type of entity
    */
-  private static List<BasicHttpEntity> prepareHttpEntities(int entityCount, int offset, EntityType entityType)
+  private static List<HttpEntity> prepareHttpEntities(int entityCount, int offset, EntityType entityType)
       throws DicomFuseException {
-    List<BasicHttpEntity> basicHttpEntities = new ArrayList<>();
+    List<HttpEntity> basicHttpEntities = new ArrayList<>();
     int entityLimit;
     int maxEntities;
     switch (entityType) {
@@ -129,15 +154,15 @@ public class TestUtils {
         break;
       case STUDY:
         entityLimit = VALUE_PARAM_MAX_LIMIT_FOR_STUDY;
-        maxEntities = MAX_STUDIES_IN_DICOM_STORE;
+        maxEntities = VALUE_PARAM_MAX_LIMIT_FOR_STUDY * 3;
         break;
       case SERIES:
         entityLimit = VALUE_PARAM_MAX_LIMIT_FOR_SERIES;
-        maxEntities = MAX_SERIES_IN_STUDY;
+        maxEntities = VALUE_PARAM_MAX_LIMIT_FOR_SERIES * 3;
         break;
       case INSTANCE:
         entityLimit = VALUE_PARAM_MAX_LIMIT_FOR_INSTANCES;
-        maxEntities = MAX_INSTANCES_IN_SERIES;
+        maxEntities = VALUE_PARAM_MAX_LIMIT_FOR_INSTANCES;
         break;
       default:
         throw new DicomFuseException("Error");
@@ -155,7 +180,7 @@ public class TestUtils {
       BasicHttpEntity httpEntity = prepareHttpEntityWithContent(entityCount, entityType, startOfEntityId);
       basicHttpEntities.add(httpEntity);
       for (int i = 0; i < iterationCount; i++) {
-        BasicHttpEntity emptyHttpEntity = prepareEmptyHttpEntity();
+        HttpEntity emptyHttpEntity = prepareEmptyHttpEntity();
         basicHttpEntities.add(emptyHttpEntity);
       }
       return basicHttpEntities;
@@ -178,7 +203,7 @@ public class TestUtils {
       }
 
       if (count <= 0) {
-        BasicHttpEntity emptyHttpEntity = prepareEmptyHttpEntity();
+        HttpEntity emptyHttpEntity = prepareEmptyHttpEntity();
         basicHttpEntities.add(emptyHttpEntity);
       }
 
@@ -245,14 +270,13 @@ public class TestUtils {
   }
 
   /**
-   * Generates BasicHttpEntity with with empty content.
+   * Generates a repeatable entity with empty content. The last entity is returned for all further
+   * requests, e.g. for the pages requested at the same time after the last one.
    *
    * @return entity object
    */
-  private static BasicHttpEntity prepareEmptyHttpEntity() {
-    BasicHttpEntity emptyHttpEntity = new BasicHttpEntity();
-    emptyHttpEntity.setContent(new ByteArrayInputStream("[]".getBytes(UTF_8)));
-    return emptyHttpEntity;
+  private static HttpEntity prepareEmptyHttpEntity() {
+    return new StringEntity("[]", UTF_8);
   }
 
   /**
@@ -273,7 +297,7 @@ public class TestUtils {
    * @return response object
    */
   private static CloseableHttpResponse prepareHttpResponse(int statusCode,
-      List<BasicHttpEntity> httpEntities) {
+      List<HttpEntity> httpEntities) {
     ProtocolVersion protocolVersion = new ProtocolVersion("HTTP", 1, 1);
     BasicStatusLine basicStatusLine = new BasicStatusLine(protocolVersion, statusCode, "");
     CloseableHttpResponse closeableHttpResponse = Mockito.mock(CloseableHttpResponse.class);
@@ -283,9 +307,9 @@ public class TestUtils {
       Mockito.when(closeableHttpResponse.getEntity()).thenReturn(httpEntities.get(0));
     }
     if (httpEntities.size() > 1) {
-      BasicHttpEntity[] array = new BasicHttpEntity[httpEntities.size() - 1];
+      HttpEntity[] array = new HttpEntity[httpEntities.size() - 1];
       array = httpEntities.toArray(array);
-      BasicHttpEntity[] entities = Arrays.copyOfRange(array, 1, array.length);
+      HttpEntity[] entities = Arrays.copyOfRange(array, 1, array.length);
       Mockito.when(closeableHttpResponse.getEntity()).thenReturn(httpEntities.get(0), entities);
     }
     return closeableHttpResponse;
@@ -0,0 +1,70 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.auth;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.auth.oauth2.AccessToken;
+import com.google.auth.oauth2.GoogleCredentials;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class AuthAdcTest {
+
+  @Test
+  void testShouldReuseAuthorizationHeaderUntilTokenExpires() throws Exception {
+    // given
+    CountingCredentials credentials = new CountingCredentials(TimeUnit.HOURS.toMillis(1));
+    AuthAdc authAdc = new AuthAdc(credentials);
+    // when
+    String firstHeader = authAdc.getAuthorizationHeader();
+    String secondHeader = authAdc.getAuthorizationHeader();
+    // then
+    assertEquals("Bearer token1", firstHeader);
+    assertEquals(firstHeader, secondHeader);
+    assertEquals(1, credentials.refreshCount.get());
+  }
+
+  @Test
+  void testShouldRefreshExpiredTokenOnRequest() throws Exception {
+    // given
+    CountingCredentials credentials = new CountingCredentials(0);
+    AuthAdc authAdc = new AuthAdc(credentials);
+    // when
+    authAdc.getAuthorizationHeader();
+    String header = authAdc.getAuthorizationHeader();
+    // then
+    assertEquals("Bearer token2", header);
+    assertEquals(2, credentials.refreshCount.get());
+  }
+
+  private static class CountingCredentials extends GoogleCredentials {
+
+    private final AtomicInteger refreshCount = new AtomicInteger();
+    private final long lifetimeMillis;
+
+    CountingCredentials(long lifetimeMillis) {
+      this.lifetimeMillis = lifetimeMillis;
+    }
+
+    @Override
+    public AccessToken refreshAccessToken() {
+      return new AccessToken("token" + refreshCount.incrementAndGet(),
+          new Date(System.currentTimeMillis() + lifetimeMillis));
+    }
+  }
+}
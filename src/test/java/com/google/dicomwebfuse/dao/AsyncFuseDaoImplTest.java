@@ -0,0 +1,486 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.api.client.http.HttpStatusCodes;
+import com.google.dicomwebfuse.TestUtils;
+import com.google.dicomwebfuse.dao.http.Http2ClientFactoryImpl;
+import com.google.dicomwebfuse.dao.limiter.AdaptiveLimiters;
+import com.google.dicomwebfuse.dao.retry.RetryBudget;
+import com.google.dicomwebfuse.dao.retry.RetryPolicy;
+import com.google.dicomwebfuse.dao.spec.QueryBuilder;
+import com.google.dicomwebfuse.entities.CloudConf;
+import com.google.dicomwebfuse.entities.Study;
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.Message;
+import org.apache.hc.core5.http.URIScheme;
+import org.apache.hc.core5.http.impl.bootstrap.HttpAsyncServer;
+import org.apache.hc.core5.http.nio.AsyncRequestConsumer;
+import org.apache.hc.core5.http.nio.AsyncServerRequestHandler;
+import org.apache.hc.core5.http.nio.entity.AsyncEntityProducers;
+import org.apache.hc.core5.http.nio.entity.BasicAsyncEntityConsumer;
+import org.apache.hc.core5.http.nio.support.AsyncResponseBuilder;
+import org.apache.hc.core5.http.nio.support.BasicRequestConsumer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.impl.nio.bootstrap.H2ServerBootstrap;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.ListenerEndpoint;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class AsyncFuseDaoImplTest {
+
+  private static final String TEST = "test";
+  private static final String BUSY = "busy";
+  private static final String PARTIAL = "partial";
+  private static final String EMPTY = "empty";
+  private static final String FAILED_SOP_INSTANCE_UID = "1.2.3";
+  private static final int RESPONSE_DELAY_MILLIS = 200;
+  private static final int REQUEST_COUNT = 20;
+  private static final byte[] INSTANCE_CONTENT = new byte[3 * 1024 * 1024];
+  private static final String JPEG_2000_LOSSLESS = "1.2.840.10008.1.2.4.90";
+  private static final String BOUNDARY = "series-boundary";
+  private static final int FRAME_NUMBER = 7;
+  private static final byte[] METADATA = "[{\"00100010\":{\"vr\":\"PN\"}}]".getBytes(UTF_8);
+  private final AtomicInteger inFlightRequests = new AtomicInteger();
+  private final AtomicInteger maxInFlightRequests = new AtomicInteger();
+  private final AtomicInteger busyResponses = new AtomicInteger();
+  private final AtomicInteger compressedResponses = new AtomicInteger();
+  private final List<byte[]> uploadedBodies = new ArrayList<>();
+  private final List<String> downloadAcceptHeaders = new ArrayList<>();
+  private ScheduledExecutorService responseScheduler;
+  private HttpAsyncServer server;
+  private Http2ClientFactoryImpl httpClientFactory;
+  private AsyncFuseDao asyncFuseDao;
+  private QueryBuilder queryBuilder;
+
+  static {
+    new Random(0).nextBytes(INSTANCE_CONTENT);
+  }
+
+  @BeforeEach
+  void setup() throws Exception {
+    responseScheduler = Executors.newScheduledThreadPool(4);
+    // Local HTTP/2 stand-in for the Healthcare API
+    server = H2ServerBootstrap.bootstrap()
+        .setVersionPolicy(HttpVersionPolicy.FORCE_HTTP_2)
+        .register("*", new StandInHandler())
+        .create();
+    server.start();
+    Future<ListenerEndpoint> listener =
+        server.listen(new InetSocketAddress("localhost", 0), URIScheme.HTTP);
+    int port = ((InetSocketAddress) listener.get().getAddress()).getPort();
+
+    httpClientFactory = new Http2ClientFactoryImpl(60);
+    asyncFuseDao = new AsyncFuseDaoImpl(TestUtils.prepareAuthAdc(TEST), httpClientFactory,
+        URI.create("http://localhost:" + port), new AdaptiveLimiters(REQUEST_COUNT, 64),
+        new RetryPolicy(3, 1000, new RetryBudget(0.1)));
+    queryBuilder = QueryBuilder.forConfiguration(new CloudConf(TEST, TEST, TEST, TEST))
+        .setDicomStoreId(TEST)
+        .setStudyId(TEST)
+        .setSeriesId(TEST)
+        .setInstanceId(TEST)
+        .setOffset(0);
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    httpClientFactory.close();
+    server.close(CloseMode.IMMEDIATE);
+    responseScheduler.shutdownNow();
+  }
+
+  @Test
+  void testShouldSendConcurrentRequestsWithoutThreadPerRequest() throws Exception {
+    // given
+    List<CompletableFuture<List<Study>>> futures = new ArrayList<>();
+    // when
+    for (int i = 0; i < REQUEST_COUNT; i++) {
+      futures.add(asyncFuseDao.getStudies(queryBuilder));
+    }
+    List<Study> studies = new ArrayList<>();
+    for (CompletableFuture<List<Study>> future : futures) {
+      studies.addAll(future.get(10, TimeUnit.SECONDS));
+    }
+    // then
+    assertEquals(REQUEST_COUNT * 2, studies.size());
+    assertEquals(REQUEST_COUNT, maxInFlightRequests.get());
+  }
+
+  @Test
+  void testShouldStreamDownloadedInstanceToFile() throws Exception {
+    // given
+    Path instanceDataPath = Files.createTempFile(TEST, TEST);
+    instanceDataPath.toFile().deleteOnExit();
+    FuseDao fuseDao = new BlockingFuseDao(asyncFuseDao);
+    // when
+    fuseDao.downloadInstance(queryBuilder.setInstanceDataPath(instanceDataPath));
+    // then
+    assertArrayEquals(INSTANCE_CONTENT, Files.readAllBytes(instanceDataPath));
+  }
+
+  @Test
+  void testShouldRequestInstanceInConfiguredTransferSyntax() throws Exception {
+    // given
+    Path instanceDataPath = Files.createTempFile(TEST, TEST);
+    instanceDataPath.toFile().deleteOnExit();
+    // when
+    asyncFuseDao.downloadInstance(queryBuilder.setInstanceDataPath(instanceDataPath)
+        .setTransferSyntax(JPEG_2000_LOSSLESS)).get(10, TimeUnit.SECONDS);
+    // then
+    assertEquals(1, downloadAcceptHeaders.size());
+    assertEquals("application/dicom; transfer-syntax=" + JPEG_2000_LOSSLESS,
+        downloadAcceptHeaders.get(0));
+  }
+
+  @Test
+  void testShouldSplitRetrievedSeriesIntoInstances() throws Exception {
+    // given
+    List<byte[]> instances = new ArrayList<>();
+    List<String> listenerThreads = new ArrayList<>();
+    SeriesDownloadListener seriesDownloadListener = content -> {
+      listenerThreads.add(Thread.currentThread().getName());
+      ByteArrayOutputStream instance = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int length;
+      while ((length = content.read(buffer)) != -1) {
+        instance.write(buffer, 0, length);
+      }
+      instances.add(instance.toByteArray());
+    };
+    FuseDao fuseDao = new BlockingFuseDao(asyncFuseDao);
+    // when
+    fuseDao.downloadSeries(queryBuilder.setSeriesDownloadListener(seriesDownloadListener));
+    // then
+    assertEquals(2, instances.size());
+    assertArrayEquals(INSTANCE_CONTENT, instances.get(0));
+    assertArrayEquals(TEST.getBytes(UTF_8), instances.get(1));
+    // The parts are read while the response arrives, outside of the I/O threads
+    assertTrue(listenerThreads.get(0).startsWith("http2-response-"));
+  }
+
+  @Test
+  void testShouldSendUploadedInstanceAsMultipartBody() throws Exception {
+    // given
+    Path instanceDataPath = Files.createTempFile(TEST, TEST);
+    instanceDataPath.toFile().deleteOnExit();
+    Files.write(instanceDataPath, INSTANCE_CONTENT);
+    // when
+    asyncFuseDao.uploadInstance(queryBuilder.setInstanceDataPath(instanceDataPath))
+        .get(10, TimeUnit.SECONDS);
+    // then
+    assertEquals(1, uploadedBodies.size());
+    String body = new String(uploadedBodies.get(0), UTF_8);
+    assertTrue(body.startsWith("--"));
+    assertTrue(body.contains("Content-Type: application/dicom\r\n\r\n"));
+    assertTrue(uploadedBodies.get(0).length > INSTANCE_CONTENT.length);
+  }
+
+  @Test
+  void testShouldStreamUploadWhileFileIsWritten() throws Exception {
+    // given
+    UploadPipe uploadPipe = new UploadPipe(256 * 1024);
+    Thread writer = new Thread(() -> {
+      try {
+        for (int offset = 0; offset < INSTANCE_CONTENT.length; offset += 64 * 1024) {
+          uploadPipe.write(Arrays.copyOfRange(INSTANCE_CONTENT, offset,
+              Math.min(offset + 64 * 1024, INSTANCE_CONTENT.length)));
+        }
+        uploadPipe.close();
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    // when
+    CompletableFuture<Void> upload = asyncFuseDao.uploadInstance(
+        queryBuilder.setUploadPipe(uploadPipe));
+    writer.start();
+    upload.get(10, TimeUnit.SECONDS);
+    // then
+    assertEquals(1, uploadedBodies.size());
+    byte[] body = uploadedBodies.get(0);
+    // The part headers are ASCII, so the index in the decoded body is the index of the byte
+    String head = "Content-Type: application/dicom\r\n\r\n";
+    int contentOffset = new String(body, UTF_8).indexOf(head) + head.length();
+    assertArrayEquals(INSTANCE_CONTENT,
+        Arrays.copyOfRange(body, contentOffset, contentOffset + INSTANCE_CONTENT.length));
+  }
+
+  @Test
+  void testShouldReportFailedInstancesOfBatchUpload() throws Exception {
+    // given
+    Path firstDataPath = Files.createTempFile(TEST, TEST);
+    firstDataPath.toFile().deleteOnExit();
+    Files.write(firstDataPath, INSTANCE_CONTENT);
+    Path secondDataPath = Files.createTempFile(TEST, TEST);
+    secondDataPath.toFile().deleteOnExit();
+    Files.write(secondDataPath, TEST.getBytes(UTF_8));
+    QueryBuilder partialStore = queryBuilder.setDicomStoreId(PARTIAL)
+        .setInstanceDataPaths(Arrays.asList(firstDataPath, secondDataPath));
+    // when
+    Map<String, String> failedInstances = asyncFuseDao.uploadInstances(partialStore)
+        .get(10, TimeUnit.SECONDS);
+    // then
+    assertEquals(1, failedInstances.size());
+    assertTrue(failedInstances.containsKey(FAILED_SOP_INSTANCE_UID));
+    String body = new String(uploadedBodies.get(0), UTF_8);
+    assertEquals(2, body.split("Content-Type: application/dicom\r\n\r\n", -1).length - 1);
+    assertTrue(body.contains("\r\n\r\n" + TEST + "\r\n--"));
+    assertTrue(body.endsWith("--\r\n"));
+  }
+
+  @Test
+  void testShouldRetrieveSingleFrame() throws Exception {
+    // given
+    Path frameDataPath = Files.createTempFile(TEST, TEST);
+    frameDataPath.toFile().deleteOnExit();
+    // when
+    asyncFuseDao.downloadFrame(queryBuilder.setFrameNumber(FRAME_NUMBER)
+        .setInstanceDataPath(frameDataPath)).get(10, TimeUnit.SECONDS);
+    // then
+    assertArrayEquals(frameContent(FRAME_NUMBER), Files.readAllBytes(frameDataPath));
+    assertTrue(downloadAcceptHeaders.get(0).startsWith(
+        "multipart/related; type=\"application/octet-stream\""));
+  }
+
+  @Test
+  void testShouldRequestSeriesMetadata() throws Exception {
+    // given
+    QueryBuilder seriesMetadata = queryBuilder.setInstanceId(null);
+    // when
+    byte[] metadata = asyncFuseDao.downloadMetadata(seriesMetadata).get(10, TimeUnit.SECONDS);
+    // then
+    assertArrayEquals(METADATA, metadata);
+  }
+
+  @Test
+  void testShouldReturnEmptyListingForResponseWithoutBody() throws Exception {
+    // given
+    QueryBuilder emptyStore = queryBuilder.setDicomStoreId(EMPTY);
+    // when
+    List<Study> studies = asyncFuseDao.getStudies(emptyStore).get(10, TimeUnit.SECONDS);
+    // then
+    assertEquals(0, studies.size());
+  }
+
+  @Test
+  void testShouldRetryWhenServiceIsUnavailable() throws Exception {
+    // given
+    QueryBuilder busyStore = queryBuilder.setDicomStoreId(BUSY);
+    // when
+    List<Study> studies = asyncFuseDao.getStudies(busyStore).get(10, TimeUnit.SECONDS);
+    // then
+    assertEquals(2, studies.size());
+    assertEquals(2, busyResponses.get());
+  }
+
+  @Test
+  void testShouldKeepStatusCodeOfFailedRequest() {
+    // given
+    FuseDao fuseDao = new BlockingFuseDao(asyncFuseDao);
+    QueryBuilder missingInstance = queryBuilder.setInstanceId("missing");
+    // when
+    DicomFuseException exception = assertThrows(DicomFuseException.class,
+        () -> fuseDao.deleteInstance(missingInstance));
+    // then
+    assertEquals(HttpStatusCodes.STATUS_CODE_NOT_FOUND, exception.getStatusCode());
+  }
+
+  @Test
+  void testShouldRequestAndDecodeCompressedListing() throws Exception {
+    // when
+    List<Study> studies = asyncFuseDao.getStudies(queryBuilder).get(10, TimeUnit.SECONDS);
+    // then
+    assertEquals(2, studies.size());
+    assertEquals("1", studies.get(0).getStudyInstanceUID());
+    assertEquals(1, compressedResponses.get());
+  }
+
+  private static byte[] gzip(byte[] content) {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (OutputStream outputStream = new GZIPOutputStream(compressed)) {
+      outputStream.write(content);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return compressed.toByteArray();
+  }
+
+  private static byte[] frameContent(int frameNumber) {
+    return Arrays.copyOfRange(INSTANCE_CONTENT, frameNumber * 1024, (frameNumber + 1) * 1024);
+  }
+
+  private static byte[] prepareFrameBody(int frameNumber) {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    byte[] partHeader = ("--" + BOUNDARY + "\r\nContent-Type: application/octet-stream\r\n\r\n")
+        .getBytes(UTF_8);
+    body.write(partHeader, 0, partHeader.length);
+    byte[] frame = frameContent(frameNumber);
+    body.write(frame, 0, frame.length);
+    byte[] closeDelimiter = ("\r\n--" + BOUNDARY + "--").getBytes(UTF_8);
+    body.write(closeDelimiter, 0, closeDelimiter.length);
+    return body.toByteArray();
+  }
+
+  private static byte[] prepareSeriesBody() {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    byte[] partHeader = ("--" + BOUNDARY + "\r\nContent-Type: application/dicom\r\n\r\n")
+        .getBytes(UTF_8);
+    byte[] lineBreak = "\r\n".getBytes(UTF_8);
+    for (byte[] instance : new byte[][] {INSTANCE_CONTENT, TEST.getBytes(UTF_8)}) {
+      body.write(partHeader, 0, partHeader.length);
+      body.write(instance, 0, instance.length);
+      body.write(lineBreak, 0, lineBreak.length);
+    }
+    byte[] closeDelimiter = ("--" + BOUNDARY + "--").getBytes(UTF_8);
+    body.write(closeDelimiter, 0, closeDelimiter.length);
+    return body.toByteArray();
+  }
+
+  private class StandInHandler implements AsyncServerRequestHandler<Message<HttpRequest, byte[]>> {
+
+    @Override
+    public AsyncRequestConsumer<Message<HttpRequest, byte[]>> prepare(HttpRequest request,
+        EntityDetails entityDetails, HttpContext context) {
+      return new BasicRequestConsumer<>(
+          entityDetails != null ? new BasicAsyncEntityConsumer() : null);
+    }
+
+    @Override
+    public void handle(Message<HttpRequest, byte[]> message, ResponseTrigger responseTrigger,
+        HttpContext context) {
+      HttpRequest request = message.getHead();
+      String path = request.getPath();
+      byte[] studies = ("[{\"0020000D\":{\"vr\":\"UI\",\"Value\":[\"1\"]}},"
+          + "{\"0020000D\":{\"vr\":\"UI\",\"Value\":[\"2\"]}}]").getBytes(UTF_8);
+      if (path.contains("/dicomStores/" + BUSY + "/") && busyResponses.get() < 2) {
+        busyResponses.incrementAndGet();
+        submit(responseTrigger, context, HttpStatusCodes.STATUS_CODE_SERVICE_UNAVAILABLE,
+            new byte[0], ContentType.APPLICATION_JSON);
+      } else if (path.contains("/dicomStores/" + EMPTY + "/")) {
+        submit(responseTrigger, context, HttpStatusCodes.STATUS_CODE_OK, null, null);
+      } else if ("GET".equals(request.getMethod()) && path.contains("/studies/?")) {
+        int inFlight = inFlightRequests.incrementAndGet();
+        maxInFlightRequests.accumulateAndGet(inFlight, Math::max);
+        // Responses are delayed so that all requests are in flight at the same time
+        Header acceptEncoding = request.getFirstHeader(HttpHeaders.ACCEPT_ENCODING);
+        boolean compressed = acceptEncoding != null && acceptEncoding.getValue().contains("gzip");
+        responseScheduler.schedule(() -> {
+          inFlightRequests.decrementAndGet();
+          if (compressed) {
+            compressedResponses.incrementAndGet();
+          }
+          submit(responseTrigger, context, HttpStatusCodes.STATUS_CODE_OK,
+              compressed ? gzip(studies) : studies, ContentType.APPLICATION_JSON, compressed);
+        }, RESPONSE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+      } else if ("GET".equals(request.getMethod()) && path.endsWith("/instances/" + TEST)) {
+        synchronized (downloadAcceptHeaders) {
+          downloadAcceptHeaders.add(request.getFirstHeader(HttpHeaders.ACCEPT).getValue());
+        }
+        submit(responseTrigger, context, HttpStatusCodes.STATUS_CODE_OK, INSTANCE_CONTENT,
+            ContentType.create("application/dicom"));
+      } else if ("GET".equals(request.getMethod())
+          && path.endsWith("/instances/" + TEST + "/frames/" + FRAME_NUMBER)) {
+        synchronized (downloadAcceptHeaders) {
+          downloadAcceptHeaders.add(request.getFirstHeader(HttpHeaders.ACCEPT).getValue());
+        }
+        submit(responseTrigger, context, HttpStatusCodes.STATUS_CODE_OK,
+            prepareFrameBody(FRAME_NUMBER), ContentType.parse("multipart/related; "
+                + "type=\"application/octet-stream\"; boundary=" + BOUNDARY));
+      } else if ("GET".equals(request.getMethod())
+          && path.endsWith("/series/" + TEST + "/metadata")) {
+        submit(responseTrigger, context, HttpStatusCodes.STATUS_CODE_OK, gzip(METADATA),
+            ContentType.create("application/dicom+json"), true);
+      } else if ("GET".equals(request.getMethod()) && path.endsWith("/series/" + TEST)) {
+        submit(responseTrigger, context, HttpStatusCodes.STATUS_CODE_OK, prepareSeriesBody(),
+            ContentType.parse("multipart/related; type=\"application/dicom\"; boundary="
+                + BOUNDARY));
+      } else if ("POST".equals(request.getMethod()) && path.endsWith("/studies/")) {
+        synchronized (uploadedBodies) {
+          uploadedBodies.add(message.getBody());
+        }
+        if (path.contains("/dicomStores/" + PARTIAL + "/")) {
+          byte[] failures = ("<NativeDicomModel><DicomAttribute tag=\"00081198\" vr=\"SQ\">"
+              + "<Item number=\"1\"><DicomAttribute tag=\"00081155\" vr=\"UI\">"
+              + "<Value number=\"1\">" + FAILED_SOP_INSTANCE_UID + "</Value>"
+              + "</DicomAttribute></Item></DicomAttribute></NativeDicomModel>").getBytes(UTF_8);
+          submit(responseTrigger, context, HttpStatus.SC_ACCEPTED, failures,
+              ContentType.create("application/dicom+xml"));
+          return;
+        }
+        submit(responseTrigger, context, HttpStatusCodes.STATUS_CODE_OK, new byte[0],
+            ContentType.APPLICATION_JSON);
+      } else {
+        submit(responseTrigger, context, HttpStatusCodes.STATUS_CODE_NOT_FOUND, new byte[0],
+            ContentType.APPLICATION_JSON);
+      }
+    }
+
+    private void submit(ResponseTrigger responseTrigger, HttpContext context, int statusCode,
+        byte[] body, ContentType contentType) {
+      submit(responseTrigger, context, statusCode, body, contentType, false);
+    }
+
+    private void submit(ResponseTrigger responseTrigger, HttpContext context, int statusCode,
+        byte[] body, ContentType contentType, boolean gzip) {
+      try {
+        AsyncResponseBuilder responseBuilder = AsyncResponseBuilder.create(statusCode);
+        if (body != null) {
+          responseBuilder.setEntity(AsyncEntityProducers.create(body, contentType));
+        }
+        if (gzip) {
+          responseBuilder.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+        }
+        responseTrigger.submitResponse(responseBuilder.build(), context);
+      } catch (HttpException | IOException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+}
@@ -36,6 +36,7 @@ import com.google.dicomwebfuse.exception.DicomFuseException;
 import java.io.IOException;
 import java.util.List;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
@@ -46,6 +47,7 @@ class FuseDaoHelperTest {
   private static AuthAdc authAdc;
   private static CloudConf cloudConf;
   private static DicomPath dicomPath;
+  private static PaginationExecutor paginationExecutor;
 
   @BeforeAll
   static void setup() {
@@ -58,6 +60,12 @@ class FuseDaoHelperTest {
         .fileName(TEST)
         .build();
     authAdc = TestUtils.prepareAuthAdc(TEST);
+    paginationExecutor = new PaginationExecutor(3);
+  }
+
+  @AfterAll
+  static void tearDown() {
+    paginationExecutor.close();
   }
 
   @Test
@@ -71,9 +79,10 @@ class FuseDaoHelperTest {
     HttpClientFactory httpClientFactory = TestUtils.prepareHttpClientFactory(closeableHttpClient);
     TestUtils.prepareHttpClient(closeableHttpClient, expectedStudiesCount, STUDY,
         expectedStatusCode);
-    FuseDao fuseDao = new FuseDaoImpl(authAdc, httpClientFactory);
+    FuseDao fuseDao = TestUtils.prepareFuseDao(authAdc, httpClientFactory);
     // when
-    List<Study> actualStudyList = FuseDaoHelper.getStudies(fuseDao, cloudConf, dicomPath);
+    List<Study> actualStudyList = FuseDaoHelper.getStudies(
+        new ExecutorAsyncFuseDao(fuseDao, paginationExecutor), 3, cloudConf, dicomPath);
     // then
     assertEquals(expectedStudiesCount, actualStudyList.size());
   }
@@ -89,13 +98,41 @@ class FuseDaoHelperTest {
     HttpClientFactory httpClientFactory = TestUtils.prepareHttpClientFactory(closeableHttpClient);
     TestUtils.prepareHttpClient(closeableHttpClient, expectedStudiesCount, STUDY,
         expectedStatusCode);
-    FuseDao fuseDao = new FuseDaoImpl(authAdc, httpClientFactory);
+    FuseDao fuseDao = TestUtils.prepareFuseDao(authAdc, httpClientFactory);
     // when
-    List<Study> actualStudyList = FuseDaoHelper.getStudies(fuseDao, cloudConf, dicomPath);
+    List<Study> actualStudyList = FuseDaoHelper.getStudies(
+        new ExecutorAsyncFuseDao(fuseDao, paginationExecutor), 3, cloudConf, dicomPath);
     // then
     assertEquals(expectedStudiesCount, actualStudyList.size());
   }
 
+  @Test
+  void testShouldRequestPagesUntilShortPageArrives() throws DicomFuseException, IOException {
+    // given
+    int expectedStudiesCount = VALUE_PARAM_MAX_LIMIT_FOR_STUDY * 2 + 2000;
+    int expectedStatusCode = HttpStatusCodes.STATUS_CODE_OK;
+    String studiesPath =
+        "/test/projects/test/locations/test/datasets/test/dicomStores/test/dicomWeb/studies/";
+
+    CloseableHttpClient closeableHttpClient = Mockito.mock(CloseableHttpClient.class);
+    HttpClientFactory httpClientFactory = TestUtils.prepareHttpClientFactory(closeableHttpClient);
+    int[] pageSizes = {VALUE_PARAM_MAX_LIMIT_FOR_STUDY, VALUE_PARAM_MAX_LIMIT_FOR_STUDY, 2000, 0};
+    for (int i = 0, offset = 0; i < pageSizes.length; i++,
+        offset += VALUE_PARAM_MAX_LIMIT_FOR_STUDY) {
+      TestUtils.prepareHttpClient(closeableHttpClient, pageSizes[i], offset, STUDY,
+          expectedStatusCode, studiesPath, "limit=5000&offset=" + offset);
+    }
+    FuseDao fuseDao = TestUtils.prepareFuseDao(authAdc, httpClientFactory);
+    PaginationExecutor executor = new PaginationExecutor(3);
+    // when
+    List<Study> actualStudyList = FuseDaoHelper.getStudies(
+        new ExecutorAsyncFuseDao(fuseDao, executor), 3, cloudConf, dicomPath);
+    // then
+    assertEquals(expectedStudiesCount, actualStudyList.size());
+    // The first page and one batch of three pages
+    assertEquals(4, executor.getStartedTaskCount());
+    executor.close();
+  }
 
   @Test
   void testShouldReturnFourThousandSeriesIfSeriesCountFourThousand()
@@ -108,9 +145,10 @@ class FuseDaoHelperTest {
     HttpClientFactory httpClientFactory = TestUtils.prepareHttpClientFactory(closeableHttpClient);
     TestUtils.prepareHttpClient(closeableHttpClient, expectedSeriesCount, SERIES,
         expectedStatusCode);
-    FuseDao fuseDao = new FuseDaoImpl(authAdc, httpClientFactory);
+    FuseDao fuseDao = TestUtils.prepareFuseDao(authAdc, httpClientFactory);
     // when
-    List<Series> actualSeriesList = FuseDaoHelper.getSeries(fuseDao, cloudConf, dicomPath);
+    List<Series> actualSeriesList = FuseDaoHelper.getSeries(
+        new ExecutorAsyncFuseDao(fuseDao, paginationExecutor), 3, cloudConf, dicomPath);
     // then
     assertEquals(expectedSeriesCount, actualSeriesList.size());
   }
@@ -126,14 +164,14 @@ class FuseDaoHelperTest {
     HttpClientFactory httpClientFactory = TestUtils.prepareHttpClientFactory(closeableHttpClient);
     TestUtils.prepareHttpClient(closeableHttpClient, expectedSeriesCount, SERIES,
         expectedStatusCode);
-    FuseDao fuseDao = new FuseDaoImpl(authAdc, httpClientFactory);
+    FuseDao fuseDao = TestUtils.prepareFuseDao(authAdc, httpClientFactory);
     // when
-    List<Series> actualSeriesList = FuseDaoHelper.getSeries(fuseDao, cloudConf, dicomPath);
+    List<Series> actualSeriesList = FuseDaoHelper.getSeries(
+        new ExecutorAsyncFuseDao(fuseDao, paginationExecutor), 3, cloudConf, dicomPath);
     // then
     assertEquals(expectedSeriesCount, actualSeriesList.size());
   }
 
-
   @Test
   void testShouldReturnFifteenThousandInstancesIfInstancesCountFifteenThousand()
       throws DicomFuseException, IOException {
@@ -145,9 +183,10 @@ class FuseDaoHelperTest {
     HttpClientFactory httpClientFactory = TestUtils.prepareHttpClientFactory(closeableHttpClient);
     TestUtils.prepareHttpClient(closeableHttpClient, expectedInstancesCount, INSTANCE,
         expectedStatusCode);
-    FuseDao fuseDao = new FuseDaoImpl(authAdc, httpClientFactory);
+    FuseDao fuseDao = TestUtils.prepareFuseDao(authAdc, httpClientFactory);
     // when
-    List<Instance> actualInstancesList = FuseDaoHelper.getInstances(fuseDao, cloudConf, dicomPath);
+    List<Instance> actualInstancesList = FuseDaoHelper.getInstances(
+        new ExecutorAsyncFuseDao(fuseDao, paginationExecutor), 3, cloudConf, dicomPath);
     // then
     assertEquals(expectedInstancesCount, actualInstancesList.size());
   }
@@ -0,0 +1,90 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.dicomwebfuse.dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.dicomwebfuse.TestUtils;
+import com.google.dicomwebfuse.dao.http.HttpClientFactoryImpl;
+import com.google.dicomwebfuse.dao.limiter.AdaptiveLimiters;
+import com.google.dicomwebfuse.dao.retry.RetryBudget;
+import com.google.dicomwebfuse.dao.retry.RetryPolicy;
+import com.google.dicomwebfuse.dao.spec.QueryBuilder;
+import com.google.dicomwebfuse.entities.CloudConf;
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import com.google.dicomwebfuse.metrics.MetricsRegistry;
+import com.google.dicomwebfuse.standin.DicomWebStandIn;
+import com.google.dicomwebfuse.standin.StandInDataset;
+import com.google.dicomwebfuse.standin.SyntheticDataset;
+import java.io.IOException;
+import java.io.StringWriter;
+import org.junit.jupiter.api.Test;
+
+class HealthcareApiCallMetricsTest {
+
+  private static final String TEST = "test";
+
+  @Test
+  void testShouldRecordCallsByMethodAndStatus() throws Exception {
+    // given
+    StandInDataset dataset = new StandInDataset();
+    new SyntheticDataset(0).setFrameSize(16).generate(dataset);
+    MetricsRegistry metricsRegistry = new MetricsRegistry();
+    QueryBuilder queryBuilder = QueryBuilder.forConfiguration(new CloudConf("v1", TEST, TEST, TEST))
+        .setDicomStoreId(SyntheticDataset.storeId(1))
+        .setStudyId(SyntheticDataset.studyUid(1, 1))
+        .setSeriesId(SyntheticDataset.seriesUid(1, 1, 1))
+        .setInstanceId(SyntheticDataset.sopUid(1, 1, 1, 1));
+    DicomFuseException notFound;
+    try (HttpClientFactoryImpl httpClientFactory = new HttpClientFactoryImpl(10, 10, 60)) {
+      FuseDaoImpl fuseDao;
+      try (DicomWebStandIn standIn = new DicomWebStandIn(dataset)) {
+        fuseDao = new FuseDaoImpl(TestUtils.prepareAuthAdc(TEST), httpClientFactory,
+            standIn.start(), new AdaptiveLimiters(10), new RetryPolicy(0, 0, new RetryBudget(0)));
+        fuseDao.registerMetrics(metricsRegistry);
+        // when
+        fuseDao.getStudies(queryBuilder);
+        fuseDao.deleteInstance(queryBuilder);
+        notFound = assertThrows(DicomFuseException.class,
+            () -> fuseDao.getSingleDicomStore(QueryBuilder.forConfiguration(
+                new CloudConf("v1", TEST, TEST, TEST)).setDicomStoreId(TEST)));
+      }
+      // The stand-in is closed, so the call fails without a response
+      assertThrows(DicomFuseException.class, () -> fuseDao.getStudies(queryBuilder));
+    }
+    // then
+    assertEquals(404, notFound.getStatusCode());
+    String metrics = write(metricsRegistry);
+    assertCount(metrics, "getStudies", "200");
+    assertCount(metrics, "deleteInstance", "200");
+    assertCount(metrics, "getSingleDicomStore", "404");
+    assertCount(metrics, "getStudies", "none");
+  }
+
+  private static void assertCount(String metrics, String method, String status) {
+    String sample = "dicomfuse_healthcare_api_call_duration_seconds_count{method=\"" + method
+        + "\",status=\"" + status + "\"} 1\n";
+    assertTrue(metrics.contains(sample), "Missing " + sample);
+  }
+
+  private static String write(MetricsRegistry metricsRegistry) throws IOException {
+    StringWriter writer = new StringWriter();
+    metricsRegistry.write(writer);
+    return writer.toString();
+  }
+}
@@ -0,0 +1,113 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.dicomwebfuse.TestUtils;
+import com.google.dicomwebfuse.dao.http.Http2ClientFactoryImpl;
+import com.google.dicomwebfuse.dao.http.HttpClientFactoryImpl;
+import com.google.dicomwebfuse.dao.limiter.AdaptiveLimiters;
+import com.google.dicomwebfuse.dao.retry.RetryBudget;
+import com.google.dicomwebfuse.dao.retry.RetryPolicy;
+import com.google.dicomwebfuse.dao.spec.QueryBuilder;
+import com.google.dicomwebfuse.entities.CloudConf;
+import com.google.dicomwebfuse.standin.DicomWebStandIn;
+import com.google.dicomwebfuse.standin.StandInDataset;
+import com.google.dicomwebfuse.standin.SyntheticDataset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+class HealthcareApiRequestEventTest {
+
+  private static final String TEST = "test";
+  private static final String EVENT_NAME = "com.google.dicomwebfuse.HealthcareApiRequest";
+
+  @Test
+  void testShouldRecordRequestsWhenEnabled() throws Exception {
+    // given
+    StandInDataset dataset = new StandInDataset();
+    new SyntheticDataset(0).setFrameSize(16).generate(dataset);
+    Path recordingPath = Files.createTempFile(TEST, ".jfr");
+    List<RecordedEvent> events;
+    try (DicomWebStandIn standIn = new DicomWebStandIn(dataset);
+        HttpClientFactoryImpl httpClientFactory = new HttpClientFactoryImpl(10, 10, 60);
+        Recording recording = new Recording()) {
+      FuseDao fuseDao = TestUtils.prepareFuseDao(TestUtils.prepareAuthAdc(TEST), httpClientFactory,
+          standIn.start());
+      recording.enable(EVENT_NAME).withoutThreshold();
+      recording.start();
+      // when
+      fuseDao.getStudies(QueryBuilder.forConfiguration(new CloudConf("v1", TEST, TEST, TEST))
+          .setDicomStoreId(SyntheticDataset.storeId(1)));
+      recording.stop();
+      recording.dump(recordingPath);
+      events = RecordingFile.readAllEvents(recordingPath).stream()
+          .filter(event -> event.getEventType().getName().equals(EVENT_NAME))
+          .collect(Collectors.toList());
+    } finally {
+      Files.delete(recordingPath);
+    }
+    // then
+    assertEquals(1, events.size());
+    RecordedEvent event = events.get(0);
+    assertEquals("GET", event.getString("method"));
+    assertEquals(200, event.getInt("status"));
+    assertTrue(event.getString("uri").contains("/studies"));
+    assertTrue(event.getDuration().toNanos() > 0);
+  }
+
+  @Test
+  void testShouldRecordRequestsOfAsyncDao() throws Exception {
+    // given
+    StandInDataset dataset = new StandInDataset();
+    new SyntheticDataset(0).setFrameSize(16).generate(dataset);
+    Path recordingPath = Files.createTempFile(TEST, ".jfr");
+    List<RecordedEvent> events;
+    try (DicomWebStandIn standIn = new DicomWebStandIn(dataset);
+        Http2ClientFactoryImpl httpClientFactory = new Http2ClientFactoryImpl(60);
+        Recording recording = new Recording()) {
+      AsyncFuseDao asyncFuseDao = new AsyncFuseDaoImpl(TestUtils.prepareAuthAdc(TEST),
+          httpClientFactory, standIn.start(), new AdaptiveLimiters(10),
+          new RetryPolicy(0, 0, new RetryBudget(0)));
+      recording.enable(EVENT_NAME).withoutThreshold();
+      recording.start();
+      // when
+      asyncFuseDao.getStudies(QueryBuilder.forConfiguration(new CloudConf("v1", TEST, TEST, TEST))
+          .setDicomStoreId(SyntheticDataset.storeId(1))).get();
+      recording.stop();
+      recording.dump(recordingPath);
+      events = RecordingFile.readAllEvents(recordingPath).stream()
+          .filter(event -> event.getEventType().getName().equals(EVENT_NAME))
+          .collect(Collectors.toList());
+    } finally {
+      Files.delete(recordingPath);
+    }
+    // then
+    assertEquals(1, events.size());
+    RecordedEvent event = events.get(0);
+    assertEquals("GET", event.getString("method"));
+    assertEquals(200, event.getInt("status"));
+    assertTrue(event.getString("uri").contains("/studies"));
+    assertTrue(event.getDuration().toNanos() > 0);
+  }
+}
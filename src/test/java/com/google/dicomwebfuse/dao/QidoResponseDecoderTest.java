@@ -0,0 +1,95 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.google.dicomwebfuse.entities.Instance;
+import com.google.dicomwebfuse.entities.Study;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class QidoResponseDecoderTest {
+
+  private final QidoResponseDecoder decoder = new QidoResponseDecoder(new JsonFactory());
+
+  @Test
+  void testShouldDecodeInstancesAndSkipOtherAttributes() throws IOException {
+    // given
+    String json = "[{\"00080005\":{\"vr\":\"CS\",\"Value\":[\"ISO_IR 100\"]},"
+        + "\"00100010\":{\"vr\":\"PN\",\"Value\":[{\"Alphabetic\":\"Doe^John\"}]},"
+        + "\"0020000D\":{\"vr\":\"UI\",\"Value\":[\"1.2\"]},"
+        + "\"0020000E\":{\"vr\":\"UI\",\"Value\":[\"1.2.3\"]},"
+        + "\"00080018\":{\"vr\":\"UI\",\"Value\":[\"1.2.3.4\"]}},"
+        + "{\"0020000D\":{\"vr\":\"UI\",\"Value\":[\"1.2\"]},"
+        + "\"0020000E\":{\"vr\":\"UI\",\"Value\":[\"1.2.3\"]},"
+        + "\"00080018\":{\"vr\":\"UI\",\"Value\":[\"1.2.3.5\"]}}]";
+    // when
+    List<Instance> instances = decoder.decodeInstances(toInputStream(json));
+    // then
+    assertEquals(2, instances.size());
+    assertEquals(new Instance("1.2", "1.2.3", "1.2.3.4"), instances.get(0));
+    assertEquals(new Instance("1.2", "1.2.3", "1.2.3.5"), instances.get(1));
+    assertSame(instances.get(0).getSeriesInstanceUID(), instances.get(1).getSeriesInstanceUID());
+  }
+
+  @Test
+  void testShouldDecodeNumberOfFrames() throws IOException {
+    // given
+    String json = "[{\"00080018\":{\"vr\":\"UI\",\"Value\":[\"1.2.3.4\"]},"
+        + "\"00280008\":{\"vr\":\"IS\",\"Value\":[120]}},"
+        + "{\"00080018\":{\"vr\":\"UI\",\"Value\":[\"1.2.3.5\"]},"
+        + "\"00280008\":{\"vr\":\"IS\",\"Value\":[\"8\"]}},"
+        + "{\"00080018\":{\"vr\":\"UI\",\"Value\":[\"1.2.3.6\"]}}]";
+    // when
+    List<Instance> instances = decoder.decodeInstances(toInputStream(json));
+    // then
+    assertEquals(3, instances.size());
+    assertEquals(120, instances.get(0).getNumberOfFrames());
+    assertEquals(8, instances.get(1).getNumberOfFrames());
+    assertEquals(0, instances.get(2).getNumberOfFrames());
+  }
+
+  @Test
+  void testShouldSkipResultsWithoutUid() throws IOException {
+    // given
+    String json = "[{\"0020000D\":{\"vr\":\"UI\"}},{\"0020000D\":{\"vr\":\"UI\",\"Value\":[\"1\"]}}]";
+    // when
+    List<Study> studies = decoder.decodeStudies(toInputStream(json));
+    // then
+    assertEquals(1, studies.size());
+    assertEquals("1", studies.get(0).getStudyInstanceUID());
+  }
+
+  @Test
+  void testShouldThrowExceptionIfResponseIsNotArray() {
+    // given
+    String json = "{\"error\":\"message\"}";
+    // when then
+    assertThrows(JsonParseException.class, () -> decoder.decodeStudies(toInputStream(json)));
+  }
+
+  private static InputStream toInputStream(String json) {
+    return new ByteArrayInputStream(json.getBytes(UTF_8));
+  }
+}
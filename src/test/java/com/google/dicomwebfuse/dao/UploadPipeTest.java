@@ -0,0 +1,105 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class UploadPipeTest {
+
+  @Test
+  void testShouldReadWritesInOrderUntilClosed() throws Exception {
+    // given
+    UploadPipe uploadPipe = new UploadPipe(1024);
+    // when
+    uploadPipe.write(new byte[] {1, 2});
+    uploadPipe.write(new byte[] {3});
+    uploadPipe.close();
+    // then
+    assertArrayEquals(new byte[] {1, 2, 3},
+        ByteStreams.toByteArray(uploadPipe.getInputStream()));
+  }
+
+  @Test
+  void testShouldBlockWriterWhileFull() throws Exception {
+    // given
+    UploadPipe uploadPipe = new UploadPipe(2);
+    uploadPipe.write(new byte[] {1, 2});
+    // when
+    CompletableFuture<Void> write = CompletableFuture.runAsync(() -> {
+      try {
+        uploadPipe.write(new byte[] {3});
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    // then
+    Thread.sleep(100);
+    assertFalse(write.isDone());
+    assertEquals(2, uploadPipe.getInputStream().read(new byte[2], 0, 2));
+    write.get(10, TimeUnit.SECONDS);
+  }
+
+  @Test
+  void testShouldFailBlockedWriterWhenRequestFails() throws Exception {
+    // given
+    UploadPipe uploadPipe = new UploadPipe(1);
+    uploadPipe.write(new byte[] {1});
+    CompletableFuture<Void> write = CompletableFuture.runAsync(() -> {
+      try {
+        uploadPipe.write(new byte[] {2});
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    // when
+    uploadPipe.fail(new IOException("Connection reset"));
+    // then
+    ExecutionException exception = assertThrows(ExecutionException.class,
+        () -> write.get(10, TimeUnit.SECONDS));
+    assertTrue(exception.getCause().getCause() instanceof IOException);
+    assertThrows(IOException.class, () -> uploadPipe.getInputStream().read());
+  }
+
+  @Test
+  void testShouldRunListenerWhenPolledBytesArrive() throws Exception {
+    // given
+    UploadPipe uploadPipe = new UploadPipe(1024);
+    CountDownLatch dataArrived = new CountDownLatch(1);
+    // when
+    ByteBuffer firstChunk = uploadPipe.poll(dataArrived::countDown);
+    uploadPipe.write(new byte[] {1});
+    uploadPipe.close();
+    // then
+    assertNull(firstChunk);
+    assertTrue(dataArrived.await(10, TimeUnit.SECONDS));
+    assertEquals(1, uploadPipe.poll(() -> { }).remaining());
+    assertSame(UploadPipe.END_OF_DATA, uploadPipe.poll(() -> { }));
+  }
+}
@@ -0,0 +1,94 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao.http;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import org.junit.jupiter.api.Test;
+
+class ContentEncodingTest {
+
+  private static final byte[] CONTENT =
+      "[{\"0020000D\":{\"vr\":\"UI\",\"Value\":[\"1\"]}}]".getBytes(UTF_8);
+
+  @Test
+  void testShouldDecodeGzip() throws IOException {
+    // given
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (OutputStream outputStream = new GZIPOutputStream(compressed)) {
+      outputStream.write(CONTENT);
+    }
+    // when
+    byte[] decoded = read(ContentEncoding.decode(
+        new ByteArrayInputStream(compressed.toByteArray()), "gzip"));
+    // then
+    assertArrayEquals(CONTENT, decoded);
+  }
+
+  @Test
+  void testShouldDecodeZlibAndRawDeflate() throws IOException {
+    // given
+    ByteArrayOutputStream zlib = new ByteArrayOutputStream();
+    try (OutputStream outputStream = new DeflaterOutputStream(zlib)) {
+      outputStream.write(CONTENT);
+    }
+    ByteArrayOutputStream raw = new ByteArrayOutputStream();
+    try (OutputStream outputStream = new DeflaterOutputStream(raw,
+        new Deflater(Deflater.DEFAULT_COMPRESSION, true))) {
+      outputStream.write(CONTENT);
+    }
+    // when
+    byte[] zlibDecoded = read(ContentEncoding.decode(
+        new ByteArrayInputStream(zlib.toByteArray()), "deflate"));
+    byte[] rawDecoded = read(ContentEncoding.decode(
+        new ByteArrayInputStream(raw.toByteArray()), "Deflate"));
+    // then
+    assertArrayEquals(CONTENT, zlibDecoded);
+    assertArrayEquals(CONTENT, rawDecoded);
+  }
+
+  @Test
+  void testShouldPassUncompressedContent() throws IOException {
+    // when
+    byte[] withoutHeader = read(ContentEncoding.decode(new ByteArrayInputStream(CONTENT), null));
+    byte[] identity = read(ContentEncoding.decode(new ByteArrayInputStream(CONTENT),
+        "identity"));
+    // then
+    assertArrayEquals(CONTENT, withoutHeader);
+    assertArrayEquals(CONTENT, identity);
+    assertThrows(IOException.class,
+        () -> ContentEncoding.decode(new ByteArrayInputStream(CONTENT), "compress"));
+  }
+
+  private static byte[] read(InputStream inputStream) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    byte[] buffer = new byte[1024];
+    int length;
+    while ((length = inputStream.read(buffer)) != -1) {
+      outputStream.write(buffer, 0, length);
+    }
+    return outputStream.toByteArray();
+  }
+}
@@ -0,0 +1,97 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.dicomwebfuse.dao.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.dicomwebfuse.standin.DicomWebStandIn;
+import com.google.dicomwebfuse.standin.StandInDataset;
+import com.google.dicomwebfuse.standin.SyntheticDataset;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequests;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.HttpVersion;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class Http2ClientFactoryImplTest {
+
+  private static final long LATENCY_MILLIS = 500;
+  private DicomWebStandIn standIn;
+  private URI studiesUri;
+
+  @BeforeEach
+  void setup() throws Exception {
+    StandInDataset dataset = new StandInDataset();
+    new SyntheticDataset(0).generate(dataset);
+    standIn = new DicomWebStandIn(dataset).setLatencyMillis(LATENCY_MILLIS);
+    studiesUri = URI.create(standIn.start()
+        + "/v1/projects/test/locations/test/datasets/test/dicomStores/"
+        + SyntheticDataset.storeId(1) + "/dicomWeb/studies");
+  }
+
+  @AfterEach
+  void tearDown() {
+    standIn.close();
+  }
+
+  @Test
+  void testShouldMultiplexConcurrentRequestsOverHttp2() throws Exception {
+    // given
+    int requestCount = 10;
+    List<Future<SimpleHttpResponse>> futures = new ArrayList<>();
+    try (Http2ClientFactoryImpl httpClientFactory = new Http2ClientFactoryImpl(60)) {
+      // when
+      long startNanos = System.nanoTime();
+      for (int i = 0; i < requestCount; i++) {
+        futures.add(httpClientFactory.getHttpAsyncClient()
+            .execute(SimpleHttpRequests.get(studiesUri), null));
+      }
+      List<SimpleHttpResponse> responses = new ArrayList<>();
+      for (Future<SimpleHttpResponse> future : futures) {
+        responses.add(future.get(10, TimeUnit.SECONDS));
+      }
+      long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+      // then
+      for (SimpleHttpResponse response : responses) {
+        assertEquals(HttpStatus.SC_OK, response.getCode());
+        assertEquals(HttpVersion.HTTP_2, response.getVersion());
+      }
+      // Sent one after another the requests would take the latency each
+      assertTrue(elapsedMillis < requestCount * LATENCY_MILLIS / 2);
+    }
+  }
+
+  @Test
+  void testShouldStopResponseExecutorOnClose() throws Exception {
+    // given
+    Http2ClientFactoryImpl httpClientFactory = new Http2ClientFactoryImpl(60);
+    // when
+    httpClientFactory.close();
+    // then
+    assertThrows(RejectedExecutionException.class,
+        () -> httpClientFactory.getResponseExecutor().execute(() -> { }));
+  }
+}
@@ -0,0 +1,130 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao.http;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import org.junit.jupiter.api.Test;
+
+class MultipartReaderTest {
+
+  private static final String BOUNDARY = "6f3a1c";
+  // The content contains line breaks and a prefix of the delimiter
+  private static final String FIRST_CONTENT = "DICM\r\n--6f3a\r\n\r\n--6f3";
+  private static final String SECOND_CONTENT = "second\r\n";
+  private static final String BODY = "preamble\r\n"
+      + "--" + BOUNDARY + "\r\n"
+      + "Content-Type: application/dicom\r\n"
+      + "\r\n"
+      + FIRST_CONTENT + "\r\n"
+      + "--" + BOUNDARY + "  \r\n"
+      + "content-type: application/dicom; transfer-syntax=1.2.840.10008.1.2.1\r\n"
+      + "\r\n"
+      + SECOND_CONTENT + "\r\n"
+      + "--" + BOUNDARY + "--\r\n"
+      + "epilogue";
+
+  @Test
+  void testShouldSplitPartsReadOneByteAtATime() throws IOException {
+    // given
+    MultipartReader multipartReader = new MultipartReader(
+        new OneByteInputStream(new ByteArrayInputStream(BODY.getBytes(ISO_8859_1))), BOUNDARY);
+    // when
+    assertTrue(multipartReader.nextPart());
+    String firstContentType = multipartReader.getPartHeader("content-type");
+    String firstContent = read(multipartReader.getPartContent());
+    assertTrue(multipartReader.nextPart());
+    String secondContentType = multipartReader.getPartHeader("Content-Type");
+    String secondContent = read(multipartReader.getPartContent());
+    // then
+    assertEquals("application/dicom", firstContentType);
+    assertEquals(FIRST_CONTENT, firstContent);
+    assertEquals("application/dicom; transfer-syntax=1.2.840.10008.1.2.1", secondContentType);
+    assertEquals(SECOND_CONTENT, secondContent);
+    assertNull(multipartReader.getPartHeader("Content-Location"));
+    assertFalse(multipartReader.nextPart());
+  }
+
+  @Test
+  void testShouldSkipUnreadContentOfPart() throws IOException {
+    // given
+    MultipartReader multipartReader =
+        new MultipartReader(new ByteArrayInputStream(BODY.getBytes(ISO_8859_1)), BOUNDARY);
+    // when
+    assertTrue(multipartReader.nextPart());
+    multipartReader.getPartContent().read();
+    assertTrue(multipartReader.nextPart());
+    // then
+    assertEquals(SECOND_CONTENT, read(multipartReader.getPartContent()));
+    assertFalse(multipartReader.nextPart());
+  }
+
+  @Test
+  void testShouldFailIfBodyEndsInPart() throws IOException {
+    // given
+    String truncatedBody = BODY.substring(0, BODY.indexOf(FIRST_CONTENT) + 3);
+    MultipartReader multipartReader =
+        new MultipartReader(new ByteArrayInputStream(truncatedBody.getBytes(ISO_8859_1)),
+            BOUNDARY);
+    // when
+    assertTrue(multipartReader.nextPart());
+    // then
+    assertThrows(EOFException.class, () -> read(multipartReader.getPartContent()));
+  }
+
+  @Test
+  void testShouldGetBoundaryOfContentType() throws IOException {
+    // then
+    assertEquals(BOUNDARY, MultipartReader.getBoundary(
+        "multipart/related; type=\"application/dicom\"; boundary=" + BOUNDARY));
+    assertEquals(BOUNDARY, MultipartReader.getBoundary(
+        "multipart/related;Boundary=\"" + BOUNDARY + "\";type=\"application/dicom\""));
+    assertThrows(IOException.class, () -> MultipartReader.getBoundary("application/dicom"));
+  }
+
+  private static String read(InputStream inputStream) throws IOException {
+    ByteArrayOutputStream content = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4];
+    int length;
+    while ((length = inputStream.read(buffer)) != -1) {
+      content.write(buffer, 0, length);
+    }
+    return new String(content.toByteArray(), ISO_8859_1);
+  }
+
+  // Returns the body in the smallest possible chunks, so that delimiters are split between reads
+  private static class OneByteInputStream extends FilterInputStream {
+
+    private OneByteInputStream(InputStream inputStream) {
+      super(inputStream);
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      return super.read(bytes, offset, Math.min(length, 1));
+    }
+  }
+}
@@ -0,0 +1,122 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao.limiter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class AdaptiveLimiterTest {
+
+  private static final long LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+  private final AtomicLong clock = new AtomicLong();
+
+  @Test
+  void testShouldIncreaseLimitWhenResponsesAreFast() throws Exception {
+    // given
+    AdaptiveLimiter limiter = new AdaptiveLimiter("test", 2, 10, clock::get);
+    // when
+    for (int i = 0; i < 5; i++) {
+      sendRequests(limiter, limiter.getLimit(), 200, LATENCY_NANOS);
+    }
+    // then
+    assertTrue(limiter.getLimit() > 2);
+    assertEquals(0, limiter.getInFlight());
+  }
+
+  @Test
+  void testShouldHalveLimitOncePerBurstOfTooManyRequests() throws Exception {
+    // given
+    AdaptiveLimiter limiter = new AdaptiveLimiter("test", 8, 10, clock::get);
+    // when
+    sendRequests(limiter, 8, 429, LATENCY_NANOS);
+    // then
+    assertEquals(4, limiter.getLimit());
+  }
+
+  @Test
+  void testShouldDecreaseLimitWhenLatencyGrows() throws Exception {
+    // given
+    AdaptiveLimiter limiter = new AdaptiveLimiter("test", 10, 10, clock::get);
+    sendRequests(limiter, 1, 200, LATENCY_NANOS);
+    // when
+    sendRequests(limiter, 1, 200, LATENCY_NANOS * 5);
+    // then
+    assertEquals(9, limiter.getLimit());
+  }
+
+  @Test
+  void testShouldQueueRequestsAboveLimit() throws Exception {
+    // given
+    AdaptiveLimiter limiter = new AdaptiveLimiter("test", 1, 1, clock::get);
+    AdaptiveLimiter.Permit permit = limiter.acquire();
+    // when
+    CompletableFuture<AdaptiveLimiter.Permit> queued = CompletableFuture.supplyAsync(() -> {
+      try {
+        return limiter.acquire();
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    while (limiter.getQueueDepth() == 0) {
+      Thread.sleep(10);
+    }
+    // then
+    assertEquals(1, limiter.getInFlight());
+    permit.close();
+    queued.get(5, TimeUnit.SECONDS).close();
+    assertEquals(0, limiter.getQueueDepth());
+    assertEquals(0, limiter.getInFlight());
+  }
+
+  @Test
+  void testShouldGrantQueuedPermitsAsynchronouslyInOrder() throws Exception {
+    // given
+    AdaptiveLimiter limiter = new AdaptiveLimiter("test", 1, 1, clock::get);
+    AdaptiveLimiter.Permit permit = limiter.acquireAsync().get();
+    // when
+    CompletableFuture<AdaptiveLimiter.Permit> first = limiter.acquireAsync();
+    CompletableFuture<AdaptiveLimiter.Permit> second = limiter.acquireAsync();
+    // then
+    assertFalse(first.isDone());
+    assertEquals(2, limiter.getQueueDepth());
+    permit.close();
+    assertTrue(first.isDone());
+    assertFalse(second.isDone());
+    first.get().close();
+    second.get().close();
+    assertEquals(0, limiter.getInFlight());
+  }
+
+  private void sendRequests(AdaptiveLimiter limiter, int count, int statusCode,
+      long latencyNanos) throws Exception {
+    List<AdaptiveLimiter.Permit> permits = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      permits.add(limiter.acquire());
+    }
+    clock.addAndGet(latencyNanos);
+    for (AdaptiveLimiter.Permit permit : permits) {
+      permit.onResponse(statusCode);
+      permit.close();
+    }
+  }
+}
@@ -0,0 +1,160 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.dao.retry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class RetryPolicyTest {
+
+  private static final long MAX_DELAY_MILLIS = 1000;
+  private final List<Long> sleeps = new ArrayList<>();
+
+  @Test
+  void testShouldRetryUntilSuccess() throws Exception {
+    // given
+    RetryPolicy retryPolicy = createRetryPolicy(3, 1);
+    AtomicInteger attempts = new AtomicInteger();
+    // when
+    String result = retryPolicy.execute(true, () -> {
+      if (attempts.incrementAndGet() < 3) {
+        throw new RetryableStatusException("Service unavailable", 503, -1);
+      }
+      return "ok";
+    });
+    // then
+    assertEquals("ok", result);
+    assertEquals(3, attempts.get());
+    assertEquals(2, sleeps.size());
+    for (long sleep : sleeps) {
+      assertTrue(sleep >= 100 && sleep <= MAX_DELAY_MILLIS);
+    }
+  }
+
+  @Test
+  void testShouldWaitAsRequestedByRetryAfter() throws Exception {
+    // given
+    RetryPolicy retryPolicy = createRetryPolicy(3, 1);
+    AtomicInteger attempts = new AtomicInteger();
+    // when
+    retryPolicy.execute(true, () -> {
+      if (attempts.incrementAndGet() == 1) {
+        throw new RetryableStatusException("Too many requests", 429, 700);
+      }
+      return null;
+    });
+    // then
+    assertTrue(sleeps.get(0) >= 700);
+  }
+
+  @Test
+  void testShouldRetryNonIdempotentRequestOnlyIfNotProcessed() {
+    // given
+    RetryPolicy retryPolicy = createRetryPolicy(3, 1);
+    AtomicInteger attempts = new AtomicInteger();
+    // when
+    DicomFuseException exception = assertThrows(DicomFuseException.class, () ->
+        retryPolicy.execute(false, () -> {
+          switch (attempts.incrementAndGet()) {
+            case 1:
+              throw new RetryableStatusException("Too many requests", 429, -1);
+            case 2:
+              throw new ConnectException("Connection refused");
+            default:
+              throw new SocketException("Connection reset");
+          }
+        }));
+    // then
+    assertEquals(3, attempts.get());
+    assertTrue(exception.getCause() instanceof SocketException);
+  }
+
+  @Test
+  void testShouldStopRetryingWhenBudgetIsExhausted() {
+    // given
+    RetryBudget retryBudget = new RetryBudget(0);
+    RetryPolicy retryPolicy = new RetryPolicy(100, MAX_DELAY_MILLIS, retryBudget, sleeps::add);
+    AtomicInteger attempts = new AtomicInteger();
+    // when
+    assertThrows(DicomFuseException.class, () -> retryPolicy.execute(true, () -> {
+      attempts.incrementAndGet();
+      throw new RetryableStatusException("Internal error", 500, -1);
+    }));
+    // then
+    assertEquals(11, attempts.get());
+    assertEquals(1, retryBudget.getExhaustedCount());
+  }
+
+  @Test
+  void testShouldRetryAsynchronouslyUntilSuccess() throws Exception {
+    // given
+    RetryPolicy retryPolicy = createRetryPolicy(3, 1);
+    AtomicInteger attempts = new AtomicInteger();
+    // when
+    CompletableFuture<String> result = retryPolicy.executeAsync(true, () -> {
+      CompletableFuture<String> future = new CompletableFuture<>();
+      if (attempts.incrementAndGet() < 2) {
+        future.completeExceptionally(new SocketException("Connection reset"));
+      } else {
+        future.complete("ok");
+      }
+      return future;
+    });
+    // then
+    assertEquals("ok", result.get(5, TimeUnit.SECONDS));
+    assertEquals(2, attempts.get());
+  }
+
+  @Test
+  void testShouldFailAsynchronouslyWithDicomFuseException() {
+    // given
+    RetryPolicy retryPolicy = createRetryPolicy(3, 1);
+    // when
+    CompletableFuture<String> result = retryPolicy.executeAsync(true, () -> {
+      CompletableFuture<String> future = new CompletableFuture<>();
+      future.completeExceptionally(new DicomFuseException("Not found", 404));
+      return future;
+    });
+    // then
+    ExecutionException exception = assertThrows(ExecutionException.class,
+        () -> result.get(5, TimeUnit.SECONDS));
+    assertEquals(404, ((DicomFuseException) exception.getCause()).getStatusCode());
+  }
+
+  @Test
+  void testShouldParseRetryAfter() {
+    assertEquals(2000, RetryPolicy.parseRetryAfterMillis("2"));
+    assertEquals(0, RetryPolicy.parseRetryAfterMillis("Wed, 21 Oct 2015 07:28:00 GMT"));
+    assertEquals(-1, RetryPolicy.parseRetryAfterMillis("soon"));
+    assertEquals(-1, RetryPolicy.parseRetryAfterMillis(null));
+  }
+
+  private RetryPolicy createRetryPolicy(int maxRetries, double retryRatio) {
+    return new RetryPolicy(maxRetries, MAX_DELAY_MILLIS, new RetryBudget(retryRatio),
+        sleeps::add);
+  }
+}
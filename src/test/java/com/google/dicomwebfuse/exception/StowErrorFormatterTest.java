@@ -16,6 +16,9 @@ package com.google.dicomwebfuse.exception;
 
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
 import org.junit.jupiter.api.Test;
 
 
@@ -78,4 +81,30 @@ class StowErrorFormatterTest {
         StowErrorFormatter.formatByMimeType(plaintext, "something unknown"
         ));
   }
+
+  @Test
+  void testFailedInstancesShouldBeMappedByUid() {
+    String rawString = "<NativeDicomModel>"
+        + "<DicomAttribute tag=\"00081198\" vr=\"SQ\" keyword=\"FailedSOPSequence\">"
+        + "<Item number=\"1\">"
+        + "<DicomAttribute tag=\"00081155\" vr=\"UI\" keyword=\"ReferencedSOPInstanceUID\">"
+        + "<Value number=\"1\">1.2.3</Value></DicomAttribute>"
+        + "<DicomAttribute tag=\"00081197\" vr=\"US\" keyword=\"FailureReason\">"
+        + "<Value number=\"1\">272</Value></DicomAttribute>"
+        + "</Item></DicomAttribute>"
+        + "<DicomAttribute tag=\"00081199\" vr=\"SQ\" keyword=\"ReferencedSOPSequence\">"
+        + "<Item number=\"1\">"
+        + "<DicomAttribute tag=\"00081155\" vr=\"UI\" keyword=\"ReferencedSOPInstanceUID\">"
+        + "<Value number=\"1\">1.2.4</Value></DicomAttribute>"
+        + "</Item></DicomAttribute>"
+        + "</NativeDicomModel>";
+
+    Map<String, String> failedInstances =
+        StowErrorFormatter.formatFailedInstances(rawString, "application/dicom+xml");
+
+    assertEquals(1, failedInstances.size());
+    assertTrue(failedInstances.get("1.2.3").contains("FailureReason"));
+    assertTrue(StowErrorFormatter.formatFailedInstances(rawString, "application/json")
+        .isEmpty());
+  }
 }
@@ -18,20 +18,16 @@ import static com.google.dicomwebfuse.EntityType.DICOM_STORE;
 import static com.google.dicomwebfuse.EntityType.INSTANCE;
 import static com.google.dicomwebfuse.EntityType.SERIES;
 import static com.google.dicomwebfuse.EntityType.STUDY;
-import static com.google.dicomwebfuse.dao.Constants.MAX_INSTANCES_IN_SERIES;
-import static com.google.dicomwebfuse.dao.Constants.MAX_SERIES_IN_STUDY;
-import static com.google.dicomwebfuse.dao.Constants.MAX_STUDIES_IN_DICOM_STORE;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
-import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 
 import com.google.api.client.http.HttpStatusCodes;
 import com.google.dicomwebfuse.TestUtils;
 import com.google.dicomwebfuse.auth.AuthAdc;
 import com.google.dicomwebfuse.dao.FuseDao;
-import com.google.dicomwebfuse.dao.FuseDaoImpl;
 import com.google.dicomwebfuse.dao.http.HttpClientFactory;
 import com.google.dicomwebfuse.entities.CloudConf;
 import com.google.dicomwebfuse.entities.DicomPath;
@@ -49,7 +45,7 @@ import org.mockito.Mockito;
 class DicomFuseHelperTest {
 
   @Test
-  void testShouldSuccessfullyOpenUnlistedStudy() throws IOException, DicomFuseException {
+  void testShouldListAllStudiesPageByPage() throws IOException, DicomFuseException {
     CloseableHttpClient closeableHttpClient = Mockito.mock(CloseableHttpClient.class);
 
     HttpClientFactory httpClientFactory = TestUtils.prepareHttpClientFactory(closeableHttpClient);
@@ -66,8 +62,6 @@ class DicomFuseHelperTest {
         HttpStatusCodes.STATUS_CODE_OK, studiesPath, "limit=5000&offset=10000");
     TestUtils.prepareHttpClient(closeableHttpClient, 1, 15000, STUDY,
         HttpStatusCodes.STATUS_CODE_OK, studiesPath, "limit=5000&offset=15000");
-    TestUtils.prepareHttpClient(closeableHttpClient, 1, 15000, STUDY,
-        HttpStatusCodes.STATUS_CODE_OK, studiesPath, "StudyInstanceUID=15001");
 
     Cache cache = new Cache();
     DicomFuseHelper dicomFuseHelper = prepareDicomFuseHelper(httpClientFactory, cache);
@@ -80,20 +74,20 @@ class DicomFuseHelperTest {
     dicomFuseHelper.updateDir(datasetPath);
     // caching all Studies in the current DICOM Store
     DicomPath dicomStorePath = dicomPathParser.parsePath("/test1");
-    dicomFuseHelper.updateDir(dicomStorePath);
-    // checking that Studies count is 15000 in the cache
-    assertEquals(MAX_STUDIES_IN_DICOM_STORE, cache.getCachedStudies(dicomStorePath).size());
-    // checking that unlisted Study is not in the cache
-    DicomPath unlistedStudyPath = dicomPathParser.parsePath("/test1/15001");
-    assertTrue(cache.isStudyNotExist(unlistedStudyPath));
-    // caching unlisted Study
-    dicomFuseHelper.checkExistingObject(unlistedStudyPath);
-    // checking that Study is in the cache
-    assertFalse(cache.isStudyNotExist(unlistedStudyPath));
+    DirectoryListing.Reader directoryReader = dicomFuseHelper.openDir(dicomStorePath);
+    // checking that the listing returns Studies of all pages in order
+    assertEquals("1", directoryReader.awaitName(0));
+    assertEquals("15001", directoryReader.awaitName(15000));
+    assertNull(directoryReader.awaitName(15001));
+    directoryReader.awaitComplete();
+    // checking that Studies count is 15001 in the cache
+    assertEquals(15001, cache.getCachedStudies(dicomStorePath).size());
+    DicomPath lastStudyPath = dicomPathParser.parsePath("/test1/15001");
+    assertFalse(cache.isStudyNotExist(lastStudyPath));
   }
 
   @Test
-  void testShouldSuccessfullyOpenUnlistedSeries() throws IOException, DicomFuseException {
+  void testShouldListAllSeriesPageByPage() throws IOException, DicomFuseException {
     CloseableHttpClient closeableHttpClient = Mockito.mock(CloseableHttpClient.class);
 
     HttpClientFactory httpClientFactory = TestUtils.prepareHttpClientFactory(closeableHttpClient);
@@ -118,9 +112,6 @@ class DicomFuseHelperTest {
     TestUtils.prepareHttpClient(closeableHttpClient, 1, 15000, SERIES,
         HttpStatusCodes.STATUS_CODE_OK, seriesPath,
         "includefield=0020000D&limit=5000&offset=15000");
-    TestUtils.prepareHttpClient(closeableHttpClient, 1, 15000, SERIES,
-        HttpStatusCodes.STATUS_CODE_OK, seriesPath,
-        "includefield=0020000D&SeriesInstanceUID=15001");
 
     Cache cache = new Cache();
     DicomFuseHelper dicomFuseHelper = prepareDicomFuseHelper(httpClientFactory, cache);
@@ -137,19 +128,14 @@ class DicomFuseHelperTest {
     // caching all Series in the current Study
     DicomPath studyPath = dicomPathParser.parsePath("/test1/1");
     dicomFuseHelper.updateDir(studyPath);
-    // checking that Series count is 15000 in the cache
-    assertEquals(MAX_SERIES_IN_STUDY, cache.getCachedSeries(studyPath).size());
-    // checking that unlisted Series is not in the cache
-    DicomPath unlistedSeriesPath = dicomPathParser.parsePath("/test1/1/15001");
-    assertTrue(cache.isSeriesNotExist(unlistedSeriesPath));
-    // caching unlisted Series
-    dicomFuseHelper.checkExistingObject(unlistedSeriesPath);
-    // checking that Series is in the cache
-    assertFalse(cache.isSeriesNotExist(unlistedSeriesPath));
+    // checking that Series count is 15001 in the cache
+    assertEquals(15001, cache.getCachedSeries(studyPath).size());
+    DicomPath lastSeriesPath = dicomPathParser.parsePath("/test1/1/15001");
+    assertFalse(cache.isSeriesNotExist(lastSeriesPath));
   }
 
   @Test
-  void testShouldSuccessfullyOpenUnlistedInstance() throws IOException, DicomFuseException {
+  void testShouldListAllInstancesPageByPage() throws IOException, DicomFuseException {
     CloseableHttpClient closeableHttpClient = Mockito.mock(CloseableHttpClient.class);
 
     HttpClientFactory httpClientFactory = TestUtils.prepareHttpClientFactory(closeableHttpClient);
@@ -168,13 +154,20 @@ class DicomFuseHelperTest {
         "/test/projects/test/locations/test/datasets/test/dicomStores/test1/dicomWeb/studies/1/series/1/instances/";
     TestUtils.prepareHttpClient(closeableHttpClient, 15000, 0, INSTANCE,
         HttpStatusCodes.STATUS_CODE_OK, instancesPath,
-        "includefield=0020000D&includefield=0020000E&limit=15000&offset=0");
+        "includefield=0020000D&includefield=0020000E&includefield=00280008"
+            + "&limit=15000&offset=0");
     TestUtils.prepareHttpClient(closeableHttpClient, 1, 15000, INSTANCE,
         HttpStatusCodes.STATUS_CODE_OK, instancesPath,
-        "includefield=0020000D&includefield=0020000E&limit=15000&offset=15000");
-    TestUtils.prepareHttpClient(closeableHttpClient, 1, 15000, INSTANCE,
+        "includefield=0020000D&includefield=0020000E&includefield=00280008"
+            + "&limit=15000&offset=15000");
+    TestUtils.prepareHttpClient(closeableHttpClient, 0, 30000, INSTANCE,
+        HttpStatusCodes.STATUS_CODE_OK, instancesPath,
+        "includefield=0020000D&includefield=0020000E&includefield=00280008"
+            + "&limit=15000&offset=30000");
+    TestUtils.prepareHttpClient(closeableHttpClient, 0, 45000, INSTANCE,
         HttpStatusCodes.STATUS_CODE_OK, instancesPath,
-        "includefield=0020000D&includefield=0020000E&SOPInstanceUID=15001");
+        "includefield=0020000D&includefield=0020000E&includefield=00280008"
+            + "&limit=15000&offset=45000");
 
     Cache cache = new Cache();
     DicomFuseHelper dicomFuseHelper = prepareDicomFuseHelper(httpClientFactory, cache);
@@ -194,15 +187,41 @@ class DicomFuseHelperTest {
     // caching all Instances in the current Series
     DicomPath seriesPath = dicomPathParser.parsePath("/test1/1/1");
     dicomFuseHelper.updateDir(seriesPath);
-    // checking that Instances count is 15000 in the cache
-    assertEquals(MAX_INSTANCES_IN_SERIES, cache.getCachedInstances(seriesPath).size());
-    // checking that unlisted Instance is not in the cache
-    DicomPath unlistedInstancePath = dicomPathParser.parsePath("/test1/1/1/15001");
-    assertTrue(cache.isInstanceNotExist(unlistedInstancePath));
-    // caching unlisted Instance
-    dicomFuseHelper.checkExistingObject(unlistedInstancePath);
-    // checking that Instance is in the cache
-    assertFalse(cache.isInstanceNotExist(unlistedInstancePath));
+    // checking that Instances count is 15001 in the cache
+    assertEquals(15001, cache.getCachedInstances(seriesPath).size());
+    DicomPath lastInstancePath = dicomPathParser.parsePath("/test1/1/1/15001");
+    assertFalse(cache.isInstanceNotExist(lastInstancePath));
+  }
+
+  @Test
+  void testOpenDirShouldReportFirstPageErrorAfterMetadataFile()
+      throws IOException, DicomFuseException {
+    CloseableHttpClient closeableHttpClient = Mockito.mock(CloseableHttpClient.class);
+
+    HttpClientFactory httpClientFactory = TestUtils.prepareHttpClientFactory(closeableHttpClient);
+    TestUtils.prepareHttpClient(closeableHttpClient, 1, 0, DICOM_STORE,
+        HttpStatusCodes.STATUS_CODE_OK,
+        "/test/projects/test/locations/test/datasets/test/dicomStores/", null);
+    TestUtils.prepareHttpClient(closeableHttpClient, 1, 0, STUDY,
+        HttpStatusCodes.STATUS_CODE_OK,
+        "/test/projects/test/locations/test/datasets/test/dicomStores/test1/dicomWeb/studies/",
+        "limit=5000&offset=0");
+    TestUtils.prepareHttpClient(closeableHttpClient, 1, 0, SERIES,
+        HttpStatusCodes.STATUS_CODE_FORBIDDEN,
+        "/test/projects/test/locations/test/datasets/test/dicomStores/test1/dicomWeb/studies/1/series/",
+        "includefield=0020000D&limit=5000&offset=0");
+
+    DicomPathCacher dicomPathCacher = new DicomPathCacher();
+    DicomFuseHelper dicomFuseHelper =
+        prepareDicomFuseHelper(httpClientFactory, new Cache(), dicomPathCacher, true);
+    DicomPathParser dicomPathParser = new DicomPathParser(dicomPathCacher);
+
+    dicomFuseHelper.updateDir(dicomPathParser.parsePath("/"));
+    dicomFuseHelper.updateDir(dicomPathParser.parsePath("/test1"));
+    // the metadata file is listed before the first page, which fails
+    DirectoryListing.Reader directoryReader =
+        dicomFuseHelper.openDir(dicomPathParser.parsePath("/test1/1"));
+    assertThrows(DicomFuseException.class, directoryReader::awaitStart);
   }
 
   @Test
@@ -331,12 +350,18 @@ class DicomFuseHelperTest {
 
   private DicomFuseHelper prepareDicomFuseHelper(HttpClientFactory httpClientFactory, Cache cache,
       DicomPathCacher dicomPathCacher) {
+    return prepareDicomFuseHelper(httpClientFactory, cache, dicomPathCacher, false);
+  }
+
+  private DicomFuseHelper prepareDicomFuseHelper(HttpClientFactory httpClientFactory, Cache cache,
+      DicomPathCacher dicomPathCacher, boolean metadataFiles) {
     String TEST = "test";
     AuthAdc authAdc = TestUtils.prepareAuthAdc(TEST);
     CloudConf cloudConf = new CloudConf(TEST, TEST, TEST, TEST);
-    FuseDao fuseDao = new FuseDaoImpl(authAdc, httpClientFactory);
+    FuseDao fuseDao = TestUtils.prepareFuseDao(authAdc, httpClientFactory);
     Arguments arguments = new Arguments();
     arguments.cloudConf = cloudConf;
+    arguments.metadataFiles = metadataFiles;
     Parameters parameters = new Parameters(fuseDao, arguments,
         Platform.getNativePlatform().getOS());
     return new DicomFuseHelper(parameters, dicomPathCacher, cache);
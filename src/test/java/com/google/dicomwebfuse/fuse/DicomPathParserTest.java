@@ -130,6 +130,56 @@ class DicomPathParserTest {
     assertEquals(actualDicomPath, expectedDicomPath);
   }
 
+  @Test
+  void testParsePathShouldParseWhenFramePathProvided() throws DicomFuseException {
+    // given
+    String framePath = "/" + dicomStoreId + "/" + studyInstanceUID + "/" + seriesInstanceUID + "/"
+        + sopInstanceUID + FuseConstants.FRAMES_EXTENSION + "/0012.bin";
+    // when
+    DicomPath actualDicomPath = dicomPathParser.parsePath(framePath);
+    // then
+    DicomPath expectedDicomPath = new DicomPath.Builder(DicomPathLevel.FRAME)
+        .dicomStoreId(dicomStoreId)
+        .studyInstanceUID(studyInstanceUID)
+        .seriesInstanceUID(seriesInstanceUID)
+        .sopInstanceUID(sopInstanceUID)
+        .frameNumber(12)
+        .build();
+    assertEquals(actualDicomPath, expectedDicomPath);
+    assertEquals(framePath.substring(1), actualDicomPath.toString());
+  }
+
+  @Test
+  void testParsePathShouldReturnExceptionIfFrameNameIsInvalid() {
+    // given
+    String invalidFramePath = "/" + dicomStoreId + "/" + studyInstanceUID + "/"
+        + seriesInstanceUID + "/" + sopInstanceUID + FuseConstants.FRAMES_EXTENSION + "/0000.bin";
+    // then
+    assertThrows(DicomFuseException.class, () -> dicomPathParser.parsePath(invalidFramePath));
+  }
+
+  @Test
+  void testParsePathShouldParseWhenMetadataPathsProvided() throws DicomFuseException {
+    // given
+    String studyPath = "/" + dicomStoreId + "/" + studyInstanceUID;
+    String seriesPath = studyPath + "/" + seriesInstanceUID;
+    // when
+    DicomPath studyMetadataPath =
+        dicomPathParser.parsePath(studyPath + "/" + FuseConstants.METADATA_FILE_NAME);
+    DicomPath seriesMetadataPath =
+        dicomPathParser.parsePath(seriesPath + "/" + FuseConstants.METADATA_FILE_NAME);
+    DicomPath instanceMetadataPath = dicomPathParser.parsePath(
+        seriesPath + "/" + sopInstanceUID + FuseConstants.JSON_EXTENSION);
+    // then
+    assertEquals(DicomPathLevel.STUDY_METADATA, studyMetadataPath.getDicomPathLevel());
+    assertEquals(DicomPathLevel.SERIES_METADATA, seriesMetadataPath.getDicomPathLevel());
+    assertEquals(seriesInstanceUID, seriesMetadataPath.getSeriesInstanceUID());
+    assertEquals(DicomPathLevel.INSTANCE_METADATA, instanceMetadataPath.getDicomPathLevel());
+    assertEquals(sopInstanceUID, instanceMetadataPath.getSopInstanceUID());
+    assertEquals(seriesPath.substring(1) + "/" + sopInstanceUID + FuseConstants.JSON_EXTENSION,
+        instanceMetadataPath.toString());
+  }
+
   @Test
   void testParsePathShouldParseWhenNewDcmFileInDicomStoreCreated() throws DicomFuseException {
     // given
@@ -0,0 +1,56 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+class DirectoryListingTest {
+
+  @Test
+  void testShouldReleaseNamesReadByAllReaders() throws Exception {
+    // given
+    DirectoryListing directoryListing = new DirectoryListing(true);
+    directoryListing.addNames(Arrays.asList("1", "2", "3"));
+    DirectoryListing.Reader firstReader = directoryListing.openReader();
+    DirectoryListing.Reader secondReader = directoryListing.openReader();
+    // when
+    assertEquals("3", firstReader.awaitName(2));
+    // then
+    assertFalse(secondReader.isReleased(0));
+    assertEquals("2", secondReader.awaitName(1));
+    assertTrue(firstReader.isReleased(0));
+    assertFalse(firstReader.isReleased(1));
+    secondReader.close();
+    assertTrue(firstReader.isReleased(1));
+    directoryListing.complete();
+    assertNull(firstReader.awaitName(3));
+  }
+
+  @Test
+  void testShouldNotOpenReaderOnceNamesWereReleased() {
+    // given
+    DirectoryListing directoryListing = new DirectoryListing(false);
+    // when
+    directoryListing.addNames(Arrays.asList("1", "2"));
+    // then
+    assertNull(directoryListing.openReader());
+  }
+}
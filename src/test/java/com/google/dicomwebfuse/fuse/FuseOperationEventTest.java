@@ -0,0 +1,75 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.dicomwebfuse.fuse.FuseOperationMetrics.Operation;
+import com.google.dicomwebfuse.fuse.cacher.DicomPathCacher;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+class FuseOperationEventTest {
+
+  private static final String EVENT_NAME = "com.google.dicomwebfuse.FuseOperation";
+  private static final String STORE_PATH = "/store";
+
+  @Test
+  void testShouldRecordCallbacksWhenEnabled() throws Exception {
+    // given
+    DicomPathParser dicomPathParser = new DicomPathParser(new DicomPathCacher());
+    Path recordingPath = Files.createTempFile("test", ".jfr");
+    List<RecordedEvent> events;
+    int firstResult;
+    try (Recording recording = new Recording()) {
+      recording.enable(EVENT_NAME).withoutThreshold();
+      recording.start();
+      // when
+      firstResult = FuseOperationEvent.record(Operation.OPENDIR, STORE_PATH, dicomPathParser,
+          () -> {
+            CacheMisses.increment();
+            return 0;
+          });
+      FuseOperationEvent.record(Operation.READ, STORE_PATH, dicomPathParser, () -> 4096);
+      recording.stop();
+      recording.dump(recordingPath);
+      events = RecordingFile.readAllEvents(recordingPath).stream()
+          .filter(event -> event.getEventType().getName().equals(EVENT_NAME))
+          .collect(Collectors.toList());
+    } finally {
+      Files.delete(recordingPath);
+    }
+    // then
+    assertEquals(0, firstResult);
+    assertEquals(2, events.size());
+    RecordedEvent opendir = events.get(0);
+    assertEquals("opendir", opendir.getString("operation"));
+    assertEquals(STORE_PATH, opendir.getString("path"));
+    assertEquals("DICOM_STORE", opendir.getString("pathLevel"));
+    assertFalse(opendir.getBoolean("cacheHit"));
+    RecordedEvent read = events.get(1);
+    assertEquals("read", read.getString("operation"));
+    assertEquals(4096, read.getLong("bytes"));
+    assertTrue(read.getBoolean("cacheHit"));
+  }
+}
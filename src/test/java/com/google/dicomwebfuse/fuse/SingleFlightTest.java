@@ -0,0 +1,139 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse;
+
+import static com.google.dicomwebfuse.fuse.SingleFlight.Operation.LISTING;
+import static com.google.dicomwebfuse.fuse.SingleFlight.Operation.LOOKUP;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.dicomwebfuse.entities.DicomPath;
+import com.google.dicomwebfuse.entities.DicomPathLevel;
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class SingleFlightTest {
+
+  private static final int CALLER_COUNT = 5;
+  private final DicomPath studyPath = new DicomPath.Builder(DicomPathLevel.STUDY)
+      .dicomStoreId("store")
+      .studyInstanceUID("1")
+      .build();
+
+  @Test
+  void testShouldShareOneCallBetweenConcurrentCallers() throws Exception {
+    // given
+    SingleFlight singleFlight = new SingleFlight();
+    AtomicInteger calls = new AtomicInteger();
+    CountDownLatch callStarted = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService executorService = Executors.newFixedThreadPool(CALLER_COUNT);
+    List<Future<String>> results = new ArrayList<>();
+    // when
+    results.add(executorService.submit(() -> singleFlight.execute(LOOKUP, studyPath, () -> {
+      calls.incrementAndGet();
+      callStarted.countDown();
+      await(release);
+      return "study";
+    })));
+    callStarted.await();
+    for (int i = 1; i < CALLER_COUNT; i++) {
+      results.add(executorService.submit(() -> singleFlight.execute(LOOKUP, studyPath, () -> {
+        calls.incrementAndGet();
+        return "duplicate";
+      })));
+    }
+    // the followers are waiting for the first call
+    while (singleFlight.getCallCount(LOOKUP) < CALLER_COUNT) {
+      Thread.sleep(1);
+    }
+    release.countDown();
+    // then
+    for (Future<String> result : results) {
+      assertEquals("study", result.get(5, TimeUnit.SECONDS));
+    }
+    assertEquals(1, calls.get());
+    assertEquals(CALLER_COUNT - 1, singleFlight.getDeduplicatedCount(LOOKUP));
+    executorService.shutdown();
+  }
+
+  @Test
+  void testShouldPassStatusCodeOfFailedCallToFollowers() throws Exception {
+    // given
+    SingleFlight singleFlight = new SingleFlight();
+    CountDownLatch callStarted = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService executorService = Executors.newFixedThreadPool(2);
+    // when
+    Future<Object> leader = executorService.submit(() -> singleFlight.execute(LOOKUP, studyPath,
+        () -> {
+          callStarted.countDown();
+          await(release);
+          throw new DicomFuseException("Not found", 404);
+        }));
+    callStarted.await();
+    Future<Object> follower = executorService.submit(() -> singleFlight.execute(LOOKUP,
+        studyPath, () -> "unexpected"));
+    while (singleFlight.getCallCount(LOOKUP) < 2) {
+      Thread.sleep(1);
+    }
+    release.countDown();
+    // then
+    ExecutionException leaderException = assertThrows(ExecutionException.class,
+        () -> leader.get(5, TimeUnit.SECONDS));
+    ExecutionException followerException = assertThrows(ExecutionException.class,
+        () -> follower.get(5, TimeUnit.SECONDS));
+    assertEquals(404, ((DicomFuseException) leaderException.getCause()).getStatusCode());
+    assertEquals(404, ((DicomFuseException) followerException.getCause()).getStatusCode());
+    executorService.shutdown();
+  }
+
+  @Test
+  void testShouldShareRunningTaskUntilReleased() {
+    // given
+    SingleFlight singleFlight = new SingleFlight();
+    Object task = new Object();
+    // when
+    Object first = singleFlight.join(LISTING, studyPath, () -> task);
+    Object second = singleFlight.join(LISTING, studyPath, Object::new);
+    singleFlight.release(LISTING, studyPath, task);
+    Object third = singleFlight.join(LISTING, studyPath, Object::new);
+    // then
+    assertSame(task, first);
+    assertSame(task, second);
+    assertEquals(1, singleFlight.getDeduplicatedCount(LISTING));
+    assertEquals(3, singleFlight.getCallCount(LISTING));
+    assertNotSame(task, third);
+  }
+
+  private static void await(CountDownLatch latch) throws DicomFuseException {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      throw new DicomFuseException(e);
+    }
+  }
+}
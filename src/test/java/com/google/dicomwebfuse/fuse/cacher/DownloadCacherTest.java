@@ -0,0 +1,323 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse.cacher;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.mockito.ArgumentMatchers.any;
+
+import com.google.dicomwebfuse.dao.DownloadListener;
+import com.google.dicomwebfuse.dao.FuseDao;
+import com.google.dicomwebfuse.dao.SeriesDownloadListener;
+import com.google.dicomwebfuse.dao.spec.QueryBuilder;
+import com.google.dicomwebfuse.entities.CloudConf;
+import com.google.dicomwebfuse.entities.DicomPath;
+import com.google.dicomwebfuse.entities.DicomPathLevel;
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import com.google.dicomwebfuse.fuse.Parameters;
+import com.google.dicomwebfuse.parser.Arguments;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import jnr.ffi.Platform.OS;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+class DownloadCacherTest {
+
+  private static final String TEST = "test";
+  private static final int HEADER_SIZE = 1024;
+  private static final int INSTANCE_SIZE = 10 * HEADER_SIZE;
+  private static final DicomPath DICOM_PATH = new DicomPath.Builder(DicomPathLevel.INSTANCE)
+      .dicomStoreId(TEST)
+      .studyInstanceUID(TEST)
+      .seriesInstanceUID(TEST)
+      .sopInstanceUID(TEST)
+      .fileName(TEST)
+      .build();
+  private static final DicomPath SERIES_PATH = new DicomPath.Builder(DicomPathLevel.SERIES)
+      .dicomStoreId(TEST)
+      .studyInstanceUID(TEST)
+      .seriesInstanceUID(TEST)
+      .build();
+  private static final String FIRST_SOP_INSTANCE_UID = "1.2.3.4";
+  private static final String SECOND_SOP_INSTANCE_UID = "1.2.3.45";
+  private static final String STORED = "*";
+  private static final String JPEG_2000_LOSSLESS = "1.2.840.10008.1.2.4.90";
+  private static final String JPEG_LS_LOSSLESS = "1.2.840.10008.1.2.4.80";
+
+  @Test
+  void testShouldReadHeaderBeforeStreamingDownloadCompletes() throws Exception {
+    // given
+    CountDownLatch rest = new CountDownLatch(1);
+    FuseDao fuseDao = prepareFuseDao(rest, false);
+    DownloadCacher downloadCacher = new DownloadCacher(prepareParameters(fuseDao));
+    // when
+    long size = downloadCacher.getSize(DICOM_PATH);
+    downloadCacher.awaitRange(DICOM_PATH, 0, HEADER_SIZE);
+    CompletableFuture<Void> tailRead = CompletableFuture.runAsync(() -> {
+      try {
+        downloadCacher.awaitRange(DICOM_PATH, INSTANCE_SIZE - HEADER_SIZE, HEADER_SIZE);
+      } catch (DicomFuseException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    // then
+    assertEquals(INSTANCE_SIZE, size);
+    assertEquals(HEADER_SIZE, Files.size(downloadCacher.getPathIfPresent(DICOM_PATH)));
+    assertFalse(tailRead.isDone());
+    rest.countDown();
+    tailRead.get(5, TimeUnit.SECONDS);
+    assertEquals(INSTANCE_SIZE, Files.size(downloadCacher.getPathIfPresent(DICOM_PATH)));
+  }
+
+  @Test
+  void testShouldFailWaitingReadIfStreamingDownloadFails() throws Exception {
+    // given
+    CountDownLatch rest = new CountDownLatch(1);
+    FuseDao fuseDao = prepareFuseDao(rest, true);
+    DownloadCacher downloadCacher = new DownloadCacher(prepareParameters(fuseDao));
+    downloadCacher.getSize(DICOM_PATH);
+    // when
+    rest.countDown();
+    // then
+    assertThrows(DicomFuseException.class,
+        () -> downloadCacher.awaitRange(DICOM_PATH, HEADER_SIZE, HEADER_SIZE));
+    assertNull(downloadCacher.getPathIfPresent(DICOM_PATH));
+  }
+
+  @Test
+  void testShouldCancelStreamingDownloadOnClose() throws Exception {
+    // given
+    CountDownLatch rest = new CountDownLatch(1);
+    FuseDao fuseDao = prepareFuseDao(rest, false);
+    DownloadCacher downloadCacher = new DownloadCacher(prepareParameters(fuseDao));
+    downloadCacher.getSize(DICOM_PATH);
+    Path path = downloadCacher.getPathIfPresent(DICOM_PATH);
+    // when
+    downloadCacher.close();
+    rest.countDown();
+    // then
+    assertNull(downloadCacher.getPathIfPresent(DICOM_PATH));
+    assertFalse(Files.exists(path));
+  }
+
+  @Test
+  void testShouldFailWaitingReadIfStreamingDownloadThrowsUnexpectedly() throws Exception {
+    // given
+    FuseDao fuseDao = Mockito.mock(FuseDao.class);
+    CountDownLatch rest = new CountDownLatch(1);
+    Mockito.doAnswer(invocation -> {
+      QueryBuilder queryBuilder = invocation.getArgument(0);
+      queryBuilder.getDownloadListener().onStart(INSTANCE_SIZE);
+      rest.await();
+      throw new IllegalStateException("Missing header");
+    }).when(fuseDao).downloadInstance(any());
+    DownloadCacher downloadCacher = new DownloadCacher(prepareParameters(fuseDao));
+    downloadCacher.getSize(DICOM_PATH);
+    // when
+    rest.countDown();
+    // then
+    assertThrows(DicomFuseException.class,
+        () -> downloadCacher.awaitRange(DICOM_PATH, 0, HEADER_SIZE));
+    assertNull(downloadCacher.getPathIfPresent(DICOM_PATH));
+  }
+
+  @Test
+  void testShouldCacheInstancePerTransferSyntax() throws Exception {
+    // given
+    List<String> requestedSyntaxes = new CopyOnWriteArrayList<>();
+    FuseDao fuseDao = prepareFuseDao(requestedSyntaxes, false);
+    Parameters parameters = prepareParameters(fuseDao, false, JPEG_2000_LOSSLESS);
+    DownloadCacher downloadCacher = new DownloadCacher(parameters);
+    // when
+    Path compressedPath = downloadCacher.getPath(DICOM_PATH);
+    Path storedPath = downloadCacher.getPath(DICOM_PATH, STORED);
+    downloadCacher.getPath(DICOM_PATH);
+    // then
+    assertEquals(2, requestedSyntaxes.size());
+    assertEquals(JPEG_2000_LOSSLESS, requestedSyntaxes.get(0));
+    assertEquals(STORED, requestedSyntaxes.get(1));
+    assertNotEquals(compressedPath, storedPath);
+    assertEquals(HEADER_SIZE, Files.size(compressedPath));
+    assertEquals(INSTANCE_SIZE, Files.size(storedPath));
+    downloadCacher.removePath(DICOM_PATH);
+    assertNull(downloadCacher.getPathIfPresent(DICOM_PATH));
+    assertNull(downloadCacher.getPathIfPresent(DICOM_PATH, STORED));
+  }
+
+  @Test
+  void testShouldDownloadStoredSyntaxIfRequestedOneIsNotAcceptable() throws Exception {
+    // given
+    List<String> requestedSyntaxes = new CopyOnWriteArrayList<>();
+    FuseDao fuseDao = prepareFuseDao(requestedSyntaxes, true);
+    Parameters parameters = prepareParameters(fuseDao, false, JPEG_LS_LOSSLESS);
+    DownloadCacher downloadCacher = new DownloadCacher(parameters);
+    // when
+    Path path = downloadCacher.getPath(DICOM_PATH);
+    // then
+    assertEquals(2, requestedSyntaxes.size());
+    assertEquals(JPEG_LS_LOSSLESS, requestedSyntaxes.get(0));
+    assertEquals(STORED, requestedSyntaxes.get(1));
+    assertEquals(INSTANCE_SIZE, Files.size(path));
+  }
+
+  @Test
+  void testShouldCacheInstancesOfRetrievedSeries() throws Exception {
+    // given
+    CountDownLatch retrieved = new CountDownLatch(1);
+    FuseDao fuseDao = Mockito.mock(FuseDao.class);
+    Mockito.doAnswer(invocation -> {
+      QueryBuilder queryBuilder = invocation.getArgument(0);
+      SeriesDownloadListener seriesDownloadListener = queryBuilder.getSeriesDownloadListener();
+      seriesDownloadListener.onInstance(
+          new ByteArrayInputStream(prepareDicomFile(FIRST_SOP_INSTANCE_UID, INSTANCE_SIZE)));
+      seriesDownloadListener.onInstance(
+          new ByteArrayInputStream(prepareDicomFile(SECOND_SOP_INSTANCE_UID, HEADER_SIZE)));
+      retrieved.countDown();
+      return null;
+    }).when(fuseDao).downloadSeries(any());
+    DownloadCacher downloadCacher = new DownloadCacher(prepareParameters(fuseDao, false, STORED));
+    // when
+    downloadCacher.cacheSeries(SERIES_PATH);
+    assertTrue(retrieved.await(5, TimeUnit.SECONDS));
+    // then
+    Path firstPath = downloadCacher.getPath(prepareInstancePath(FIRST_SOP_INSTANCE_UID));
+    Path secondPath = downloadCacher.getPathIfPresent(
+        prepareInstancePath(SECOND_SOP_INSTANCE_UID));
+    assertNotNull(secondPath);
+    assertEquals(INSTANCE_SIZE, Files.size(firstPath));
+    assertEquals(HEADER_SIZE, Files.size(secondPath));
+    assertEquals(HEADER_SIZE,
+        downloadCacher.getIndexedSize(prepareInstancePath(SECOND_SOP_INSTANCE_UID)));
+    Mockito.verify(fuseDao, Mockito.never()).downloadInstance(any());
+  }
+
+  @Test
+  void testShouldRetrieveSeriesAfterInstancesAreDownloadedOneByOne() throws Exception {
+    // given
+    FuseDao fuseDao = prepareFuseDao(new CopyOnWriteArrayList<>(), false);
+    Arguments arguments = new Arguments();
+    arguments.cloudConf = new CloudConf(TEST, TEST, TEST, TEST);
+    arguments.seriesRetrieveThreshold = 2;
+    DownloadCacher downloadCacher =
+        new DownloadCacher(new Parameters(fuseDao, arguments, OS.LINUX));
+    // when
+    downloadCacher.getPath(prepareInstancePath(FIRST_SOP_INSTANCE_UID));
+    Mockito.verify(fuseDao, Mockito.after(200).never()).downloadSeries(any());
+    downloadCacher.getPath(prepareInstancePath(SECOND_SOP_INSTANCE_UID));
+    // then
+    Mockito.verify(fuseDao, Mockito.timeout(5000)).downloadSeries(any());
+  }
+
+  // Writes the header, then waits for the latch before writing the rest of the instance or failing
+  private static FuseDao prepareFuseDao(CountDownLatch rest, boolean fail) throws Exception {
+    FuseDao fuseDao = Mockito.mock(FuseDao.class);
+    Mockito.doAnswer(invocation -> {
+      QueryBuilder queryBuilder = invocation.getArgument(0);
+      DownloadListener downloadListener = queryBuilder.getDownloadListener();
+      downloadListener.onStart(INSTANCE_SIZE);
+      try (OutputStream outputStream =
+          Files.newOutputStream(queryBuilder.getInstanceDataPath())) {
+        outputStream.write(new byte[HEADER_SIZE]);
+        downloadListener.onProgress(HEADER_SIZE);
+        rest.await();
+        if (fail) {
+          throw new DicomFuseException("Connection reset");
+        }
+        outputStream.write(new byte[INSTANCE_SIZE - HEADER_SIZE]);
+        downloadListener.onProgress(INSTANCE_SIZE);
+      }
+      return null;
+    }).when(fuseDao).downloadInstance(any());
+    return fuseDao;
+  }
+
+  // Writes the whole instance in the stored syntax and only the header in other syntaxes, or
+  // answers 406 for other syntaxes if they are not acceptable
+  private static FuseDao prepareFuseDao(List<String> requestedSyntaxes, boolean notAcceptable)
+      throws Exception {
+    FuseDao fuseDao = Mockito.mock(FuseDao.class);
+    Mockito.doAnswer(invocation -> {
+      QueryBuilder queryBuilder = invocation.getArgument(0);
+      String transferSyntax = queryBuilder.getTransferSyntax();
+      requestedSyntaxes.add(transferSyntax);
+      boolean stored = STORED.equals(transferSyntax);
+      if (!stored && notAcceptable) {
+        throw new DicomFuseException("Not Acceptable", 406);
+      }
+      Files.write(queryBuilder.getInstanceDataPath(),
+          new byte[stored ? INSTANCE_SIZE : HEADER_SIZE]);
+      return null;
+    }).when(fuseDao).downloadInstance(any());
+    return fuseDao;
+  }
+
+  private static DicomPath prepareInstancePath(String sopInstanceUID) {
+    return new DicomPath.Builder(DicomPathLevel.INSTANCE)
+        .dicomStoreId(TEST)
+        .studyInstanceUID(TEST)
+        .seriesInstanceUID(TEST)
+        .sopInstanceUID(sopInstanceUID)
+        .build();
+  }
+
+  // A DICOM file with the File Meta Information, padded to the given size
+  private static byte[] prepareDicomFile(String sopInstanceUID, int size) {
+    ByteArrayOutputStream dicomFile = new ByteArrayOutputStream();
+    dicomFile.write(new byte[128], 0, 128);
+    writeAscii(dicomFile, "DICM");
+    // (0002,0001) File Meta Information Version, OB with a 4 byte length
+    dicomFile.write(new byte[] {2, 0, 1, 0, 'O', 'B', 0, 0, 2, 0, 0, 0, 0, 1}, 0, 14);
+    // (0002,0003) Media Storage SOP Instance UID, padded to an even length
+    String uid = sopInstanceUID.length() % 2 == 0 ? sopInstanceUID : sopInstanceUID + "\0";
+    dicomFile.write(new byte[] {2, 0, 3, 0, 'U', 'I', (byte) uid.length(), 0}, 0, 8);
+    writeAscii(dicomFile, uid);
+    int padding = size - dicomFile.size();
+    dicomFile.write(new byte[padding], 0, padding);
+    return dicomFile.toByteArray();
+  }
+
+  private static void writeAscii(ByteArrayOutputStream outputStream, String value) {
+    byte[] bytes = value.getBytes(US_ASCII);
+    outputStream.write(bytes, 0, bytes.length);
+  }
+
+  private static Parameters prepareParameters(FuseDao fuseDao) {
+    return prepareParameters(fuseDao, true, STORED);
+  }
+
+  private static Parameters prepareParameters(FuseDao fuseDao, boolean streamingDownload,
+      String transferSyntax) {
+    Arguments arguments = new Arguments();
+    arguments.cloudConf = new CloudConf(TEST, TEST, TEST, TEST);
+    arguments.streamingDownload = streamingDownload;
+    arguments.transferSyntax = transferSyntax;
+    return new Parameters(fuseDao, arguments, OS.LINUX);
+  }
+}
@@ -0,0 +1,80 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse.cacher;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+
+import com.google.dicomwebfuse.dao.FuseDao;
+import com.google.dicomwebfuse.dao.spec.QueryBuilder;
+import com.google.dicomwebfuse.entities.CloudConf;
+import com.google.dicomwebfuse.entities.DicomPath;
+import com.google.dicomwebfuse.entities.DicomPathLevel;
+import com.google.dicomwebfuse.fuse.Parameters;
+import com.google.dicomwebfuse.parser.Arguments;
+import jnr.ffi.Platform.OS;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+class MetadataCacherTest {
+
+  private static final String TEST = "test";
+  private static final byte[] METADATA = "[{\"00100010\":{\"vr\":\"PN\"}}]".getBytes(UTF_8);
+  private static final DicomPath STUDY_METADATA_PATH =
+      new DicomPath.Builder(DicomPathLevel.STUDY_METADATA)
+          .dicomStoreId(TEST)
+          .studyInstanceUID(TEST)
+          .build();
+
+  @Test
+  void testShouldRequestStudyMetadataOnce() throws Exception {
+    // given
+    FuseDao fuseDao = Mockito.mock(FuseDao.class);
+    Mockito.when(fuseDao.downloadMetadata(any())).thenReturn(METADATA);
+    MetadataCacher metadataCacher = new MetadataCacher(prepareParameters(fuseDao));
+    // when
+    metadataCacher.getMetadata(STUDY_METADATA_PATH);
+    byte[] metadata = metadataCacher.getMetadata(STUDY_METADATA_PATH);
+    // then
+    assertArrayEquals(METADATA, metadata);
+    ArgumentCaptor<QueryBuilder> queryBuilder = ArgumentCaptor.forClass(QueryBuilder.class);
+    Mockito.verify(fuseDao, Mockito.times(1)).downloadMetadata(queryBuilder.capture());
+    assertNull(queryBuilder.getValue().getSeriesId());
+    assertNull(queryBuilder.getValue().getInstanceId());
+  }
+
+  @Test
+  void testShouldRemoveMetadataOfDicomStore() throws Exception {
+    // given
+    FuseDao fuseDao = Mockito.mock(FuseDao.class);
+    Mockito.when(fuseDao.downloadMetadata(any())).thenReturn(METADATA);
+    MetadataCacher metadataCacher = new MetadataCacher(prepareParameters(fuseDao));
+    metadataCacher.getMetadata(STUDY_METADATA_PATH);
+    // when
+    metadataCacher.removeDicomStore(TEST);
+    // then
+    assertNull(metadataCacher.getMetadataIfPresent(STUDY_METADATA_PATH));
+  }
+
+  private static Parameters prepareParameters(FuseDao fuseDao) {
+    Arguments arguments = new Arguments();
+    arguments.cloudConf = new CloudConf(TEST, TEST, TEST, TEST);
+    arguments.metadataFiles = true;
+    return new Parameters(fuseDao, arguments, OS.LINUX);
+  }
+}
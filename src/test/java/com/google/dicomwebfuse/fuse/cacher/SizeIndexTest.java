@@ -0,0 +1,88 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse.cacher;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.google.dicomwebfuse.entities.DicomPath;
+import com.google.dicomwebfuse.entities.DicomPathLevel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.jupiter.api.Test;
+
+class SizeIndexTest {
+
+  private static final String TEST = "test";
+  private static final String STORED = "*";
+  private static final String JPEG_2000_LOSSLESS = "1.2.840.10008.1.2.4.90";
+  private static final DicomPath FIRST_PATH = prepareInstancePath("1.2.3.4");
+  private static final DicomPath SECOND_PATH = prepareInstancePath("1.2.3.45");
+
+  @Test
+  void testShouldKeepSizesAfterRestart() throws Exception {
+    // given
+    Path indexPath = Files.createTempDirectory(TEST).resolve(TEST);
+    SizeIndex stoppedIndex = new SizeIndex(indexPath);
+    stoppedIndex.putSize(FIRST_PATH, STORED, 100);
+    stoppedIndex.putSize(FIRST_PATH, STORED, 200);
+    stoppedIndex.putSize(FIRST_PATH, JPEG_2000_LOSSLESS, 50);
+    stoppedIndex.putSize(SECOND_PATH, STORED, 300);
+    stoppedIndex.remove(SECOND_PATH);
+    // when
+    SizeIndex sizeIndex = new SizeIndex(indexPath);
+    // then
+    assertEquals(200, sizeIndex.getSize(FIRST_PATH, STORED));
+    assertEquals(50, sizeIndex.getSize(FIRST_PATH, JPEG_2000_LOSSLESS));
+    assertEquals(0, sizeIndex.getSize(SECOND_PATH, STORED));
+    assertEquals(2, Files.readAllLines(indexPath).size());
+  }
+
+  @Test
+  void testShouldSkipIncompleteLine() throws Exception {
+    // given
+    Path indexPath = Files.createTempDirectory(TEST).resolve(TEST);
+    new SizeIndex(indexPath).putSize(FIRST_PATH, STORED, 100);
+    Files.write(indexPath, (TEST + "\t1.2.3").getBytes(UTF_8), StandardOpenOption.APPEND);
+    // when
+    SizeIndex sizeIndex = new SizeIndex(indexPath);
+    // then
+    assertEquals(100, sizeIndex.getSize(FIRST_PATH, STORED));
+  }
+
+  @Test
+  void testShouldSkipMalformedSize() throws Exception {
+    // given
+    Path indexPath = Files.createTempDirectory(TEST).resolve(TEST);
+    Files.write(indexPath, (TEST + "\t1.2.3\t" + STORED + "\t1O0" + System.lineSeparator())
+        .getBytes(UTF_8));
+    new SizeIndex(indexPath).putSize(FIRST_PATH, STORED, 100);
+    // when
+    SizeIndex sizeIndex = new SizeIndex(indexPath);
+    // then
+    assertEquals(100, sizeIndex.getSize(FIRST_PATH, STORED));
+    assertEquals(1, Files.readAllLines(indexPath).size());
+  }
+
+  private static DicomPath prepareInstancePath(String sopInstanceUID) {
+    return new DicomPath.Builder(DicomPathLevel.INSTANCE)
+        .dicomStoreId(TEST)
+        .studyInstanceUID(TEST)
+        .seriesInstanceUID(TEST)
+        .sopInstanceUID(sopInstanceUID)
+        .build();
+  }
+}
@@ -0,0 +1,180 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse.cacher;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+
+import com.google.common.io.ByteStreams;
+import com.google.dicomwebfuse.dao.FuseDao;
+import com.google.dicomwebfuse.dao.spec.QueryBuilder;
+import com.google.dicomwebfuse.entities.CloudConf;
+import com.google.dicomwebfuse.entities.DicomPath;
+import com.google.dicomwebfuse.entities.DicomPathLevel;
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import com.google.dicomwebfuse.fuse.Parameters;
+import com.google.dicomwebfuse.parser.Arguments;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import jnr.ffi.Platform.OS;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+class StreamingUploaderTest {
+
+  private static final String TEST = "test";
+  private static final int CHUNK_SIZE = 64 * 1024;
+  private static final Duration TIMEOUT = Duration.ofSeconds(10);
+  private static final DicomPath DICOM_PATH =
+      new DicomPath.Builder(DicomPathLevel.TEMP_FILE_IN_DICOM_STORE)
+          .dicomStoreId(TEST)
+          .fileName(TEST + ".dcm")
+          .build();
+
+  @Test
+  void testShouldUploadWritesInOrder() throws Exception {
+    // given
+    CompletableFuture<byte[]> uploadedContent = new CompletableFuture<>();
+    StreamingUploader streamingUploader = new StreamingUploader(prepareParameters(
+        prepareFuseDao(uploadedContent)));
+    // when
+    streamingUploader.start(DICOM_PATH);
+    streamingUploader.write(DICOM_PATH, new byte[] {1, 2}, 0);
+    streamingUploader.write(DICOM_PATH, new byte[] {3}, 2);
+    streamingUploader.finish(DICOM_PATH);
+    // then
+    assertArrayEquals(new byte[] {1, 2, 3}, uploadedContent.get(10, TimeUnit.SECONDS));
+    assertFalse(streamingUploader.isStreaming(DICOM_PATH));
+  }
+
+  @Test
+  void testShouldCancelUploadOfForwardWrite() throws Exception {
+    // given
+    CompletableFuture<byte[]> uploadedContent = new CompletableFuture<>();
+    StreamingUploader streamingUploader = new StreamingUploader(prepareParameters(
+        prepareFuseDao(uploadedContent)));
+    streamingUploader.start(DICOM_PATH);
+    streamingUploader.write(DICOM_PATH, new byte[] {1}, 0);
+    // when
+    boolean streamed = streamingUploader.write(DICOM_PATH, new byte[] {2}, 3);
+    // then
+    assertFalse(streamed);
+    assertFalse(streamingUploader.isStreaming(DICOM_PATH));
+    CompletableFuture<Throwable> failure = uploadedContent.handle((content, e) -> e);
+    assertTrue(failure.get(10, TimeUnit.SECONDS) instanceof IOException);
+  }
+
+  @Test
+  void testShouldCancelUploadOfBackwardWrite() throws Exception {
+    // given
+    CompletableFuture<byte[]> uploadedContent = new CompletableFuture<>();
+    StreamingUploader streamingUploader = new StreamingUploader(prepareParameters(
+        prepareFuseDao(uploadedContent)));
+    streamingUploader.start(DICOM_PATH);
+    streamingUploader.write(DICOM_PATH, new byte[] {1, 2}, 0);
+    // when
+    boolean streamed = streamingUploader.write(DICOM_PATH, new byte[] {3}, 1);
+    // then
+    assertFalse(streamed);
+    assertThrows(DicomFuseException.class, () -> streamingUploader.finish(DICOM_PATH));
+    CompletableFuture<Throwable> failure = uploadedContent.handle((content, e) -> e);
+    assertTrue(failure.get(10, TimeUnit.SECONDS) instanceof IOException);
+  }
+
+  @Test
+  void testShouldReportUploadFailureToWriterAndFinish() throws Exception {
+    // given
+    FuseDao fuseDao = Mockito.mock(FuseDao.class);
+    Mockito.doThrow(new DicomFuseException("Conflict", 409)).when(fuseDao).uploadInstance(any());
+    StreamingUploader streamingUploader = new StreamingUploader(prepareParameters(fuseDao));
+    streamingUploader.start(DICOM_PATH);
+    AtomicLong offset = new AtomicLong();
+    // when
+    DicomFuseException exception = assertTimeoutPreemptively(TIMEOUT, () -> {
+      // The writes fail once the request fails, even when the pipe is full
+      assertThrows(DicomFuseException.class, () -> {
+        while (true) {
+          streamingUploader.write(DICOM_PATH, new byte[CHUNK_SIZE],
+              offset.getAndAdd(CHUNK_SIZE));
+        }
+      });
+      return assertThrows(DicomFuseException.class, () -> streamingUploader.finish(DICOM_PATH));
+    });
+    // then
+    assertEquals(409, exception.getStatusCode());
+  }
+
+  @Test
+  void testShouldFailFinishIfUploadThrowsUnexpectedly() throws Exception {
+    // given
+    FuseDao fuseDao = Mockito.mock(FuseDao.class);
+    Mockito.doThrow(new IllegalStateException("Broken request")).when(fuseDao)
+        .uploadInstance(any());
+    StreamingUploader streamingUploader = new StreamingUploader(prepareParameters(fuseDao));
+    // when
+    streamingUploader.start(DICOM_PATH);
+    // then
+    assertTimeoutPreemptively(TIMEOUT, () ->
+        assertThrows(DicomFuseException.class, () -> streamingUploader.finish(DICOM_PATH)));
+  }
+
+  @Test
+  void testShouldCancelUploadClosedWithoutFinish() throws Exception {
+    // given
+    CompletableFuture<byte[]> uploadedContent = new CompletableFuture<>();
+    StreamingUploader streamingUploader = new StreamingUploader(prepareParameters(
+        prepareFuseDao(uploadedContent)));
+    streamingUploader.start(DICOM_PATH);
+    streamingUploader.write(DICOM_PATH, new byte[] {1}, 0);
+    // when
+    streamingUploader.cancel(DICOM_PATH);
+    // then
+    assertFalse(streamingUploader.isStreaming(DICOM_PATH));
+    CompletableFuture<Throwable> failure = uploadedContent.handle((content, e) -> e);
+    assertTrue(failure.get(10, TimeUnit.SECONDS) instanceof IOException);
+  }
+
+  // Reads the body of the upload like the request does, and completes the future with it
+  private static FuseDao prepareFuseDao(CompletableFuture<byte[]> uploadedContent)
+      throws Exception {
+    FuseDao fuseDao = Mockito.mock(FuseDao.class);
+    Mockito.doAnswer(invocation -> {
+      QueryBuilder queryBuilder = invocation.getArgument(0);
+      try {
+        uploadedContent.complete(
+            ByteStreams.toByteArray(queryBuilder.getUploadPipe().getInputStream()));
+      } catch (IOException e) {
+        uploadedContent.completeExceptionally(e);
+        throw new DicomFuseException(e);
+      }
+      return null;
+    }).when(fuseDao).uploadInstance(any());
+    return fuseDao;
+  }
+
+  private static Parameters prepareParameters(FuseDao fuseDao) {
+    Arguments arguments = new Arguments();
+    arguments.cloudConf = new CloudConf(TEST, TEST, TEST, TEST);
+    return new Parameters(fuseDao, arguments, OS.LINUX);
+  }
+}
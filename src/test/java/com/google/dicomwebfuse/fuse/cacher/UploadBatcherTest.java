@@ -0,0 +1,247 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse.cacher;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+
+import com.google.dicomwebfuse.dao.FuseDao;
+import com.google.dicomwebfuse.dao.spec.QueryBuilder;
+import com.google.dicomwebfuse.entities.CloudConf;
+import com.google.dicomwebfuse.entities.DicomPath;
+import com.google.dicomwebfuse.entities.DicomPathLevel;
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import com.google.dicomwebfuse.fuse.Parameters;
+import com.google.dicomwebfuse.parser.Arguments;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import jnr.ffi.Platform.OS;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+class UploadBatcherTest {
+
+  private static final String TEST = "test";
+  private static final int INSTANCE_SIZE = 1024;
+  private static final String FAILURE = "<Item number=\"1\">Failure</Item>";
+
+  @Test
+  void testShouldUploadConcurrentInstancesWithSingleRequest() throws Exception {
+    // given
+    List<List<Path>> batches = new CopyOnWriteArrayList<>();
+    FuseDao fuseDao = prepareFuseDao(batches, Collections.emptyMap());
+    UploadBatcher uploadBatcher = new UploadBatcher(prepareParameters(fuseDao, 500, 100));
+    // when
+    List<Future<Void>> uploads = upload(uploadBatcher, "1.2.3.1", "1.2.3.2", "1.2.3.3");
+    for (Future<Void> upload : uploads) {
+      upload.get(10, TimeUnit.SECONDS);
+    }
+    // then
+    assertEquals(1, batches.size());
+    assertEquals(3, batches.get(0).size());
+    Mockito.verify(fuseDao, Mockito.never()).uploadInstance(any());
+  }
+
+  @Test
+  void testShouldSendOpenBatchOnClose() throws Exception {
+    // given
+    List<List<Path>> batches = new CopyOnWriteArrayList<>();
+    FuseDao fuseDao = prepareFuseDao(batches, Collections.emptyMap());
+    UploadBatcher uploadBatcher = new UploadBatcher(prepareParameters(fuseDao, 60000, 100));
+    List<CompletableFuture<Void>> uploads = new ArrayList<>();
+    for (String sopInstanceUID : new String[] {"1.2.3.1", "1.2.3.2"}) {
+      uploads.add(uploadBatcher.submit(prepareDicomPath(sopInstanceUID),
+          prepareInstanceFile(sopInstanceUID)));
+    }
+    // when
+    uploadBatcher.close();
+    // then
+    for (CompletableFuture<Void> upload : uploads) {
+      assertTrue(upload.isDone());
+      upload.get();
+    }
+    assertEquals(1, batches.size());
+    assertEquals(2, batches.get(0).size());
+  }
+
+  @Test
+  void testShouldBatchInstancesSubmittedFromSingleThread() throws Exception {
+    // given
+    List<List<Path>> batches = new CopyOnWriteArrayList<>();
+    FuseDao fuseDao = prepareFuseDao(batches, Collections.emptyMap());
+    UploadBatcher uploadBatcher = new UploadBatcher(prepareParameters(fuseDao, 500, 100));
+    // when
+    List<CompletableFuture<Void>> uploads = new ArrayList<>();
+    for (String sopInstanceUID : new String[] {"1.2.3.1", "1.2.3.2", "1.2.3.3"}) {
+      uploads.add(uploadBatcher.submit(prepareDicomPath(sopInstanceUID),
+          prepareInstanceFile(sopInstanceUID)));
+    }
+    for (CompletableFuture<Void> upload : uploads) {
+      upload.get(10, TimeUnit.SECONDS);
+    }
+    // then
+    assertEquals(1, batches.size());
+    assertEquals(3, batches.get(0).size());
+  }
+
+  @Test
+  void testShouldReportFailureOfSingleInstance() throws Exception {
+    // given
+    FuseDao fuseDao = prepareFuseDao(new CopyOnWriteArrayList<>(),
+        Collections.singletonMap("1.2.3.2", FAILURE));
+    UploadBatcher uploadBatcher = new UploadBatcher(prepareParameters(fuseDao, 500, 100));
+    // when
+    List<Future<Void>> uploads = upload(uploadBatcher, "1.2.3.1", "1.2.3.2");
+    // then
+    uploads.get(0).get(10, TimeUnit.SECONDS);
+    ExecutionException exception = assertThrows(ExecutionException.class,
+        () -> uploads.get(1).get(10, TimeUnit.SECONDS));
+    assertTrue(exception.getCause() instanceof DicomFuseException);
+    assertTrue(exception.getCause().getMessage().contains("1.2.3.2"));
+    assertTrue(exception.getCause().getMessage().contains(FAILURE));
+  }
+
+  @Test
+  void testShouldFailAllInstancesIfBatchUploadThrowsUnexpectedly() throws Exception {
+    // given
+    FuseDao fuseDao = Mockito.mock(FuseDao.class);
+    Mockito.doThrow(new IllegalStateException("Broken response")).when(fuseDao)
+        .uploadInstances(any());
+    UploadBatcher uploadBatcher = new UploadBatcher(prepareParameters(fuseDao, 500, 100));
+    // when
+    List<Future<Void>> uploads = upload(uploadBatcher, "1.2.3.1", "1.2.3.2");
+    // then
+    for (Future<Void> upload : uploads) {
+      ExecutionException exception = assertThrows(ExecutionException.class,
+          () -> upload.get(10, TimeUnit.SECONDS));
+      assertTrue(exception.getCause() instanceof DicomFuseException);
+    }
+  }
+
+  @Test
+  void testShouldSendBatchWhenSizeIsReached() throws Exception {
+    // given
+    List<List<Path>> batches = new CopyOnWriteArrayList<>();
+    FuseDao fuseDao = prepareFuseDao(batches, Collections.emptyMap());
+    // The window is longer than the test waits
+    UploadBatcher uploadBatcher = new UploadBatcher(prepareParameters(fuseDao, 60000, 2));
+    // when
+    List<Future<Void>> uploads = upload(uploadBatcher, "1.2.3.1", "1.2.3.2");
+    for (Future<Void> upload : uploads) {
+      upload.get(10, TimeUnit.SECONDS);
+    }
+    // then
+    assertEquals(1, batches.size());
+    assertEquals(2, batches.get(0).size());
+  }
+
+  @Test
+  void testShouldUploadInstanceDirectlyWhenBatchingIsDisabled() throws Exception {
+    // given
+    List<List<Path>> batches = new CopyOnWriteArrayList<>();
+    FuseDao fuseDao = prepareFuseDao(batches, Collections.emptyMap());
+    UploadBatcher uploadBatcher = new UploadBatcher(prepareParameters(fuseDao, 0, 100));
+    // when
+    upload(uploadBatcher, "1.2.3.1").get(0).get(10, TimeUnit.SECONDS);
+    // then
+    assertTrue(batches.isEmpty());
+    Mockito.verify(fuseDao).uploadInstance(any());
+  }
+
+  // Starts the uploads of the instances at the same time
+  private static List<Future<Void>> upload(UploadBatcher uploadBatcher,
+      String... sopInstanceUIDs) throws Exception {
+    ExecutorService executorService = Executors.newFixedThreadPool(sopInstanceUIDs.length);
+    List<Future<Void>> uploads = new ArrayList<>();
+    for (String sopInstanceUID : sopInstanceUIDs) {
+      Path instanceDataPath = prepareInstanceFile(sopInstanceUID);
+      DicomPath dicomPath = prepareDicomPath(sopInstanceUID);
+      uploads.add(executorService.submit(() -> {
+        uploadBatcher.upload(dicomPath, instanceDataPath);
+        return null;
+      }));
+    }
+    executorService.shutdown();
+    return uploads;
+  }
+
+  private static Path prepareInstanceFile(String sopInstanceUID) throws Exception {
+    Path instanceDataPath = Files.createTempFile(TEST, TEST);
+    instanceDataPath.toFile().deleteOnExit();
+    Files.write(instanceDataPath, prepareDicomFile(sopInstanceUID));
+    return instanceDataPath;
+  }
+
+  private static DicomPath prepareDicomPath(String sopInstanceUID) {
+    return new DicomPath.Builder(DicomPathLevel.TEMP_FILE_IN_DICOM_STORE)
+        .dicomStoreId(TEST)
+        .fileName(sopInstanceUID + ".dcm")
+        .build();
+  }
+
+  private static FuseDao prepareFuseDao(List<List<Path>> batches,
+      Map<String, String> failedInstances) throws Exception {
+    FuseDao fuseDao = Mockito.mock(FuseDao.class);
+    Mockito.doAnswer(invocation -> {
+      QueryBuilder queryBuilder = invocation.getArgument(0);
+      batches.add(queryBuilder.getInstanceDataPaths());
+      return failedInstances;
+    }).when(fuseDao).uploadInstances(any());
+    return fuseDao;
+  }
+
+  // A DICOM file with the File Meta Information
+  private static byte[] prepareDicomFile(String sopInstanceUID) {
+    ByteArrayOutputStream dicomFile = new ByteArrayOutputStream();
+    dicomFile.write(new byte[128], 0, 128);
+    writeAscii(dicomFile, "DICM");
+    // (0002,0003) Media Storage SOP Instance UID, padded to an even length
+    String uid = sopInstanceUID.length() % 2 == 0 ? sopInstanceUID : sopInstanceUID + "\0";
+    dicomFile.write(new byte[] {2, 0, 3, 0, 'U', 'I', (byte) uid.length(), 0}, 0, 8);
+    writeAscii(dicomFile, uid);
+    int padding = INSTANCE_SIZE - dicomFile.size();
+    dicomFile.write(new byte[padding], 0, padding);
+    return dicomFile.toByteArray();
+  }
+
+  private static void writeAscii(ByteArrayOutputStream outputStream, String value) {
+    byte[] bytes = value.getBytes(US_ASCII);
+    outputStream.write(bytes, 0, bytes.length);
+  }
+
+  private static Parameters prepareParameters(FuseDao fuseDao, int stowBatchWindow,
+      int stowBatchSize) {
+    Arguments arguments = new Arguments();
+    arguments.cloudConf = new CloudConf(TEST, TEST, TEST, TEST);
+    arguments.stowBatchWindow = stowBatchWindow;
+    arguments.stowBatchSize = stowBatchSize;
+    return new Parameters(fuseDao, arguments, OS.LINUX);
+  }
+}
@@ -0,0 +1,68 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse.cacher;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.google.dicomwebfuse.entities.DicomPath;
+import com.google.dicomwebfuse.entities.DicomPathLevel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+
+class UploadCacherTest {
+
+  private static final String TEST = "test";
+  private static final DicomPath DICOM_PATH =
+      new DicomPath.Builder(DicomPathLevel.TEMP_FILE_IN_DICOM_STORE)
+          .dicomStoreId(TEST)
+          .fileName(TEST + ".dcm")
+          .build();
+
+  @Test
+  void testShouldWriteAtOffsetsInAnyOrder() throws Exception {
+    // given
+    UploadCacher uploadCacher = new UploadCacher();
+    uploadCacher.createPath(DICOM_PATH);
+    // when
+    uploadCacher.write(DICOM_PATH, new byte[] {3, 4}, 2);
+    uploadCacher.write(DICOM_PATH, new byte[] {1, 2}, 0);
+    uploadCacher.write(DICOM_PATH, new byte[] {5}, 1);
+    // then
+    assertArrayEquals(new byte[] {1, 5, 3, 4},
+        Files.readAllBytes(uploadCacher.getPath(DICOM_PATH)));
+  }
+
+  @Test
+  void testShouldCloseAndDeleteFileWhenRemoved() throws Exception {
+    // given
+    UploadCacher uploadCacher = new UploadCacher();
+    uploadCacher.createPath(DICOM_PATH);
+    uploadCacher.write(DICOM_PATH, new byte[] {1}, 0);
+    Path firstPath = uploadCacher.getPath(DICOM_PATH);
+    // when
+    uploadCacher.removePath(DICOM_PATH);
+    uploadCacher.createPath(DICOM_PATH);
+    uploadCacher.write(DICOM_PATH, new byte[] {2}, 0);
+    // then
+    assertFalse(Files.exists(firstPath));
+    // The file of the same path is opened again rather than writing to the removed one
+    assertArrayEquals(new byte[] {2}, Files.readAllBytes(uploadCacher.getPath(DICOM_PATH)));
+    uploadCacher.removePath(DICOM_PATH);
+    assertNull(uploadCacher.getPath(DICOM_PATH));
+  }
+}
@@ -0,0 +1,251 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.fuse.cacher;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.dicomwebfuse.entities.DicomPath;
+import com.google.dicomwebfuse.entities.DicomPathLevel;
+import com.google.dicomwebfuse.exception.DicomFuseException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import org.junit.jupiter.api.Test;
+
+class UploadQueueTest {
+
+  private static final String TEST = "test";
+  private static final byte[] CONTENT = TEST.getBytes(UTF_8);
+  private static final DicomPath DICOM_PATH =
+      new DicomPath.Builder(DicomPathLevel.TEMP_FILE_IN_DICOM_STORE)
+          .dicomStoreId(TEST)
+          .fileName(TEST + ".dcm")
+          .build();
+
+  @Test
+  void testShouldUploadQueuedFileInBackground() throws Exception {
+    // given
+    Path journalPath = Files.createTempDirectory(TEST);
+    CountDownLatch uploadStarted = new CountDownLatch(1);
+    CompletableFuture<Void> serverResponse = new CompletableFuture<>();
+    List<DicomPath> uploadedPaths = new CopyOnWriteArrayList<>();
+    UploadQueue uploadQueue = new UploadQueue(journalPath, 1, 1,
+        (dicomPath, instanceDataPath) -> {
+          uploadStarted.countDown();
+          return serverResponse;
+        }, uploadedPaths::add);
+    uploadQueue.start();
+    // when
+    uploadQueue.add(DICOM_PATH, prepareFile());
+    // then
+    assertTrue(uploadStarted.await(10, TimeUnit.SECONDS));
+    assertEquals(1, uploadQueue.getPendingCount());
+    awaitCondition(() -> readStatus(journalPath).startsWith("pending: 1\nuploading: 1\n"));
+    serverResponse.complete(null);
+    awaitCondition(() -> uploadedPaths.size() == 1);
+    assertEquals(DICOM_PATH, uploadedPaths.get(0));
+    assertEquals(0, uploadQueue.getPendingCount());
+    awaitCondition(() -> readStatus(journalPath).startsWith("pending: 0\nuploading: 0\n"));
+    assertEquals(0, new UploadJournal(journalPath).loadPending().size());
+  }
+
+  @Test
+  void testShouldResumeUploadsAfterRestart() throws Exception {
+    // given
+    Path journalPath = Files.createTempDirectory(TEST);
+    UploadQueue stoppedQueue = new UploadQueue(journalPath, 1, 1,
+        (dicomPath, instanceDataPath) -> new CompletableFuture<>(), dicomPath -> {});
+    stoppedQueue.start();
+    stoppedQueue.add(DICOM_PATH, prepareFile());
+    List<byte[]> uploadedContents = new CopyOnWriteArrayList<>();
+    List<DicomPath> uploadedPaths = new CopyOnWriteArrayList<>();
+    UploadQueue uploadQueue = new UploadQueue(journalPath, 1, 1, (dicomPath, instanceDataPath) -> {
+      uploadedContents.add(readFile(instanceDataPath));
+      return CompletableFuture.completedFuture(null);
+    }, uploadedPaths::add);
+    // when
+    uploadQueue.start();
+    // then
+    awaitCondition(() -> uploadedPaths.size() == 1);
+    assertEquals(DICOM_PATH, uploadedPaths.get(0));
+    assertArrayEquals(CONTENT, uploadedContents.get(0));
+  }
+
+  @Test
+  void testShouldRepeatUploadAfterTransientFailure() throws Exception {
+    // given
+    Path journalPath = Files.createTempDirectory(TEST);
+    AtomicInteger attempts = new AtomicInteger();
+    List<DicomPath> uploadedPaths = new CopyOnWriteArrayList<>();
+    UploadQueue uploadQueue = new UploadQueue(journalPath, 1, 1, (dicomPath, instanceDataPath) -> {
+      if (attempts.incrementAndGet() == 1) {
+        throw new DicomFuseException("Service Unavailable", 503);
+      }
+      return CompletableFuture.completedFuture(null);
+    }, uploadedPaths::add);
+    uploadQueue.start();
+    // when
+    uploadQueue.add(DICOM_PATH, prepareFile());
+    // then
+    awaitCondition(() -> uploadedPaths.size() == 1);
+    assertEquals(2, attempts.get());
+    assertEquals(0, uploadQueue.getFailedCount());
+  }
+
+  @Test
+  void testShouldRepeatUploadAfterUnexpectedError() throws Exception {
+    // given
+    Path journalPath = Files.createTempDirectory(TEST);
+    AtomicInteger attempts = new AtomicInteger();
+    List<DicomPath> uploadedPaths = new CopyOnWriteArrayList<>();
+    UploadQueue uploadQueue = new UploadQueue(journalPath, 1, 1, (dicomPath, instanceDataPath) -> {
+      CompletableFuture<Void> result = new CompletableFuture<>();
+      if (attempts.incrementAndGet() == 1) {
+        result.completeExceptionally(new IllegalStateException("Broken response"));
+      } else {
+        result.complete(null);
+      }
+      return result;
+    }, uploadedPaths::add);
+    uploadQueue.start();
+    // when
+    uploadQueue.add(DICOM_PATH, prepareFile());
+    // then
+    awaitCondition(() -> uploadedPaths.size() == 1);
+    assertEquals(2, attempts.get());
+    assertEquals(0, uploadQueue.getFailedCount());
+  }
+
+  @Test
+  void testShouldSubmitUploadsWithoutWaitingForEarlierOnes() throws Exception {
+    // given
+    Path journalPath = Files.createTempDirectory(TEST);
+    List<CompletableFuture<Void>> submittedUploads = new CopyOnWriteArrayList<>();
+    List<DicomPath> uploadedPaths = new CopyOnWriteArrayList<>();
+    UploadQueue uploadQueue = new UploadQueue(journalPath, 1, 3, (dicomPath, instanceDataPath) -> {
+      CompletableFuture<Void> result = new CompletableFuture<>();
+      submittedUploads.add(result);
+      return result;
+    }, uploadedPaths::add);
+    uploadQueue.start();
+    // when
+    for (int i = 0; i < 4; i++) {
+      uploadQueue.add(DICOM_PATH, prepareFile());
+    }
+    // then
+    // The single thread submits up to three uploads before any of them finishes
+    awaitCondition(() -> submittedUploads.size() == 3);
+    Thread.sleep(100);
+    assertEquals(3, submittedUploads.size());
+    submittedUploads.get(0).complete(null);
+    awaitCondition(() -> submittedUploads.size() == 4);
+    for (CompletableFuture<Void> submittedUpload : submittedUploads) {
+      submittedUpload.complete(null);
+    }
+    awaitCondition(() -> uploadedPaths.size() == 4);
+    assertEquals(0, uploadQueue.getPendingCount());
+  }
+
+  @Test
+  void testShouldMoveRejectedUploadToFailedFolder() throws Exception {
+    // given
+    Path journalPath = Files.createTempDirectory(TEST);
+    UploadQueue uploadQueue = new UploadQueue(journalPath, 1, 1, (dicomPath, instanceDataPath) -> {
+      throw new DicomFuseException("Conflict\nInstance already exists", 409);
+    }, dicomPath -> {});
+    uploadQueue.start();
+    // when
+    uploadQueue.add(DICOM_PATH, prepareFile());
+    // then
+    awaitCondition(() -> uploadQueue.getFailedCount() == 1);
+    assertEquals(0, uploadQueue.getPendingCount());
+    List<UploadJournal.Entry> failedEntries = new UploadJournal(journalPath).loadFailed();
+    assertEquals(1, failedEntries.size());
+    assertArrayEquals(CONTENT, readFile(failedEntries.get(0).getDataPath()));
+    awaitCondition(() -> readStatus(journalPath).contains("failed: 1\n"));
+    assertTrue(readStatus(journalPath).contains("  Conflict\n"));
+  }
+
+  @Test
+  void testShouldWaitForStartedUploadOnClose() throws Exception {
+    // given
+    Path journalPath = Files.createTempDirectory(TEST);
+    CountDownLatch uploadStarted = new CountDownLatch(1);
+    CompletableFuture<Void> serverResponse = new CompletableFuture<>();
+    List<DicomPath> uploadedPaths = new CopyOnWriteArrayList<>();
+    UploadQueue uploadQueue = new UploadQueue(journalPath, 1, 1,
+        (dicomPath, instanceDataPath) -> {
+          uploadStarted.countDown();
+          return serverResponse;
+        }, uploadedPaths::add);
+    uploadQueue.start();
+    uploadQueue.add(DICOM_PATH, prepareFile());
+    assertTrue(uploadStarted.await(10, TimeUnit.SECONDS));
+    // when
+    CompletableFuture.runAsync(() -> {
+      try {
+        Thread.sleep(100);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      serverResponse.complete(null);
+    });
+    uploadQueue.close();
+    // then
+    assertEquals(1, uploadedPaths.size());
+    assertEquals(0, new UploadJournal(journalPath).loadPending().size());
+    assertTrue(readStatus(journalPath).startsWith("pending: 0\nuploading: 0\n"));
+  }
+
+  private static Path prepareFile() throws Exception {
+    Path instanceDataPath = Files.createTempFile(TEST, TEST);
+    instanceDataPath.toFile().deleteOnExit();
+    Files.write(instanceDataPath, CONTENT);
+    return instanceDataPath;
+  }
+
+  private static byte[] readFile(Path path) throws DicomFuseException {
+    try {
+      return Files.readAllBytes(path);
+    } catch (Exception e) {
+      throw new DicomFuseException(e);
+    }
+  }
+
+  private static String readStatus(Path journalPath) {
+    try {
+      return new String(Files.readAllBytes(journalPath.resolve("status")), UTF_8);
+    } catch (Exception e) {
+      return "";
+    }
+  }
+
+  private static void awaitCondition(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.nanoTime() < deadline);
+      Thread.sleep(10);
+    }
+  }
+}
@@ -0,0 +1,114 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class MetricsRegistryTest {
+
+  @Test
+  void testShouldWriteCountersAndHistogramsInTextFormat() throws IOException {
+    // given
+    MetricsRegistry metricsRegistry = new MetricsRegistry();
+    Counter counter = metricsRegistry.counter("test_errors_total", "Errors", "operation");
+    Histogram histogram = metricsRegistry.histogram("test_duration_seconds", "Duration",
+        new double[]{0.1, 1}, "operation");
+    // when
+    counter.labels("read").inc();
+    counter.labels("read").inc(2);
+    histogram.labels("read").observe(0.05);
+    histogram.labels("read").observe(0.5);
+    histogram.labels("read").observe(5);
+    // then
+    assertEquals("# HELP test_duration_seconds Duration\n"
+        + "# TYPE test_duration_seconds histogram\n"
+        + "test_duration_seconds_bucket{operation=\"read\",le=\"0.1\"} 1\n"
+        + "test_duration_seconds_bucket{operation=\"read\",le=\"1\"} 2\n"
+        + "test_duration_seconds_bucket{operation=\"read\",le=\"+Inf\"} 3\n"
+        + "test_duration_seconds_sum{operation=\"read\"} 5.55\n"
+        + "test_duration_seconds_count{operation=\"read\"} 3\n"
+        + "# HELP test_errors_total Errors\n"
+        + "# TYPE test_errors_total counter\n"
+        + "test_errors_total{operation=\"read\"} 3\n", write(metricsRegistry));
+  }
+
+  @Test
+  void testShouldCollectGaugesWhenWritten() throws IOException {
+    // given
+    MetricsRegistry metricsRegistry = new MetricsRegistry();
+    int[] queueDepth = {1};
+    metricsRegistry.gauge("test_queue_depth", "Queue depth", () -> queueDepth[0]);
+    metricsRegistry.gauge("test_objects", "Objects",
+        samples -> samples.add(2, "store \"a\"\\"), "store");
+    // when
+    queueDepth[0] = 7;
+    // then
+    assertEquals("# HELP test_objects Objects\n"
+        + "# TYPE test_objects gauge\n"
+        + "test_objects{store=\"store \\\"a\\\"\\\\\"} 2\n"
+        + "# HELP test_queue_depth Queue depth\n"
+        + "# TYPE test_queue_depth gauge\n"
+        + "test_queue_depth 7\n", write(metricsRegistry));
+  }
+
+  @Test
+  void testShouldRejectDuplicateNamesAndWrongLabelCounts() {
+    // given
+    MetricsRegistry metricsRegistry = new MetricsRegistry();
+    Counter counter = metricsRegistry.counter("test_total", "Test", "operation");
+    // then
+    assertThrows(IllegalArgumentException.class,
+        () -> metricsRegistry.gauge("test_total", "Test", () -> 0));
+    assertThrows(IllegalArgumentException.class, () -> counter.labels("read", "write"));
+  }
+
+  @Test
+  void testShouldServeMetricsOnLoopback() throws IOException {
+    // given
+    MetricsRegistry metricsRegistry = new MetricsRegistry();
+    metricsRegistry.counter("test_total", "Test").labels().inc();
+    try (MetricsServer metricsServer = new MetricsServer(metricsRegistry, 0)) {
+      metricsServer.start();
+      // when
+      URL url = new URL("http://localhost:" + metricsServer.getPort() + "/metrics");
+      HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+      String body;
+      try (InputStream inputStream = connection.getInputStream()) {
+        body = new String(ByteStreams.toByteArray(inputStream), StandardCharsets.UTF_8);
+      }
+      // then
+      assertEquals(200, connection.getResponseCode());
+      assertTrue(connection.getContentType().startsWith("text/plain; version=0.0.4"));
+      assertTrue(body.contains("test_total 1\n"));
+    }
+  }
+
+  private static String write(MetricsRegistry metricsRegistry) throws IOException {
+    StringWriter writer = new StringWriter();
+    metricsRegistry.write(writer);
+    return writer.toString();
+  }
+}
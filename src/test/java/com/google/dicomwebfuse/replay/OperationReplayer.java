@@ -0,0 +1,203 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.replay;
+
+import com.google.dicomwebfuse.TestUtils;
+import com.google.dicomwebfuse.dao.http.HttpClientFactoryImpl;
+import com.google.dicomwebfuse.entities.CloudConf;
+import com.google.dicomwebfuse.fuse.DicomFuseOperations;
+import com.google.dicomwebfuse.fuse.Parameters;
+import com.google.dicomwebfuse.fuse.RecordedOperation;
+import com.google.dicomwebfuse.parser.Arguments;
+import com.google.dicomwebfuse.standin.DicomWebStandIn;
+import com.google.dicomwebfuse.standin.DicomWebStandIn.Operation;
+import com.google.dicomwebfuse.standin.StandInDataset;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import jnr.ffi.Memory;
+import jnr.ffi.Platform;
+import jnr.ffi.Pointer;
+import jnr.ffi.Runtime;
+import ru.serce.jnrfuse.FuseFillDir;
+import ru.serce.jnrfuse.struct.FuseContext;
+import ru.serce.jnrfuse.struct.FileStat;
+import ru.serce.jnrfuse.struct.FuseFileInfo;
+
+/**
+ * Replays a recording of FUSE operations directly against {@link DicomFuseOperations}, without a
+ * kernel mount or the FUSE library, and reports the latency of each kind of operation together
+ * with the requests the stand-in received. Operations are replayed one after another, as fast as
+ * possible or with the recorded gaps between them.
+ *
+ * <p>Run the main method with the test classpath to replay a file written with
+ * --recordOperations against a stand-in seeded with {@link RecordingDataset}:
+ * {@code OperationReplayer <recording> [latencyMillis] [bytesPerSecond]}.
+ */
+public class OperationReplayer {
+
+  private static final Runtime RUNTIME = Runtime.getSystemRuntime();
+  // Larger than struct fuse_file_info and struct fuse_context on all platforms
+  private static final int FILE_INFO_SIZE = 128;
+  private static final int FUSE_CONTEXT_SIZE = 128;
+  // The kernel passes readdir a buffer of one page
+  private static final int READDIR_BUFFER_SIZE = 4096;
+  private static final int DIRENT_HEADER_SIZE = 24;
+  private final DicomFuseOperations dicomFuseOperations;
+  private final DicomWebStandIn standIn;
+  private final Map<String, FuseFileInfo> openDirectories = new HashMap<>();
+  private boolean preserveTiming;
+  private Pointer readBuffer;
+
+  public OperationReplayer(DicomFuseOperations dicomFuseOperations, DicomWebStandIn standIn) {
+    this.dicomFuseOperations = dicomFuseOperations;
+    this.standIn = standIn;
+  }
+
+  /**
+   * Waits before each operation until its recorded start time, instead of replaying as fast as
+   * possible, so that cache expiry and background work see the recorded pace.
+   */
+  public OperationReplayer setPreserveTiming(boolean preserveTiming) {
+    this.preserveTiming = preserveTiming;
+    return this;
+  }
+
+  public ReplayReport replay(List<RecordedOperation> operations) throws InterruptedException {
+    ReplayReport report = new ReplayReport();
+    long startNanos = System.nanoTime();
+    Map<Operation, Long> countsBefore = new HashMap<>();
+    for (Operation operation : Operation.values()) {
+      countsBefore.put(operation, standIn.getRequestCount(operation));
+    }
+    for (RecordedOperation operation : operations) {
+      if (preserveTiming) {
+        long delayNanos = startNanos + TimeUnit.MICROSECONDS.toNanos(operation.getStartMicros())
+            - System.nanoTime();
+        if (delayNanos > 0) {
+          TimeUnit.NANOSECONDS.sleep(delayNanos);
+        }
+      }
+      long requestsBefore = standIn.getRequestCount() + standIn.getInjectedFaultCount();
+      long callNanos = System.nanoTime();
+      int result = call(operation);
+      long durationNanos = System.nanoTime() - callNanos;
+      long requests = standIn.getRequestCount() + standIn.getInjectedFaultCount() - requestsBefore;
+      report.add(operation.getType(), durationNanos, result, requests);
+    }
+    for (Operation operation : Operation.values()) {
+      report.setHttpRequestCount(operation,
+          standIn.getRequestCount(operation) - countsBefore.get(operation));
+    }
+    return report;
+  }
+
+  private int call(RecordedOperation operation) {
+    String path = operation.getPath();
+    switch (operation.getType()) {
+      case GETATTR:
+        return dicomFuseOperations.getattr(path, new FileStat(RUNTIME), createContext());
+      case OPENDIR:
+        FuseFileInfo directoryInfo = createFileInfo();
+        int result = dicomFuseOperations.opendir(path, directoryInfo);
+        if (result == 0) {
+          openDirectories.put(path, directoryInfo);
+        }
+        return result;
+      case READDIR:
+        return dicomFuseOperations.readdir(path, null, createFiller(),
+            operation.getOffset(), openDirectories.getOrDefault(path, createFileInfo()));
+      case RELEASEDIR:
+        FuseFileInfo openDirectory = openDirectories.remove(path);
+        return dicomFuseOperations.releasedir(path,
+            openDirectory == null ? createFileInfo() : openDirectory);
+      case OPEN:
+        return dicomFuseOperations.open(path, createFileInfo());
+      case READ:
+        return dicomFuseOperations.read(path, getReadBuffer(operation.getSize()), operation.getSize(),
+            operation.getOffset(), createFileInfo());
+      case FLUSH:
+        return dicomFuseOperations.flush(path, createFileInfo());
+      default:
+        throw new IllegalArgumentException("Unknown operation - " + operation.getType());
+    }
+  }
+
+  // The context of a caller with uid and gid 0, as there is no caller outside a mount
+  private static FuseContext createContext() {
+    return FuseContext.of(Memory.allocateDirect(RUNTIME, FUSE_CONTEXT_SIZE, true));
+  }
+
+  private static FuseFileInfo createFileInfo() {
+    return FuseFileInfo.of(Memory.allocateDirect(RUNTIME, FILE_INFO_SIZE, true));
+  }
+
+  // Accepts entries until a buffer of the kernel's size would be full
+  private static FuseFillDir createFiller() {
+    int[] usedBytes = new int[1];
+    return (buf, name, stbuf, offset) -> {
+      int entrySize = (DIRENT_HEADER_SIZE + name.remaining() + 7) & ~7;
+      if (usedBytes[0] + entrySize > READDIR_BUFFER_SIZE) {
+        return 1;
+      }
+      usedBytes[0] += entrySize;
+      return 0;
+    };
+  }
+
+  private Pointer getReadBuffer(long size) {
+    if (readBuffer == null || readBuffer.size() < size) {
+      readBuffer = Memory.allocateDirect(RUNTIME, (int) size);
+    }
+    return readBuffer;
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    List<RecordedOperation> operations = RecordedOperation.read(Paths.get(args[0]));
+    StandInDataset dataset = RecordingDataset.seed(operations, new StandInDataset());
+    try (DicomWebStandIn standIn = new DicomWebStandIn(dataset)) {
+      if (args.length > 1) {
+        standIn.setLatencyMillis(Long.parseLong(args[1]));
+      }
+      if (args.length > 2) {
+        standIn.setBytesPerSecond(Long.parseLong(args[2]));
+      }
+      URI endpoint = standIn.start();
+      try (HttpClientFactoryImpl httpClientFactory = new HttpClientFactoryImpl(10, 10, 60)) {
+        DicomFuseOperations dicomFuseOperations =
+            new DicomFuseOperations(prepareParameters(endpoint, httpClientFactory));
+        ReplayReport report =
+            new OperationReplayer(dicomFuseOperations, standIn).replay(operations);
+        System.out.printf("%d operations%n%s", operations.size(), report);
+      }
+    }
+  }
+
+  /**
+   * Prepares the default parameters of a mount using the stand-in at the given endpoint.
+   */
+  public static Parameters prepareParameters(URI endpoint,
+      HttpClientFactoryImpl httpClientFactory) {
+    String replay = "replay";
+    Arguments arguments = new Arguments();
+    arguments.cloudConf = new CloudConf("v1", replay, replay, replay);
+    return new Parameters(TestUtils.prepareFuseDao(TestUtils.prepareAuthAdc(replay),
+        httpClientFactory, endpoint), arguments, Platform.getNativePlatform().getOS());
+  }
+}
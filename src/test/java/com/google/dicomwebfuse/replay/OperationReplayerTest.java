@@ -0,0 +1,108 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.replay;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.dicomwebfuse.dao.http.HttpClientFactoryImpl;
+import com.google.dicomwebfuse.fuse.DicomFuseOperations;
+import com.google.dicomwebfuse.fuse.RecordedOperation;
+import com.google.dicomwebfuse.fuse.RecordedOperation.Type;
+import com.google.dicomwebfuse.fuse.RecordingDicomFuseOperations;
+import com.google.dicomwebfuse.standin.DicomWebStandIn;
+import com.google.dicomwebfuse.standin.DicomWebStandIn.Operation;
+import com.google.dicomwebfuse.standin.StandInDataset;
+import com.google.dicomwebfuse.standin.SyntheticDataset;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+class OperationReplayerTest {
+
+  private static final String STORE_PATH = "/" + SyntheticDataset.storeId(1);
+  private static final String STUDY_PATH = STORE_PATH + "/" + SyntheticDataset.studyUid(1, 1);
+  private static final String SERIES_PATH =
+      STUDY_PATH + "/" + SyntheticDataset.seriesUid(1, 1, 1);
+  private static final String INSTANCE_PATH =
+      SERIES_PATH + "/" + SyntheticDataset.sopUid(1, 1, 1, 1) + ".dcm";
+  private static final int READ_SIZE = 4096;
+
+  @Test
+  void testShouldReplayRecordedOperations() throws Exception {
+    // given
+    StandInDataset dataset = new SyntheticDataset(0).setInstancesPerSeries(3)
+        .setFrameSize(2 * READ_SIZE).generate(new StandInDataset());
+    Path recordingPath = Files.createTempFile("recording", ".tsv");
+    List<RecordedOperation> session = prepareSession();
+    try (DicomWebStandIn standIn = new DicomWebStandIn(dataset);
+        HttpClientFactoryImpl httpClientFactory = new HttpClientFactoryImpl(10, 10, 60)) {
+      URI endpoint = standIn.start();
+      RecordingDicomFuseOperations recordingOperations = new RecordingDicomFuseOperations(
+          OperationReplayer.prepareParameters(endpoint, httpClientFactory), recordingPath);
+      new OperationReplayer(recordingOperations, standIn).replay(session);
+      recordingOperations.close();
+    }
+    // when
+    List<RecordedOperation> recording = RecordedOperation.read(recordingPath);
+    ReplayReport report;
+    try (DicomWebStandIn standIn = new DicomWebStandIn(
+        RecordingDataset.seed(recording, new StandInDataset()));
+        HttpClientFactoryImpl httpClientFactory = new HttpClientFactoryImpl(10, 10, 60)) {
+      DicomFuseOperations dicomFuseOperations = new DicomFuseOperations(
+          OperationReplayer.prepareParameters(standIn.start(), httpClientFactory));
+      report = new OperationReplayer(dicomFuseOperations, standIn).replay(recording);
+    }
+    // then
+    assertEquals(session.stream().map(RecordedOperation::getType).collect(Collectors.toList()),
+        recording.stream().map(RecordedOperation::getType).collect(Collectors.toList()));
+    assertTrue(recording.stream().allMatch(operation -> operation.getResult() >= 0));
+    for (Type type : Type.values()) {
+      assertEquals(0, report.getErrorCount(type));
+    }
+    assertEquals(2, report.getCount(Type.READ));
+    assertEquals(1, report.getHttpRequestCount(Operation.WADO));
+    // The second getattr of the Instance is answered from the cache
+    assertTrue(report.getCacheHitRate(Type.GETATTR) > 0);
+    assertEquals(1.0, report.getCacheHitRate(Type.READ));
+    assertTrue(report.getPercentileMicros(Type.OPEN, 50) > 0);
+  }
+
+  private static List<RecordedOperation> prepareSession() {
+    List<RecordedOperation> session = new ArrayList<>();
+    for (String path : Arrays.asList("/", STORE_PATH, STUDY_PATH, SERIES_PATH)) {
+      session.add(operation(Type.GETATTR, 0, 0, path));
+      session.add(operation(Type.OPENDIR, 0, 0, path));
+      session.add(operation(Type.READDIR, 0, 0, path));
+      session.add(operation(Type.RELEASEDIR, 0, 0, path));
+    }
+    session.add(operation(Type.GETATTR, 0, 0, INSTANCE_PATH));
+    session.add(operation(Type.OPEN, 0, 0, INSTANCE_PATH));
+    session.add(operation(Type.READ, 0, READ_SIZE, INSTANCE_PATH));
+    session.add(operation(Type.READ, READ_SIZE, READ_SIZE, INSTANCE_PATH));
+    session.add(operation(Type.FLUSH, 0, 0, INSTANCE_PATH));
+    session.add(operation(Type.GETATTR, 0, 0, INSTANCE_PATH));
+    return session;
+  }
+
+  private static RecordedOperation operation(Type type, long offset, long size, String path) {
+    return new RecordedOperation(0, 0, type, 0, offset, size, path);
+  }
+}
@@ -0,0 +1,140 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.replay;
+
+import com.google.dicomwebfuse.fuse.RecordedOperation;
+import com.google.dicomwebfuse.standin.StandInDataset;
+import com.google.dicomwebfuse.standin.StandInInstance;
+import com.google.dicomwebfuse.standin.SyntheticDataset;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Creates the objects a recording refers to, so that it can be replayed against the stand-in.
+ * Each Instance is made as large as the furthest read of it, with as many frames as the highest
+ * frame read. Folders in which no Instance was touched get one Instance, so that they exist.
+ */
+public class RecordingDataset {
+
+  private static final String DCM_EXTENSION = ".dcm";
+  private static final String JSON_EXTENSION = ".json";
+  private static final String FRAMES_EXTENSION = ".frames";
+  private static final String METADATA_FILE_NAME = "metadata.json";
+  private static final String PLACEHOLDER_UID = "1.2.826.0.1.3680043.8.498.99";
+  private static final int MIN_PIXEL_DATA_LENGTH = 1024;
+
+  private RecordingDataset() {
+  }
+
+  public static StandInDataset seed(List<RecordedOperation> operations,
+      StandInDataset dataset) {
+    Map<String, InstanceShape> instances = new LinkedHashMap<>();
+    for (RecordedOperation operation : operations) {
+      // Paths which did not exist when they were recorded are not created
+      if (operation.getResult() < 0) {
+        continue;
+      }
+      String[] segments = operation.getPath().split("/");
+      if (segments.length < 2) {
+        continue;
+      }
+      String dicomStoreId = segments[1];
+      dataset.createStore(dicomStoreId);
+      if (segments.length < 3 || METADATA_FILE_NAME.equals(segments[2])) {
+        continue;
+      }
+      String studyInstanceUID = segments[2];
+      String seriesInstanceUID = segments.length > 3 && !METADATA_FILE_NAME.equals(segments[3])
+          ? segments[3] : PLACEHOLDER_UID;
+      String sopInstanceUID = segments.length > 4 && !METADATA_FILE_NAME.equals(segments[4])
+          ? stripExtension(segments[4]) : PLACEHOLDER_UID;
+      String key = dicomStoreId + "/" + studyInstanceUID + "/" + seriesInstanceUID + "/"
+          + sopInstanceUID;
+      InstanceShape shape = instances.computeIfAbsent(key, k -> new InstanceShape(dicomStoreId,
+          studyInstanceUID, seriesInstanceUID, sopInstanceUID));
+      if (segments.length > 5) {
+        shape.frames = Math.max(shape.frames, parseFrameNumber(segments[5]));
+      } else if (operation.getType() == RecordedOperation.Type.READ) {
+        shape.length = Math.max(shape.length, operation.getOffset() + operation.getSize());
+      }
+    }
+    for (InstanceShape shape : instances.values()) {
+      if (PLACEHOLDER_UID.equals(shape.sopInstanceUID) && hasInstance(instances, shape)) {
+        continue;
+      }
+      dataset.putInstance(shape.dicomStoreId, StandInInstance.parse(shape.create()));
+    }
+    return dataset;
+  }
+
+  private static String stripExtension(String fileName) {
+    for (String extension : new String[] {DCM_EXTENSION, JSON_EXTENSION, FRAMES_EXTENSION}) {
+      if (fileName.endsWith(extension)) {
+        return fileName.substring(0, fileName.length() - extension.length());
+      }
+    }
+    return fileName;
+  }
+
+  private static int parseFrameNumber(String fileName) {
+    int end = fileName.indexOf('.');
+    try {
+      return Integer.parseInt(end < 0 ? fileName : fileName.substring(0, end));
+    } catch (NumberFormatException e) {
+      return 1;
+    }
+  }
+
+  // Whether the folder of a placeholder contains another Instance
+  private static boolean hasInstance(Map<String, InstanceShape> instances,
+      InstanceShape placeholder) {
+    String prefix = placeholder.dicomStoreId + "/" + placeholder.studyInstanceUID + "/"
+        + (PLACEHOLDER_UID.equals(placeholder.seriesInstanceUID) ? ""
+            : placeholder.seriesInstanceUID + "/");
+    for (Map.Entry<String, InstanceShape> entry : instances.entrySet()) {
+      if (entry.getValue() != placeholder && entry.getKey().startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static class InstanceShape {
+
+    private final String dicomStoreId;
+    private final String studyInstanceUID;
+    private final String seriesInstanceUID;
+    private final String sopInstanceUID;
+    private long length;
+    private int frames = 1;
+
+    private InstanceShape(String dicomStoreId, String studyInstanceUID, String seriesInstanceUID,
+        String sopInstanceUID) {
+      this.dicomStoreId = dicomStoreId;
+      this.studyInstanceUID = studyInstanceUID;
+      this.seriesInstanceUID = seriesInstanceUID;
+      this.sopInstanceUID = sopInstanceUID;
+    }
+
+    private byte[] create() {
+      // The pixel data has an even length and is split evenly into the frames
+      long frameLength = Math.max(length, MIN_PIXEL_DATA_LENGTH) / frames + 1;
+      frameLength += frameLength % 2;
+      return SyntheticDataset.createInstance(studyInstanceUID, seriesInstanceUID, sopInstanceUID,
+          frames, new byte[(int) (frameLength * frames)]);
+    }
+  }
+}
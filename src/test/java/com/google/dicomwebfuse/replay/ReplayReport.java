@@ -0,0 +1,125 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.replay;
+
+import com.google.dicomwebfuse.fuse.RecordedOperation;
+import com.google.dicomwebfuse.fuse.RecordedOperation.Type;
+import com.google.dicomwebfuse.standin.DicomWebStandIn.Operation;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency, HTTP requests and cache hits of replayed operations, per kind of operation. An
+ * operation is a cache hit if the stand-in received no request while it ran. Requests sent in the
+ * background, such as the further pages of a listing, are counted for the operation during which
+ * they arrived.
+ */
+public class ReplayReport {
+
+  private final Map<Type, Stats> stats = new EnumMap<>(Type.class);
+  private final Map<Operation, Long> httpRequestCounts = new EnumMap<>(Operation.class);
+
+  void add(Type type, long durationNanos, int result, long httpRequestCount) {
+    Stats typeStats = stats.computeIfAbsent(type, key -> new Stats());
+    typeStats.durationsNanos.add(durationNanos);
+    if (result < 0) {
+      typeStats.errorCount++;
+    }
+    typeStats.httpRequestCount += httpRequestCount;
+    if (httpRequestCount == 0) {
+      typeStats.cacheHitCount++;
+    }
+  }
+
+  void setHttpRequestCount(Operation operation, long count) {
+    httpRequestCounts.put(operation, count);
+  }
+
+  public int getCount(Type type) {
+    Stats typeStats = stats.get(type);
+    return typeStats == null ? 0 : typeStats.durationsNanos.size();
+  }
+
+  public int getErrorCount(Type type) {
+    Stats typeStats = stats.get(type);
+    return typeStats == null ? 0 : typeStats.errorCount;
+  }
+
+  /**
+   * Returns the latency below which the given percentage of operations completed, e.g. 99 for
+   * the 99th percentile.
+   */
+  public long getPercentileMicros(Type type, double percentile) {
+    Stats typeStats = stats.get(type);
+    if (typeStats == null) {
+      return 0;
+    }
+    List<Long> durationsNanos = new ArrayList<>(typeStats.durationsNanos);
+    Collections.sort(durationsNanos);
+    int rank = (int) Math.ceil(percentile / 100 * durationsNanos.size());
+    long durationNanos = durationsNanos.get(Math.max(0, Math.min(rank, durationsNanos.size()) - 1));
+    return TimeUnit.NANOSECONDS.toMicros(durationNanos);
+  }
+
+  public long getHttpRequestCount(Type type) {
+    Stats typeStats = stats.get(type);
+    return typeStats == null ? 0 : typeStats.httpRequestCount;
+  }
+
+  public double getCacheHitRate(Type type) {
+    Stats typeStats = stats.get(type);
+    return typeStats == null ? 0 : (double) typeStats.cacheHitCount / getCount(type);
+  }
+
+  /**
+   * Returns the number of requests of the given kind the stand-in answered during the replay.
+   */
+  public long getHttpRequestCount(Operation operation) {
+    return httpRequestCounts.getOrDefault(operation, 0L);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder stringBuilder = new StringBuilder(String.format(
+        "%-10s %8s %6s %10s %10s %10s %10s %8s %7s%n", "operation", "count", "errors", "p50 us",
+        "p90 us", "p99 us", "max us", "http", "hits"));
+    for (Type type : stats.keySet()) {
+      stringBuilder.append(String.format("%-10s %8d %6d %10d %10d %10d %10d %8d %6.1f%%%n",
+          type, getCount(type), getErrorCount(type), getPercentileMicros(type, 50),
+          getPercentileMicros(type, 90), getPercentileMicros(type, 99),
+          getPercentileMicros(type, 100), getHttpRequestCount(type),
+          getCacheHitRate(type) * 100));
+    }
+    stringBuilder.append("HTTP requests:");
+    httpRequestCounts.forEach((operation, count) -> {
+      if (count > 0) {
+        stringBuilder.append(' ').append(operation).append('=').append(count);
+      }
+    });
+    return stringBuilder.append(System.lineSeparator()).toString();
+  }
+
+  private static class Stats {
+
+    private final List<Long> durationsNanos = new ArrayList<>();
+    private int errorCount;
+    private long httpRequestCount;
+    private int cacheHitCount;
+  }
+}
@@ -0,0 +1,608 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.standin;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.io.ByteStreams;
+import com.google.dicomwebfuse.dao.http.MultipartReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.NameValuePair;
+import org.apache.hc.core5.http.URIScheme;
+import org.apache.hc.core5.http.impl.bootstrap.HttpAsyncServer;
+import org.apache.hc.core5.http.nio.support.classic.AbstractClassicServerExchangeHandler;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.impl.nio.bootstrap.H2ServerBootstrap;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.net.URIBuilder;
+import org.apache.hc.core5.reactor.ListenerEndpoint;
+
+/**
+ * In-process stand-in for the DICOM store and DICOMweb endpoints of the Healthcare API, which
+ * serves a {@link StandInDataset} over HTTP/1.1 and HTTP/2 on localhost. Both daos can be pointed
+ * at {@link #start()} to run them end to end without network access.
+ *
+ * <p>Supports listing, creating and deleting stores, QIDO with limit and offset, WADO of
+ * instances, series, frames and metadata, STOW and deletion of instances. Instances are returned
+ * in the syntax they are stored in, whatever syntax is requested. Latency, bandwidth, server errors
+ * and 429 responses can be injected to see how the client behaves against a slow or overloaded
+ * server.
+ */
+public class DicomWebStandIn implements Closeable {
+
+  public enum Operation {
+    LIST_STORES, GET_STORE, CREATE_STORE, DELETE_STORE, QIDO, WADO, METADATA, STOW, DELETE
+  }
+
+  private static final String DICOM_STORES = "dicomStores";
+  private static final String BOUNDARY = "stand-in-boundary";
+  private static final String DICOM_JSON = "application/dicom+json; charset=utf-8";
+  private static final int STORE_PAGE_SIZE = 100;
+  // Default and maximum limits of the Healthcare API
+  private static final int DEFAULT_STUDY_LIMIT = 100;
+  private static final int MAX_STUDY_LIMIT = 5000;
+  private static final int DEFAULT_INSTANCE_LIMIT = 1000;
+  private static final int MAX_INSTANCE_LIMIT = 50000;
+  private static final long THROTTLE_INTERVAL_MILLIS = 5;
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+  private final StandInDataset dataset;
+  private final Map<Operation, AtomicLong> requestCounts = new EnumMap<>(Operation.class);
+  private final AtomicLong injectedFaults = new AtomicLong();
+  // Responses are written by blocking threads, so that they can be delayed and throttled
+  private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "stand-in-" + THREAD_COUNT.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  });
+  private Random random = new Random(0);
+  private volatile long latencyMillis;
+  private volatile long bytesPerSecond;
+  private volatile double errorRate;
+  private volatile double throttleRate;
+  private volatile int retryAfterSeconds;
+  private HttpAsyncServer server;
+
+  public DicomWebStandIn(StandInDataset dataset) {
+    this.dataset = dataset;
+    for (Operation operation : Operation.values()) {
+      requestCounts.put(operation, new AtomicLong());
+    }
+  }
+
+  /**
+   * Delays each response by the given time before its first byte is sent.
+   */
+  public DicomWebStandIn setLatencyMillis(long latencyMillis) {
+    this.latencyMillis = latencyMillis;
+    return this;
+  }
+
+  /**
+   * Limits the rate at which the body of each response is sent, 0 for no limit.
+   */
+  public DicomWebStandIn setBytesPerSecond(long bytesPerSecond) {
+    this.bytesPerSecond = bytesPerSecond;
+    return this;
+  }
+
+  /**
+   * Answers the given share of requests with 503 Service Unavailable.
+   */
+  public DicomWebStandIn setErrorRate(double errorRate) {
+    this.errorRate = errorRate;
+    return this;
+  }
+
+  /**
+   * Answers the given share of requests with 429 Too Many Requests, with a Retry-After header if
+   * the delay is positive.
+   */
+  public DicomWebStandIn setThrottleRate(double throttleRate, int retryAfterSeconds) {
+    this.throttleRate = throttleRate;
+    this.retryAfterSeconds = retryAfterSeconds;
+    return this;
+  }
+
+  /**
+   * Makes the injected faults reproducible.
+   */
+  public DicomWebStandIn setSeed(long seed) {
+    random = new Random(seed);
+    return this;
+  }
+
+  /**
+   * Starts the server on a free port.
+   *
+   * @return the endpoint to pass to the dao in place of the Healthcare API
+   */
+  public URI start() throws IOException {
+    server = H2ServerBootstrap.bootstrap()
+        .setVersionPolicy(HttpVersionPolicy.NEGOTIATE)
+        .register("*", StandInExchangeHandler::new)
+        .create();
+    server.start();
+    try {
+      ListenerEndpoint listener =
+          server.listen(new InetSocketAddress("localhost", 0), URIScheme.HTTP).get();
+      int port = ((InetSocketAddress) listener.getAddress()).getPort();
+      return URI.create("http://localhost:" + port);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException(e);
+    } catch (ExecutionException e) {
+      throw new IOException(e);
+    }
+  }
+
+  /**
+   * Returns the number of requests of the given kind answered from the dataset, which does not
+   * include the requests answered with an injected fault.
+   */
+  public long getRequestCount(Operation operation) {
+    return requestCounts.get(operation).get();
+  }
+
+  public long getRequestCount() {
+    return requestCounts.values().stream().mapToLong(AtomicLong::get).sum();
+  }
+
+  /**
+   * Returns the number of requests answered with an injected 429 or 503.
+   */
+  public long getInjectedFaultCount() {
+    return injectedFaults.get();
+  }
+
+  public void resetCounts() {
+    requestCounts.values().forEach(count -> count.set(0));
+    injectedFaults.set(0);
+  }
+
+  @Override
+  public void close() {
+    if (server != null) {
+      server.close(CloseMode.IMMEDIATE);
+    }
+    executor.shutdownNow();
+  }
+
+  private Response route(HttpRequest request, byte[] body) throws IOException, URISyntaxException {
+    URIBuilder uriBuilder = new URIBuilder(request.getPath());
+    List<String> segments = uriBuilder.getPathSegments().stream()
+        .filter(segment -> !segment.isEmpty())
+        .collect(Collectors.toList());
+    Map<String, String> params = new LinkedHashMap<>();
+    for (NameValuePair param : uriBuilder.getQueryParams()) {
+      params.putIfAbsent(param.getName(), param.getValue());
+    }
+    String method = request.getMethod();
+    int storesIndex = segments.indexOf(DICOM_STORES);
+    if (storesIndex < 0) {
+      return Response.notFound();
+    }
+    // projects/.../datasets/.../dicomStores, without the API version
+    String storesName = String.join("/", segments.subList(1, storesIndex + 1));
+    List<String> path = segments.subList(storesIndex + 1, segments.size());
+    if (path.isEmpty()) {
+      if ("GET".equals(method)) {
+        count(Operation.LIST_STORES);
+        return listStores(storesName, params.get("pageToken"));
+      }
+      count(Operation.CREATE_STORE);
+      String dicomStoreId = params.get("dicomStoreId");
+      return dataset.createStore(dicomStoreId) ? storeResponse(storesName, dicomStoreId)
+          : Response.error(HttpStatus.SC_CONFLICT, "Store already exists");
+    }
+    String dicomStoreId = path.get(0);
+    if (path.size() == 1) {
+      if ("DELETE".equals(method)) {
+        count(Operation.DELETE_STORE);
+        return dataset.deleteStore(dicomStoreId) ? Response.json("{}".getBytes(UTF_8))
+            : Response.notFound();
+      }
+      count(Operation.GET_STORE);
+      return dataset.hasStore(dicomStoreId) ? storeResponse(storesName, dicomStoreId)
+          : Response.notFound();
+    }
+    if (path.size() < 3 || !dataset.hasStore(dicomStoreId)) {
+      return Response.notFound();
+    }
+    return routeDicomWeb(request, method, dicomStoreId, path.subList(3, path.size()), params,
+        body);
+  }
+
+  // The path after dicomWeb/studies
+  private Response routeDicomWeb(HttpRequest request, String method, String dicomStoreId,
+      List<String> path, Map<String, String> params, byte[] body) throws IOException {
+    boolean gzip = acceptsGzip(request);
+    if (path.isEmpty()) {
+      if ("POST".equals(method)) {
+        count(Operation.STOW);
+        return store(dicomStoreId, request, body);
+      }
+      count(Operation.QIDO);
+      List<StandInInstance> studies = distinct(dataset.getInstances(dicomStoreId,
+          params.get("StudyInstanceUID"), null), StandInInstance::getStudyInstanceUID);
+      return Response.dicomJson(qido(page(studies, params, DEFAULT_STUDY_LIMIT, MAX_STUDY_LIMIT),
+          false, false), gzip);
+    }
+    String studyInstanceUID = path.get(0);
+    String last = path.get(path.size() - 1);
+    if ("metadata".equals(last)) {
+      count(Operation.METADATA);
+      List<StandInInstance> instances = dataset.getInstances(dicomStoreId, studyInstanceUID,
+          path.size() > 3 ? path.get(2) : null);
+      if (path.size() > 5) {
+        instances = instances.stream()
+            .filter(instance -> instance.getSopInstanceUID().equals(path.get(4)))
+            .collect(Collectors.toList());
+      }
+      return instances.isEmpty() ? Response.notFound()
+          : Response.dicomJson(qido(instances, true, true), gzip);
+    }
+    if (path.size() == 2) {
+      count(Operation.QIDO);
+      List<StandInInstance> series = distinct(dataset.getInstances(dicomStoreId,
+          studyInstanceUID, params.get("SeriesInstanceUID")),
+          StandInInstance::getSeriesInstanceUID);
+      return Response.dicomJson(qido(page(series, params, DEFAULT_STUDY_LIMIT, MAX_STUDY_LIMIT),
+          true, false), gzip);
+    }
+    String seriesInstanceUID = path.get(2);
+    if (path.size() == 3) {
+      count(Operation.WADO);
+      return multipart(dataset.getInstances(dicomStoreId, studyInstanceUID, seriesInstanceUID),
+          "application/dicom", StandInInstance::getContent);
+    }
+    if (path.size() == 4) {
+      count(Operation.QIDO);
+      String sopInstanceUID = params.get("SOPInstanceUID");
+      List<StandInInstance> instances =
+          dataset.getInstances(dicomStoreId, studyInstanceUID, seriesInstanceUID).stream()
+              .filter(instance -> sopInstanceUID == null
+                  || sopInstanceUID.equals(instance.getSopInstanceUID()))
+              .collect(Collectors.toList());
+      return Response.dicomJson(qido(page(instances, params, DEFAULT_INSTANCE_LIMIT,
+          MAX_INSTANCE_LIMIT), true, true), gzip);
+    }
+    String sopInstanceUID = path.get(4);
+    StandInInstance instance = dataset.getInstance(dicomStoreId, studyInstanceUID,
+        seriesInstanceUID, sopInstanceUID);
+    if (path.size() == 5 && "DELETE".equals(method)) {
+      count(Operation.DELETE);
+      return dataset.deleteInstance(dicomStoreId, studyInstanceUID, seriesInstanceUID,
+          sopInstanceUID) ? Response.json("{}".getBytes(UTF_8)) : Response.notFound();
+    }
+    count(Operation.WADO);
+    if (instance == null) {
+      return Response.notFound();
+    }
+    if (path.size() == 5) {
+      return new Response(HttpStatus.SC_OK, instance.getContent(),
+          "application/dicom; transfer-syntax=" + instance.getTransferSyntax(), false);
+    }
+    byte[] frame = path.size() == 7 ? instance.getFrame(Integer.parseInt(path.get(6))) : null;
+    if (frame == null) {
+      return Response.notFound();
+    }
+    return multipart(Collections.singletonList(instance), "application/octet-stream",
+        frameInstance -> frame);
+  }
+
+  private Response listStores(String storesName, String pageToken) throws IOException {
+    List<String> storeIds = dataset.getStoreIds();
+    int from = pageToken == null ? 0 : Integer.parseInt(pageToken);
+    int to = Math.min(from + STORE_PAGE_SIZE, storeIds.size());
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    try (JsonGenerator generator = JSON_FACTORY.createGenerator(outputStream)) {
+      generator.writeStartObject();
+      generator.writeArrayFieldStart(DICOM_STORES);
+      for (String dicomStoreId : storeIds.subList(Math.min(from, to), to)) {
+        generator.writeStartObject();
+        generator.writeStringField("name", storesName + "/" + dicomStoreId);
+        generator.writeEndObject();
+      }
+      generator.writeEndArray();
+      if (to < storeIds.size()) {
+        generator.writeStringField("nextPageToken", Integer.toString(to));
+      }
+      generator.writeEndObject();
+    }
+    return Response.json(outputStream.toByteArray());
+  }
+
+  private static Response storeResponse(String storesName, String dicomStoreId)
+      throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    try (JsonGenerator generator = JSON_FACTORY.createGenerator(outputStream)) {
+      generator.writeStartObject();
+      generator.writeStringField("name", storesName + "/" + dicomStoreId);
+      generator.writeEndObject();
+    }
+    return Response.json(outputStream.toByteArray());
+  }
+
+  private Response store(String dicomStoreId, HttpRequest request, byte[] body)
+      throws IOException {
+    Header contentType = request.getFirstHeader(HttpHeaders.CONTENT_TYPE);
+    if (contentType == null || body == null) {
+      return Response.error(HttpStatus.SC_BAD_REQUEST, "Multipart body expected");
+    }
+    MultipartReader multipartReader = new MultipartReader(new ByteArrayInputStream(body),
+        MultipartReader.getBoundary(contentType.getValue()));
+    List<StandInInstance> instances = new ArrayList<>();
+    while (multipartReader.nextPart()) {
+      try {
+        instances.add(StandInInstance.parse(
+            ByteStreams.toByteArray(multipartReader.getPartContent())));
+      } catch (IllegalArgumentException e) {
+        return Response.error(HttpStatus.SC_BAD_REQUEST, e.getMessage());
+      }
+    }
+    for (StandInInstance instance : instances) {
+      dataset.putInstance(dicomStoreId, instance);
+    }
+    return new Response(HttpStatus.SC_OK, new byte[0], "application/dicom+xml", false);
+  }
+
+  private static List<StandInInstance> distinct(List<StandInInstance> instances,
+      Function<StandInInstance, String> uid) {
+    Map<String, StandInInstance> firstInstances = new LinkedHashMap<>();
+    for (StandInInstance instance : instances) {
+      firstInstances.putIfAbsent(uid.apply(instance), instance);
+    }
+    return new ArrayList<>(firstInstances.values());
+  }
+
+  private static List<StandInInstance> page(List<StandInInstance> instances,
+      Map<String, String> params, int defaultLimit, int maxLimit) {
+    int limit = params.containsKey("limit")
+        ? Math.min(Integer.parseInt(params.get("limit")), maxLimit) : defaultLimit;
+    int offset = params.containsKey("offset") ? Integer.parseInt(params.get("offset")) : 0;
+    int from = Math.min(offset, instances.size());
+    return instances.subList(from, Math.min(from + limit, instances.size()));
+  }
+
+  // DICOM JSON of the study, series or instance level attributes
+  private static byte[] qido(List<StandInInstance> instances, boolean series, boolean instance)
+      throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    try (JsonGenerator generator = JSON_FACTORY.createGenerator(outputStream)) {
+      generator.writeStartArray();
+      for (StandInInstance standInInstance : instances) {
+        generator.writeStartObject();
+        writeUid(generator, "0020000D", standInInstance.getStudyInstanceUID());
+        if (series) {
+          writeUid(generator, "0020000E", standInInstance.getSeriesInstanceUID());
+        }
+        if (instance) {
+          writeUid(generator, "00080018", standInInstance.getSopInstanceUID());
+          if (standInInstance.getNumberOfFrames() > 0) {
+            generator.writeObjectFieldStart("00280008");
+            generator.writeStringField("vr", "IS");
+            generator.writeArrayFieldStart("Value");
+            generator.writeNumber(standInInstance.getNumberOfFrames());
+            generator.writeEndArray();
+            generator.writeEndObject();
+          }
+        }
+        generator.writeEndObject();
+      }
+      generator.writeEndArray();
+    }
+    return outputStream.toByteArray();
+  }
+
+  private static void writeUid(JsonGenerator generator, String tag, String uid)
+      throws IOException {
+    generator.writeObjectFieldStart(tag);
+    generator.writeStringField("vr", "UI");
+    generator.writeArrayFieldStart("Value");
+    generator.writeString(uid);
+    generator.writeEndArray();
+    generator.writeEndObject();
+  }
+
+  private static Response multipart(List<StandInInstance> instances, String type,
+      Function<StandInInstance, byte[]> content) {
+    if (instances.isEmpty()) {
+      return Response.notFound();
+    }
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    for (StandInInstance instance : instances) {
+      writeAscii(body, "--" + BOUNDARY + "\r\nContent-Type: " + type + "; transfer-syntax="
+          + instance.getTransferSyntax() + "\r\n\r\n");
+      byte[] part = content.apply(instance);
+      body.write(part, 0, part.length);
+      writeAscii(body, "\r\n");
+    }
+    writeAscii(body, "--" + BOUNDARY + "--");
+    return new Response(HttpStatus.SC_OK, body.toByteArray(), "multipart/related; type=\"" + type
+        + "\"; boundary=" + BOUNDARY, false);
+  }
+
+  private static void writeAscii(ByteArrayOutputStream outputStream, String value) {
+    byte[] bytes = value.getBytes(UTF_8);
+    outputStream.write(bytes, 0, bytes.length);
+  }
+
+  private static boolean acceptsGzip(HttpRequest request) {
+    Header acceptEncoding = request.getFirstHeader(HttpHeaders.ACCEPT_ENCODING);
+    return acceptEncoding != null && acceptEncoding.getValue().contains("gzip");
+  }
+
+  private void count(Operation operation) {
+    requestCounts.get(operation).incrementAndGet();
+  }
+
+  private Response injectFault() {
+    double draw;
+    synchronized (this) {
+      draw = random.nextDouble();
+    }
+    if (draw < throttleRate) {
+      injectedFaults.incrementAndGet();
+      Response response = Response.error(429, "Injected quota error");
+      if (retryAfterSeconds > 0) {
+        response.retryAfterSeconds = retryAfterSeconds;
+      }
+      return response;
+    }
+    if (draw < throttleRate + errorRate) {
+      injectedFaults.incrementAndGet();
+      return Response.error(HttpStatus.SC_SERVICE_UNAVAILABLE, "Injected error");
+    }
+    return null;
+  }
+
+  private static final class Response {
+
+    private final int statusCode;
+    private final byte[] body;
+    private final String contentType;
+    private final boolean gzip;
+    private int retryAfterSeconds;
+
+    private Response(int statusCode, byte[] body, String contentType, boolean gzip) {
+      this.statusCode = statusCode;
+      this.body = body;
+      this.contentType = contentType;
+      this.gzip = gzip;
+    }
+
+    private static Response json(byte[] body) {
+      return new Response(HttpStatus.SC_OK, body, "application/json; charset=utf-8", false);
+    }
+
+    private static Response dicomJson(byte[] body, boolean gzip) throws IOException {
+      if (!gzip) {
+        return new Response(HttpStatus.SC_OK, body, DICOM_JSON, false);
+      }
+      ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+      try (OutputStream gzipStream = new GZIPOutputStream(outputStream)) {
+        gzipStream.write(body);
+      }
+      return new Response(HttpStatus.SC_OK, outputStream.toByteArray(), DICOM_JSON, true);
+    }
+
+    private static Response error(int statusCode, String message) {
+      String body = "{\"error\":{\"code\":" + statusCode + ",\"message\":\"" + message + "\"}}";
+      return new Response(statusCode, body.getBytes(UTF_8), "application/json; charset=utf-8",
+          false);
+    }
+
+    private static Response notFound() {
+      return error(HttpStatus.SC_NOT_FOUND, "Not found");
+    }
+  }
+
+  private class StandInExchangeHandler extends AbstractClassicServerExchangeHandler {
+
+    private StandInExchangeHandler() {
+      super(BUFFER_SIZE, executor);
+    }
+
+    @Override
+    protected void handle(HttpRequest request, InputStream requestStream, HttpResponse response,
+        OutputStream responseStream, HttpContext context) throws IOException {
+      byte[] body = requestStream == null ? null : ByteStreams.toByteArray(requestStream);
+      Response standInResponse = injectFault();
+      if (standInResponse == null) {
+        try {
+          standInResponse = route(request, body);
+        } catch (IOException | URISyntaxException | RuntimeException e) {
+          standInResponse = Response.error(HttpStatus.SC_INTERNAL_SERVER_ERROR, e.toString());
+        }
+      }
+      sleep(latencyMillis);
+      response.setCode(standInResponse.statusCode);
+      response.setHeader(HttpHeaders.CONTENT_TYPE, standInResponse.contentType);
+      if (standInResponse.gzip) {
+        response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+      }
+      if (standInResponse.retryAfterSeconds > 0) {
+        response.setHeader(HttpHeaders.RETRY_AFTER,
+            Integer.toString(standInResponse.retryAfterSeconds));
+      }
+      write(standInResponse.body, responseStream);
+    }
+
+    // Sends the body no faster than the configured bandwidth
+    private void write(byte[] body, OutputStream responseStream) throws IOException {
+      long limit = bytesPerSecond;
+      if (limit <= 0) {
+        responseStream.write(body);
+        return;
+      }
+      int chunkLength = (int) Math.max(1, limit * THROTTLE_INTERVAL_MILLIS / 1000);
+      long startNanos = System.nanoTime();
+      for (int offset = 0; offset < body.length; offset += chunkLength) {
+        int length = Math.min(chunkLength, body.length - offset);
+        responseStream.write(body, offset, length);
+        responseStream.flush();
+        long dueNanos = startNanos + TimeUnit.SECONDS.toNanos(offset + length) / limit;
+        sleep(TimeUnit.NANOSECONDS.toMillis(dueNanos - System.nanoTime()));
+      }
+    }
+
+    private void sleep(long millis) throws InterruptedIOException {
+      if (millis <= 0) {
+        return;
+      }
+      try {
+        Thread.sleep(millis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException();
+      }
+    }
+  }
+}
@@ -0,0 +1,218 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.standin;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.google.dicomwebfuse.TestUtils;
+import com.google.dicomwebfuse.dao.AsyncFuseDao;
+import com.google.dicomwebfuse.dao.AsyncFuseDaoImpl;
+import com.google.dicomwebfuse.dao.FuseDao;
+import com.google.dicomwebfuse.dao.UploadPipe;
+import com.google.dicomwebfuse.dao.http.Http2ClientFactoryImpl;
+import com.google.dicomwebfuse.dao.http.HttpClientFactoryImpl;
+import com.google.dicomwebfuse.dao.limiter.AdaptiveLimiters;
+import com.google.dicomwebfuse.dao.retry.RetryBudget;
+import com.google.dicomwebfuse.dao.retry.RetryPolicy;
+import com.google.dicomwebfuse.dao.spec.QueryBuilder;
+import com.google.dicomwebfuse.entities.CloudConf;
+import com.google.dicomwebfuse.entities.Instance;
+import com.google.dicomwebfuse.entities.Study;
+import com.google.dicomwebfuse.standin.DicomWebStandIn.Operation;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class DicomWebStandInTest {
+
+  private static final String TEST = "test";
+  private static final String STORE = SyntheticDataset.storeId(1);
+  private static final int FRAME_SIZE = 64 * 1024;
+  private static final int FRAMES = 4;
+  private static final long TIMEOUT_SECONDS = 30;
+  private final StandInDataset dataset = new StandInDataset();
+  private final DicomWebStandIn standIn = new DicomWebStandIn(dataset);
+  private HttpClientFactoryImpl httpClientFactory;
+  private Http2ClientFactoryImpl http2ClientFactory;
+
+  @AfterEach
+  void tearDown() throws Exception {
+    if (httpClientFactory != null) {
+      httpClientFactory.close();
+    }
+    if (http2ClientFactory != null) {
+      http2ClientFactory.close();
+    }
+    standIn.close();
+  }
+
+  @Test
+  void testShouldPageStudiesOverHttp1() throws Exception {
+    // given
+    new SyntheticDataset(0).setStudiesPerStore(5001).setFrameSize(16).generate(dataset);
+    FuseDao fuseDao = prepareFuseDao(standIn.start());
+    QueryBuilder queryBuilder = prepareQueryBuilder();
+    // when
+    List<Study> firstPage = fuseDao.getStudies(queryBuilder.setOffset(0));
+    List<Study> secondPage = fuseDao.getStudies(queryBuilder.setOffset(5000));
+    // then
+    assertEquals(5000, firstPage.size());
+    assertEquals(1, secondPage.size());
+    assertEquals(SyntheticDataset.studyUid(1, 1), firstPage.get(0).getStudyInstanceUID());
+    assertEquals(STORE, fuseDao.getAllDicomStores(queryBuilder).get(0).getDicomStoreId());
+    assertEquals(2, standIn.getRequestCount(Operation.QIDO));
+  }
+
+  @Test
+  void testShouldStoreInstanceFromUploadPipeOverHttp1() throws Exception {
+    // given
+    dataset.createStore(STORE);
+    FuseDao fuseDao = prepareFuseDao(standIn.start());
+    byte[] content = SyntheticDataset.createInstance(SyntheticDataset.studyUid(1, 1),
+        SyntheticDataset.seriesUid(1, 1, 1), SyntheticDataset.sopUid(1, 1, 1, 1), FRAMES,
+        new byte[FRAMES * FRAME_SIZE]);
+    UploadPipe uploadPipe = new UploadPipe(FRAME_SIZE);
+    // when
+    CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+      try {
+        for (int offset = 0; offset < content.length; offset += FRAME_SIZE / 4) {
+          uploadPipe.write(Arrays.copyOfRange(content, offset,
+              Math.min(content.length, offset + FRAME_SIZE / 4)));
+        }
+        uploadPipe.close();
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    fuseDao.uploadInstance(prepareQueryBuilder().setUploadPipe(uploadPipe));
+    writer.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    // then
+    List<StandInInstance> instances = dataset.getInstances(STORE, null, null);
+    assertEquals(1, instances.size());
+    assertEquals(SyntheticDataset.sopUid(1, 1, 1, 1), instances.get(0).getSopInstanceUID());
+    assertEquals(1, standIn.getRequestCount(Operation.STOW));
+  }
+
+  @Test
+  void testShouldStoreRetrieveAndDeleteInstanceOverHttp2() throws Exception {
+    // given
+    dataset.createStore(STORE);
+    AsyncFuseDao asyncFuseDao = prepareAsyncFuseDao(standIn.start());
+    byte[] pixelData = new byte[FRAMES * FRAME_SIZE];
+    pixelData[2 * FRAME_SIZE] = 1;
+    byte[] content = SyntheticDataset.createInstance(SyntheticDataset.studyUid(1, 1),
+        SyntheticDataset.seriesUid(1, 1, 1), SyntheticDataset.sopUid(1, 1, 1, 1), FRAMES,
+        pixelData);
+    Path instanceDataPath = writeTempFile(content);
+    QueryBuilder queryBuilder = prepareQueryBuilder()
+        .setStudyId(SyntheticDataset.studyUid(1, 1))
+        .setSeriesId(SyntheticDataset.seriesUid(1, 1, 1))
+        .setInstanceId(SyntheticDataset.sopUid(1, 1, 1, 1))
+        .setOffset(0);
+    // when
+    asyncFuseDao.uploadInstance(queryBuilder.setInstanceDataPath(instanceDataPath))
+        .get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    List<Instance> instances =
+        asyncFuseDao.getInstances(queryBuilder).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    Path downloadedPath = Files.createTempFile(TEST, TEST);
+    asyncFuseDao.downloadInstance(queryBuilder.setInstanceDataPath(downloadedPath))
+        .get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    Path framePath = Files.createTempFile(TEST, TEST);
+    asyncFuseDao.downloadFrame(queryBuilder.setFrameNumber(3).setInstanceDataPath(framePath))
+        .get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    asyncFuseDao.deleteInstance(queryBuilder).get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    // then
+    assertEquals(1, instances.size());
+    assertEquals(FRAMES, instances.get(0).getNumberOfFrames());
+    assertArrayEquals(content, Files.readAllBytes(downloadedPath));
+    byte[] frame = Files.readAllBytes(framePath);
+    assertEquals(FRAME_SIZE, frame.length);
+    assertEquals(1, frame[0]);
+    assertTrue(dataset.getInstances(STORE, null, null).isEmpty());
+  }
+
+  @Test
+  void testShouldRetryInjectedThrottling() throws Exception {
+    // given
+    new SyntheticDataset(0).setStudiesPerStore(3).generate(dataset);
+    AsyncFuseDao asyncFuseDao = prepareAsyncFuseDao(standIn.setSeed(1)
+        .setThrottleRate(0.3, 0)
+        .start());
+    // when
+    for (int i = 0; i < 10; i++) {
+      List<Study> studies = asyncFuseDao.getStudies(prepareQueryBuilder().setOffset(0))
+          .get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      assertEquals(3, studies.size());
+    }
+    // then
+    assertTrue(standIn.getInjectedFaultCount() > 0);
+    assertTrue(standIn.getRequestCount(Operation.QIDO) >= 10);
+  }
+
+  @Test
+  void testShouldLimitBandwidthAndAddLatency() throws Exception {
+    // given
+    new SyntheticDataset(0).setFramesPerInstance(FRAMES).setFrameSize(FRAME_SIZE)
+        .generate(dataset);
+    FuseDao fuseDao = prepareFuseDao(standIn.setLatencyMillis(100)
+        .setBytesPerSecond(FRAMES * FRAME_SIZE * 2)
+        .start());
+    Path downloadedPath = Files.createTempFile(TEST, TEST);
+    QueryBuilder queryBuilder = prepareQueryBuilder()
+        .setStudyId(SyntheticDataset.studyUid(1, 1))
+        .setSeriesId(SyntheticDataset.seriesUid(1, 1, 1))
+        .setInstanceId(SyntheticDataset.sopUid(1, 1, 1, 1))
+        .setInstanceDataPath(downloadedPath);
+    // when
+    long start = System.nanoTime();
+    fuseDao.downloadInstance(queryBuilder);
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    // then
+    // 100 ms of latency and half a second for the pixel data
+    assertTrue(elapsedMillis >= 550, "Downloaded in " + elapsedMillis + " ms");
+    assertTrue(Files.size(downloadedPath) > FRAMES * FRAME_SIZE);
+  }
+
+  private FuseDao prepareFuseDao(URI endpoint) {
+    httpClientFactory = new HttpClientFactoryImpl(10, 10, 60);
+    return TestUtils.prepareFuseDao(TestUtils.prepareAuthAdc(TEST), httpClientFactory, endpoint);
+  }
+
+  private AsyncFuseDao prepareAsyncFuseDao(URI endpoint) {
+    http2ClientFactory = new Http2ClientFactoryImpl(60);
+    return new AsyncFuseDaoImpl(TestUtils.prepareAuthAdc(TEST), http2ClientFactory, endpoint,
+        new AdaptiveLimiters(10, 64), new RetryPolicy(5, 100, new RetryBudget(1)));
+  }
+
+  private static QueryBuilder prepareQueryBuilder() {
+    return QueryBuilder.forConfiguration(new CloudConf("v1", TEST, TEST, TEST))
+        .setDicomStoreId(STORE);
+  }
+
+  private static Path writeTempFile(byte[] content) throws Exception {
+    Path path = Files.createTempFile(TEST, TEST);
+    path.toFile().deleteOnExit();
+    return Files.write(path, content);
+  }
+}
@@ -0,0 +1,139 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.standin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * The DICOM stores of the dataset served by {@link DicomWebStandIn}. Stores, studies, series and
+ * instances are kept sorted by their IDs, so that pages requested with limit and offset are stable
+ * while the dataset does not change.
+ */
+public class StandInDataset {
+
+  // Store ID -> Study Instance UID -> Series Instance UID -> SOP Instance UID -> Instance
+  private final ConcurrentNavigableMap<String, ConcurrentNavigableMap<String,
+      ConcurrentNavigableMap<String, ConcurrentNavigableMap<String, StandInInstance>>>> stores =
+      new ConcurrentSkipListMap<>();
+
+  /**
+   * @return false if the store already exists
+   */
+  public boolean createStore(String dicomStoreId) {
+    return stores.putIfAbsent(dicomStoreId, new ConcurrentSkipListMap<>()) == null;
+  }
+
+  /**
+   * @return false if there is no such store
+   */
+  public boolean deleteStore(String dicomStoreId) {
+    return stores.remove(dicomStoreId) != null;
+  }
+
+  public boolean hasStore(String dicomStoreId) {
+    return stores.containsKey(dicomStoreId);
+  }
+
+  public List<String> getStoreIds() {
+    return new ArrayList<>(stores.keySet());
+  }
+
+  /**
+   * Stores the instance, replacing an instance with the same UIDs.
+   *
+   * @return false if there is no such store
+   */
+  public boolean putInstance(String dicomStoreId, StandInInstance instance) {
+    ConcurrentNavigableMap<String, ConcurrentNavigableMap<String,
+        ConcurrentNavigableMap<String, StandInInstance>>> studies = stores.get(dicomStoreId);
+    if (studies == null) {
+      return false;
+    }
+    studies.computeIfAbsent(instance.getStudyInstanceUID(), uid -> new ConcurrentSkipListMap<>())
+        .computeIfAbsent(instance.getSeriesInstanceUID(), uid -> new ConcurrentSkipListMap<>())
+        .put(instance.getSopInstanceUID(), instance);
+    return true;
+  }
+
+  /**
+   * Removes the instance, and its series and study if they become empty.
+   *
+   * @return false if there is no such instance
+   */
+  public boolean deleteInstance(String dicomStoreId, String studyInstanceUID,
+      String seriesInstanceUID, String sopInstanceUID) {
+    NavigableMap<String, StandInInstance> instances =
+        getInstanceMap(dicomStoreId, studyInstanceUID, seriesInstanceUID);
+    if (instances.remove(sopInstanceUID) == null) {
+      return false;
+    }
+    ConcurrentNavigableMap<String, ConcurrentNavigableMap<String,
+        ConcurrentNavigableMap<String, StandInInstance>>> studies = stores.get(dicomStoreId);
+    ConcurrentNavigableMap<String, ConcurrentNavigableMap<String, StandInInstance>> series =
+        studies.get(studyInstanceUID);
+    series.remove(seriesInstanceUID, Collections.emptyMap());
+    studies.remove(studyInstanceUID, Collections.emptyMap());
+    return true;
+  }
+
+  /**
+   * Returns the instances of the store, study or series in the order of their UIDs. The UIDs of
+   * the study and the series may be null to list all of them.
+   */
+  public List<StandInInstance> getInstances(String dicomStoreId, String studyInstanceUID,
+      String seriesInstanceUID) {
+    ConcurrentNavigableMap<String, ConcurrentNavigableMap<String,
+        ConcurrentNavigableMap<String, StandInInstance>>> studies = stores.get(dicomStoreId);
+    List<StandInInstance> instances = new ArrayList<>();
+    if (studies == null) {
+      return instances;
+    }
+    for (Map.Entry<String, ConcurrentNavigableMap<String,
+        ConcurrentNavigableMap<String, StandInInstance>>> study : studies.entrySet()) {
+      if (studyInstanceUID != null && !studyInstanceUID.equals(study.getKey())) {
+        continue;
+      }
+      for (Map.Entry<String, ConcurrentNavigableMap<String, StandInInstance>> series
+          : study.getValue().entrySet()) {
+        if (seriesInstanceUID == null || seriesInstanceUID.equals(series.getKey())) {
+          instances.addAll(series.getValue().values());
+        }
+      }
+    }
+    return instances;
+  }
+
+  public StandInInstance getInstance(String dicomStoreId, String studyInstanceUID,
+      String seriesInstanceUID, String sopInstanceUID) {
+    return getInstanceMap(dicomStoreId, studyInstanceUID, seriesInstanceUID).get(sopInstanceUID);
+  }
+
+  private NavigableMap<String, StandInInstance> getInstanceMap(String dicomStoreId,
+      String studyInstanceUID, String seriesInstanceUID) {
+    ConcurrentNavigableMap<String, ConcurrentNavigableMap<String,
+        ConcurrentNavigableMap<String, StandInInstance>>> studies = stores.get(dicomStoreId);
+    if (studies == null || !studies.containsKey(studyInstanceUID)) {
+      return Collections.emptyNavigableMap();
+    }
+    return studies.get(studyInstanceUID)
+        .getOrDefault(seriesInstanceUID, new ConcurrentSkipListMap<>());
+  }
+}
@@ -0,0 +1,235 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.standin;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A DICOM file held by the stand-in server, with the attributes that are returned by QIDO. The
+ * attributes are read from the file when it is stored, so that uploaded files are listed like
+ * generated ones.
+ */
+public class StandInInstance {
+
+  static final String EXPLICIT_VR_LITTLE_ENDIAN = "1.2.840.10008.1.2.1";
+  private static final String IMPLICIT_VR_LITTLE_ENDIAN = "1.2.840.10008.1.2";
+  private static final int PREAMBLE_LENGTH = 128;
+  private static final byte[] PREFIX = "DICM".getBytes(US_ASCII);
+  private static final int TRANSFER_SYNTAX_UID = 0x00020010;
+  private static final int SOP_INSTANCE_UID = 0x00080018;
+  private static final int STUDY_INSTANCE_UID = 0x0020000D;
+  private static final int SERIES_INSTANCE_UID = 0x0020000E;
+  private static final int NUMBER_OF_FRAMES = 0x00280008;
+  private static final int PIXEL_DATA = 0x7FE00010;
+  private static final int ITEM = 0xFFFEE000;
+  private static final int ITEM_DELIMITATION = 0xFFFEE00D;
+  private static final int SEQUENCE_DELIMITATION = 0xFFFEE0DD;
+  private static final long UNDEFINED_LENGTH = 0xFFFFFFFFL;
+  private static final Set<String> LONG_VRS = new HashSet<>(Arrays.asList(
+      "OB", "OD", "OF", "OL", "OV", "OW", "SQ", "SV", "UC", "UN", "UR", "UT", "UV"));
+  private final String studyInstanceUID;
+  private final String seriesInstanceUID;
+  private final String sopInstanceUID;
+  private final String transferSyntax;
+  private final int numberOfFrames;
+  private final byte[] content;
+  // Native pixel data, which is split into frames of equal size
+  private final int pixelDataOffset;
+  private final int pixelDataLength;
+
+  private StandInInstance(Attributes attributes, byte[] content) {
+    this.studyInstanceUID = attributes.studyInstanceUID;
+    this.seriesInstanceUID = attributes.seriesInstanceUID;
+    this.sopInstanceUID = attributes.sopInstanceUID;
+    this.transferSyntax = attributes.transferSyntax;
+    this.numberOfFrames = attributes.numberOfFrames;
+    this.content = content;
+    this.pixelDataOffset = attributes.pixelDataOffset;
+    this.pixelDataLength = attributes.pixelDataLength;
+  }
+
+  /**
+   * Reads the attributes of a DICOM file in Explicit or Implicit VR Little Endian.
+   *
+   * @throws IllegalArgumentException if the file is not a DICOM file or lacks one of the UIDs
+   */
+  public static StandInInstance parse(byte[] content) {
+    if (content.length < PREAMBLE_LENGTH + PREFIX.length || !Arrays.equals(PREFIX,
+        Arrays.copyOfRange(content, PREAMBLE_LENGTH, PREAMBLE_LENGTH + PREFIX.length))) {
+      throw new IllegalArgumentException("Not a DICOM file");
+    }
+    Attributes attributes = new Attributes();
+    int position = PREAMBLE_LENGTH + PREFIX.length;
+    // The File Meta Information is always in Explicit VR Little Endian
+    while (position < content.length && readUnsignedShort(content, position) == 0x0002) {
+      position = readElement(content, position, true, attributes);
+    }
+    boolean explicitVr = !IMPLICIT_VR_LITTLE_ENDIAN.equals(attributes.transferSyntax);
+    while (position < content.length && attributes.pixelDataOffset == 0) {
+      position = readElement(content, position, explicitVr, attributes);
+    }
+    if (attributes.studyInstanceUID == null || attributes.seriesInstanceUID == null
+        || attributes.sopInstanceUID == null) {
+      throw new IllegalArgumentException("Study, Series and SOP Instance UIDs are required");
+    }
+    return new StandInInstance(attributes, content);
+  }
+
+  public String getStudyInstanceUID() {
+    return studyInstanceUID;
+  }
+
+  public String getSeriesInstanceUID() {
+    return seriesInstanceUID;
+  }
+
+  public String getSopInstanceUID() {
+    return sopInstanceUID;
+  }
+
+  public String getTransferSyntax() {
+    return transferSyntax;
+  }
+
+  public int getNumberOfFrames() {
+    return numberOfFrames;
+  }
+
+  public byte[] getContent() {
+    return content;
+  }
+
+  /**
+   * Returns the given frame, numbered from 1, or null if the instance has no such frame.
+   */
+  byte[] getFrame(int frameNumber) {
+    int frameCount = Math.max(numberOfFrames, 1);
+    if (pixelDataLength == 0 || frameNumber < 1 || frameNumber > frameCount) {
+      return null;
+    }
+    int frameLength = pixelDataLength / frameCount;
+    int offset = pixelDataOffset + (frameNumber - 1) * frameLength;
+    return Arrays.copyOfRange(content, offset, offset + frameLength);
+  }
+
+  private static int readElement(byte[] content, int position, boolean explicitVr,
+      Attributes attributes) {
+    int tag = readTag(content, position);
+    long length;
+    int valueOffset;
+    if (explicitVr && (tag >>> 16) != 0xFFFE) {
+      String vr = new String(content, position + 4, 2, US_ASCII);
+      if (LONG_VRS.contains(vr)) {
+        length = readUnsignedInt(content, position + 8);
+        valueOffset = position + 12;
+      } else {
+        length = readUnsignedShort(content, position + 6);
+        valueOffset = position + 8;
+      }
+    } else {
+      length = readUnsignedInt(content, position + 4);
+      valueOffset = position + 8;
+    }
+    if (length == UNDEFINED_LENGTH) {
+      // Sequences and encapsulated pixel data, which are made of items
+      return skipItems(content, valueOffset, explicitVr);
+    }
+    switch (tag) {
+      case TRANSFER_SYNTAX_UID:
+        attributes.transferSyntax = readString(content, valueOffset, (int) length);
+        break;
+      case STUDY_INSTANCE_UID:
+        attributes.studyInstanceUID = readString(content, valueOffset, (int) length);
+        break;
+      case SERIES_INSTANCE_UID:
+        attributes.seriesInstanceUID = readString(content, valueOffset, (int) length);
+        break;
+      case SOP_INSTANCE_UID:
+        attributes.sopInstanceUID = readString(content, valueOffset, (int) length);
+        break;
+      case NUMBER_OF_FRAMES:
+        attributes.numberOfFrames =
+            Integer.parseInt(readString(content, valueOffset, (int) length));
+        break;
+      case PIXEL_DATA:
+        attributes.pixelDataOffset = valueOffset;
+        attributes.pixelDataLength = (int) length;
+        break;
+      default:
+    }
+    return valueOffset + (int) length;
+  }
+
+  private static int skipItems(byte[] content, int position, boolean explicitVr) {
+    while (position < content.length) {
+      int tag = readTag(content, position);
+      long length = readUnsignedInt(content, position + 4);
+      position += 8;
+      if (tag == SEQUENCE_DELIMITATION) {
+        return position;
+      }
+      if (tag == ITEM && length == UNDEFINED_LENGTH) {
+        position = skipItemElements(content, position, explicitVr);
+      } else {
+        position += (int) length;
+      }
+    }
+    return position;
+  }
+
+  private static int skipItemElements(byte[] content, int position, boolean explicitVr) {
+    while (position < content.length) {
+      if (readTag(content, position) == ITEM_DELIMITATION) {
+        return position + 8;
+      }
+      // Attributes of nested items are not read
+      position = readElement(content, position, explicitVr, new Attributes());
+    }
+    return position;
+  }
+
+  private static int readTag(byte[] content, int position) {
+    return readUnsignedShort(content, position) << 16 | readUnsignedShort(content, position + 2);
+  }
+
+  private static int readUnsignedShort(byte[] content, int position) {
+    return (content[position] & 0xFF) | (content[position + 1] & 0xFF) << 8;
+  }
+
+  private static long readUnsignedInt(byte[] content, int position) {
+    return readUnsignedShort(content, position)
+        | (long) readUnsignedShort(content, position + 2) << 16;
+  }
+
+  private static String readString(byte[] content, int position, int length) {
+    // Values are padded to an even length with a space or a null byte
+    return new String(content, position, length, US_ASCII).trim();
+  }
+
+  private static class Attributes {
+
+    private String transferSyntax;
+    private String studyInstanceUID;
+    private String seriesInstanceUID;
+    private String sopInstanceUID;
+    private int numberOfFrames;
+    private int pixelDataOffset;
+    private int pixelDataLength;
+  }
+}
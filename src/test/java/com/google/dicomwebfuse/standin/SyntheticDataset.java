@@ -0,0 +1,176 @@
+// Copyright 2019 Google LLC
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.dicomwebfuse.standin;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+/**
+ * Generates a reproducible dataset of DICOM stores with the same number of studies, series and
+ * instances in each store. Instances are small Explicit VR Little Endian files whose pixel data
+ * is random and split into the given number of frames.
+ */
+public class SyntheticDataset {
+
+  // Example UID root, as in the DICOM standard
+  private static final String UID_ROOT = "1.2.826.0.1.3680043.8.498";
+  private static final String CT_IMAGE_STORAGE = "1.2.840.10008.5.1.4.1.1.2";
+  private final Random random;
+  private int stores = 1;
+  private int studiesPerStore = 1;
+  private int seriesPerStudy = 1;
+  private int instancesPerSeries = 1;
+  private int framesPerInstance = 1;
+  private int frameSize = 1024;
+
+  public SyntheticDataset(long seed) {
+    random = new Random(seed);
+  }
+
+  public SyntheticDataset setStores(int stores) {
+    this.stores = stores;
+    return this;
+  }
+
+  public SyntheticDataset setStudiesPerStore(int studiesPerStore) {
+    this.studiesPerStore = studiesPerStore;
+    return this;
+  }
+
+  public SyntheticDataset setSeriesPerStudy(int seriesPerStudy) {
+    this.seriesPerStudy = seriesPerStudy;
+    return this;
+  }
+
+  public SyntheticDataset setInstancesPerSeries(int instancesPerSeries) {
+    this.instancesPerSeries = instancesPerSeries;
+    return this;
+  }
+
+  public SyntheticDataset setFramesPerInstance(int framesPerInstance) {
+    this.framesPerInstance = framesPerInstance;
+    return this;
+  }
+
+  public SyntheticDataset setFrameSize(int frameSize) {
+    this.frameSize = frameSize;
+    return this;
+  }
+
+  /**
+   * Adds the stores to the dataset. Stores are named store-1, store-2, and so on, and UIDs are
+   * numbered the same way, so that a test can address any object without listing first.
+   */
+  public StandInDataset generate(StandInDataset dataset) {
+    for (int store = 1; store <= stores; store++) {
+      String dicomStoreId = storeId(store);
+      dataset.createStore(dicomStoreId);
+      for (int study = 1; study <= studiesPerStore; study++) {
+        for (int series = 1; series <= seriesPerStudy; series++) {
+          for (int instance = 1; instance <= instancesPerSeries; instance++) {
+            byte[] pixelData = new byte[framesPerInstance * frameSize];
+            random.nextBytes(pixelData);
+            byte[] content = createInstance(studyUid(store, study),
+                seriesUid(store, study, series), sopUid(store, study, series, instance),
+                framesPerInstance, pixelData);
+            dataset.putInstance(dicomStoreId, StandInInstance.parse(content));
+          }
+        }
+      }
+    }
+    return dataset;
+  }
+
+  public static String storeId(int store) {
+    return "store-" + store;
+  }
+
+  public static String studyUid(int store, int study) {
+    return UID_ROOT + "." + store + "." + study;
+  }
+
+  public static String seriesUid(int store, int study, int series) {
+    return studyUid(store, study) + "." + series;
+  }
+
+  public static String sopUid(int store, int study, int series, int instance) {
+    return seriesUid(store, study, series) + "." + instance;
+  }
+
+  /**
+   * Creates a DICOM file with the File Meta Information, the UIDs and the pixel data.
+   */
+  public static byte[] createInstance(String studyInstanceUID, String seriesInstanceUID,
+      String sopInstanceUID, int numberOfFrames, byte[] pixelData) {
+    ByteArrayOutputStream metaInformation = new ByteArrayOutputStream();
+    writeElement(metaInformation, 0x0002, 0x0001, "OB", new byte[] {0, 1});
+    writeElement(metaInformation, 0x0002, 0x0002, "UI", uid(CT_IMAGE_STORAGE));
+    writeElement(metaInformation, 0x0002, 0x0003, "UI", uid(sopInstanceUID));
+    writeElement(metaInformation, 0x0002, 0x0010, "UI",
+        uid(StandInInstance.EXPLICIT_VR_LITTLE_ENDIAN));
+    ByteArrayOutputStream dicomFile = new ByteArrayOutputStream();
+    dicomFile.write(new byte[128], 0, 128);
+    dicomFile.write('D');
+    dicomFile.write('I');
+    dicomFile.write('C');
+    dicomFile.write('M');
+    writeElement(dicomFile, 0x0002, 0x0000, "UL", intValue(metaInformation.size()));
+    byte[] metaBytes = metaInformation.toByteArray();
+    dicomFile.write(metaBytes, 0, metaBytes.length);
+    writeElement(dicomFile, 0x0008, 0x0016, "UI", uid(CT_IMAGE_STORAGE));
+    writeElement(dicomFile, 0x0008, 0x0018, "UI", uid(sopInstanceUID));
+    writeElement(dicomFile, 0x0020, 0x000D, "UI", uid(studyInstanceUID));
+    writeElement(dicomFile, 0x0020, 0x000E, "UI", uid(seriesInstanceUID));
+    writeElement(dicomFile, 0x0028, 0x0008, "IS", text(Integer.toString(numberOfFrames)));
+    writeElement(dicomFile, 0x7FE0, 0x0010, "OB", pixelData);
+    return dicomFile.toByteArray();
+  }
+
+  private static void writeElement(ByteArrayOutputStream outputStream, int group, int element,
+      String vr, byte[] value) {
+    writeShort(outputStream, group);
+    writeShort(outputStream, element);
+    outputStream.write(vr.charAt(0));
+    outputStream.write(vr.charAt(1));
+    if ("OB".equals(vr)) {
+      writeShort(outputStream, 0);
+      outputStream.write(intValue(value.length), 0, 4);
+    } else {
+      writeShort(outputStream, value.length);
+    }
+    outputStream.write(value, 0, value.length);
+  }
+
+  private static void writeShort(ByteArrayOutputStream outputStream, int value) {
+    outputStream.write(value & 0xFF);
+    outputStream.write(value >>> 8 & 0xFF);
+  }
+
+  private static byte[] intValue(int value) {
+    return new byte[] {(byte) value, (byte) (value >>> 8), (byte) (value >>> 16),
+        (byte) (value >>> 24)};
+  }
+
+  // UIDs are padded to an even length with a null byte, other strings with a space
+  private static byte[] uid(String uid) {
+    return (uid.length() % 2 == 0 ? uid : uid + "\0").getBytes(US_ASCII);
+  }
+
+  private static byte[] text(String text) {
+    return (text.length() % 2 == 0 ? text : text + " ").getBytes(US_ASCII);
+  }
+}